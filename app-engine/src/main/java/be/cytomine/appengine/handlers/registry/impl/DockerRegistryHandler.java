@@ -43,7 +43,9 @@ public class DockerRegistryHandler implements RegistryHandler {
     public void pushImage(InputStream imageInputStream, String imageName) throws RegistryException {
         log.info("Docker Registry Handler: pushing image...");
         try {
-            RegistryClient.push(imageInputStream, imageName);
+            RegistryClient.push(imageInputStream, imageName, (blob, uploaded, total) ->
+                log.debug("Docker Registry Handler: {} {}/{} bytes uploaded",
+                    blob.getDigest(), uploaded, total));
             log.info("Docker Registry Handler: image pushed");
         } catch (FileNotFoundException e) {
             log.error("Image data file not found: {}", imageName, e);
@@ -19,14 +19,15 @@ import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -621,89 +622,30 @@ public class TaskProvisioningService {
         Set<Parameter> runTaskOutputs,
         Run run
     ) throws IOException, ProvisioningException {
-        // read files from the archive
+        // read files from the archive, grouping the entries of each output in a single pass
         try (ZipArchiveInputStream zais = new ZipArchiveInputStream(outputsInputStream)) {
             log.info("Posting Outputs Archive: unzipped");
-            List<Parameter> remainingOutputs = new ArrayList<>(runTaskOutputs);
+            Path outputsPath = Path.of(basePath, "/", "task-run-outputs-" + run.getId());
+            String checksumIdentifier = "task-run-outputs-" + run.getId();
+            // outputs by name, a file output is removed once stored
+            Map<String, Parameter> remainingOutputs = new HashMap<>();
+            for (Parameter output : runTaskOutputs) {
+                remainingOutputs.put(output.getName(), output);
+            }
             List<TaskRunParameterValue> taskRunParameterValues = new ArrayList<>();
-            List<StorageData> contentsOfZip = new ArrayList<>();
             List<Parameter> remainingUnStoredOutputs = new ArrayList<>(runTaskOutputs);
-            boolean remainingOutputsAreCollections = true;
+            // stored outputs by path: "name" for a file, "name/" for the directory of a collection
+            Map<String, StorageData> storedOutputs = new HashMap<>();
+            // entries below the directory of each collection output, by output name
+            Map<String, List<StorageDataEntry>> collectionEntries = new HashMap<>();
+            List<Checksum> checksums = new ArrayList<>();
             ZipEntry ze;
             while ((ze = zais.getNextZipEntry()) != null) {
-                // look for output matching file name
-                Parameter currentOutput = null;
-                for (int i = 0; i < remainingOutputs.size(); i++) {
-                    currentOutput = remainingOutputs.get(i);
-                    if (currentOutput.getName().equals(ze.getName())) { // assuming it's a file
-                        remainingOutputs.remove(i);
-                        StorageData parameterZipEntryStorageData;
-                        String outputName = currentOutput.getName();
-                        Path filePath = Path.of(
-                            basePath,
-                            "/",
-                            "task-run-outputs-" + run.getId(),
-                            outputName);
-                        log.info("Posting Outputs Archive: storing {} in storage...",
-                            currentOutput);
-                        Files.createDirectories(filePath.getParent());
-                        Files.copy(zais, filePath, StandardCopyOption.REPLACE_EXISTING);
-                        log.info("Posting Outputs Archive: stored ");
-                        parameterZipEntryStorageData = new StorageData(
-                            filePath.toFile(),
-                            outputName);
-                        // calculate CRC32 for all storage data entry and save it in the database
-                        log.info("Posting Outputs Archive: "
-                            + "calculating CRC32 checksum for zip entry {}",
-                            ze.getName());
-                        calculateCRC32Checksum(run, contentsOfZip, parameterZipEntryStorageData);
-                        break;
-                    }
-                    // assuming it's the main directory of a collection parameter
-                    if (ze.getName().startsWith(currentOutput.getName() + "/")) {
-                        StorageData partialParameterZipEntryStorageData;
-                        if (ze.isDirectory()) {
-                            partialParameterZipEntryStorageData = new StorageData(ze.getName());
-                            contentsOfZip.add(partialParameterZipEntryStorageData);
-                            log.info("Posting Outputs Archive: "
-                                + "creating directory {} in storage...",
-                                ze.getName());
-                            Path directoryPath = Path.of(
-                                basePath,
-                                "/",
-                                "task-run-outputs-" + run.getId(), ze.getName());
-                            log.info("Posting Outputs Archive: created");
-                            Files.createDirectories(directoryPath);
-                        } else {
-                            Path filePath = Path.of(
-                                basePath,
-                                "/",
-                                "task-run-outputs-" + run.getId(),
-                                ze
-                                .getName()
-                                .replace("/", ""));
-                            Files.createDirectories(filePath);
-                            log.info("Posting Outputs Archive: storing {} in storage...",
-                                ze.getName());
-                            Files.copy(zais, filePath, StandardCopyOption.REPLACE_EXISTING);
-                            log.info("Posting Outputs Archive: stored ");
-                            partialParameterZipEntryStorageData = new StorageData(
-                                filePath.toFile(),
-                                ze.getName());
-                            log.info("Posting Outputs Archive: "
-                                + "calculating CRC32 checksum for zip entry {}",
-                                ze.getName());
-                            calculateCRC32Checksum(
-                                run,
-                                contentsOfZip,
-                                partialParameterZipEntryStorageData);
-                        }
-
-                        break;
-                    }
-
-                    currentOutput = null;
-                }
+                // the output is the first element of the path
+                String entryName = ze.getName();
+                int separator = entryName.indexOf('/');
+                String outputName = separator < 0 ? entryName : entryName.substring(0, separator);
+                Parameter currentOutput = remainingOutputs.get(outputName);
 
                 // there's a file that does not match any output parameter
                 if (currentOutput == null) {
@@ -715,15 +657,58 @@ public class TaskProvisioningService {
                     throw new ProvisioningException(error);
                 }
 
+                if (separator < 0) { // assuming it's a file
+                    remainingOutputs.remove(outputName);
+                    Path filePath = outputsPath.resolve(outputName);
+                    log.info("Posting Outputs Archive: storing {} in storage...", currentOutput);
+                    Files.createDirectories(filePath.getParent());
+                    long checksum = copyWithCRC32Checksum(zais, filePath);
+                    log.info("Posting Outputs Archive: stored ");
+                    storedOutputs.put(outputName, new StorageData(filePath.toFile(), outputName));
+                    checksums.add(new Checksum(
+                        UUID.randomUUID(),
+                        checksumIdentifier + "-" + outputName,
+                        checksum));
+                } else if (ze.isDirectory()) { // part of a collection parameter
+                    log.info("Posting Outputs Archive: creating directory {} in storage...",
+                        entryName);
+                    Files.createDirectories(outputsPath.resolve(entryName));
+                    log.info("Posting Outputs Archive: created");
+                    if (entryName.length() == separator + 1) {
+                        // the main directory of the collection
+                        storedOutputs.put(entryName, new StorageData(entryName));
+                    } else {
+                        collectionEntries
+                            .computeIfAbsent(outputName, name -> new ArrayList<>())
+                            .add(new StorageDataEntry(entryName));
+                    }
+                } else {
+                    Path filePath = outputsPath.resolve(entryName.replace("/", ""));
+                    Files.createDirectories(filePath.getParent());
+                    log.info("Posting Outputs Archive: storing {} in storage...", entryName);
+                    long checksum = copyWithCRC32Checksum(zais, filePath);
+                    log.info("Posting Outputs Archive: stored ");
+                    collectionEntries
+                        .computeIfAbsent(outputName, name -> new ArrayList<>())
+                        .add(new StorageDataEntry(
+                            filePath.toFile(),
+                            entryName,
+                            StorageDataType.FILE));
+                    checksums.add(new Checksum(
+                        UUID.randomUUID(),
+                        checksumIdentifier + "-" + entryName,
+                        checksum));
+                }
             }
+            checksumRepository.saveAll(checksums);
 
             // check if remaining outputs are all collections
-            int numberOfCollections = remainingOutputs
+            long numberOfCollections = remainingOutputs
+                .values()
                 .stream()
                 .filter(parameter -> parameter.getType() instanceof CollectionType)
-                .toList()
-                .size();
-            remainingOutputsAreCollections = numberOfCollections > 0
+                .count();
+            boolean remainingOutputsAreCollections = numberOfCollections > 0
                 && numberOfCollections == remainingOutputs.size();
 
             if (!remainingOutputs.isEmpty() && !remainingOutputsAreCollections) {
@@ -736,50 +721,22 @@ public class TaskProvisioningService {
             }
 
             // a compaction step
-            // order by the length of name
-            // to make sure deeper files and directories are merged first
-            contentsOfZip = contentsOfZip
-                .stream()
-                .sorted((s1, s2) -> Integer.compare(
-                    s2.peek().getName().length(),
-                    s1.peek().getName().length())
-                )
-                .toList(); // now immutable
-            List<StorageData> sortedContentsOfZip = new CopyOnWriteArrayList<>(contentsOfZip);
-            // merge StorageData objects together
-            for (StorageData storageData : sortedContentsOfZip) {
-                for (StorageData compared : sortedContentsOfZip) {
-                    if (storageData.equals(compared)) {
-                        continue;
-                    }
-                    if (compared
-                        .peek()
-                        .getName()
-                        .startsWith(storageData.peek().getName())) {
-                        storageData.merge(compared);
-                        sortedContentsOfZip.remove(compared);
-                    }
+            // the entries of a collection are added after its main directory
+            collectionEntries.forEach((outputName, entries) -> {
+                StorageData collection = storedOutputs.get(outputName + "/");
+                if (collection != null) {
+                    collection.getEntryList().addAll(entries);
                 }
-            }
+            });
 
             // prepare an error list just in case
             List<AppEngineError> multipleErrors = new ArrayList<>();
 
             // processing of files
             for (Parameter currentOutput : remainingUnStoredOutputs) {
-                Optional<StorageData> currentOutputStorageDataOptional = sortedContentsOfZip
-                    .stream()
-                    .filter(s -> s
-                    .peek()
-                    .getName()
-                    .equals(
+                StorageData currentOutputStorageData = storedOutputs.get(
                     currentOutput.getType() instanceof CollectionType
-                    ? currentOutput.getName() + "/" : currentOutput.getName()))
-                    .findFirst();
-                StorageData currentOutputStorageData = null;
-                if (currentOutputStorageDataOptional.isPresent()) {
-                    currentOutputStorageData = currentOutputStorageDataOptional.get();
-                }
+                    ? currentOutput.getName() + "/" : currentOutput.getName());
                 // read the file
                 String outputName = currentOutput.getName();
                 // validate files/directories contents and structure
@@ -842,21 +799,14 @@ public class TaskProvisioningService {
         }
     }
 
-    private void calculateCRC32Checksum(
-        Run run,
-        List<StorageData> contentsOfZip,
-        StorageData partialParameterZipEntryStorageData
-    ) throws ProvisioningException {
-        for (StorageDataEntry current : partialParameterZipEntryStorageData.getEntryList()) {
-            try {
-                setChecksumCRC32("task-run-outputs-" + run.getId(),
-                    calculateFileCRC32(current.getData()), current.getName());
-            } catch (IOException e) {
-                AppEngineError error = ErrorBuilder.build(ErrorCode.INTERNAL_CRC32_CALC_FAILED);
-                throw new ProvisioningException(error);
-            }
-        }
-        contentsOfZip.add(partialParameterZipEntryStorageData);
+    /**
+     * Copy the stream to the file, computing the CRC32 checksum of the copied bytes
+     */
+    private long copyWithCRC32Checksum(InputStream inputStream, Path filePath) throws IOException {
+        // not closed, it would close the archive stream
+        CheckedInputStream checkedInputStream = new CheckedInputStream(inputStream, new CRC32());
+        Files.copy(checkedInputStream, filePath, StandardCopyOption.REPLACE_EXISTING);
+        return checkedInputStream.getChecksum().getValue();
     }
 
     private void validateFiles(
@@ -13,6 +13,7 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
@@ -30,7 +31,9 @@ import be.cytomine.appengine.exceptions.FileStorageException;
 import be.cytomine.appengine.exceptions.ProvisioningException;
 import be.cytomine.appengine.handlers.SchedulerHandler;
 import be.cytomine.appengine.handlers.StorageData;
+import be.cytomine.appengine.handlers.StorageDataEntry;
 import be.cytomine.appengine.handlers.StorageHandler;
+import be.cytomine.appengine.models.task.collection.CollectionType;
 import be.cytomine.appengine.models.task.integer.IntegerPersistence;
 import be.cytomine.appengine.repositories.RunRepository;
 import be.cytomine.appengine.repositories.TypePersistenceRepository;
@@ -47,6 +50,7 @@ import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -318,6 +322,61 @@ public class TaskProvisioningServiceTest {
         verify(runRepository, times(1)).saveAndFlush(any(Run.class));
     }
 
+    @DisplayName("Successfully group the entries of each output when saving the outputs archive")
+    @Test
+    public void postOutputsZipArchiveShouldGroupEntriesPerOutput() throws Exception {
+        Parameter out = TaskUtils.createTestOutput("out", false);
+        out.setType(mock(Type.class));
+        Parameter out2 = TaskUtils.createTestOutput("out2", false);
+        out2.setType(mock(Type.class));
+        Parameter collection = TaskUtils.createTestOutput("coll", false);
+        collection.setType(mock(CollectionType.class));
+
+        Task task = TaskUtils.createTestTask(false);
+        task.setParameters(Set.of(out, out2, collection));
+        task.setMatches(new ArrayList<>());
+        Run localRun = TaskUtils.createTestRun(false);
+        localRun.setTask(task);
+        localRun.setState(TaskRunState.RUNNING);
+
+        when(runRepository.findById(localRun.getId())).thenReturn(Optional.of(localRun));
+        taskProvisioningService.setBasePath("/tmp/appengine/storage");
+
+        List<TaskRunParameterValue> results = taskProvisioningService.postOutputsZipArchive(localRun.getId().toString(), localRun.getSecret(),
+            new ByteArrayInputStream(TaskUtils.createFakeOutputsZip("out", "coll/", "coll/0", "coll/1/", "coll/1/0", "coll/1/1", "out2")));
+
+        assertEquals(3, results.size());
+        assertEquals(List.of("out"), entryNames(persistedResult(out, localRun)));
+        assertEquals(List.of("out2"), entryNames(persistedResult(out2, localRun)));
+        StorageData collectionData = persistedResult(collection, localRun);
+        assertEquals("coll/", collectionData.peek().getName());
+        assertEquals(Set.of("coll/", "coll/0", "coll/1/", "coll/1/0", "coll/1/1"), new HashSet<>(entryNames(collectionData)));
+
+        ArgumentCaptor<List<Checksum>> checksums = ArgumentCaptor.forClass(List.class);
+        verify(checksumRepository, times(1)).saveAll(checksums.capture());
+        CRC32 crc32 = new CRC32();
+        crc32.update("42".getBytes());
+        Map<String, Long> expected = new HashMap<>();
+        for (String name : List.of("out", "out2", "coll/0", "coll/1/0", "coll/1/1")) {
+            expected.put("task-run-outputs-" + localRun.getId() + "-" + name, crc32.getValue());
+        }
+        Map<String, Long> saved = new HashMap<>();
+        for (Checksum checksum : checksums.getValue()) {
+            saved.put(checksum.getReference(), checksum.getChecksumCRC32());
+        }
+        assertEquals(expected, saved);
+    }
+
+    private StorageData persistedResult(Parameter output, Run run) throws Exception {
+        ArgumentCaptor<StorageData> storageData = ArgumentCaptor.forClass(StorageData.class);
+        verify(output.getType(), times(1)).persistResult(eq(run), eq(output), storageData.capture());
+        return storageData.getValue();
+    }
+
+    private List<String> entryNames(StorageData storageData) {
+        return storageData.getEntryList().stream().map(StorageDataEntry::getName).toList();
+    }
+
     @DisplayName("Failed to save the outputs archive and throw 'ProvisioningException' when not authenticated")
     @Test
     public void postOutputsZipArchiveShouldThrowProvisioningExceptionWhenNotAuth() throws Exception {
@@ -1,5 +1,7 @@
 package be.cytomine.config;
 
+import be.cytomine.service.middleware.ImageServerClient;
+import org.springframework.boot.web.client.RestTemplateCustomizer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.client.RestTemplate;
@@ -11,4 +13,12 @@ public class RestClientConfig {
     public RestTemplate restTemplate() {
         return new RestTemplate();
     }
+
+    /**
+     * The RestTemplate of ProxyExchange (image server proxy) uses the pooled image server connections
+     */
+    @Bean
+    public RestTemplateCustomizer imageServerRestTemplateCustomizer(ImageServerClient imageServerClient) {
+        return restTemplate -> restTemplate.setRequestFactory(imageServerClient.getRequestFactory());
+    }
 }
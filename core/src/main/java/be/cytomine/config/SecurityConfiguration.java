@@ -18,9 +18,9 @@ package be.cytomine.config;
 
 import be.cytomine.config.security.ApiKeyFilter;
 import be.cytomine.config.security.TemporaryTokenFilter;
-import be.cytomine.repository.security.UserRepository;
 import be.cytomine.service.security.TemporaryAccessTokenService;
 import be.cytomine.service.CurrentUserService;
+import be.cytomine.service.PrincipalCache;
 import be.cytomine.service.security.SecurityACLService;
 import be.cytomine.utils.JwtAuthConverter;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
@@ -43,15 +43,15 @@ import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
 public class SecurityConfiguration {
 
     private final JwtAuthConverter customJwtAuthConverter;
-    private final UserRepository userRepository;
+    private final PrincipalCache principalCache;
     private final TemporaryAccessTokenService temporaryAccessTokenService;
     private final CurrentUserService currentUserService;
-    public SecurityConfiguration(UserRepository userRepository, 
+    public SecurityConfiguration(PrincipalCache principalCache,
                                JwtAuthConverter customJwtAuthConverter,
                                TemporaryAccessTokenService temporaryAccessTokenService,
                                CurrentUserService currentUserService,
                                SecurityACLService securityACLService) {
-        this.userRepository = userRepository;
+        this.principalCache = principalCache;
         this.customJwtAuthConverter = customJwtAuthConverter;
         this.temporaryAccessTokenService = temporaryAccessTokenService;
         this.currentUserService = currentUserService;
@@ -62,7 +62,7 @@ public class SecurityConfiguration {
     public SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
         http
                 .csrf(AbstractHttpConfigurer::disable)
-                .addFilterBefore(new ApiKeyFilter(userRepository), BasicAuthenticationFilter.class) // Deprecated. Kept as transitional in 2024.2
+                .addFilterBefore(new ApiKeyFilter(principalCache), BasicAuthenticationFilter.class) // Deprecated. Kept as transitional in 2024.2
                 .addFilterBefore(new TemporaryTokenFilter(temporaryAccessTokenService, currentUserService), BasicAuthenticationFilter.class)
                 .exceptionHandling((exceptionHandling) ->
                         exceptionHandling
@@ -12,14 +12,19 @@ import org.bson.Document;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.stereotype.Component;
 
+import be.cytomine.service.social.ActivityRollupService;
+
 @Slf4j
 @Component
 public class InitialMongodbSetupMigration {
 
     private final MongoTemplate template;
 
-    public InitialMongodbSetupMigration(MongoTemplate template) {
+    private final ActivityRollupService activityRollupService;
+
+    public InitialMongodbSetupMigration(MongoTemplate template, ActivityRollupService activityRollupService) {
         this.template = template;
+        this.activityRollupService = activityRollupService;
     }
 
     public void changeSet() {
@@ -89,6 +94,19 @@ public class InitialMongodbSetupMigration {
                 new IndexModel(Indexes.compoundIndex(Indexes.ascending("image")), new IndexOptions().name("image_1").version(1))
             )
         );
+
+        // the rollups are back-filled from the raw collections once, when the rollup collection is created
+        if (!template.collectionExists(ActivityRollupService.COLLECTION)) {
+            createCollectionIfNotExists(
+                ActivityRollupService.COLLECTION,
+                List.of(
+                    new IndexModel(Indexes.ascending("_id"), new IndexOptions().name("_id_").version(1)),
+                    new IndexModel(Indexes.compoundIndex(Indexes.ascending("granularity"), Indexes.ascending("project"), Indexes.ascending("time")), new IndexOptions().name("granularity_1_project_1_time_1").version(1)),
+                    new IndexModel(Indexes.compoundIndex(Indexes.ascending("granularity"), Indexes.ascending("user"), Indexes.ascending("time")), new IndexOptions().name("granularity_1_user_1_time_1").version(1))
+                )
+            );
+            activityRollupService.backFill();
+        }
     }
 
     public MongoCollection<Document> createCollectionIfNotExists(String name, List<IndexModel> indexes) {
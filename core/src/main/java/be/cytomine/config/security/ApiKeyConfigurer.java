@@ -16,7 +16,7 @@ package be.cytomine.config.security;
 * limitations under the License.
 */
 
-import be.cytomine.repository.security.UserRepository;
+import be.cytomine.service.PrincipalCache;
 import org.springframework.security.config.annotation.SecurityConfigurerAdapter;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.web.DefaultSecurityFilterChain;
@@ -26,16 +26,16 @@ import org.springframework.security.web.authentication.UsernamePasswordAuthentic
 public class ApiKeyConfigurer extends SecurityConfigurerAdapter<DefaultSecurityFilterChain, HttpSecurity> {
 
 
-    private final UserRepository userRepository;
+    private final PrincipalCache principalCache;
 
 
-    public ApiKeyConfigurer(UserRepository userRepository) {
-        this.userRepository = userRepository;
+    public ApiKeyConfigurer(PrincipalCache principalCache) {
+        this.principalCache = principalCache;
     }
 
     @Override
     public void configure(HttpSecurity http) {
-        ApiKeyFilter customFilter = new ApiKeyFilter(userRepository);
+        ApiKeyFilter customFilter = new ApiKeyFilter(principalCache);
         http.addFilterBefore(customFilter, UsernamePasswordAuthenticationFilter.class);
     }
 }
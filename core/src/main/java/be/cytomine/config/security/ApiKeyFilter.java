@@ -19,7 +19,7 @@ package be.cytomine.config.security;
 import be.cytomine.domain.security.User;
 import be.cytomine.exceptions.AuthenticationException;
 import be.cytomine.exceptions.ForbiddenException;
-import be.cytomine.repository.security.UserRepository;
+import be.cytomine.service.PrincipalCache;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -47,11 +47,20 @@ public class ApiKeyFilter extends OncePerRequestFilter {
 
     private final Logger log = LoggerFactory.getLogger(ApiKeyFilter.class);
 
-    private final UserRepository secUserRepository;
+    // Mac instances are not thread safe and costly to get: one per thread, initialized with the key of each request
+    private static final ThreadLocal<Mac> HMAC_SHA1 = ThreadLocal.withInitial(() -> {
+        try {
+            return Mac.getInstance("HmacSHA1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final PrincipalCache principalCache;
 
 
-    public ApiKeyFilter(UserRepository secUserRepository) {
-        this.secUserRepository = secUserRepository;
+    public ApiKeyFilter(PrincipalCache principalCache) {
+        this.principalCache = principalCache;
     }
 
     public static String generateKeys(String method, String content_md5, String content_type, String date, User user) throws NoSuchAlgorithmException, InvalidKeyException, UnsupportedEncodingException {
@@ -60,7 +69,7 @@ public class ApiKeyFilter extends OncePerRequestFilter {
         String key = user.getPrivateKey();
         SecretKeySpec signingKey = new SecretKeySpec(key.getBytes(), "HmacSHA1");
         // get an hmac_sha1 Mac instance and initialize with the signing key
-        Mac mac = Mac.getInstance("HmacSHA1");
+        Mac mac = HMAC_SHA1.get();
         mac.init(signingKey);
         // compute the hmac on input data bytes
         byte[] rawHmac = mac.doFinal(new String(canonicalHeaders.getBytes(), "UTF-8").getBytes());
@@ -103,7 +112,7 @@ public class ApiKeyFilter extends OncePerRequestFilter {
             String accessKey = authorization.substring(authorization.indexOf(" ") + 1, authorization.indexOf(":"));
             String authorizationSign = authorization.substring(authorization.indexOf(":") + 1);
 
-            Optional<User> user = secUserRepository.findByPublicKeyAndEnabled(accessKey,true);
+            Optional<User> user = principalCache.findEnabledUserByPublicKey(accessKey);
 
             if (user.isEmpty()) {
                 log.debug("User cannot be extracted with accessKey {}", accessKey);
@@ -1,8 +1,8 @@
 package be.cytomine.config.security;
 
-import be.cytomine.domain.security.TemporaryAccessToken;
 import be.cytomine.domain.security.User;
 import be.cytomine.service.CurrentUserService;
+import be.cytomine.service.PrincipalCache;
 import be.cytomine.service.security.TemporaryAccessTokenService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
@@ -60,12 +60,12 @@ public class TemporaryTokenFilter extends OncePerRequestFilter {
                 // 如果能从URI提取到项目ID，则验证令牌是否包含此项目ID
                 if (projectId != null) {
                     log.info("Checking token for project ID: {}", projectId);
-                    Optional<TemporaryAccessToken> tokenOpt = temporaryAccessTokenService.findByTokenKey(accessToken);
+                    Optional<PrincipalCache.TokenGrant> grant = temporaryAccessTokenService.findGrant(accessToken);
                     
-                    if (tokenOpt.isPresent() && temporaryAccessTokenService.isValidToken(accessToken, projectId)) {
+                    if (grant.isPresent() && grant.get().isValid(projectId)) {
                         log.info("Token is valid for project ID: {}", projectId);
                         // 获取真实的User对象
-                        User user = currentUserService.getCurrentUser(tokenOpt.get().getUser().getUsername());
+                        User user = currentUserService.getCurrentUser(grant.get().username());
                         
                         // 创建认证对象，使用User对象作为principal和details，并获取用户的真实角色权限
                         UsernamePasswordAuthenticationToken authentication = new UsernamePasswordAuthenticationToken(
@@ -84,11 +84,11 @@ public class TemporaryTokenFilter extends OncePerRequestFilter {
                 } else {
                     log.info("No project ID found in URI, checking token without project binding");
                     // 如果无法从URI提取项目ID，则验证令牌是否存在且有效（不绑定特定项目）
-                    Optional<TemporaryAccessToken> tokenOpt = temporaryAccessTokenService.findByTokenKey(accessToken);
-                    if (tokenOpt.isPresent() && temporaryAccessTokenService.isValidToken(accessToken)) {
+                    Optional<PrincipalCache.TokenGrant> grant = temporaryAccessTokenService.findGrant(accessToken);
+                    if (grant.isPresent() && grant.get().isValid()) {
                         log.info("Token is valid without project binding");
                         // 获取真实的User对象
-                        User user = currentUserService.getCurrentUser(tokenOpt.get().getUser().getUsername());
+                        User user = currentUserService.getCurrentUser(grant.get().username());
                         
                         // 创建认证对象，使用User对象作为principal和details，并获取用户的真实角色权限
                         UsernamePasswordAuthenticationToken authentication = new UsernamePasswordAuthenticationToken(
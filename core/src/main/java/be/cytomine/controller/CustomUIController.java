@@ -24,15 +24,14 @@ import be.cytomine.domain.project.Project;
 import be.cytomine.domain.security.SecRole;
 import be.cytomine.domain.security.User;
 import be.cytomine.exceptions.ObjectNotFoundException;
-import be.cytomine.exceptions.ServerException;
 import be.cytomine.service.CurrentRoleService;
 import be.cytomine.service.CurrentUserService;
+import be.cytomine.service.LockService;
 import be.cytomine.service.meta.PropertyService;
 import be.cytomine.service.project.ProjectService;
 import be.cytomine.service.security.SecurityACLService;
 import be.cytomine.utils.CommandResponse;
 import be.cytomine.utils.JsonObject;
-import be.cytomine.utils.Lock;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.ResponseEntity;
@@ -61,6 +60,8 @@ public class CustomUIController extends RestCytomineController {
 
     private final ApplicationProperties applicationProperties;
 
+    private final LockService lockService;
+
     static String CUSTOM_UI_PROJECT = "@CUSTOM_UI_PROJECT";
 
     @GetMapping({"/api/custom-ui/config.json", "/custom-ui/config.json"})
@@ -101,33 +102,27 @@ public class CustomUIController extends RestCytomineController {
         Project project = projectService.find(projectId)
                 .orElseThrow(() -> new ObjectNotFoundException("Project", projectId));
 
-        if (Lock.getInstance().lockCustomUI(project)) {
-            try {
-                Optional<Property> optionalProperty = propertyService.findByDomainAndKey(project,CUSTOM_UI_PROJECT);
-                securityACLService.check(project,ADMINISTRATION);
-
-                if(optionalProperty.isEmpty()) {
-                    Property property = new Property();
-                    property.setKey(CUSTOM_UI_PROJECT);
-                    property.setValue(jsonObject.toJsonString());
-                    property.setDomain(project);
-
-                    CommandResponse result = propertyService.add(property.toJsonObject());
-                    responseSuccess((String)((LinkedHashMap)result.getData().get("property")).get("value"));
-                } else {
-                    JsonObject jsonEdit = optionalProperty.get().toJsonObject()
-                            .withChange("value", jsonObject.toJsonString());
-
-                    CommandResponse result = propertyService.update(optionalProperty.get(),jsonEdit);
-                    responseSuccess((String)((LinkedHashMap)result.getData().get("property")).get("value"));
-                }
-
-                return responseSuccess(JsonObject.toJsonString(getProjectConfig(project)));
-            } finally {
-                Lock.getInstance().unlockCustomUI(project);
+        try (LockService.Lease lease = lockService.lockCustomUI(project.getId())) {
+            Optional<Property> optionalProperty = propertyService.findByDomainAndKey(project,CUSTOM_UI_PROJECT);
+            securityACLService.check(project,ADMINISTRATION);
+
+            if(optionalProperty.isEmpty()) {
+                Property property = new Property();
+                property.setKey(CUSTOM_UI_PROJECT);
+                property.setValue(jsonObject.toJsonString());
+                property.setDomain(project);
+
+                CommandResponse result = propertyService.add(property.toJsonObject());
+                responseSuccess((String)((LinkedHashMap)result.getData().get("property")).get("value"));
+            } else {
+                JsonObject jsonEdit = optionalProperty.get().toJsonObject()
+                        .withChange("value", jsonObject.toJsonString());
+
+                CommandResponse result = propertyService.update(optionalProperty.get(),jsonEdit);
+                responseSuccess((String)((LinkedHashMap)result.getData().get("property")).get("value"));
             }
-        } else {
-            throw new ServerException("Cannot acquire lock for custom UI project " + project.getId()  + " , tryLock return false");
+
+            return responseSuccess(JsonObject.toJsonString(getProjectConfig(project)));
         }
     }
 
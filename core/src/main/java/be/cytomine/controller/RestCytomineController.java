@@ -14,6 +14,8 @@ import be.cytomine.service.ModelService;
 import be.cytomine.service.command.TransactionService;
 import be.cytomine.utils.CommandResponse;
 import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.KeysetCursor;
+import be.cytomine.utils.KeysetPage;
 import be.cytomine.utils.OffsetBasedPageRequest;
 import be.cytomine.utils.RequestParams;
 import be.cytomine.utils.Task;
@@ -106,7 +108,7 @@ public abstract class RestCytomineController {
         return SearchParametersUtils.getSearchParameters(retrieveRequestParam());
     }
 
-    private JsonObject buildJsonList(List list, Integer offsetParameter, Integer maxParameter) {
+    private JsonObject buildJsonList(List list, Integer offsetParameter, Integer maxParameter, boolean isFilterRequired) {
 
         Integer offset = offsetParameter != null ? offsetParameter : 0;
         Integer max = (maxParameter != null && maxParameter!=0) ? maxParameter : Integer.MAX_VALUE;
@@ -118,28 +120,70 @@ public abstract class RestCytomineController {
             int maxForCollection = Math.min(list.size() - offset, max);
             subList = list.subList(offset,offset + maxForCollection);
         }
-        return JsonObject.of("collection", subList, "offset", offset, "perPage", Math.min(max, list.size()), "size", list.size(), "totalPages", (int)Math.ceil((double)list.size()/(double)max));
+        return JsonObject.of("collection", convertPageContentToJSON(subList, isFilterRequired), "offset", offset, "perPage", Math.min(max, list.size()), "size", list.size(), "totalPages", (int)Math.ceil((double)list.size()/(double)max));
 
     }
 
-    private JsonObject buildJsonList(Page page, Map<String,String> params) {
+    private JsonObject buildJsonList(Page page, Map<String,String> params, boolean isFilterRequired) {
         // TODO: should we need params if we have page
-        return buildJsonList(page, Integer.parseInt(params.get("offset")), Integer.parseInt(params.get("max")));
+        return buildJsonList(page, Integer.parseInt(params.get("offset")), Integer.parseInt(params.get("max")), isFilterRequired);
     }
 
-    private JsonObject buildJsonList(Page page, Integer offsetParameter, Integer maxParameter) {
+    private JsonObject buildJsonList(Page page, Integer offsetParameter, Integer maxParameter, boolean isFilterRequired) {
         // TODO: should we need params if we have page
-        List finalContent = page.getContent();
-        if (page.getContent().size() > 0 && page.getContent().get(0) instanceof CytomineDomain) {
-            finalContent = convertCytomineDomainListToJSON(page.getContent());
-        } else if (page.getContent().size() > 0 && page.getContent().get(0) instanceof CytomineSocialDomain) {
-            finalContent = convertCytomineSocialDomainListToJSON(page.getContent());
-        }
+        List finalContent = convertPageContentToJSON(page.getContent(), isFilterRequired);
         Integer offset = offsetParameter != null ? offsetParameter : 0;
         Integer max = (maxParameter != null && maxParameter!=0) ? maxParameter : Integer.MAX_VALUE;
+        if (page instanceof KeysetPage) {
+            return buildJsonKeysetList((KeysetPage) page, finalContent, max);
+        }
         return JsonObject.of("collection", finalContent, "offset", offset, "perPage", Math.min(max, page.getContent().size()), "size", page.getTotalElements(), "totalPages", (int)Math.ceil((double)page.getTotalElements()/(double)max));
     }
 
+    /**
+     * Convert the items of a page to json and filter them.
+     * Must only be called with the items of the requested page: domains out of the page are never converted.
+     */
+    private List<Object> convertPageContentToJSON(List content, boolean isFilterRequired) {
+        List<Object> results = new ArrayList<>(content.size());
+        for (Object item : content) {
+            Object json = item;
+            if (item instanceof CytomineDomain) {
+                json = ((CytomineDomain) item).toJsonObject();
+            } else if (item instanceof CytomineSocialDomain) {
+                json = ((CytomineSocialDomain) item).toJsonObject();
+            }
+            if (isFilterRequired) {
+                if (!(json instanceof Map)) {
+                    throw new CytomineMethodNotYetImplementedException("Filter is not working with this class type " + item.getClass());
+                }
+                filterOneElement((Map<String, Object>) json);
+            }
+            results.add(json);
+        }
+        return results;
+    }
+
+    private JsonObject buildJsonKeysetList(KeysetPage page, List finalContent, Integer max) {
+        JsonObject json = JsonObject.of("collection", finalContent, "perPage", Math.min(max, page.getContent().size()), "nextCursor", page.getNextCursor());
+        if (page.isTotalKnown()) {
+            json.put("size", page.getTotalElements());
+            json.put("totalPages", (int)Math.ceil((double)page.getTotalElements()/(double)max));
+        }
+        return json;
+    }
+
+    /**
+     * Get the keyset cursor of the request, or null if the request does not use cursor pagination (offset pagination)
+     */
+    protected KeysetCursor retrieveKeysetCursor() {
+        RequestParams requestParams = retrieveRequestParam();
+        if (!requestParams.containsKey("cursor")) {
+            return null;
+        }
+        return KeysetCursor.decode(requestParams.get("cursor"));
+    }
+
     protected ResponseEntity<String> responseSuccess(Page page) {
         return responseSuccess(page, false);
     }
@@ -148,62 +192,26 @@ public abstract class RestCytomineController {
         RequestParams requestParams = retrieveRequestParam();
         requestParams.putIfAbsent("offset", "0");
         requestParams.putIfAbsent("max", "0");
-        if(isFilterRequired) {
-            if (!page.getContent().isEmpty() && page.getContent().get(0) instanceof Map) {
-                for (Object o : page.getContent()) {
-                    filterOneElement((Map<String,Object>)o);
-                }
-            } else if(!page.getContent().isEmpty()) {
-                throw new CytomineMethodNotYetImplementedException("Filter is not working with this class type " + page.getContent().get(0).getClass());
-            }
-        }
-        return JsonResponseEntity.status(HttpStatus.OK).body(buildJsonList(page, requestParams).toJsonString());
+        return JsonResponseEntity.status(HttpStatus.OK).body(buildJsonList(page, requestParams, isFilterRequired).toJsonString());
     }
 
     protected ResponseEntity<String> responseSuccess(Page page, Integer offsetParameter, Integer maxParameter) {
-        return JsonResponseEntity.status(HttpStatus.OK).body(buildJsonList(page, offsetParameter, maxParameter).toJsonString());
+        return JsonResponseEntity.status(HttpStatus.OK).body(buildJsonList(page, offsetParameter, maxParameter, false).toJsonString());
     }
 
     protected ResponseEntity<String> responseSuccess(Page page, Map<String,String> params) {
-        return JsonResponseEntity.status(HttpStatus.OK).body(buildJsonList(page, params).toJsonString());
+        return JsonResponseEntity.status(HttpStatus.OK).body(buildJsonList(page, params, false).toJsonString());
     }
 
     public ResponseEntity<String> responseSuccess(List list, Long offsetParameter, Long maxParameter) {
         return responseSuccess(list, offsetParameter.intValue(), maxParameter.intValue(), false);
     }
 
+    /**
+     * Build the response for a list: only the items of the requested page (offset/max) are converted to json and filtered.
+     */
     public ResponseEntity<String> responseSuccess(List list, Integer offsetParameter, Integer maxParameter, boolean isFilterRequired) {
-        List filtered = list;
-        if (isFilterRequired) {
-            filtered = new ArrayList();
-            if (!list.isEmpty() && (list.get(0) instanceof CytomineDomain)) {
-                for (Object o : list) {
-                    JsonObject jsonObject = ((CytomineDomain) o).toJsonObject();
-                    filterOneElement(jsonObject);
-                    filtered.add(jsonObject);
-                }
-            } else if (!list.isEmpty() && (list.get(0) instanceof CytomineSocialDomain)) {
-                for (Object o : list) {
-                    JsonObject jsonObject = ((CytomineSocialDomain) o).toJsonObject();
-                    filterOneElement(jsonObject);
-                    filtered.add(jsonObject);
-                }
-            } else if (!list.isEmpty() && list.get(0) instanceof Map) {
-                for (Object o : list) {
-                    Map json = (Map)o;
-                    filterOneElement(json);
-                    filtered.add(json);
-                }
-            }
-        }
-
-        if (filtered.isEmpty() || filtered.get(0) instanceof CytomineDomain) {
-            return responseSuccessDomainList((List<? extends CytomineDomain>) filtered, offsetParameter, maxParameter);
-        } else if (filtered.isEmpty() || filtered.get(0) instanceof CytomineSocialDomain) {
-            return responseSuccessSocialDomainList((List<? extends CytomineSocialDomain>) filtered, offsetParameter, maxParameter);
-        } else {
-            return responseSuccessGenericList(filtered, offsetParameter, maxParameter);
-        }
+        return JsonResponseEntity.status(HttpStatus.OK).body(buildJsonList(list, offsetParameter, maxParameter, isFilterRequired).toJsonString());
     }
 
     public ResponseEntity<String> responseSuccess(List list) {
@@ -215,18 +223,6 @@ public abstract class RestCytomineController {
         return responseSuccess(list, requestParams.getOffset().intValue(), requestParams.getMax().intValue(), isFilterRequired);
     }
 
-    private ResponseEntity<String> responseSuccessDomainList(List<? extends CytomineDomain> list, Integer offsetParameter, Integer maxParameter) {
-        return JsonResponseEntity.status(HttpStatus.OK).body(buildJsonList(convertCytomineDomainListToJSON(list), offsetParameter, maxParameter).toJsonString()); //TODO: perf convert after buildJsonList will avoid converting unused items (out of page)
-    }
-
-    private ResponseEntity<String> responseSuccessSocialDomainList(List<? extends CytomineSocialDomain> list, Integer offsetParameter, Integer maxParameter) {
-        return JsonResponseEntity.status(HttpStatus.OK).body(buildJsonList(convertCytomineSocialDomainListToJSON(list), offsetParameter, maxParameter).toJsonString()); //TODO: perf convert after buildJsonList will avoid converting unused items (out of page)
-    }
-
-    private ResponseEntity<String> responseSuccessGenericList(List list, Integer offsetParameter, Integer maxParameter) {
-        return JsonResponseEntity.status(HttpStatus.OK).body(buildJsonList(list, offsetParameter, maxParameter).toJsonString()); //TODO: perf convert after buildJsonList will avoid converting unused items (out of page)
-    }
-
     protected ResponseEntity<String> responseSuccess(CytomineDomain response, boolean isFilterRequired) {
         JsonObject json = response.toJsonObject();
         if (isFilterRequired) {
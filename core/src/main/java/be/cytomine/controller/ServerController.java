@@ -7,7 +7,9 @@ import be.cytomine.domain.social.PersistentConnection;
 import be.cytomine.repositorynosql.social.LastConnectionRepository;
 import be.cytomine.repositorynosql.social.PersistentConnectionRepository;
 import be.cytomine.service.CurrentUserService;
+import be.cytomine.service.LockService;
 import be.cytomine.service.database.SequenceService;
+import be.cytomine.service.security.SecurityACLService;
 import be.cytomine.utils.JsonObject;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -37,6 +39,10 @@ public class ServerController extends RestCytomineController {
 
     private final SequenceService sequenceService;
 
+    private final LockService lockService;
+
+    private final SecurityACLService securityACLService;
+
     private final PersistentConnectionRepository persistentConnectionRepository;
 
     private final LastConnectionRepository lastConnectionRepository;
@@ -111,4 +117,18 @@ public class ServerController extends RestCytomineController {
         jsonObject.put("serverURL", applicationProperties.getServerURL());
         return ResponseEntity.ok(jsonObject.toJsonString());
     }
+
+    @GetMapping("/server/sequence/statistics.json")
+    public ResponseEntity<String> sequenceStatistics() {
+        log.debug("REST request to get id sequence statistics");
+        securityACLService.checkCurrentUserIsAdmin();
+        return responseSuccess(sequenceService.getStatistics());
+    }
+
+    @GetMapping("/server/lock/statistics.json")
+    public ResponseEntity<String> lockStatistics() {
+        log.debug("REST request to get lock statistics");
+        securityACLService.checkCurrentUserIsAdmin();
+        return responseSuccess(lockService.getStatistics());
+    }
 }
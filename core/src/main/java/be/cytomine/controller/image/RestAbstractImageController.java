@@ -19,6 +19,7 @@ import org.locationtech.jts.io.ParseException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.cloud.gateway.mvc.ProxyExchange;
+import org.springframework.core.io.Resource;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -108,7 +109,7 @@ public class RestAbstractImageController extends RestCytomineController {
 
     // TODO:MIGRATION GET params vs POST params!
     @RequestMapping(value = "/abstractimage/{id}/thumb.{format}", method = {RequestMethod.GET, RequestMethod.POST})
-    public ResponseEntity<byte[]> thumb(
+    public ResponseEntity<Resource> thumb(
             @PathVariable Long id,
             @PathVariable String format,
             @RequestParam(required = false) Boolean refresh,
@@ -118,9 +119,7 @@ public class RestAbstractImageController extends RestCytomineController {
             @RequestParam(required = false) Double contrast,
             @RequestParam(required = false) Double gamma,
             @RequestParam(required = false) String bits,
-            @RequestParam(required = false) String Authorization,
-
-            ProxyExchange<byte[]> proxy
+            @RequestParam(required = false) String Authorization
     ) throws IOException {
         log.debug("REST request get abstractimage {} thumb {}", id, format);
         ImageParameter thumbParameter = new ImageParameter();
@@ -137,12 +136,12 @@ public class RestAbstractImageController extends RestCytomineController {
         AbstractImage abstractImage = abstractImageService.find(id, Authorization)
                 .orElseThrow(() -> new ObjectNotFoundException("AbstractImage", id));
         String etag = getRequestETag();
-        return imageServerService.thumb(sliceCoordinatesService.getReferenceSlice(abstractImage), thumbParameter, etag, proxy);
+        return imageServerService.thumb(sliceCoordinatesService.getReferenceSlice(abstractImage), thumbParameter, etag);
     }
 
 
     @RequestMapping(value = "/abstractimage/{id}/preview.{format}", method = {RequestMethod.GET, RequestMethod.POST})
-    public ResponseEntity<byte[]> preview(
+    public ResponseEntity<Resource> preview(
             @PathVariable Long id,
             @PathVariable String format,
             @RequestParam(defaultValue = "1024", required = false) Integer maxSize,
@@ -150,9 +149,7 @@ public class RestAbstractImageController extends RestCytomineController {
             @RequestParam(required = false) Boolean inverse,
             @RequestParam(required = false) Double contrast,
             @RequestParam(required = false) Double gamma,
-            @RequestParam(required = false) String bits,
-
-            ProxyExchange<byte[]> proxy
+            @RequestParam(required = false) String bits
     ) throws IOException {
         log.debug("REST request get abstractimage {} preview {}", id, format);
         ImageParameter previewParameter = new ImageParameter();
@@ -168,7 +165,7 @@ public class RestAbstractImageController extends RestCytomineController {
         AbstractImage abstractImage = abstractImageService.find(id)
                 .orElseThrow(() -> new ObjectNotFoundException("AbstractImage", id));
         String etag = getRequestETag();
-        return imageServerService.thumb(sliceCoordinatesService.getReferenceSlice(abstractImage), previewParameter, etag, proxy);
+        return imageServerService.thumb(sliceCoordinatesService.getReferenceSlice(abstractImage), previewParameter, etag);
     }
 
 
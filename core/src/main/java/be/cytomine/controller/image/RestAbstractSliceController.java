@@ -18,6 +18,7 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.locationtech.jts.io.ParseException;
 import org.springframework.cloud.gateway.mvc.ProxyExchange;
+import org.springframework.core.io.Resource;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -122,7 +123,7 @@ public class RestAbstractSliceController extends RestCytomineController {
     }
 
     @GetMapping("/abstractslice/{id}/normalized-tile/zoom/{z}/tx/{tx}/ty/{ty}.{format}")
-    public ResponseEntity<byte[]> tile(
+    public ResponseEntity<Resource> tile(
             @PathVariable Long id,
             @PathVariable Long z,
             @PathVariable Long tx,
@@ -136,9 +137,7 @@ public class RestAbstractSliceController extends RestCytomineController {
             @RequestParam(required = false) String minIntensities,
             @RequestParam(required = false) String maxIntensities,
             @RequestParam(required = false) String gammas,
-            @RequestParam(required = false) String colormaps,
-
-            ProxyExchange<byte[]> proxy
+            @RequestParam(required = false) String colormaps
     ) throws IOException {
         /* Request parameter validation is delegated to PIMS to avoid double validation. Moreover, these parameter
         validation is complex as they can accept multiple types: e.g. 'gammas' accept a Double or List<Double> whose
@@ -163,14 +162,14 @@ public class RestAbstractSliceController extends RestCytomineController {
         tileParameters.setColormaps(colormaps);
 
         String etag = getRequestETag();
-        return imageServerService.normalizedTile(abstractSlice, tileParameters, etag, proxy);
+        return imageServerService.normalizedTile(abstractSlice, tileParameters, etag);
     }
 
 
     //
 //    // TODO:MIGRATION GET params vs POST params!
     @RequestMapping(value = "/abstractslice/{id}/thumb.{format}", method = {RequestMethod.GET, RequestMethod.POST})
-    public ResponseEntity<byte[]>thumb(
+    public ResponseEntity<Resource>thumb(
             @PathVariable Long id,
             @PathVariable String format,
             @RequestParam(required = false) Boolean refresh,
@@ -179,9 +178,7 @@ public class RestAbstractSliceController extends RestCytomineController {
             @RequestParam(required = false) Boolean inverse,
             @RequestParam(required = false) Double contrast,
             @RequestParam(required = false) Double gamma,
-            @RequestParam(required = false) String bits,
-
-            ProxyExchange<byte[]> proxy
+            @RequestParam(required = false) String bits
     ) throws IOException {
         log.debug("REST request get abstractslice {} thumb {}", id, format);
         ImageParameter thumbParameter = new ImageParameter();
@@ -198,7 +195,7 @@ public class RestAbstractSliceController extends RestCytomineController {
         AbstractSlice abstractSlice = abstractSliceService.find(id)
                 .orElseThrow(() -> new ObjectNotFoundException("AbstractSlice", id));
         String etag = getRequestETag();
-        return imageServerService.thumb(abstractSlice, thumbParameter, etag, proxy);
+        return imageServerService.thumb(abstractSlice, thumbParameter, etag);
     }
 
     @RequestMapping(value = "/abstractslice/{id}/crop.{format}", method = {RequestMethod.GET, RequestMethod.POST})
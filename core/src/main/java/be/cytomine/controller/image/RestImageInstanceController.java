@@ -30,6 +30,7 @@ import be.cytomine.utils.RequestParams;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.locationtech.jts.io.ParseException;
+import org.springframework.core.io.Resource;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.cloud.gateway.mvc.ProxyExchange;
@@ -134,6 +135,20 @@ public class RestImageInstanceController extends RestCytomineController {
             ImageSearchExtension imageSearchExtension = new ImageSearchExtension();
             imageSearchExtension.setWithLastActivity(withLastActivity);
             return responseSuccess(imageInstanceService.listExtended(project, imageSearchExtension, retrieveSearchParameters(), requestParams.getSort(), requestParams.getOrder(), requestParams.getOffset(), requestParams.getMax()), securityACLService.isFilterRequired(project));
+        } else if (retrieveKeysetCursor() != null) {
+            return responseSuccess(
+                imageInstanceService.list(
+                    project,
+                    retrieveSearchParameters(),
+                    requestParams.getSort(),
+                    requestParams.getOrder(),
+                    retrieveKeysetCursor(),
+                    requestParams.getMax(),
+                    false,
+                    requestParams.getWithImageGroup()
+                ),
+                securityACLService.isFilterRequired(project)
+            );
         } else {
             return responseSuccess(
                 imageInstanceService.list(
@@ -197,7 +212,7 @@ public class RestImageInstanceController extends RestCytomineController {
 
     //    // TODO:MIGRATION GET params vs POST params!
     @RequestMapping(value = "/imageinstance/{id}/thumb.{format}", method = {RequestMethod.GET, RequestMethod.POST})
-    public ResponseEntity<byte[]> thumb(
+    public ResponseEntity<Resource> thumb(
             @PathVariable Long id,
             @PathVariable String format,
             @RequestParam(defaultValue = "512", required = false) Integer maxSize,
@@ -206,9 +221,7 @@ public class RestImageInstanceController extends RestCytomineController {
             @RequestParam(required = false) Double contrast,
             @RequestParam(required = false) Double gamma,
             @RequestParam(required = false) String bits,
-            @RequestParam(required = false) String Authorization,
-
-            ProxyExchange<byte[]> proxy
+            @RequestParam(required = false) String Authorization
     ) throws IOException {
         log.debug("REST request get imageinstance {} thumb {}", id, format);
         ImageParameter thumbParameter = new ImageParameter();
@@ -224,12 +237,12 @@ public class RestImageInstanceController extends RestCytomineController {
                 .orElseThrow(() -> new ObjectNotFoundException("ImageInstance", id));
 
         String etag = getRequestETag();
-        return imageServerService.thumb(imageInstance, thumbParameter, etag, proxy);
+        return imageServerService.thumb(imageInstance, thumbParameter, etag);
     }
 
 
     @RequestMapping(value = "/imageinstance/{id}/preview.{format}", method = {RequestMethod.GET, RequestMethod.POST})
-    public ResponseEntity<byte[]> preview(
+    public ResponseEntity<Resource> preview(
             @PathVariable Long id,
             @PathVariable String format,
             @RequestParam(defaultValue = "1024", required = false) Integer maxSize,
@@ -237,9 +250,7 @@ public class RestImageInstanceController extends RestCytomineController {
             @RequestParam(required = false) Boolean inverse,
             @RequestParam(required = false) Double contrast,
             @RequestParam(required = false) Double gamma,
-            @RequestParam(required = false) String bits,
-
-            ProxyExchange<byte[]> proxy
+            @RequestParam(required = false) String bits
     ) throws IOException {
         log.debug("REST request get imageInstance {} preview {}", id, format);
         ImageParameter previewParameter = new ImageParameter();
@@ -256,7 +267,7 @@ public class RestImageInstanceController extends RestCytomineController {
                 .orElseThrow(() -> new ObjectNotFoundException("ImageInstance", id));
 
         String etag = getRequestETag();
-        return imageServerService.thumb(sliceCoordinatesService.getReferenceSlice(imageInstance.getBaseImage()), previewParameter, etag, proxy);
+        return imageServerService.thumb(sliceCoordinatesService.getReferenceSlice(imageInstance.getBaseImage()), previewParameter, etag);
     }
 
 
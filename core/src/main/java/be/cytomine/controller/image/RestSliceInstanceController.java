@@ -6,6 +6,7 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.locationtech.jts.io.ParseException;
 import org.springframework.cloud.gateway.mvc.ProxyExchange;
+import org.springframework.core.io.Resource;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -88,7 +89,7 @@ public class RestSliceInstanceController extends RestCytomineController {
     }
 
     @GetMapping("/sliceinstance/{id}/normalized-tile/zoom/{z}/tx/{tx}/ty/{ty}.{format}")
-    public ResponseEntity<byte[]> tile(
+    public ResponseEntity<Resource> tile(
             @PathVariable Long id,
             @PathVariable Long z,
             @PathVariable Long tx,
@@ -102,9 +103,7 @@ public class RestSliceInstanceController extends RestCytomineController {
             @RequestParam(required = false) String minIntensities,
             @RequestParam(required = false) String maxIntensities,
             @RequestParam(required = false) String gammas,
-            @RequestParam(required = false) String colormaps,
-
-            ProxyExchange<byte[]> proxy
+            @RequestParam(required = false) String colormaps
     ) throws IOException {
         /* Request parameter validation is delegated to PIMS to avoid double validation. Moreover, these parameter
         validation is complex as they can accept multiple types: e.g. 'gammas' accept a Double or List<Double> whose
@@ -129,12 +128,12 @@ public class RestSliceInstanceController extends RestCytomineController {
         tileParameters.setColormaps(colormaps);
 
         String etag = getRequestETag();
-        return imageServerService.normalizedTile(sliceInstance, tileParameters, etag, proxy);
+        return imageServerService.normalizedTile(sliceInstance, tileParameters, etag);
     }
 
 //    // TODO:MIGRATION GET params vs POST params!
     @RequestMapping(value = "/sliceinstance/{id}/thumb.{format}", method = {RequestMethod.GET, RequestMethod.POST})
-    public ResponseEntity<byte[]> thumb(
+    public ResponseEntity<Resource> thumb(
             @PathVariable Long id,
             @PathVariable String format,
             @RequestParam(required = false) Boolean refresh,
@@ -143,9 +142,7 @@ public class RestSliceInstanceController extends RestCytomineController {
             @RequestParam(required = false) Boolean inverse,
             @RequestParam(required = false) Double contrast,
             @RequestParam(required = false) Double gamma,
-            @RequestParam(required = false) String bits,
-
-            ProxyExchange<byte[]> proxy
+            @RequestParam(required = false) String bits
     ) throws IOException {
         log.debug("REST request get sliceinstance {} thumb {}", id, format);
         ImageParameter thumbParameter = new ImageParameter();
@@ -163,7 +160,7 @@ public class RestSliceInstanceController extends RestCytomineController {
                 .orElseThrow(() -> new ObjectNotFoundException("SliceInstance", id));
 
         String etag = getRequestETag();
-        return imageServerService.thumb(sliceInstance, thumbParameter, etag, proxy);
+        return imageServerService.thumb(sliceInstance, thumbParameter, etag);
     }
 
     @RequestMapping(value = "/sliceinstance/{id}/crop.{format}", method = {RequestMethod.GET, RequestMethod.POST})
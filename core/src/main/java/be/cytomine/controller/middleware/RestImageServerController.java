@@ -1,7 +1,10 @@
 package be.cytomine.controller.middleware;
 
 import be.cytomine.controller.RestCytomineController;
+import be.cytomine.service.middleware.ImageMetadataCache;
+import be.cytomine.service.middleware.ImageResponseCache;
 import be.cytomine.service.middleware.ImageServerService;
+import be.cytomine.service.security.SecurityACLService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.ResponseEntity;
@@ -19,10 +22,30 @@ public class RestImageServerController extends RestCytomineController {
 
     private final ImageServerService imageServerService;
 
+    private final ImageResponseCache imageResponseCache;
+
+    private final ImageMetadataCache imageMetadataCache;
+
+    private final SecurityACLService securityACLService;
+
     @GetMapping("/imageserver/format.json")
     public ResponseEntity<String> allFormats(
     ) throws IOException {
         log.debug("REST request to list allFormats");
         return responseSuccess(imageServerService.formats());
     }
+
+    @GetMapping("/imageserver/cache/statistics.json")
+    public ResponseEntity<String> cacheStatistics() {
+        log.debug("REST request to get image cache statistics");
+        securityACLService.checkCurrentUserIsAdmin();
+        return responseSuccess(imageResponseCache.getStatistics());
+    }
+
+    @GetMapping("/imageserver/metadata-cache/statistics.json")
+    public ResponseEntity<String> metadataCacheStatistics() {
+        log.debug("REST request to get image metadata cache statistics");
+        securityACLService.checkCurrentUserIsAdmin();
+        return responseSuccess(imageMetadataCache.getStatistics());
+    }
 }
@@ -50,6 +50,7 @@ import be.cytomine.service.utils.SimplifyGeometryService;
 import be.cytomine.utils.AnnotationListingBuilder;
 import be.cytomine.utils.GeometryUtils;
 import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.KeysetCursor;
 
 @Slf4j
 @RequiredArgsConstructor
@@ -99,6 +100,16 @@ public class RestAnnotationDomainController extends RestCytomineController {
     public ResponseEntity<String> search() throws IOException {
         JsonObject params = mergeQueryParamsAndBodyParams();
         AnnotationListing annotationListing = annotationListingBuilder.buildAnnotationListing(params);
+        if (params.getJSONAttrBoolean("stream", false)) {
+            response.setStatus(200);
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            annotationListingService.streamGeneric(annotationListing, response.getOutputStream(), params.getJSONAttrLong("offset", 0L), params.getJSONAttrLong("max", 0L));
+            return null;
+        }
+        if (params.containsKey("cursor")) {
+            KeysetCursor cursor = KeysetCursor.decode(params.getJSONAttrStr("cursor"));
+            return responseSuccess(annotationListingService.listGeneric(annotationListing, cursor, params.getJSONAttrLong("max", 0L)));
+        }
         List annotations = annotationListingService.listGeneric(annotationListing);
 
         return responseSuccess(annotations, params.getJSONAttrLong("offset", 0L),params.getJSONAttrLong("max", 0L));
@@ -223,6 +223,7 @@ public class RestReviewedAnnotationController extends RestCytomineController {
      * It support the task functionnality, if task param is set,
      * this method will update its progress status to the task.
      * User can access task status by getting the task info
+     * The reviews are committed by chunks and are not undoable one by one: they are undone with a DELETE on this url
      */
     @RequestMapping(value = "/imageinstance/{image}/annotation/review.json", method = {POST,PUT})
     public ResponseEntity<String> reviewLayer(
@@ -26,6 +26,7 @@ import be.cytomine.service.security.UserService;
 import be.cytomine.service.security.TemporaryAccessTokenService;
 import be.cytomine.service.utils.TaskService;
 import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.KeysetCursor;
 import be.cytomine.utils.Task;
 import be.cytomine.utils.filters.SearchOperation;
 import be.cytomine.utils.filters.SearchParameterEntry;
@@ -93,6 +94,10 @@ public class RestProjectController extends RestCytomineController {
             // 添加项目ID过滤条件
             searchParameterEntryList.add(new SearchParameterEntry("id", SearchOperation.in, projectIds));
             
+            KeysetCursor cursor = retrieveKeysetCursor();
+            if (cursor != null) {
+                return responseSuccess(projectService.list(null, projectSearchExtension, searchParameterEntryList, sort, order, max, cursor));
+            }
             return responseSuccess(projectService.list(null, projectSearchExtension, searchParameterEntryList, sort, order, max, offset));
         } else {
             // 如果没有提供访问令牌，按原始逻辑处理
@@ -106,6 +111,10 @@ public class RestProjectController extends RestCytomineController {
             projectSearchExtension.setWithDescription(withDescription);
             projectSearchExtension.setWithCurrentUserRoles(withCurrentUserRoles);
             List<SearchParameterEntry> searchParameterEntryList = super.retrieveSearchParameters();
+            KeysetCursor cursor = retrieveKeysetCursor();
+            if (cursor != null) {
+                return responseSuccess(projectService.list(user, projectSearchExtension, searchParameterEntryList, sort, order, max, cursor));
+            }
             return responseSuccess(projectService.list(user, projectSearchExtension, searchParameterEntryList, sort, order, max, offset));
         }
     }
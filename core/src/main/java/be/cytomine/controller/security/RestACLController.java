@@ -14,7 +14,9 @@ import be.cytomine.controller.RestCytomineController;
 import be.cytomine.domain.security.User;
 import be.cytomine.exceptions.CytomineException;
 import be.cytomine.exceptions.ObjectNotFoundException;
+import be.cytomine.service.PermissionService;
 import be.cytomine.service.security.AclAuthService;
+import be.cytomine.service.security.SecurityACLService;
 import be.cytomine.utils.JsonObject;
 
 @Slf4j
@@ -27,6 +29,10 @@ public class RestACLController extends RestCytomineController {
 
     private final AclAuthService aclAuthService;
 
+    private final PermissionService permissionService;
+
+    private final SecurityACLService securityACLService;
+
     @GetMapping("/domain/{domainClassName}/{domainIdent}/user/{user}")
     public ResponseEntity<String> getPermission(
             @PathVariable String domainClassName,
@@ -46,4 +52,11 @@ public class RestACLController extends RestCytomineController {
             return ResponseEntity.status(e.code).contentType(MediaType.APPLICATION_JSON).body(JsonObject.of("success", false, "errors", e.msg).toJsonString());
         }
     }
+
+    @GetMapping("/acl/cache/statistics.json")
+    public ResponseEntity<String> getPermissionCacheStatistics() {
+        log.debug("REST request to get permission cache statistics");
+        securityACLService.checkCurrentUserIsAdmin();
+        return responseSuccess(permissionService.getPermissionCacheStatistics());
+    }
 }
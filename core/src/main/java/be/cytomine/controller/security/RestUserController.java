@@ -219,6 +219,13 @@ public class RestUserController extends RestCytomineController {
         return responseSuccess(currentUserService.getCurrentUser());
     }
 
+    @GetMapping("/user/principal/cache/statistics.json")
+    public ResponseEntity<String> getPrincipalCacheStatistics() {
+        log.debug("REST request to get principal cache statistics");
+        securityACLService.checkCurrentUserIsAdmin();
+        return responseSuccess(currentUserService.getPrincipalCacheStatistics());
+    }
+
     //TODO IAM: refactor so that only ADMIN role can create IAM ACCOUNT
 //    @PostMapping("/user.json")
 //    public ResponseEntity<String> createUser(@RequestBody String json) {
@@ -21,6 +21,7 @@ import be.cytomine.service.image.SliceInstanceService;
 import be.cytomine.service.security.UserService;
 import be.cytomine.service.security.SecurityACLService;
 import be.cytomine.service.social.UserPositionService;
+import be.cytomine.service.social.WebSocketFanOut;
 import be.cytomine.utils.JsonObject;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -51,6 +52,8 @@ public class RestUserPositionController extends RestCytomineController {
 
     private final SecurityACLService securityACLService;
 
+    private final WebSocketFanOut webSocketFanOut;
+
     @PostMapping("/imageinstance/{id}/position.json")
     public ResponseEntity<String> addFromImageInstance(
             @PathVariable Long id,
@@ -172,4 +175,11 @@ public class RestUserPositionController extends RestCytomineController {
                 imageInstanceService.find(imageId).orElseThrow(() -> new ObjectNotFoundException("ImageInstance", imageId));
         return responseSuccess(userPositionService.listFollowers(userId, imageInstance.getId()));
     }
+
+    @GetMapping("/position/fan-out/statistics.json")
+    public ResponseEntity<String> getFanOutStatistics() {
+        log.debug("REST request to get position fan-out statistics");
+        securityACLService.checkCurrentUserIsAdmin();
+        return responseSuccess(webSocketFanOut.getStatistics());
+    }
 }
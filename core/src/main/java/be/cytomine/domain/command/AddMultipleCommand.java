@@ -0,0 +1,63 @@
+package be.cytomine.domain.command;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.domain.security.User;
+import be.cytomine.service.ModelService;
+import be.cytomine.utils.CommandResponse;
+import be.cytomine.utils.JsonObject;
+
+import jakarta.persistence.DiscriminatorValue;
+import jakarta.persistence.Entity;
+import java.util.List;
+
+/**
+ * The AddMultipleCommand class is a command that create several domains of the same type at once
+ * The json holds the new domains data in "domains". Undo drops all the domains and redo recreates them.
+ */
+@Entity
+@DiscriminatorValue("be.cytomine.domain.command.AddMultipleCommand")
+public class AddMultipleCommand extends AddCommand {
+
+    public AddMultipleCommand(User currentUser, Transaction transaction) {
+        this.user = currentUser;
+        this.transaction = transaction;
+    }
+
+    public AddMultipleCommand() {
+        super();
+    }
+
+    /**
+     * Process an Add operation for all the domains of this command
+     * @return Message
+     */
+    public CommandResponse execute(ModelService service) {
+        //Save new domains in database
+        CommandResponse response = service.createMultiple((List<JsonObject>) json.get("domains"), printMessage);
+        //Init command domains
+        fillCommandInfoJSON(JsonObject.of("domains", response.getData().get("domains")).toJsonString(), (String)response.getData().get("message"));
+        return response;
+    }
+
+    /**
+     * Data of the domains created by this command
+     */
+    public List<JsonObject> getDomains() {
+        return JsonObject.toJsonObject(data).getJSONAttrListMap("domains").stream().map(JsonObject::new).toList();
+    }
+}
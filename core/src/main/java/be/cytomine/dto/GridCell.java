@@ -0,0 +1,53 @@
+package be.cytomine.dto;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import java.util.Map;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * A cell of the annotation grid aggregation.
+ * The cell (x, y) of a level covers [x * cellSize, (x + 1) * cellSize[ x [y * cellSize, (y + 1) * cellSize[ in image coordinates.
+ */
+@Getter
+@Setter
+public class GridCell {
+
+    Integer level;
+
+    Integer x;
+
+    Integer y;
+
+    Double cellSize;
+
+    Long count;
+
+    /**
+     * Centroid (WKT) of the annotation centroids of the cell
+     */
+    String location;
+
+    Double ratio;
+
+    /**
+     * Number of annotations by term (only if asked)
+     */
+    Map<Long, Long> terms;
+}
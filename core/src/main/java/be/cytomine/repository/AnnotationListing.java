@@ -27,10 +27,12 @@ import be.cytomine.domain.project.Project;
 import be.cytomine.domain.security.User;
 import be.cytomine.exceptions.ObjectNotFoundException;
 import be.cytomine.exceptions.WrongArgumentException;
+import be.cytomine.utils.KeysetCursor;
 import lombok.Getter;
 import lombok.Setter;
 
 import jakarta.persistence.EntityManager;
+import jakarta.persistence.Tuple;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -60,6 +62,11 @@ public abstract class AnnotationListing {
     Long slice = null;
     List<Long> slices = null;
 
+    /**
+     * Images of the slices filter, resolved with their project by container()
+     */
+    List<Long> slicesImages = null;
+
     Long track = null;
     List<Long> tracks = null;
     Long beforeSlice = null;
@@ -108,6 +115,15 @@ public abstract class AnnotationListing {
     Boolean kmeans = false;
     Integer kmeansValue = 3;
 
+    //grid aggregation: count annotations per cell of a grid over the bbox (gridSize = number of cells across the bbox)
+    Boolean grid = false;
+    Integer gridSize = 64;
+    Boolean gridTerms = false;
+
+    //keyset pagination: only annotations after the cursor (in id desc order), at most cursorMax annotations
+    KeysetCursor cursor = null;
+    Long cursorMax = 0L;
+
     abstract String getFrom();
 
     public abstract String getDomainClass();
@@ -174,31 +190,57 @@ public abstract class AnnotationListing {
         } else if (image!=null) {
             return entityManager.find(ImageInstance.class, image).container();
         } else if (images!=null) {
-            List<Project> projectList = new ArrayList<>();
-            for (Long idImage : images) {
-                projectList.add((Project)entityManager.find(ImageInstance.class, idImage).getProject());
+            if (images.isEmpty()) {
+                throw new ObjectNotFoundException("The image has been deleted!");
             }
-            projectList = projectList.stream().distinct().collect(Collectors.toList());
-            if (projectList.size() > 1) {
-                throw new WrongArgumentException("Images from filter must all be from the same project!");
-            }
-            return projectList.stream().findFirst().get();
+            List<Long> projects = entityManager.createQuery(
+                    "SELECT DISTINCT ii.project.id FROM ImageInstance ii WHERE ii.id IN :images", Long.class)
+                    .setParameter("images", images)
+                    .getResultList();
+            return uniqueProject(projects, "Images " + images + " not exist!", "Images from filter must all be from the same project!");
         } else if (slice!=null) {
             return entityManager.find(SliceInstance.class, slice).container();
         } else if (slices!=null) {
-            List<Project> projectList = new ArrayList<>();
-            for (Long idImage : slices) {
-                projectList.add((Project)entityManager.find(SliceInstance.class, idImage).getProject());
-            }
-            projectList = projectList.stream().distinct().collect(Collectors.toList());
-            if (projectList.size() > 1) {
-                throw new WrongArgumentException("Slices from filter must all be from the same project!");
+            if (slices.isEmpty()) {
+                throw new ObjectNotFoundException("The slice has been deleted!");
             }
-            return projectList.stream().findFirst().get();
+            List<Tuple> containers = entityManager.createQuery(
+                    "SELECT DISTINCT si.project.id, si.image.id FROM SliceInstance si WHERE si.id IN :slices", Tuple.class)
+                    .setParameter("slices", slices)
+                    .getResultList();
+            slicesImages = containers.stream().map(x -> x.get(1, Long.class)).distinct().collect(Collectors.toList());
+            List<Long> projects = containers.stream().map(x -> x.get(0, Long.class)).distinct().collect(Collectors.toList());
+            return uniqueProject(projects, "Slices " + slices + " not exist!", "Slices from filter must all be from the same project!");
         }
         throw new WrongArgumentException("There is no project or image or slice filter. We cannot check acl!");
     }
 
+    /**
+     * Check if the request only filters on project/image/slice, creator and bbox.
+     * These are the only dimensions of the annotation grid summary (annotation_grid_cell).
+     */
+    public boolean hasOnlyGridSummaryFilters() {
+        return term == null && terms == null && usersForTerm == null
+                && track == null && tracks == null && beforeSlice == null && afterSlice == null
+                && annotationGroup == null && annotationGroups == null
+                && tag == null && tags == null && reviewUsers == null && parents == null
+                && afterThan == null && beforeThan == null
+                && bboxAnnotation == null && baseAnnotation == null && maxDistanceBaseAnnotation == null
+                && excludedAnnotation == null
+                && !Boolean.TRUE.equals(notReviewedOnly) && !Boolean.TRUE.equals(noTerm) && !Boolean.TRUE.equals(noTag)
+                && !Boolean.TRUE.equals(multipleTerm) && !Boolean.TRUE.equals(noTrack) && !Boolean.TRUE.equals(multipleTrack);
+    }
+
+    private Project uniqueProject(List<Long> projects, String notFoundMessage, String severalProjectsMessage) {
+        if (projects.isEmpty()) {
+            throw new ObjectNotFoundException(notFoundMessage);
+        }
+        if (projects.size() > 1) {
+            throw new WrongArgumentException(severalProjectsMessage);
+        }
+        return entityManager.find(Project.class, projects.get(0));
+    }
+
     /**
      * Generate SQL request string
      */
@@ -254,8 +296,8 @@ public abstract class AnnotationListing {
                         getExcludedAnnotationConst() +
 
                         getBeforeThan() +
-                        getAfterThan() +
-                        createOrderBy();
+                        getAfterThan();
+        whereRequest += getCursorConst(whereRequest) + createOrderBy();
 
         if (term!=null || terms!=null || track!=null || tracks!=null) {
             String request = "SELECT DISTINCT a.*, ";
@@ -585,6 +627,23 @@ public abstract class AnnotationListing {
         }
     }
 
+    /**
+     * Keep only the annotations of the page after the cursor.
+     * Rows are multiplied by term/track/link joins, so the page is selected on distinct annotation ids.
+     */
+    String getCursorConst(String constraints) {
+        if (cursor == null) {
+            return "";
+        }
+        if (track != null || tracks != null || kmeansValue < 3 || (!orderBy.isEmpty() && !orderBy.equals(Map.of("id", "desc")))) {
+            throw new WrongArgumentException("Cursor pagination is only available for annotations sorted by id");
+        }
+        cursor.checkSort("id", "desc");
+        return "AND a.id IN (SELECT DISTINCT a.id " + getFrom() + constraints +
+                (cursor.isStart() ? "" : "AND a.id < " + cursor.getId() + "\n") +
+                "ORDER BY a.id DESC " + (cursorMax != null && cursorMax > 0 ? "LIMIT " + cursorMax : "") + ")\n";
+    }
+
     String getExcludedAnnotationConst() {
         return (excludedAnnotation!=null ? "AND a.id <> " + excludedAnnotation + "\n" : "");
     }
@@ -11,4 +11,6 @@ import be.cytomine.domain.annotation.AnnotationLayer;
 @Repository
 public interface AnnotationRepository extends JpaRepository<Annotation, Long> {
     List<Annotation> findAllByAnnotationLayer(AnnotationLayer layer);
+
+    boolean existsByAnnotationLayer(AnnotationLayer layer);
 }
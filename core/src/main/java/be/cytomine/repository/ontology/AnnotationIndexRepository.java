@@ -44,7 +44,10 @@ public interface AnnotationIndexRepository extends JpaRepository<AnnotationIndex
 
     void deleteAllByUser(User user);
 
-    Optional<AnnotationIndexLightDTO> findOneBySliceInAndUser(List<SliceInstance> slices, User user);
 
-    List<AnnotationIndexLightDTO> findAllBySliceIn(List<SliceInstance> slices);
+    @Query(value = "SELECT COALESCE(SUM(count_annotation), 0) FROM annotation_index WHERE slice_id IN (:slices) AND user_id = :user", nativeQuery = true)
+    Long sumCountAnnotationBySliceIdsAndUser(List<Long> slices, Long user);
+
+    @Query(value = "SELECT COALESCE(SUM(count_reviewed_annotation), 0) FROM annotation_index WHERE slice_id IN (:slices)", nativeQuery = true)
+    Long sumCountReviewedAnnotationBySliceIds(List<Long> slices);
 }
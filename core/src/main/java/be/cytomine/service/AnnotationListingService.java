@@ -1,7 +1,6 @@
 package be.cytomine.service;
 
 import be.cytomine.dto.annotation.AnnotationResult;
-import be.cytomine.dto.image.Point;
 
 /*
  * Copyright (c) 2009-2022. Authors: see NOTICE file.
@@ -21,12 +20,17 @@ import be.cytomine.dto.image.Point;
 
 import be.cytomine.exceptions.WrongArgumentException;
 import be.cytomine.repository.AnnotationListing;
-import be.cytomine.repository.UserAnnotationListing;
 import be.cytomine.service.security.SecurityACLService;
+import be.cytomine.service.utils.AnnotationGridService;
 import be.cytomine.service.utils.KmeansGeometryService;
-import be.cytomine.utils.GisUtils;
-import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.KeysetCursor;
+import be.cytomine.utils.KeysetPage;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import jakarta.persistence.EntityManager;
@@ -34,8 +38,12 @@ import jakarta.persistence.Query;
 import jakarta.persistence.Tuple;
 import jakarta.persistence.TupleElement;
 import jakarta.transaction.Transactional;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.math.BigInteger;
 import java.util.*;
+import java.util.stream.Stream;
 
 import static org.springframework.security.acls.domain.BasePermission.READ;
 
@@ -52,9 +60,40 @@ public class AnnotationListingService {
     @Autowired
     private KmeansGeometryService kmeansGeometryService;
 
+    @Autowired
+    private AnnotationGridService annotationGridService;
+
+    @Value("${application.annotation.listingFetchSize:1000}")
+    private Integer fetchSize;
 
     public List listGeneric(AnnotationListing al) {
+        prepareRequest(al);
+        return executeRequest(al);
+    }
+
+    /**
+     * List annotations with keyset pagination: at most max annotations after the cursor (in id desc order).
+     * The total is not counted, so that each page costs the same whatever its depth.
+     */
+    public KeysetPage<AnnotationResult> listGeneric(AnnotationListing al, KeysetCursor cursor, Long max) {
+        al.setCursor(cursor);
+        al.setCursorMax(max);
+        al.setKmeans(false);
+        al.setGrid(false);
+        List<AnnotationResult> annotations = listGeneric(al);
+        Long lastId = annotations.isEmpty() ? null : (Long) annotations.get(annotations.size() - 1).get("id");
+        return KeysetPage.of(annotations, max, null, "id", "desc", null, lastId);
+    }
+
+    /**
+     * Check ACL and choose the kmeans rule of the listing request
+     */
+    private void prepareRequest(AnnotationListing al) {
         securityACLService.check(al.container(), READ);
+        if (isGridRequest(al)) {
+            // grid aggregation replaces kmeans
+            return;
+        }
         if ((al.getKmeans() != null && al.getKmeans()) && al.getKmeansValue() == null) {
             if (al.getBbox() == null) {
                 throw new WrongArgumentException("If you want to use kmeans, you must provide image bbox:" + al.getBbox());
@@ -64,17 +103,24 @@ public class AnnotationListingService {
                 throw new WrongArgumentException("If you want to use kmeans, you must provide slice Id");
             }
             al.setSlices((al.getSlices() == null || al.getSlices().isEmpty()) ? List.of(al.getSlice()) : al.getSlices());
-            Integer rule = kmeansGeometryService.mustBeReduce(al.getSlices(), al.getUser(), al.getBbox());
+            Integer rule = (al.getSlicesImages() != null) ?
+                    kmeansGeometryService.mustBeReduce(al.getSlices(), al.getSlicesImages(), al.getUser(), al.getBbox()) :
+                    kmeansGeometryService.mustBeReduce(al.getSlices(), al.getUser(), al.getBbox());
             al.setKmeansValue(rule);
         } else if (al.getKmeans() != null && !al.getKmeans()) {
             //no kmeans
             al.setKmeansValue(KmeansGeometryService.FULL);
         }
-        return executeRequest(al);
+    }
+
+    private boolean isGridRequest(AnnotationListing al) {
+        return al.getGrid() != null && al.getGrid();
     }
 
     public List executeRequest(AnnotationListing al) {
-        if (al.getKmeansValue() == KmeansGeometryService.FULL) {
+        if (isGridRequest(al)) {
+            return annotationGridService.aggregate(al);
+        } else if (al.getKmeansValue() == KmeansGeometryService.FULL) {
             return selectGenericAnnotation(al);
         } else if (al.getKmeansValue() == KmeansGeometryService.KMEANSFULL) {
             return kmeansGeometryService.doKeamsFullRequest(al.getAnnotationsRequest());
@@ -84,182 +130,96 @@ public class AnnotationListingService {
     }
 
     /**
-     * Execute request and format result into a list of map
+     * Execute the listing request and write the result page as JSON into the output stream.
+     * Rows are read from a forward-only cursor and folded one annotation at a time, so that the memory
+     * does not depend on the number of annotations.
+     * The JSON has the same content as a list response ("collection", "offset", "perPage", "size", "totalPages").
      */
-    private List<AnnotationResult> selectGenericAnnotation(AnnotationListing al) {
+    public void streamGeneric(AnnotationListing al, OutputStream outputStream, Long offsetParameter, Long maxParameter) throws IOException {
+        prepareRequest(al);
 
-        List<AnnotationResult> data = new ArrayList<>();
-        long lastAnnotationId = -1;
-        long lastTermId = -1;
-        long lastTrackId = -1;
-        long lastGroupId = -1;
-
-        boolean first = true;
-
-        List<String> realColumn = new ArrayList<>();
-        String request = al.getAnnotationsRequest();
-
-        boolean termAsked = false;
-        boolean trackAsked = false;
-        boolean groupAsked = false;
-        List<Long> annotationLinksIds = new ArrayList<>();
-
-        List<String> excludedColumns = List.of(
-                "annotationTerms", "annotationTracks", "userTerm", "x", "y",
-                "annotationLinks", "linkedAnnotations", "linkedImages", "linkedUpdated"
-        );
+        long offset = offsetParameter != null ? offsetParameter : 0;
+        long max = (maxParameter != null && maxParameter != 0) ? maxParameter : Integer.MAX_VALUE;
 
+        try (JsonGenerator generator = new ObjectMapper().getFactory().createGenerator(outputStream, JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("collection");
 
-        Query nativeQuery = entityManager.createNativeQuery(request, Tuple.class);
-        List<Tuple> resultList = nativeQuery.getResultList();
-
-        for (Tuple rowResult : resultList) {
-            Map<String, Object> tuple = new LinkedHashMap<>();
-            for (TupleElement<?> element : rowResult.getElements()) {
-                Object value = rowResult.get(element.getAlias());
-                if (value instanceof BigInteger) {
-                    value = ((BigInteger) value).longValue();
-                }
-                tuple.put(element.getAlias(), value);
-            }
-
-            /**
-             * If an annotation has n multiple term, it will be on "n" lines.
-             * For the first line for this annotation (it.id!=lastAnnotationId), add the annotation data,
-             * For the other lines, we add term data to the last annotation
-             */
-            if ((Long) tuple.get("id") != lastAnnotationId) {
-                termAsked = false;
-                trackAsked = false;
-                groupAsked = false;
-                annotationLinksIds = new ArrayList<>();
-
-                if (first) {
-                    for (String columnName : al.getAllPropertiesName()) {
-                        if (columnExists(tuple, columnName) && !excludedColumns.contains(columnName)) {
-                            realColumn.add(columnName);
-                        }
-                    }
-                    first = false;
-                }
-
-                AnnotationResult item = new AnnotationResult();
-                item.put("class", al.getDomainClass());
-
-                for (String columnName : realColumn) {
-                    item.put(columnName, tuple.get(columnName) != null ? tuple.get(columnName) : tuple.get(columnName.toLowerCase()));
-                }
-
-
-                if (al.getColumnsToPrint().contains("term")) {
-                    termAsked = true;
-                    item.put("term", tuple.get("term") != null ? buildList(tuple.get("term")) : new ArrayList<>());
-                    item.put("userByTerm",
-                            tuple.get("term") != null ?
-                                    buildList(new HashMap<>(JsonObject.of("id", tuple.get("annotationterms"), "term", tuple.get("term"), "user", buildList(tuple.get("userterm"))))) : new ArrayList<>());
-                }
-
-                if (al.getColumnsToPrint().contains("track") && (al instanceof UserAnnotationListing)) {
-                    trackAsked = true;
-                    item.put("track", (tuple.get("track") != null ? buildList(tuple.get("track")) : new ArrayList<>()));
-                    item.put("annotationTrack", (tuple.get("track") != null ? buildList(new HashMap<>(Map.of("id", tuple.get("annotationtracks"), "track", tuple.get("track")))) : new ArrayList<>()));
-                }
-
-                if (al.getColumnsToPrint().contains("group")) {
-                    groupAsked = true;
-                    item.put("group", tuple.get("group"));
-                    item.put("annotationLink", (tuple.get("group") != null ? buildList(new HashMap<>(Map.of(
-                            "id", tuple.get("annotationlinks"),
-                            "annotation", tuple.get("linkedannotations"),
-                            "image", tuple.get("linkedimages"),
-                            "updated", tuple.get("linkedupdated")
-                    ))) : new ArrayList<>()));
-                    annotationLinksIds.add((Long) tuple.get("annotationLinks"));
-                }
-
-                if (al.getColumnsToPrint().contains("gis")) {
-                    item.put("perimeterUnit", tuple.get("perimeterunit") != null ? GisUtils.retrieveUnit((Integer) tuple.get("perimeterunit")) : null);
-                    item.put("areaUnit", tuple.get("areaunit") != null ? GisUtils.retrieveUnit((Integer) tuple.get("areaunit")) : null);
-                    item.put("centroid", new Point((Double) tuple.get("x"), (Double) tuple.get("y")));
-                }
-
-                if(al.getColumnsToPrint().contains("meta")) {
-                    if(al.getClass().getName().contains("UserAnnotation")) {
-                        item.put("cropURL",UrlApi.getUserAnnotationCropWithAnnotationId((Long)tuple.get("id"), "png"));
-                        item.put("smallCropURL",UrlApi.getUserAnnotationCropWithAnnotationIdWithMaxSize((Long)tuple.get("id"), 256, "png"));
-                        item.put("url",UrlApi.getUserAnnotationCropWithAnnotationId((Long)tuple.get("id"), "png"));
-                        item.put("imageURL",UrlApi.getAnnotationURL((Long)tuple.get("project"), (Long)tuple.get("image"), (Long)tuple.get("id")));
-                    }  else if(al.getClass().getName().contains("ReviewedAnnotation")) {
-                        item.put("cropURL",UrlApi.getReviewedAnnotationCropWithAnnotationId((Long)tuple.get("id"), "png"));
-                        item.put("smallCropURL",UrlApi.getReviewedAnnotationCropWithAnnotationIdWithMaxSize((Long)tuple.get("id"), 256, "png"));
-                        item.put("url",UrlApi.getReviewedAnnotationCropWithAnnotationId((Long)tuple.get("id"), "png"));
-                        item.put("imageURL",UrlApi.getAnnotationURL((Long)tuple.get("project"), (Long)tuple.get("image"), (Long)tuple.get("id")));
-                    }
-                }
-                data.add(item);
+            long size;
+            if (!isGridRequest(al) && al.getKmeansValue() == KmeansGeometryService.FULL) {
+                size = streamGenericAnnotation(al, generator, offset, max);
             } else {
-                AnnotationResult lastResult = data.get(data.size() - 1);
-                if (termAsked && tuple.get("term") != null) {
-                    List lasResultUserByTerm = (List) lastResult.get("userByTerm");
-                    Map userByTerm = (Map) (lasResultUserByTerm).get(lasResultUserByTerm.size() - 1);
-                    List term = ((List) lastResult.get("term"));
-                    if ((Long) tuple.get("term") == lastTermId) {
-                        if (!((List) (userByTerm.get("user"))).contains(tuple.get("userterm"))) {
-                            ((List) (userByTerm.get("user"))).add(tuple.get("userterm"));
-                        }
-                    } else if (!term.contains(tuple.get("term"))) {
-                        ((List) (lastResult.get("term"))).add(tuple.get("term"));
-                        ((List) lastResult.get("userByTerm")).add(new HashMap<>(Map.of("id", tuple.get("annotationterms"), "term", tuple.get("term"), "user", buildList(tuple.get("userterm")))));
-                    }
-                }
-
-                if (trackAsked && tuple.get("track") != null && (long) tuple.get("track") != lastTrackId && !((List) lastResult.get("track")).contains(tuple.get("track"))) {
-                    ((List) lastResult.get("track")).add(tuple.get("track"));
-                    ((List) lastResult.get("annotationTrack")).add(new HashMap<>(Map.of("id", tuple.get("annotationtracks"), "track", tuple.get("track"))));
-                }
-
-                if (groupAsked && tuple.get("group") != null
-                        && (long) tuple.get("group") == lastGroupId
-                        && !annotationLinksIds.contains(tuple.get("annotationlinks"))
-                ) {
-                    annotationLinksIds.add((Long) tuple.get("annotationlinks"));
-                    ((List) lastResult.get("annotationLink")).add(new HashMap<>(Map.of(
-                            "id", tuple.get("annotationlinks"),
-                            "annotation", tuple.get("linkedannotations"),
-                            "image", tuple.get("linkedimages"),
-                            "updated", tuple.get("linkedupdated")
-                    )));
+                List kmeans = executeRequest(al);
+                for (long i = offset; i < kmeans.size() && i < offset + max; i++) {
+                    generator.writeObject(kmeans.get((int) i));
                 }
+                size = kmeans.size();
             }
 
-            if (termAsked) {
-                lastTermId = (tuple.get("term") != null ? (long) tuple.get("term") : -1);
-            }
-
-            if (trackAsked) {
-                lastTrackId = (tuple.get("track") != null ? (long) tuple.get("track") : -1);
-            }
+            generator.writeEndArray();
+            generator.writeNumberField("offset", offset);
+            generator.writeNumberField("perPage", Math.min(max, size));
+            generator.writeNumberField("size", size);
+            generator.writeNumberField("totalPages", (int) Math.ceil((double) size / (double) max));
+            generator.writeEndObject();
+        }
+    }
 
-            if (groupAsked) {
-                lastGroupId = (tuple.get("group") != null ? (long) tuple.get("group") : -1);
-            }
+    /**
+     * Execute request and format result into a list of map
+     */
+    private List<AnnotationResult> selectGenericAnnotation(AnnotationListing al) {
+        List<AnnotationResult> data = new ArrayList<>();
+        AnnotationResultFolder folder = new AnnotationResultFolder(al, data::add);
 
-            lastAnnotationId = (long) tuple.get("id");
+        Query nativeQuery = entityManager.createNativeQuery(al.getAnnotationsRequest(), Tuple.class);
+        List<Tuple> resultList = nativeQuery.getResultList();
+        for (Tuple rowResult : resultList) {
+            folder.accept(toRow(rowResult));
         }
+        folder.finish();
 
         return data;
     }
 
-    private boolean columnExists(Map<String, Object> tuple, String columnName) {
-        return tuple.get(columnName) != null || tuple.get(columnName.toLowerCase()) != null;
+    /**
+     * Execute request on a cursor and write each annotation of the page as soon as all its rows are read.
+     * Return the total number of annotations.
+     */
+    private long streamGenericAnnotation(AnnotationListing al, JsonGenerator generator, long offset, long max) throws IOException {
+        long[] count = {0};
+        AnnotationResultFolder folder = new AnnotationResultFolder(al, item -> {
+            long index = count[0]++;
+            if (index >= offset && index < offset + max) {
+                try {
+                    generator.writeObject(item);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+
+        Query nativeQuery = entityManager.createNativeQuery(al.getAnnotationsRequest(), Tuple.class);
+        nativeQuery.setHint(HibernateHints.HINT_FETCH_SIZE, fetchSize);
+        nativeQuery.setHint(HibernateHints.HINT_READ_ONLY, true);
+        try (Stream<Tuple> rows = nativeQuery.getResultStream()) {
+            rows.forEach(rowResult -> folder.accept(toRow(rowResult)));
+            folder.finish();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return count[0];
     }
 
-    List buildList(Object firstElement) {
-        if (firstElement==null) {
-            return new ArrayList();
+    private Map<String, Object> toRow(Tuple rowResult) {
+        Map<String, Object> tuple = new LinkedHashMap<>();
+        for (TupleElement<?> element : rowResult.getElements()) {
+            Object value = rowResult.get(element.getAlias());
+            if (value instanceof BigInteger) {
+                value = ((BigInteger) value).longValue();
+            }
+            tuple.put(element.getAlias(), value);
         }
-        List list = new ArrayList();
-        list.add(firstElement);
-        return list;
+        return tuple;
     }
 }
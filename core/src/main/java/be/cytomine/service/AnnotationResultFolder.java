@@ -0,0 +1,225 @@
+package be.cytomine.service;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import be.cytomine.dto.annotation.AnnotationResult;
+import be.cytomine.dto.image.Point;
+import be.cytomine.repository.AnnotationListing;
+import be.cytomine.repository.UserAnnotationListing;
+import be.cytomine.utils.GisUtils;
+import be.cytomine.utils.JsonObject;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Fold the rows of an annotation listing request into annotation results.
+ *
+ * If an annotation has n terms (or tracks, or linked annotations), it will be on "n" consecutive rows.
+ * The first row of an annotation opens a new result, the other rows add term/track/link data to it.
+ * A result is only given to the sink once all its rows have been read, so that the folder only keeps
+ * the current annotation in memory, whatever the size of the request.
+ */
+public class AnnotationResultFolder {
+
+    private static final List<String> EXCLUDED_COLUMNS = List.of(
+            "annotationTerms", "annotationTracks", "userTerm", "x", "y",
+            "annotationLinks", "linkedAnnotations", "linkedImages", "linkedUpdated"
+    );
+
+    private final AnnotationListing al;
+
+    private final Consumer<AnnotationResult> sink;
+
+    private final List<String> realColumn = new ArrayList<>();
+
+    private boolean first = true;
+
+    private AnnotationResult current = null;
+
+    private long lastAnnotationId = -1;
+    private long lastTermId = -1;
+    private long lastTrackId = -1;
+    private long lastGroupId = -1;
+
+    private boolean termAsked = false;
+    private boolean trackAsked = false;
+    private boolean groupAsked = false;
+    private List<Long> annotationLinksIds = new ArrayList<>();
+
+    public AnnotationResultFolder(AnnotationListing al, Consumer<AnnotationResult> sink) {
+        this.al = al;
+        this.sink = sink;
+    }
+
+    /**
+     * Add a row (column alias => value) of the listing request
+     */
+    public void accept(Map<String, Object> tuple) {
+        if ((Long) tuple.get("id") != lastAnnotationId) {
+            flush();
+            termAsked = false;
+            trackAsked = false;
+            groupAsked = false;
+            annotationLinksIds = new ArrayList<>();
+
+            if (first) {
+                for (String columnName : al.getAllPropertiesName()) {
+                    if (columnExists(tuple, columnName) && !EXCLUDED_COLUMNS.contains(columnName)) {
+                        realColumn.add(columnName);
+                    }
+                }
+                first = false;
+            }
+            current = openResult(tuple);
+        } else {
+            mergeIntoCurrent(tuple);
+        }
+
+        if (termAsked) {
+            lastTermId = (tuple.get("term") != null ? (long) tuple.get("term") : -1);
+        }
+
+        if (trackAsked) {
+            lastTrackId = (tuple.get("track") != null ? (long) tuple.get("track") : -1);
+        }
+
+        if (groupAsked) {
+            lastGroupId = (tuple.get("group") != null ? (long) tuple.get("group") : -1);
+        }
+
+        lastAnnotationId = (long) tuple.get("id");
+    }
+
+    /**
+     * Give the last annotation to the sink. Must be called once all rows have been read.
+     */
+    public void finish() {
+        flush();
+    }
+
+    private void flush() {
+        if (current != null) {
+            sink.accept(current);
+            current = null;
+        }
+    }
+
+    private AnnotationResult openResult(Map<String, Object> tuple) {
+        AnnotationResult item = new AnnotationResult();
+        item.put("class", al.getDomainClass());
+
+        for (String columnName : realColumn) {
+            item.put(columnName, tuple.get(columnName) != null ? tuple.get(columnName) : tuple.get(columnName.toLowerCase()));
+        }
+
+        if (al.getColumnsToPrint().contains("term")) {
+            termAsked = true;
+            item.put("term", tuple.get("term") != null ? buildList(tuple.get("term")) : new ArrayList<>());
+            item.put("userByTerm",
+                    tuple.get("term") != null ?
+                            buildList(new HashMap<>(JsonObject.of("id", tuple.get("annotationterms"), "term", tuple.get("term"), "user", buildList(tuple.get("userterm"))))) : new ArrayList<>());
+        }
+
+        if (al.getColumnsToPrint().contains("track") && (al instanceof UserAnnotationListing)) {
+            trackAsked = true;
+            item.put("track", (tuple.get("track") != null ? buildList(tuple.get("track")) : new ArrayList<>()));
+            item.put("annotationTrack", (tuple.get("track") != null ? buildList(new HashMap<>(Map.of("id", tuple.get("annotationtracks"), "track", tuple.get("track")))) : new ArrayList<>()));
+        }
+
+        if (al.getColumnsToPrint().contains("group")) {
+            groupAsked = true;
+            item.put("group", tuple.get("group"));
+            item.put("annotationLink", (tuple.get("group") != null ? buildList(new HashMap<>(Map.of(
+                    "id", tuple.get("annotationlinks"),
+                    "annotation", tuple.get("linkedannotations"),
+                    "image", tuple.get("linkedimages"),
+                    "updated", tuple.get("linkedupdated")
+            ))) : new ArrayList<>()));
+            annotationLinksIds.add((Long) tuple.get("annotationLinks"));
+        }
+
+        if (al.getColumnsToPrint().contains("gis")) {
+            item.put("perimeterUnit", tuple.get("perimeterunit") != null ? GisUtils.retrieveUnit((Integer) tuple.get("perimeterunit")) : null);
+            item.put("areaUnit", tuple.get("areaunit") != null ? GisUtils.retrieveUnit((Integer) tuple.get("areaunit")) : null);
+            item.put("centroid", new Point((Double) tuple.get("x"), (Double) tuple.get("y")));
+        }
+
+        if(al.getColumnsToPrint().contains("meta")) {
+            if(al.getClass().getName().contains("UserAnnotation")) {
+                item.put("cropURL",UrlApi.getUserAnnotationCropWithAnnotationId((Long)tuple.get("id"), "png"));
+                item.put("smallCropURL",UrlApi.getUserAnnotationCropWithAnnotationIdWithMaxSize((Long)tuple.get("id"), 256, "png"));
+                item.put("url",UrlApi.getUserAnnotationCropWithAnnotationId((Long)tuple.get("id"), "png"));
+                item.put("imageURL",UrlApi.getAnnotationURL((Long)tuple.get("project"), (Long)tuple.get("image"), (Long)tuple.get("id")));
+            }  else if(al.getClass().getName().contains("ReviewedAnnotation")) {
+                item.put("cropURL",UrlApi.getReviewedAnnotationCropWithAnnotationId((Long)tuple.get("id"), "png"));
+                item.put("smallCropURL",UrlApi.getReviewedAnnotationCropWithAnnotationIdWithMaxSize((Long)tuple.get("id"), 256, "png"));
+                item.put("url",UrlApi.getReviewedAnnotationCropWithAnnotationId((Long)tuple.get("id"), "png"));
+                item.put("imageURL",UrlApi.getAnnotationURL((Long)tuple.get("project"), (Long)tuple.get("image"), (Long)tuple.get("id")));
+            }
+        }
+        return item;
+    }
+
+    private void mergeIntoCurrent(Map<String, Object> tuple) {
+        AnnotationResult lastResult = current;
+        if (termAsked && tuple.get("term") != null) {
+            List lasResultUserByTerm = (List) lastResult.get("userByTerm");
+            Map userByTerm = (Map) (lasResultUserByTerm).get(lasResultUserByTerm.size() - 1);
+            List term = ((List) lastResult.get("term"));
+            if ((Long) tuple.get("term") == lastTermId) {
+                if (!((List) (userByTerm.get("user"))).contains(tuple.get("userterm"))) {
+                    ((List) (userByTerm.get("user"))).add(tuple.get("userterm"));
+                }
+            } else if (!term.contains(tuple.get("term"))) {
+                ((List) (lastResult.get("term"))).add(tuple.get("term"));
+                ((List) lastResult.get("userByTerm")).add(new HashMap<>(Map.of("id", tuple.get("annotationterms"), "term", tuple.get("term"), "user", buildList(tuple.get("userterm")))));
+            }
+        }
+
+        if (trackAsked && tuple.get("track") != null && (long) tuple.get("track") != lastTrackId && !((List) lastResult.get("track")).contains(tuple.get("track"))) {
+            ((List) lastResult.get("track")).add(tuple.get("track"));
+            ((List) lastResult.get("annotationTrack")).add(new HashMap<>(Map.of("id", tuple.get("annotationtracks"), "track", tuple.get("track"))));
+        }
+
+        if (groupAsked && tuple.get("group") != null
+                && (long) tuple.get("group") == lastGroupId
+                && !annotationLinksIds.contains(tuple.get("annotationlinks"))
+        ) {
+            annotationLinksIds.add((Long) tuple.get("annotationlinks"));
+            ((List) lastResult.get("annotationLink")).add(new HashMap<>(Map.of(
+                    "id", tuple.get("annotationlinks"),
+                    "annotation", tuple.get("linkedannotations"),
+                    "image", tuple.get("linkedimages"),
+                    "updated", tuple.get("linkedupdated")
+            )));
+        }
+    }
+
+    private boolean columnExists(Map<String, Object> tuple, String columnName) {
+        return tuple.get(columnName) != null || tuple.get(columnName.toLowerCase()) != null;
+    }
+
+    static List buildList(Object firstElement) {
+        if (firstElement==null) {
+            return new ArrayList();
+        }
+        List list = new ArrayList();
+        list.add(firstElement);
+        return list;
+    }
+}
@@ -146,7 +146,9 @@ public class CommandService {
 
     private CommandResponse performUndo(Command command) {
         ModelService modelService = loadCorrespondingModelService(command);
-        if (command instanceof AddCommand) {
+        if (command instanceof AddMultipleCommand) {
+            return modelService.destroyMultiple(((AddMultipleCommand) command).getDomains(), command.isPrintMessage());
+        } else if (command instanceof AddCommand) {
             return modelService.destroy(JsonObject.toJsonObject(command.getData()), command.isPrintMessage());
         } else if (command instanceof EditCommand) {
             return modelService.edit(JsonObject.toJsonObject(command.getData()).extractProperty("previous" + ((EditCommand) command).domainName()), command.isPrintMessage());
@@ -217,7 +219,9 @@ public class CommandService {
 
     private CommandResponse performRedo(Command command) {
         ModelService modelService = loadCorrespondingModelService(command);
-        if (command instanceof AddCommand) {
+        if (command instanceof AddMultipleCommand) {
+            return modelService.createMultiple(((AddMultipleCommand) command).getDomains(), command.isPrintMessage());
+        } else if (command instanceof AddCommand) {
             return modelService.create(JsonObject.toJsonObject(command.getData()), command.isPrintMessage());
         } else if (command instanceof EditCommand) {
             return modelService.edit(JsonObject.toJsonObject(command.getData()).extractProperty("new" + ((EditCommand) command).domainName()), command.isPrintMessage());
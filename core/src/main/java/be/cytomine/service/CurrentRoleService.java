@@ -20,7 +20,7 @@ import be.cytomine.domain.security.SecRole;
 import be.cytomine.domain.security.User;
 import be.cytomine.exceptions.ForbiddenException;
 import be.cytomine.repository.security.SecUserSecRoleRepository;
-import be.cytomine.utils.WeakConcurrentHashMap;
+import be.cytomine.utils.ExpiringMap;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
@@ -40,7 +40,7 @@ public class CurrentRoleService {
     @Autowired
     private SecUserSecRoleRepository secSecUserSecRoleRepository;
 
-    public Map<String, Date> currentAdmins = new WeakConcurrentHashMap<>(120 * 60 * 1000); //admin session = 120 min max
+    public ExpiringMap<String, Date> currentAdmins = new ExpiringMap<>(120 * 60 * 1000); //admin session = 120 min max
 
     public void clearAllAdminSession() {
         currentAdmins.clear();
@@ -19,10 +19,10 @@ package be.cytomine.service;
 import be.cytomine.domain.security.User;
 import be.cytomine.exceptions.ObjectNotFoundException;
 import be.cytomine.exceptions.ServerException;
-import be.cytomine.repository.security.UserRepository;
 import be.cytomine.security.current.CurrentUser;
 import be.cytomine.security.current.FullCurrentUser;
 import be.cytomine.security.current.PartialCurrentUser;
+import be.cytomine.utils.JsonObject;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.core.Authentication;
@@ -41,7 +41,7 @@ import java.util.Optional;
 public class CurrentUserService {
 
     @Autowired
-    private UserRepository userRepository;
+    private PrincipalCache principalCache;
 
     public String getCurrentUsername() {
         CurrentUser currentUser = getSecurityCurrentUser().orElseThrow(() -> new ServerException("Cannot read current user"));
@@ -58,7 +58,7 @@ public class CurrentUserService {
         if (currentUser.isFullObjectProvided()) {
             user = currentUser.getUser();
         } else if(currentUser.isUsernameProvided()) {
-            user = userRepository.findByUsernameLikeIgnoreCase(currentUser.getUser().getUsername()).orElseThrow(() -> new ServerException("Cannot find current user with username " + currentUser.getUser().getUsername()));
+            user = principalCache.findUserByUsername(currentUser.getUser().getUsername()).orElseThrow(() -> new ServerException("Cannot find current user with username " + currentUser.getUser().getUsername()));
         } else {
             throw new ObjectNotFoundException("User", "Cannot read current user. Object " + currentUser + " is not supported");
         }
@@ -66,7 +66,11 @@ public class CurrentUserService {
     }
 
     public User getCurrentUser(String username) {
-        return userRepository.findByUsernameLikeIgnoreCase(username).orElseThrow(() -> new ServerException("Cannot find current user with username " + username));
+        return principalCache.findUserByUsername(username).orElseThrow(() -> new ServerException("Cannot find current user with username " + username));
+    }
+
+    public JsonObject getPrincipalCacheStatistics() {
+        return principalCache.getStatistics();
     }
 
     public static Optional<CurrentUser> getSecurityCurrentUser() {
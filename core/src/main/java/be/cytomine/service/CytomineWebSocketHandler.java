@@ -1,7 +1,6 @@
 package be.cytomine.service;
 
 import be.cytomine.exceptions.ServerException;
-import be.cytomine.utils.Lock;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
@@ -14,18 +13,14 @@ import java.util.Map;
 @Slf4j
 public abstract class CytomineWebSocketHandler extends TextWebSocketHandler {
 
+    protected abstract LockService getLockService();
+
     public Map<String, ConcurrentWebSocketSessionDecorator[]> afterConnectionEstablished(WebSocketSession session, Map<String, ConcurrentWebSocketSessionDecorator[]> sessions) {
         ConcurrentWebSocketSessionDecorator sessionDecorator = new ConcurrentWebSocketSessionDecorator(session, 1000, 8192);
         String userId = session.getAttributes().get("userId").toString();
 
-        if(Lock.getInstance().lockUsedWsSession(userId)){
-            try{
-                addSessionToSessionsList(userId, sessionDecorator, sessions);
-            } finally {
-                Lock.getInstance().unlockUserWsSession(userId);
-            }
-        } else {
-            throw new ServerException("Cannot acquire lock for websocket sessions of user " + userId  + " , tryLock return false");
+        try (LockService.Lease lease = getLockService().lockWebSocketSessions(userId)) {
+            addSessionToSessionsList(userId, sessionDecorator, sessions);
         }
 
         return sessions;
@@ -0,0 +1,344 @@
+package be.cytomine.service;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.exceptions.ServerException;
+import be.cytomine.utils.JsonObject;
+import com.zaxxer.hikari.HikariDataSource;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Mutual exclusion on a project (image deletion), on the custom UI of a project and on the websocket sessions of a
+ * user.
+ *
+ * Keys are hashed on a fixed number of fair locks (stripes), so the memory does not grow with the number of projects
+ * or users and the waiting threads acquire a lock in arrival order. Two keys on the same stripe exclude each other,
+ * which is harmless with enough stripes.
+ *
+ * With several replicas, the distributed backend also takes a PostgreSQL session advisory lock on a connection held
+ * by the lease (advisory locks are granted in request order as well). The connections come from a small pool of
+ * maxConnections dedicated to the locks, so that held locks never exhaust the pool of the application, and the lock is
+ * released when the lease is closed, not when the current transaction ends. The websocket sessions are local to a
+ * replica and are only locked locally.
+ *
+ * A lease is released by closing it, in a try-with-resources.
+ */
+@Slf4j
+@Service
+public class LockService {
+
+    public static final String PROJECT = "project";
+
+    public static final String CUSTOM_UI = "customUI";
+
+    public static final String WEBSOCKET_SESSIONS = "websocketSessions";
+
+    // pool of the connections holding the advisory locks, null if the locks are not distributed
+    private final HikariDataSource dataSource;
+
+    private final ReentrantLock[] stripes;
+
+    private final long timeoutInNanos;
+
+    private final boolean distributed;
+
+    private final Map<String, Metrics> metrics = new ConcurrentHashMap<>();
+
+    // held locks, key -> "namespace/id"
+    private final Map<String, Holder> holders = new ConcurrentHashMap<>();
+
+    // distributed locks held by the current thread, a reentrant lease does not lock again
+    private final ThreadLocal<Set<String>> distributedKeys = ThreadLocal.withInitial(HashSet::new);
+
+    public LockService(
+            DataSourceProperties dataSourceProperties,
+            @Value("${application.lock.stripes:256}") int stripes,
+            @Value("${application.lock.timeoutInSeconds:60}") long timeoutInSeconds,
+            @Value("${application.lock.distributed:false}") boolean distributed,
+            @Value("${application.lock.maxConnections:8}") int maxConnections) {
+        if (distributed) {
+            dataSource = dataSourceProperties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+            dataSource.setPoolName("Lock");
+            dataSource.setMaximumPoolSize(Math.max(1, maxConnections));
+            dataSource.setMinimumIdle(0);
+            dataSource.setAutoCommit(true);
+            dataSource.setConnectionTimeout(TimeUnit.SECONDS.toMillis(Math.max(1, timeoutInSeconds)));
+        } else {
+            dataSource = null;
+        }
+        this.stripes = new ReentrantLock[Math.max(1, stripes)];
+        for (int i = 0; i < this.stripes.length; i++) {
+            this.stripes[i] = new ReentrantLock(true);
+        }
+        this.timeoutInNanos = TimeUnit.SECONDS.toNanos(timeoutInSeconds);
+        this.distributed = distributed;
+    }
+
+    @PreDestroy
+    public void close() {
+        if (dataSource != null) {
+            dataSource.close();
+        }
+    }
+
+    public Lease lockProject(Long projectId) {
+        return lock(PROJECT, projectId, distributed, "Cannot acquire lock for project " + projectId + " , tryLock return false");
+    }
+
+    public Lease lockCustomUI(Long projectId) {
+        return lock(CUSTOM_UI, projectId, distributed, "Cannot acquire lock for custom UI project " + projectId + " , tryLock return false");
+    }
+
+    public Lease lockWebSocketSessions(String userId) {
+        return lock(WEBSOCKET_SESSIONS, userId, false, "Cannot acquire lock for websocket sessions of user " + userId + " , tryLock return false");
+    }
+
+    private Lease lock(String namespace, Object id, boolean distributedLock, String timeoutMessage) {
+        String key = namespace + "/" + id;
+        ReentrantLock stripe = stripes[Math.floorMod(key.hashCode(), stripes.length)];
+        Metrics namespaceMetrics = metrics.computeIfAbsent(namespace, n -> new Metrics());
+        long start = System.nanoTime();
+        log.debug("Try to lock {}", key);
+        try {
+            if (!stripe.tryLock(timeoutInNanos, TimeUnit.NANOSECONDS)) {
+                namespaceMetrics.timeout(System.nanoTime() - start);
+                log.warn("Cannot acquire lock {}, held by {}", key, holders.get(key));
+                throw new ServerException(timeoutMessage);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            namespaceMetrics.timeout(System.nanoTime() - start);
+            throw new ServerException("Cannot acquire lock on " + key, e);
+        }
+
+        Connection connection = null;
+        if (distributedLock && distributedKeys.get().add(key)) {
+            try {
+                // the timeout covers both waits
+                connection = lockDistributed(namespace, id, timeoutInNanos - (System.nanoTime() - start));
+            } catch (RuntimeException e) {
+                distributedKeys.get().remove(key);
+                stripe.unlock();
+                namespaceMetrics.timeout(System.nanoTime() - start);
+                throw e instanceof ServerException ? e : new ServerException(timeoutMessage, e);
+            }
+            if (connection == null) {
+                distributedKeys.get().remove(key);
+                stripe.unlock();
+                namespaceMetrics.timeout(System.nanoTime() - start);
+                log.warn("Cannot acquire distributed lock {}", key);
+                throw new ServerException(timeoutMessage);
+            }
+        }
+
+        namespaceMetrics.acquired(System.nanoTime() - start);
+        holders.merge(key, new Holder(Thread.currentThread().getName(), currentUsername(), new Date(), 1),
+                (held, added) -> new Holder(held.thread(), held.user(), held.since(), held.count() + 1));
+        log.debug("Lock {} acquired", key);
+        return new Lease(key, id, namespace, stripe, connection);
+    }
+
+    /**
+     * Take the advisory lock (namespace, id) on a connection of the lock pool
+     *
+     * @return the connection that holds the lock, null if the lock has not been acquired before the timeout
+     */
+    private Connection lockDistributed(String namespace, Object id, long remainingNanos) {
+        if (remainingNanos <= 0) {
+            return null;
+        }
+        Connection connection = null;
+        try {
+            connection = dataSource.getConnection();
+            try (PreparedStatement statement = connection.prepareStatement("SELECT set_config('lock_timeout', ?, false)")) {
+                statement.setString(1, Math.max(1, TimeUnit.NANOSECONDS.toMillis(remainingNanos)) + "ms");
+                statement.execute();
+            }
+            try (PreparedStatement statement = connection.prepareStatement("SELECT pg_advisory_lock(?, ?)")) {
+                statement.setInt(1, namespace.hashCode());
+                statement.setInt(2, id.hashCode());
+                statement.execute();
+            }
+            return connection;
+        } catch (SQLException e) {
+            release(connection);
+            if ("55P03".equals(e.getSQLState()) || e instanceof SQLTransientConnectionException) {
+                // lock_not_available: lock_timeout has been reached, or no connection of the pool is available
+                return null;
+            }
+            throw new ServerException("Cannot acquire distributed lock on " + namespace + "/" + id, e);
+        }
+    }
+
+    private void unlockDistributed(String namespace, Object id, Connection connection) {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT pg_advisory_unlock(?, ?)")) {
+            statement.setInt(1, namespace.hashCode());
+            statement.setInt(2, id.hashCode());
+            statement.execute();
+        } catch (SQLException e) {
+            log.error("Cannot release distributed lock {}/{}", namespace, id, e);
+        } finally {
+            release(connection);
+        }
+    }
+
+    private void release(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try (connection; Statement statement = connection.createStatement()) {
+            // the connection goes back to the pool
+            statement.execute("RESET lock_timeout");
+        } catch (SQLException e) {
+            log.error("Cannot release lock connection", e);
+        }
+    }
+
+    private static String currentUsername() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        return authentication != null ? authentication.getName() : null;
+    }
+
+    public JsonObject getStatistics() {
+        JsonObject statistics = new JsonObject();
+        statistics.put("stripes", stripes.length);
+        statistics.put("distributed", distributed);
+        statistics.put("timeoutInSeconds", TimeUnit.NANOSECONDS.toSeconds(timeoutInNanos));
+        statistics.put("waiting", Arrays.stream(stripes).mapToInt(ReentrantLock::getQueueLength).sum());
+
+        JsonObject namespaces = new JsonObject();
+        metrics.forEach((namespace, namespaceMetrics) -> namespaces.put(namespace, namespaceMetrics.toJsonObject()));
+        statistics.put("namespaces", namespaces);
+
+        List<JsonObject> held = new ArrayList<>();
+        holders.forEach((key, holder) -> {
+            JsonObject each = new JsonObject();
+            each.put("key", key);
+            each.put("thread", holder.thread());
+            each.put("user", holder.user());
+            each.put("since", holder.since());
+            each.put("count", holder.count());
+            held.add(each);
+        });
+        statistics.put("holders", held);
+        return statistics;
+    }
+
+    /**
+     * Lock held until it is closed
+     */
+    public class Lease implements AutoCloseable {
+
+        private final String key;
+
+        private final Object id;
+
+        private final String namespace;
+
+        private final ReentrantLock stripe;
+
+        private final Connection connection;
+
+        private boolean closed;
+
+        private Lease(String key, Object id, String namespace, ReentrantLock stripe, Connection connection) {
+            this.key = key;
+            this.id = id;
+            this.namespace = namespace;
+            this.stripe = stripe;
+            this.connection = connection;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            log.debug("Unlock {}", key);
+            holders.computeIfPresent(key, (k, held) -> held.count() > 1
+                    ? new Holder(held.thread(), held.user(), held.since(), held.count() - 1)
+                    : null);
+            try {
+                if (connection != null) {
+                    distributedKeys.get().remove(key);
+                    unlockDistributed(namespace, id, connection);
+                }
+            } finally {
+                stripe.unlock();
+            }
+        }
+    }
+
+    private record Holder(String thread, String user, Date since, int count) {
+    }
+
+    private static class Metrics {
+
+        private final AtomicLong acquisitions = new AtomicLong();
+
+        private final AtomicLong timeouts = new AtomicLong();
+
+        private final AtomicLong totalWaitInNanos = new AtomicLong();
+
+        private final AtomicLong maxWaitInNanos = new AtomicLong();
+
+        private void acquired(long waitInNanos) {
+            acquisitions.incrementAndGet();
+            waited(waitInNanos);
+        }
+
+        private void timeout(long waitInNanos) {
+            timeouts.incrementAndGet();
+            waited(waitInNanos);
+        }
+
+        private void waited(long waitInNanos) {
+            totalWaitInNanos.addAndGet(waitInNanos);
+            maxWaitInNanos.accumulateAndGet(waitInNanos, Math::max);
+        }
+
+        private JsonObject toJsonObject() {
+            long acquired = acquisitions.get();
+            long failed = timeouts.get();
+            JsonObject statistics = new JsonObject();
+            statistics.put("acquisitions", acquired);
+            statistics.put("timeouts", failed);
+            statistics.put("averageWaitInMillis", acquired + failed > 0
+                    ? TimeUnit.NANOSECONDS.toMillis(totalWaitInNanos.get() / (acquired + failed)) : 0);
+            statistics.put("maxWaitInMillis", TimeUnit.NANOSECONDS.toMillis(maxWaitInNanos.get()));
+            return statistics;
+        }
+    }
+}
@@ -296,6 +296,56 @@ public abstract class ModelService<T extends CytomineDomain> {
         return response;
     }
 
+    /**
+     * Create new domains in database, recorded by a single command (see AddMultipleCommand)
+     * @param jsons JSON data for the new domains
+     * @param printMessage Flag to specify if confirmation message must be show in client
+     * @return Response structure (status, domains data,...)
+     */
+    public CommandResponse createMultiple(List<JsonObject> jsons, boolean printMessage) {
+        List<CytomineDomain> domains = new ArrayList<>();
+        for (JsonObject json : jsons) {
+            CytomineDomain domain = createFromJSON(json);
+            beforeAdd(domain);
+            if (domain.getId() != null) {
+                //domain recreated (redo)
+                saveDomain(domain);
+            } else {
+                checkDoNotAlreadyExist(domain);
+                entityManager.persist(domain);
+            }
+            domains.add(domain);
+        }
+        try {
+            //a single flush, so that the inserts are batched
+            entityManager.flush();
+        } catch(Exception e) {
+            throw new WrongArgumentException("Cannot persists objects:" + e);
+        }
+
+        CommandResponse response = responseService.createMultipleResponseMessage(domains, printMessage, "Add");
+        afterAddMultiple(domains, jsons, response);
+        return response;
+    }
+
+    /**
+     * Destroy domains from database, in the reverse order of their creation
+     * @param jsons JSON with domains data (to retrieve them)
+     * @param printMessage Flag to specify if confirmation message must be show in client
+     * @return Response structure (status, domains data,...)
+     */
+    public CommandResponse destroyMultiple(List<JsonObject> jsons, boolean printMessage) {
+        List<CytomineDomain> domains = new ArrayList<>();
+        for (JsonObject json : jsons) {
+            domains.add((CytomineDomain)entityManager.find(currentDomain(), retrieveLongId(json)));
+        }
+        CommandResponse response = responseService.createMultipleResponseMessage(domains, printMessage, "Delete");
+        for (int i = domains.size() - 1; i >= 0; i--) {
+            destroy(domains.get(i), false);
+        }
+        return response;
+    }
+
     /**
      * Retrieve domain thanks to a JSON object
      * @return domain retrieve thanks to json
@@ -344,6 +394,9 @@ public abstract class ModelService<T extends CytomineDomain> {
     protected void afterAdd(CytomineDomain domain, CommandResponse response) {
     }
 
+    protected void afterAddMultiple(List<CytomineDomain> domains, List<JsonObject> jsons, CommandResponse response) {
+    }
+
     protected void afterDelete(CytomineDomain domain, CommandResponse response) {
 
     }
@@ -450,27 +503,41 @@ public abstract class ModelService<T extends CytomineDomain> {
         for(int i=0;i<json.size();i++){
             try{
                 CommandResponse commandResponse = addOne(json.get(i));
-
-                String objectName;
-                if (currentDomain() == UserAnnotation.class) {
-                    objectName = "annotation";
-                } else {
-                    String[] split = currentDomain().toString().toLowerCase().split("\\.");
-                    objectName = split[split.length-1];
-                }
-                resp = JsonObject.of("domain", ((Map<String, Object>)commandResponse.getData().get(objectName)).get("id"), "status", commandResponse.getStatus());
-            } catch(CytomineException e){
-                log.info(((CytomineException)e).getMessage());
-                errors.add(JsonObject.of("data", json.get(i), "message", e.msg));
-                resp = JsonObject.of("message", e.msg, "status", e.code);
-            } catch(Exception e) {
-                log.info(e.toString());
-                resp = JsonObject.of("message", e.toString(), "status", 500);
+                resp = JsonObject.of("domain", ((Map<String, Object>)commandResponse.getData().get(getAddMultipleObjectName())).get("id"), "status", commandResponse.getStatus());
+            } catch(Exception e){
+                resp = addMultipleError(json.get(i), e, errors);
             }
 
             result.add(resp);
         }
+        return addMultipleResponse(result, errors);
+    }
 
+    protected String getAddMultipleObjectName() {
+        if (currentDomain() == UserAnnotation.class) {
+            return "annotation";
+        }
+        String[] split = currentDomain().toString().toLowerCase().split("\\.");
+        return split[split.length-1];
+    }
+
+    /**
+     * Status of an entry of addMultiple that could not be added (the error is appended to errors)
+     */
+    protected JsonObject addMultipleError(JsonObject json, Exception exception, List errors) {
+        if (exception instanceof CytomineException e) {
+            log.info(e.getMessage());
+            errors.add(JsonObject.of("data", json, "message", e.msg));
+            return JsonObject.of("message", e.msg, "status", e.code);
+        }
+        log.info(exception.toString());
+        return JsonObject.of("message", exception.toString(), "status", 500);
+    }
+
+    /**
+     * Response of addMultiple, from the status of each entry
+     */
+    protected JsonObject addMultipleResponse(List<JsonObject> result, List errors) {
         JsonObject response = new JsonObject();
 
         List<JsonObject> succeeded = result.stream().filter(x -> x.getJSONAttrInteger("status")>=200 && x.getJSONAttrInteger("status")<=300).toList();
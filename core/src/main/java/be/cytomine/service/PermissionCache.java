@@ -0,0 +1,76 @@
+package be.cytomine.service;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.TwoLevelCache;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Cache of the ACL masks of a user on a domain (domain id, username) => masks.
+ *
+ * There are two levels:
+ * - the current http request keeps every mask it has already read (a listing may check the same project many times);
+ * - a shared cache, bounded (LRU) and with a time to live, used by all requests.
+ *
+ * Any change of an ACL entry must invalidate the cache. The invalidation is done again once the transaction
+ * is completed, so that a value read by another request before the commit (or a value of a rollbacked transaction)
+ * is not kept.
+ */
+@Component
+public class PermissionCache {
+
+    private final TwoLevelCache<List<Integer>> cache;
+
+    public PermissionCache(
+            @Value("${application.authorization.permissionCache.maxSize:10000}") int maxSize,
+            @Value("${application.authorization.permissionCache.timeToLiveInSeconds:30}") long timeToLiveInSeconds
+    ) {
+        this.cache = new TwoLevelCache<>(PermissionCache.class.getName(), maxSize, timeToLiveInSeconds * 1000);
+    }
+
+    public List<Integer> get(Long domainId, String username, Supplier<List<Integer>> loader) {
+        return cache.get(key(domainId, username), () -> List.copyOf(loader.get()));
+    }
+
+    /**
+     * Remove the masks of a user on a domain (now and once the current transaction is completed)
+     */
+    public void invalidate(Long domainId, String username) {
+        cache.invalidate(key(domainId, username));
+    }
+
+    /**
+     * Remove all masks (now and once the current transaction is completed).
+     * Used when the changed entry cannot be mapped to a (domain, user).
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public JsonObject getStatistics() {
+        return cache.getStatistics();
+    }
+
+    private static String key(Long domainId, String username) {
+        return domainId + ":" + username;
+    }
+}
@@ -20,6 +20,7 @@ import be.cytomine.domain.CytomineDomain;
 import be.cytomine.domain.security.User;
 import be.cytomine.exceptions.ObjectNotFoundException;
 import be.cytomine.repository.security.AclRepository;
+import be.cytomine.utils.JsonObject;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.acls.domain.BasePermission;
@@ -41,6 +42,9 @@ public class PermissionService {
     @Autowired
     private AclRepository aclRepository;
 
+    @Autowired
+    private PermissionCache permissionCache;
+
     public boolean hasACLPermission(CytomineDomain domain, String username, Permission permission) {
         List<Integer> masks = getPermissionInACL(domain,username);
         return masks.stream().max(Integer::compare).orElse(-1) >= permission.getMask();
@@ -60,11 +64,15 @@ public class PermissionService {
     }
 
     List<Integer> getPermissionInACL(CytomineDomain domain, User user) {
-        return aclRepository.listMaskForUsers(domain.getId(), user.getUsername());
+        return getPermissionInACL(domain, user.getUsername());
     }
 
     List<Integer> getPermissionInACL(CytomineDomain domain, String username) {
-        return aclRepository.listMaskForUsers(domain.getId(), username);
+        return permissionCache.get(domain.getId(), username, () -> aclRepository.listMaskForUsers(domain.getId(), username));
+    }
+
+    public JsonObject getPermissionCacheStatistics() {
+        return permissionCache.getStatistics();
     }
 
 
@@ -81,6 +89,7 @@ public class PermissionService {
                 throw new ObjectNotFoundException("User " + username + " or Object " + domain.getId() + " are not in ACL");
             }
             aclRepository.deleteAclEntry(aclObjectIdentity, mask, sid);
+            permissionCache.invalidate(domain.getId(), username);
 
             log.info("User " + username + " right " + permission.getMask() + " in domain " + domain + " => " + hasACLPermission(domain, username, permission));
         }
@@ -117,6 +126,7 @@ public class PermissionService {
 
             //get acl entry
             createAclEntry(aclObjectIdentity, sid, permission.getMask());
+            permissionCache.invalidate(domain.getId(), username);
         }
     }
 
@@ -125,6 +135,7 @@ public class PermissionService {
         //get acl sid for the user
         Long sid = getAclSid(username);
         aclRepository.insertAclEntry(index, aclObjectIdentity, permission.getMask(), sid);
+        permissionCache.invalidateAll();
     }
 
 
@@ -146,6 +157,8 @@ public class PermissionService {
                 log.debug("next ace order {} for {}", max, aoi);
                 aclRepository.insertAclEntry(max, aoi, mask, sid);
                 aclEntryId = aclRepository.getAclEntryId(aoi, sid, mask);
+                // the entry is only known by its acl ids here, not by (domain, username)
+                permissionCache.invalidateAll();
             }
             return aclEntryId;
         }
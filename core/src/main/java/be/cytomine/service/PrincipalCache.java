@@ -0,0 +1,159 @@
+package be.cytomine.service;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.domain.security.User;
+import be.cytomine.repository.security.TemporaryAccessTokenRepository;
+import be.cytomine.repository.security.UserRepository;
+import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.TwoLevelCache;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Resolution of the principal of a request: user by username (JWT, session) or public key (API key) and
+ * temporary access token.
+ *
+ * Like the permission cache, it is a two level cache: the current http request keeps the user ids it has already
+ * resolved and a shared cache keeps them for all requests.
+ *
+ * Only the user ids are shared: the user (with its roles) is read by id, which is served by the persistence context
+ * for the rest of the request. A cached id is checked against the user read (username, public key, enabled) and
+ * resolved again if the user has changed, so a stale entry never authenticates a request. Temporary tokens are
+ * kept until their expiry date at most.
+ */
+@Component
+public class PrincipalCache {
+
+    private final UserRepository userRepository;
+
+    private final TemporaryAccessTokenRepository temporaryAccessTokenRepository;
+
+    private final long timeToLiveInMillis;
+
+    // user id or token grant
+    private final TwoLevelCache<Object> cache;
+
+    public PrincipalCache(
+            UserRepository userRepository,
+            TemporaryAccessTokenRepository temporaryAccessTokenRepository,
+            @Value("${application.authentication.principalCache.maxSize:10000}") int maxSize,
+            @Value("${application.authentication.principalCache.timeToLiveInSeconds:60}") long timeToLiveInSeconds
+    ) {
+        this.userRepository = userRepository;
+        this.temporaryAccessTokenRepository = temporaryAccessTokenRepository;
+        this.timeToLiveInMillis = timeToLiveInSeconds * 1000;
+        this.cache = new TwoLevelCache<>(PrincipalCache.class.getName(), maxSize, timeToLiveInMillis);
+    }
+
+    public Optional<User> findUserByUsername(String username) {
+        return findUser(
+                "username:" + username.toLowerCase(),
+                () -> userRepository.findByUsernameLikeIgnoreCase(username),
+                user -> username.equalsIgnoreCase(user.getUsername())
+        );
+    }
+
+    // API keys are deprecated but still accepted
+    @SuppressWarnings("deprecation")
+    public Optional<User> findEnabledUserByPublicKey(String publicKey) {
+        return findUser(
+                "publicKey:" + publicKey,
+                () -> userRepository.findByPublicKeyAndEnabled(publicKey, true),
+                user -> publicKey.equals(user.getPublicKey()) && Boolean.TRUE.equals(user.getEnabled())
+        );
+    }
+
+    public Optional<TokenGrant> findTokenGrant(String tokenKey) {
+        String key = "token:" + tokenKey;
+        if (cache.getShared(key) instanceof TokenGrant grant && grant.isValid()) {
+            cache.hit(false);
+            return Optional.of(grant);
+        }
+        cache.miss();
+        Optional<TokenGrant> grant = temporaryAccessTokenRepository.findByTokenKey(tokenKey)
+                .map(token -> new TokenGrant(token.getUser().getUsername(), token.getExpiryDate(), token.getProjectIdList()));
+        grant.ifPresent(value -> cache.putShared(key, value, Math.min(System.currentTimeMillis() + timeToLiveInMillis, value.expiryDate().getTime())));
+        return grant;
+    }
+
+    /**
+     * Remove the entries of a user (now and once the current transaction is completed)
+     */
+    public void invalidateUser(Long userId) {
+        cache.invalidateIf(value -> Objects.equals(value, userId));
+    }
+
+    /**
+     * Remove a temporary access token (now and once the current transaction is completed)
+     */
+    public void invalidateToken(String tokenKey) {
+        cache.invalidate("token:" + tokenKey);
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public JsonObject getStatistics() {
+        return cache.getStatistics();
+    }
+
+    private Optional<User> findUser(String key, Supplier<Optional<User>> loader, Predicate<User> matches) {
+        Object id = cache.getFromRequest(key);
+        boolean requestHit = id != null;
+        if (id == null) {
+            id = cache.getShared(key);
+        }
+
+        if (id instanceof Long userId) {
+            Optional<User> user = userRepository.findById(userId).filter(matches);
+            if (user.isPresent()) {
+                cache.hit(requestHit);
+                cache.putInRequest(key, userId);
+                return user;
+            }
+        }
+
+        cache.miss();
+        Optional<User> user = loader.get();
+        if (user.isPresent()) {
+            cache.put(key, user.get().getId());
+        } else {
+            cache.removeFromRequest(key);
+        }
+        return user;
+    }
+
+    /**
+     * What a temporary access token grants: the user, until the expiry date, on the projects
+     */
+    public record TokenGrant(String username, Date expiryDate, List<Long> projectIds) {
+
+        public boolean isValid() {
+            return !expiryDate.before(new Date());
+        }
+
+        public boolean isValid(Long projectId) {
+            return projectId != null && isValid() && projectIds.contains(projectId);
+        }
+    }
+}
@@ -80,6 +80,35 @@ public class ResponseService {
         return commandResponse;
     }
 
+    /**
+     * Create response message structure for a command result on several domains of the same type
+     * E.g. if we add a batch of annotations
+     * @param objects Objects updated (add/delete) by command
+     * @param printMessage Flag for client, indicate if client must print or not a confirmation message
+     * @param commandType Command type: add or delete
+     * @return Response stucture, with the data of each domain in "domains"
+     */
+    public CommandResponse createMultipleResponseMessage(List<? extends CytomineDomain> objects, boolean printMessage, String commandType) {
+        String objectName = objects.isEmpty() ? "" : getClassName(objects.get(0));
+        String command = "be.cytomine." + commandType + "Multiple" + objectName + "Command";
+        HashMap<String, Object> paramsCallback = new HashMap<>();
+        paramsCallback.put("method", command);
+        paramsCallback.put(objectName.toLowerCase() + "IDs", objects.stream().map(x -> String.valueOf(x.getId())).toList());
+
+        String message = messageSource.getMessage("be.cytomine." + commandType + "MultipleCommand", new Object[]{objects.size(), objectName.toLowerCase()}, Locale.ENGLISH);
+
+        HashMap<String, Object> params = new HashMap<String, Object>();
+        params.put("message", message);
+        params.put("callback", paramsCallback);
+        params.put("printMessage", printMessage);
+        params.put("domains", objects.stream().map(x -> JsonObject.toMap(x.toJSON())).toList());
+
+        CommandResponse commandResponse = new CommandResponse();
+        commandResponse.setData(params);
+        commandResponse.setStatus(200);
+        return commandResponse;
+    }
+
     public Map<String, Object> createResponseData(Boolean success, String messageKey, HashMap<String, Object> callback, boolean printMessage) {
         HashMap<String, Object> params = new HashMap<>();
         params.put("success", success);
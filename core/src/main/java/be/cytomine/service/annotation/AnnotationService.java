@@ -1,21 +1,39 @@
 package be.cytomine.service.annotation;
 
 import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.function.Consumer;
 
+import jakarta.persistence.EntityManager;
+import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Session;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.WKTWriter;
 import org.springframework.stereotype.Service;
 
 import be.cytomine.domain.annotation.Annotation;
 import be.cytomine.domain.annotation.AnnotationLayer;
 import be.cytomine.repository.annotation.AnnotationRepository;
+import be.cytomine.service.utils.GeometryService;
 
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class AnnotationService {
 
+    public static final int BATCH_SIZE = 1000;
+
     private final AnnotationRepository annotationRepository;
 
+    private final EntityManager entityManager;
+
     public Annotation createAnnotation(AnnotationLayer layer, String geometry) {
         Annotation annotation = new Annotation();
         annotation.setAnnotationLayer(layer);
@@ -24,6 +42,78 @@ public class AnnotationService {
         return annotationRepository.saveAndFlush(annotation);
     }
 
+    /**
+     * Bulk insert of geometries (WKT or GeoJSON) in a layer.
+     *
+     * The source gives the geometries one by one to the sink. They are grouped by batches of BATCH_SIZE:
+     * the geometries of a batch are parsed and transformed in parallel, then inserted with one JDBC batch.
+     * Values that are not supported geometries are ignored.
+     *
+     * The ingestion of a layer is idempotent: if the layer already has annotations, nothing is inserted.
+     * The layer is locked until the end of the transaction, so that two concurrent ingestions cannot both insert.
+     *
+     * @return the number of inserted annotations
+     */
+    @Transactional
+    public long createAnnotations(AnnotationLayer layer, Consumer<Consumer<String>> source, Consumer<Geometry> transform) {
+        entityManager.createNativeQuery("SELECT id FROM annotation_layer WHERE id = :id FOR UPDATE")
+            .setParameter("id", layer.getId())
+            .getResultList();
+        if (annotationRepository.existsByAnnotationLayer(layer)) {
+            log.info("Layer {} already has annotations, outputs are not ingested again", layer.getId());
+            return 0;
+        }
+
+        long[] count = {0};
+        List<String> batch = new ArrayList<>(BATCH_SIZE);
+        source.accept(geometry -> {
+            batch.add(geometry);
+            if (batch.size() == BATCH_SIZE) {
+                count[0] += insertBatch(layer, batch, transform);
+                batch.clear();
+                log.info("{} annotations ingested in layer {}", count[0], layer.getId());
+            }
+        });
+        count[0] += insertBatch(layer, batch, transform);
+        log.info("Ingestion of layer {} completed: {} annotations", layer.getId(), count[0]);
+        return count[0];
+    }
+
+    private long insertBatch(AnnotationLayer layer, List<String> geometries, Consumer<Geometry> transform) {
+        if (geometries.isEmpty()) {
+            return 0;
+        }
+        List<byte[]> locations = geometries
+            .parallelStream()
+            .map(GeometryService::parseGeometry)
+            .filter(Objects::nonNull)
+            .map(geometry -> {
+                transform.accept(geometry);
+                return new WKTWriter().write(geometry).getBytes(StandardCharsets.UTF_8);
+            })
+            .toList();
+        if (locations.isEmpty()) {
+            return 0;
+        }
+
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        entityManager.unwrap(Session.class).doWork(connection -> {
+            String request = "INSERT INTO annotation(id, version, created, updated, layer_id, location) " +
+                "VALUES (nextval('hibernate_sequence'), 0, ?, ?, ?, ?)";
+            try (PreparedStatement statement = connection.prepareStatement(request)) {
+                for (byte[] location : locations) {
+                    statement.setTimestamp(1, now);
+                    statement.setTimestamp(2, now);
+                    statement.setLong(3, layer.getId());
+                    statement.setBytes(4, location);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+        });
+        return locations.size();
+    }
+
     public Optional<Annotation> find(Long id) {
         return annotationRepository.findById(id);
     }
@@ -11,7 +11,6 @@ import be.cytomine.domain.security.User;
 import be.cytomine.dto.appengine.task.TaskRunDetail;
 import be.cytomine.dto.appengine.task.TaskRunOutputResponse;
 import be.cytomine.dto.appengine.task.TaskRunResponse;
-import be.cytomine.dto.appengine.task.TaskRunValue;
 import be.cytomine.dto.appengine.task.type.CollectionType;
 import be.cytomine.dto.appengine.task.type.GeometryType;
 import be.cytomine.dto.appengine.task.type.TaskParameterType;
@@ -28,7 +27,9 @@ import be.cytomine.service.ontology.UserAnnotationService;
 import be.cytomine.service.project.ProjectService;
 import be.cytomine.service.security.SecurityACLService;
 import be.cytomine.service.utils.GeometryService;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -37,7 +38,6 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.locationtech.jts.geom.Envelope;
-import org.locationtech.jts.geom.Geometry;
 import org.springframework.core.io.ByteArrayResource;
 import org.springframework.core.io.FileSystemResource;
 import org.springframework.http.HttpMethod;
@@ -56,6 +56,7 @@ import org.springframework.web.util.UriComponentsBuilder;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
@@ -64,6 +65,7 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.function.Consumer;
 
 import static org.springframework.security.acls.domain.BasePermission.READ;
 
@@ -485,20 +487,6 @@ public class TaskRunService {
         TaskRun taskRun = taskRunRepository.findByProjectIdAndTaskRunId(projectId, taskRunId)
                 .orElseThrow(() -> new ObjectNotFoundException("TaskRun", taskRunId));
 
-        List<TaskRunValue> outputs;
-        try {
-            outputs = new ObjectMapper().readValue(response, new TypeReference<>() {});
-        } catch (JsonProcessingException e) {
-            throw new ObjectNotFoundException("Outputs from", taskRunId);
-        }
-
-        List<String> geometries = outputs
-            .stream()
-                .map(TaskRunValue::getValue)
-            .filter(value -> value instanceof String geometry && geometryService.isGeometry(geometry))
-            .map(value -> (String) value)
-            .toList();
-
         String taskRunData = appEngineService.get("task-runs/" + taskRunId);
         TaskRunResponse taskRunResponse;
         try {
@@ -512,33 +500,86 @@ public class TaskRunService {
         TaskRunLayer taskRunLayer = taskRunLayerRepository
                 .findByTaskRunAndImage(taskRun, taskRun.getImage())
                 .orElse(new TaskRunLayer());
+        int xOffset = Objects.requireNonNullElse(taskRunLayer.getXOffset(), 0);
+        int yOffset = Objects.requireNonNullElse(taskRunLayer.getYOffset(), 0);
 
-        for (String geometry : geometries) {
-            String wktGeometry = geometryService.GeoJSONToWKT(geometry);
-            Geometry parsedGeometry = GeometryService.addOffset(wktGeometry, taskRunLayer.getXOffset(), taskRunLayer.getYOffset());
-            annotationService.createAnnotation(annotationLayer, parsedGeometry.toString());
+        annotationService.createAnnotations(
+            annotationLayer,
+            sink -> readOutputGeometries(response, taskRunId, sink),
+            geometry -> GeometryService.addOffset(geometry, xOffset, yOffset)
+        );
+
+        return response;
+    }
+
+    /**
+     * Read the outputs token by token and give the geometry values to the sink as soon as they are parsed:
+     * the outputs whose value is a geometry and the items of the geometry arrays.
+     */
+    private void readOutputGeometries(String response, UUID taskRunId, Consumer<String> sink) {
+        try (JsonParser parser = new ObjectMapper().getFactory().createParser(response)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new ObjectNotFoundException("Outputs from", taskRunId);
+            }
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                readOutputGeometries(parser, sink);
+            }
+        } catch (IOException e) {
+            throw new ObjectNotFoundException("Outputs from", taskRunId);
         }
+    }
 
-        List<TaskRunValue> geoArrayValues = outputs
-                .stream()
-                .filter(output -> output.getType().equals("ARRAY")
-                && output.getSubType().equalsIgnoreCase("GEOMETRY"))
-                .toList();
-
-        if (!geoArrayValues.isEmpty()) {
-            for (TaskRunValue arrayValue : geoArrayValues) {
-                    JsonNode items = new ObjectMapper().convertValue(arrayValue.getValue(), JsonNode.class);
-                    for (JsonNode item : items) {
-                        if (geometryService.isGeometry(item.get("value").asText())) {
-                            String wktGeometry = geometryService.GeoJSONToWKT(item.get("value").asText());
-                            Geometry parsedGeometry = GeometryService.addOffset(wktGeometry, taskRunLayer.getXOffset(), taskRunLayer.getYOffset());
-                            annotationService.createAnnotation(annotationLayer, parsedGeometry.toString());
-                        }
-                    }
+    private static void readOutputGeometries(JsonParser parser, Consumer<String> sink) throws IOException {
+        String type = null;
+        String subType = null;
+        // items read before the sub type of the array is known
+        List<String> pending = new ArrayList<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken token = parser.nextToken();
+            if ("type".equals(field)) {
+                type = parser.getValueAsString();
+            } else if ("subType".equals(field)) {
+                subType = parser.getValueAsString();
+            } else if ("value".equals(field) && token == JsonToken.VALUE_STRING) {
+                sink.accept(parser.getText());
+            } else if ("value".equals(field) && token == JsonToken.START_ARRAY && (type == null || "ARRAY".equals(type))) {
+                boolean geometries = "ARRAY".equals(type) && "GEOMETRY".equalsIgnoreCase(subType);
+                readItemGeometries(parser, geometries, sink, pending);
+                continue;
             }
+            parser.skipChildren();
+        }
+        if ("ARRAY".equals(type) && "GEOMETRY".equalsIgnoreCase(subType)) {
+            pending.forEach(sink);
         }
+    }
 
-        return response;
+    private static void readItemGeometries(JsonParser parser, boolean geometries, Consumer<String> sink, List<String> pending) throws IOException {
+        JsonToken item;
+        while ((item = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (item != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+            String itemType = null;
+            String geometry = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken token = parser.nextToken();
+                if ("type".equals(field)) {
+                    itemType = parser.getValueAsString();
+                } else if ("value".equals(field) && token == JsonToken.VALUE_STRING) {
+                    geometry = parser.getText();
+                }
+                parser.skipChildren();
+            }
+            if (geometry != null && (geometries || "GEOMETRY".equalsIgnoreCase(itemType))) {
+                sink.accept(geometry);
+            } else if (geometry != null) {
+                pending.add(geometry);
+            }
+        }
     }
 
     public String getInputs(Long projectId, UUID taskRunId) {
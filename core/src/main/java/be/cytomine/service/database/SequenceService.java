@@ -1,29 +1,112 @@
 package be.cytomine.service.database;
 
+import be.cytomine.utils.JsonObject;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.Query;
 import jakarta.transaction.Transactional;
-import org.springframework.beans.factory.annotation.Autowired;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+/**
+ * Id generator backed by the hibernate_sequence.
+ *
+ * Ids are reserved by blocks of idBlockSize with a single round trip (nextval over generate_series) and handed out
+ * from memory. The sequence keeps its increment of 1 (it is shared with hibernate and the database triggers), so
+ * each replica reserves its own ids and they never collide. Ids are unique but only increasing within a replica.
+ */
 @Transactional
 @Service
 public class SequenceService {
 
     public final static String SEQ_NAME = "hibernate_sequence";
 
-    @Autowired
-    private EntityManager entityManager;
+    private final EntityManager entityManager;
+
+    private final int idBlockSize;
+
+    private final AtomicReference<IdBlock> block = new AtomicReference<>(IdBlock.EMPTY);
+
+    private final Object refillLock = new Object();
+
+    private final AtomicLong generatedIds = new AtomicLong();
+
+    private final AtomicLong roundTrips = new AtomicLong();
+
+    public SequenceService(
+            EntityManager entityManager,
+            @Value("${application.sequence.idBlockSize:50}") int idBlockSize) {
+        this.entityManager = entityManager;
+        this.idBlockSize = Math.max(1, idBlockSize);
+    }
 
     /**
      * Get a new id number
      */
     public Long generateID()  {
+        while (true) {
+            IdBlock current = block.get();
+            Long id = current.next();
+            if (id != null) {
+                generatedIds.incrementAndGet();
+                return id;
+            }
+            synchronized (refillLock) {
+                // another thread may have reserved a new block in the meantime
+                if (block.get() == current) {
+                    block.set(new IdBlock(generateIDs(idBlockSize)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Get a block of new id numbers with a single round trip
+     */
+    public List<Long> generateIDs(int count) {
         try {
-            Query query = entityManager.createNativeQuery("select nextval('" + SEQ_NAME + "');");
-            return (Long) query.getSingleResult();
+            roundTrips.incrementAndGet();
+            if (count == 1) {
+                Query query = entityManager.createNativeQuery("select nextval('" + SEQ_NAME + "');");
+                return List.of(((Number) query.getSingleResult()).longValue());
+            }
+            Query query = entityManager.createNativeQuery("select nextval('" + SEQ_NAME + "') from generate_series(1, :count);");
+            query.setParameter("count", count);
+            return ((List<?>) query.getResultList()).stream().map(id -> ((Number) id).longValue()).toList();
         } catch (Exception e) {
-            throw new RuntimeException("Cannot generate ID with sequence: " + e, e);
+            throw new RuntimeException("Cannot generate IDs with sequence: " + e, e);
+        }
+    }
+
+    public JsonObject getStatistics() {
+        long generated = generatedIds.get();
+        long queries = roundTrips.get();
+        JsonObject statistics = new JsonObject();
+        statistics.put("blockSize", idBlockSize);
+        statistics.put("generatedIds", generated);
+        statistics.put("roundTrips", queries);
+        statistics.put("roundTripsSaved", Math.max(0, generated - queries));
+        return statistics;
+    }
+
+    private static class IdBlock {
+
+        private static final IdBlock EMPTY = new IdBlock(List.of());
+
+        private final long[] ids;
+
+        private final AtomicInteger cursor = new AtomicInteger();
+
+        private IdBlock(List<Long> ids) {
+            this.ids = ids.stream().mapToLong(Long::longValue).toArray();
+        }
+
+        private Long next() {
+            int index = cursor.getAndIncrement();
+            return index < ids.length ? ids[index] : null;
         }
     }
 }
@@ -32,6 +32,7 @@ import be.cytomine.service.CurrentUserService;
 import be.cytomine.service.ModelService;
 import be.cytomine.service.command.TransactionService;
 import be.cytomine.service.meta.AttachedFileService;
+import be.cytomine.service.middleware.ImageMetadataCache;
 import be.cytomine.service.security.SecurityACLService;
 import be.cytomine.utils.*;
 import be.cytomine.utils.filters.SQLSearchParameter;
@@ -99,6 +100,9 @@ public class AbstractImageService extends ModelService {
     @Autowired
     private AttachedFileService attachedFileService;
 
+    @Autowired
+    private ImageMetadataCache imageMetadataCache;
+
 
     @Override
     public Class currentDomain() {
@@ -317,6 +321,7 @@ public class AbstractImageService extends ModelService {
     }
 
     public void deleteDependencies(CytomineDomain domain, Transaction transaction, Task task) {
+        imageMetadataCache.invalidate(((AbstractImage) domain).getPath());
         deleteDependentAbstractSlice((AbstractImage)domain, transaction, task);
         deleteDependentImageInstance((AbstractImage)domain, transaction, task);
         deleteDependentCompanionFile((AbstractImage)domain, transaction, task);
@@ -37,11 +37,14 @@ import be.cytomine.repositorynosql.social.PersistentImageConsultationRepository;
 import be.cytomine.repositorynosql.social.PersistentUserPositionRepository;
 import be.cytomine.service.CurrentRoleService;
 import be.cytomine.service.CurrentUserService;
+import be.cytomine.service.LockService;
 import be.cytomine.service.ModelService;
 import be.cytomine.service.meta.PropertyService;
+import be.cytomine.service.middleware.ImageServerService;
 import be.cytomine.service.ontology.*;
 import be.cytomine.service.search.ImageSearchExtension;
 import be.cytomine.service.security.SecurityACLService;
+import be.cytomine.service.social.UserPositionBuffer;
 import be.cytomine.utils.*;
 import be.cytomine.utils.filters.SQLSearchParameter;
 import be.cytomine.utils.filters.SearchOperation;
@@ -86,6 +89,9 @@ public class ImageInstanceService extends ModelService {
     @Autowired
     private EntityManager entityManager;
 
+    @Autowired
+    private ImageServerService imageServerService;
+
     @Autowired
     private CurrentUserService currentUserService;
 
@@ -134,6 +140,9 @@ public class ImageInstanceService extends ModelService {
     @Autowired
     private LastUserPositionRepository lastUserPositionRepository;
 
+    @Autowired
+    private UserPositionBuffer userPositionBuffer;
+
     @Autowired
     private PersistentImageConsultationRepository persistentImageConsultationRepository;
 
@@ -158,6 +167,9 @@ public class ImageInstanceService extends ModelService {
     @Autowired
     OntologyService ontologyService;
 
+    @Autowired
+    LockService lockService;
+
     @Override
     public Class currentDomain() {
         return ImageInstance.class;
@@ -460,6 +472,17 @@ public class ImageInstanceService extends ModelService {
     }
 
     public Page<Map<String, Object>> list(Project project, List<SearchParameterEntry> searchParameters, String sortColumn, String sortDirection, Long offset, Long max, boolean light, boolean withImageGroup) {
+        return list(project, searchParameters, sortColumn, sortDirection, offset, max, null, light, withImageGroup);
+    }
+
+    /**
+     * List images of the project with keyset pagination: the page starts after the cursor instead of an offset
+     */
+    public KeysetPage<Map<String, Object>> list(Project project, List<SearchParameterEntry> searchParameters, String sortColumn, String sortDirection, KeysetCursor cursor, Long max, boolean light, boolean withImageGroup) {
+        return (KeysetPage<Map<String, Object>>) list(project, searchParameters, sortColumn, sortDirection, 0L, max, cursor, light, withImageGroup);
+    }
+
+    private Page<Map<String, Object>> list(Project project, List<SearchParameterEntry> searchParameters, String sortColumn, String sortDirection, Long offset, Long max, KeysetCursor cursor, boolean light, boolean withImageGroup) {
         securityACLService.check(project, READ);
 
         String imageInstanceAlias = "ii";
@@ -591,6 +614,16 @@ public class ImageInstanceService extends ModelService {
         sort = " ORDER BY " + sortedProperty;
         sort += (sortDirection.equals("desc")) ? " DESC " : " ASC ";
 
+        String keysetConstraint = "";
+        Map<String, Object> keysetParams = new HashMap<>();
+        if (cursor != null) {
+            sortDirection = sortDirection.equals("desc") ? "desc" : "asc";
+            cursor.checkSort(sortColumn, sortDirection);
+            select += ", " + sortedProperty + " AS keyset_value ";
+            keysetConstraint = cursor.toSQLConstraint(sortedProperty, imageInstanceAlias + ".id", keysetParams);
+            sort = KeysetCursor.orderBy(sortedProperty, imageInstanceAlias + ".id", sortDirection);
+        }
+
         if (joinAI || joinMime) {
             select += ", " + ABSTRACT_IMAGE_COLUMNS_FOR_SEARCH.stream().map(x -> abstractImageAlias + "." + x).collect(Collectors.joining(",")) + " ";
             from += "JOIN abstract_image " + abstractImageAlias + " ON " + abstractImageAlias + ".id = " + imageInstanceAlias + ".base_image_id ";
@@ -604,7 +637,7 @@ public class ImageInstanceService extends ModelService {
             from += "LEFT OUTER JOIN (SELECT * FROM image_group_image_instance WHERE deleted IS NULL) " + imageGroupAlias + " ON " + imageInstanceAlias + ".id = " + imageGroupAlias + ".image_id ";
         }
 
-        request = select + from + where + search + sort;
+        request = select + from + where + search + keysetConstraint + sort;
         if (max > 0) {
             request += " LIMIT " + max;
         }
@@ -622,8 +655,13 @@ public class ImageInstanceService extends ModelService {
         for (Map.Entry<String, Object> entry : mapParams.entrySet()) {
             query.setParameter(entry.getKey(), entry.getValue());
         }
+        for (Map.Entry<String, Object> entry : keysetParams.entrySet()) {
+            query.setParameter(entry.getKey(), entry.getValue());
+        }
         List<Tuple> resultList = query.getResultList();
         List<Map<String, Object>> results = new ArrayList<>();
+        Object lastKeysetValue = null;
+        Long lastId = null;
         for (Tuple rowResult : resultList) {
             JsonObject result = new JsonObject();
             for (TupleElement<?> element : rowResult.getElements()) {
@@ -634,6 +672,10 @@ public class ImageInstanceService extends ModelService {
                 String alias = SQLUtils.toCamelCase(element.getAlias());
                 result.put(alias, value);
             }
+            if (cursor != null) {
+                lastKeysetValue = result.remove("keysetValue");
+                lastId = (Long) result.get("id");
+            }
             result.computeIfPresent("created", (k, v) -> ((Date) v).getTime());
             result.computeIfPresent("updated", (k, v) -> ((Date) v).getTime());
             result.computeIfPresent("reviewStart", (k, v) -> ((Date) v).getTime());
@@ -687,6 +729,9 @@ public class ImageInstanceService extends ModelService {
             }
             results = lightResult;
         }
+        if (cursor != null) {
+            return KeysetPage.of(results, max, count, sortColumn, sortDirection, lastKeysetValue, lastId);
+        }
         Page<Map<String, Object>> page = PageUtils.buildPageFromPageResults(results, max, offset, count);
         return page;
 
@@ -837,7 +882,7 @@ public class ImageInstanceService extends ModelService {
             p.setDomain(domain);
             propertyService.add(p.toJsonObject());
         }
-
+        imageServerService.warmUpMetadata(ai);
     }
 
     protected void beforeDelete(CytomineDomain domain, CommandResponse response) {
@@ -907,16 +952,10 @@ public class ImageInstanceService extends ModelService {
         securityACLService.checkFullOrRestrictedForOwner(domain.container(), ((ImageInstance) domain).getUser());
 
         Project project = ((ImageInstance) domain).getProject();
-        if (Lock.getInstance().lockProject(project)) {
-            try {
-                log.debug("Delete image " + domain.getId());
-                Command c = new DeleteCommand(currentUser, transaction);
-                return executeCommand(c, domain, null);
-            } finally {
-                Lock.getInstance().unlockProject(project);
-            }
-        } else {
-            throw new ServerException("Cannot acquire lock for project " + project.getId() + " , tryLock return false");
+        try (LockService.Lease lease = lockService.lockProject(project.getId())) {
+            log.debug("Delete image " + domain.getId());
+            Command c = new DeleteCommand(currentUser, transaction);
+            return executeCommand(c, domain, null);
         }
     }
 
@@ -959,6 +998,7 @@ public class ImageInstanceService extends ModelService {
     }
 
     private void deleteDependentLastUserPosition(ImageInstance image, Transaction transaction, Task task) {
+        userPositionBuffer.removeImage(image.getId());
         lastUserPositionRepository.deleteAllByImage(image.getId());
     }
 
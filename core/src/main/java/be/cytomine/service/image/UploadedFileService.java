@@ -30,6 +30,7 @@ import be.cytomine.repository.image.UploadedFileRepository;
 import be.cytomine.service.CurrentUserService;
 import be.cytomine.service.ModelService;
 import be.cytomine.service.UrlApi;
+import be.cytomine.service.middleware.ImageMetadataCache;
 import be.cytomine.service.security.SecurityACLService;
 import be.cytomine.service.utils.TaskService;
 import be.cytomine.utils.*;
@@ -90,6 +91,9 @@ public class UploadedFileService extends ModelService {
     @Autowired
     private TaskService taskService;
 
+    @Autowired
+    private ImageMetadataCache imageMetadataCache;
+
 
     @Override
     public Class currentDomain() {
@@ -423,6 +427,7 @@ public class UploadedFileService extends ModelService {
 
 
     public void deleteDependencies(CytomineDomain domain, Transaction transaction, Task task) {
+        imageMetadataCache.invalidate(((UploadedFile) domain).getPath());
         deleteDependentAbstractSlice(domain, transaction, task);
         deleteDependentAbstractImage(domain, transaction, task);
         deleteDependentCompanionFile(domain, transaction, task);
@@ -0,0 +1,237 @@
+package be.cytomine.service.middleware;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.TwoLevelCache;
+
+/**
+ * Read-through cache of the image server metadata (info, metadata, associated, histograms, formats).
+ *
+ * These responses are immutable for a given image path. An entry is keyed by the image path and the URI of the
+ * request (which holds the plane, the channels and n_bins). Concurrent misses on the same key are de-duplicated:
+ * only one request is sent to the image server, the other callers wait for its response.
+ *
+ * The entries of a path are invalidated when its abstract image or uploaded file is deleted (now and once the
+ * transaction is completed). The metadata of an image can be loaded in background when it is added to a project.
+ */
+@Slf4j
+@Component
+public class ImageMetadataCache {
+
+    private final int maxEntries;
+
+    private final long timeToLiveInMillis;
+
+    private final boolean warmUpEnabled;
+
+    private final Map<Key, CachedMetadata> entries;
+
+    private final Map<Key, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+
+    private final ExecutorService warmUpExecutor;
+
+    // incremented by each invalidation, so that a response loaded before an invalidation is not cached
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong sharedMisses = new AtomicLong();
+
+    public ImageMetadataCache(
+            @Value("${application.imageServer.metadataCache.maxEntries:10000}") int maxEntries,
+            @Value("${application.imageServer.metadataCache.timeToLiveInMinutes:1440}") long timeToLiveInMinutes,
+            @Value("${application.imageServer.metadataCache.warmUp:true}") boolean warmUpEnabled) {
+        this.maxEntries = maxEntries;
+        this.timeToLiveInMillis = timeToLiveInMinutes * 60 * 1000;
+        this.warmUpEnabled = warmUpEnabled && maxEntries > 0;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CachedMetadata> eldest) {
+                return size() > ImageMetadataCache.this.maxEntries;
+            }
+        };
+        // warm-up is best effort: tasks are dropped when the queue is full
+        this.warmUpExecutor = new ThreadPoolExecutor(1, 2, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(1000),
+                new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    @PreDestroy
+    public void close() {
+        warmUpExecutor.shutdownNow();
+    }
+
+    public String get(String path, String uri, Supplier<String> loader) {
+        if (maxEntries <= 0) {
+            return loader.get();
+        }
+        Key key = new Key(path, uri);
+        synchronized (entries) {
+            CachedMetadata cached = entries.get(key);
+            if (cached != null && cached.expiration > System.currentTimeMillis()) {
+                hits.incrementAndGet();
+                return cached.value;
+            } else if (cached != null) {
+                entries.remove(key);
+            }
+        }
+
+        CompletableFuture<String> future = new CompletableFuture<>();
+        CompletableFuture<String> pending = inFlight.putIfAbsent(key, future);
+        if (pending != null) {
+            sharedMisses.incrementAndGet();
+            try {
+                return pending.join();
+            } catch (CompletionException e) {
+                throw (e.getCause() instanceof RuntimeException cause) ? cause : e;
+            }
+        }
+
+        misses.incrementAndGet();
+        long loadGeneration = generation.get();
+        try {
+            String value = loader.get();
+            synchronized (entries) {
+                if (value != null && loadGeneration == generation.get()) {
+                    entries.put(key, new CachedMetadata(value, System.currentTimeMillis() + timeToLiveInMillis));
+                }
+            }
+            future.complete(value);
+            return value;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * Remove all entries of the image path (now and once the current transaction is completed)
+     */
+    public void invalidate(String path) {
+        if (path == null || maxEntries <= 0) {
+            return;
+        }
+        TwoLevelCache.runNowAndAfterTransaction(() -> {
+            generation.incrementAndGet();
+            synchronized (entries) {
+                entries.keySet().removeIf(key -> path.equals(key.path));
+            }
+        });
+    }
+
+    /**
+     * Run the loading of the metadata in background, once the current transaction is committed
+     */
+    public void warmUp(Runnable loading) {
+        if (!warmUpEnabled) {
+            return;
+        }
+        Runnable task = () -> warmUpExecutor.execute(() -> {
+            try {
+                loading.run();
+            } catch (RuntimeException e) {
+                log.warn("Cannot warm up image metadata: {}", e.getMessage());
+            }
+        });
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    task.run();
+                }
+            });
+        } else {
+            task.run();
+        }
+    }
+
+    public JsonObject getStatistics() {
+        JsonObject statistics = new JsonObject();
+        synchronized (entries) {
+            statistics.put("size", entries.size());
+        }
+        statistics.put("maxSize", maxEntries);
+        statistics.put("hits", hits.get());
+        statistics.put("misses", misses.get());
+        statistics.put("sharedMisses", sharedMisses.get());
+        return statistics;
+    }
+
+    private static class Key {
+
+        private final String path;
+
+        private final String uri;
+
+        private Key(String path, String uri) {
+            this.path = path;
+            this.uri = uri;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key key)) {
+                return false;
+            }
+            return Objects.equals(path, key.path) && Objects.equals(uri, key.uri);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, uri);
+        }
+    }
+
+    private static class CachedMetadata {
+
+        private final String value;
+
+        private final long expiration;
+
+        private CachedMetadata(String value, long expiration) {
+            this.value = value;
+            this.expiration = expiration;
+        }
+    }
+}
@@ -0,0 +1,732 @@
+package be.cytomine.service.middleware;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import be.cytomine.exceptions.MiddlewareException;
+import be.cytomine.exceptions.ServerException;
+import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.PreparedRequest;
+
+/**
+ * Cache of the images (thumbs, tiles, labels, crops) returned by the image server.
+ *
+ * An entry is keyed by the request sent to the image server: method, URI (slice path and query parameters), Accept
+ * header and body. There are two tiers:
+ * - in memory, bounded in bytes. It is a LRU with a frequency-based admission: when the cache is full, a new entry
+ *   only replaces the LRU victims if it has been requested more often than each of them (TinyLFU);
+ * - on disk, one file per entry, bounded in bytes (LRU). The index is kept in memory, so each instance writes in a
+ *   directory of its own below diskPath, with a marker file locked while the instance runs. At startup, the directories
+ *   of the stopped instances are removed, deleting only the files written by the cache.
+ * Both tiers are split in segments (by key) with their own lock and their own share of the size, so that concurrent
+ * requests do not wait on a single lock. The frequency sketch is lock-free.
+ *
+ * An entry keeps the body and the upstream headers that describe it (content type, cache control, validators...),
+ * which are replayed on a hit.
+ *
+ * Thumbs and tiles are streamed to the client (stream): the image fetched is copied in the cache while it is sent.
+ *
+ * An entry is served without contacting the image server during freshnessInSeconds. After that, it is revalidated
+ * with its ETag (If-None-Match): a 304 from the image server refreshes the entry without transferring the image.
+ * If the If-None-Match of the client matches the ETag of the entry, the cache answers 304.
+ */
+@Slf4j
+@Component
+public class ImageResponseCache {
+
+    private static final int MAX_SEGMENTS = 16;
+
+    private static final String INSTANCE_DIRECTORY_PREFIX = "instance-";
+
+    private static final String INSTANCE_MARKER = ".cytomine-image-cache";
+
+    // directories of the instances of this JVM: their marker must not be opened again, closing a channel may release
+    // the locks held by the JVM on the file
+    private static final Set<Path> RUNNING_INSTANCES = ConcurrentHashMap.newKeySet();
+
+    // files written by the cache: the entries (SHA-256 of the request) and their temporary files
+    private static final Pattern ENTRY_FILE = Pattern.compile("[0-9a-f]{64}(-?[0-9]+\\.tmp)?");
+
+    // upstream headers stored with an entry and replayed on a hit (Content-Length is computed from the body)
+    private static final List<String> CACHED_HEADERS = List.of(HttpHeaders.CONTENT_TYPE,
+            HttpHeaders.CONTENT_DISPOSITION, HttpHeaders.CACHE_CONTROL, HttpHeaders.ETAG, HttpHeaders.EXPIRES,
+            HttpHeaders.LAST_MODIFIED, HttpHeaders.VARY);
+
+    private final long memoryMaxSize;
+
+    private final long diskMaxSize;
+
+    private final Path diskRoot;
+
+    // directory of this instance, below diskRoot
+    private Path diskPath;
+
+    private FileChannel markerChannel;
+
+    private final long maxEntrySize;
+
+    private final long freshnessInMillis;
+
+    private final List<Segment<CachedImage>> memory;
+
+    private final List<Segment<DiskEntry>> disk;
+
+    private final FrequencySketch sketch = new FrequencySketch(1 << 16);
+
+    private final AtomicLong memoryHits = new AtomicLong();
+
+    private final AtomicLong diskHits = new AtomicLong();
+
+    private final AtomicLong revalidations = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong rejectedAdmissions = new AtomicLong();
+
+    private final AtomicLong bytesSaved = new AtomicLong();
+
+    public ImageResponseCache(
+            @Value("${application.imageServer.cache.memoryMaxSizeInMB:256}") long memoryMaxSizeInMB,
+            @Value("${application.imageServer.cache.diskMaxSizeInMB:2048}") long diskMaxSizeInMB,
+            @Value("${application.imageServer.cache.diskPath:}") String diskPath,
+            @Value("${application.imageServer.cache.maxEntrySizeInKB:2048}") long maxEntrySizeInKB,
+            @Value("${application.imageServer.cache.freshnessInSeconds:300}") long freshnessInSeconds) {
+        this.memoryMaxSize = memoryMaxSizeInMB * 1024 * 1024;
+        this.diskMaxSize = diskMaxSizeInMB * 1024 * 1024;
+        this.diskRoot = (diskPath == null || diskPath.isBlank())
+                ? Paths.get(System.getProperty("java.io.tmpdir"), "cytomine-image-cache")
+                : Paths.get(diskPath);
+        this.maxEntrySize = maxEntrySizeInKB * 1024;
+        this.freshnessInMillis = freshnessInSeconds * 1000;
+        this.memory = segments(memoryMaxSize, maxEntrySize);
+        this.disk = segments(diskMaxSize, maxEntrySize);
+    }
+
+    /**
+     * Split maxSize in segments large enough for several entries of maxEntrySize
+     */
+    private static <V> List<Segment<V>> segments(long maxSize, long maxEntrySize) {
+        int count = (int) Math.max(1, Math.min(MAX_SEGMENTS, maxSize / Math.max(1, 4 * maxEntrySize)));
+        List<Segment<V>> segments = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            segments.add(new Segment<>(maxSize / count));
+        }
+        return segments;
+    }
+
+    private static <V> Segment<V> segment(List<Segment<V>> segments, String key) {
+        return segments.get(Math.floorMod(key.hashCode(), segments.size()));
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (diskMaxSize <= 0) {
+            return;
+        }
+        Files.createDirectories(diskRoot);
+        removeStoppedInstances();
+        diskPath = Files.createTempDirectory(diskRoot, INSTANCE_DIRECTORY_PREFIX);
+        markerChannel = FileChannel.open(diskPath.resolve(INSTANCE_MARKER),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        markerChannel.lock();
+        RUNNING_INSTANCES.add(diskPath);
+        log.info("Image cache entries are written in {}", diskPath);
+    }
+
+    @PreDestroy
+    public void destroy() throws IOException {
+        if (markerChannel == null) {
+            return;
+        }
+        // closing the channel releases the lock
+        markerChannel.close();
+        RUNNING_INSTANCES.remove(diskPath);
+        removeInstance(diskPath);
+    }
+
+    /**
+     * Remove the directories of the instances whose marker is not locked anymore
+     */
+    private void removeStoppedInstances() throws IOException {
+        try (Stream<Path> directories = Files.list(diskRoot)) {
+            for (Path directory : directories.toList()) {
+                Path marker = directory.resolve(INSTANCE_MARKER);
+                if (!directory.getFileName().toString().startsWith(INSTANCE_DIRECTORY_PREFIX)
+                        || !Files.isRegularFile(marker) || RUNNING_INSTANCES.contains(directory)) {
+                    continue;
+                }
+                try (FileChannel channel = FileChannel.open(marker, StandardOpenOption.WRITE)) {
+                    FileLock lock = channel.tryLock();
+                    if (lock == null) {
+                        continue;
+                    }
+                    lock.release();
+                } catch (OverlappingFileLockException e) {
+                    // locked by an instance of this JVM
+                    continue;
+                }
+                removeInstance(directory);
+            }
+        }
+    }
+
+    private void removeInstance(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                if (ENTRY_FILE.matcher(file.getFileName().toString()).matches()) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+        Files.deleteIfExists(directory.resolve(INSTANCE_MARKER));
+        try {
+            Files.deleteIfExists(directory);
+        } catch (DirectoryNotEmptyException e) {
+            log.warn("Image cache directory {} contains files that have not been written by the cache", directory);
+        }
+    }
+
+    /**
+     * Get the image for the request, from the cache or with fetch (which sends the request to the image server).
+     *
+     * @param clientEtag If-None-Match of the client (may be null)
+     */
+    public ResponseEntity<byte[]> get(PreparedRequest request, String clientEtag,
+                                      Function<PreparedRequest, ResponseEntity<byte[]>> fetch) {
+        if (memoryMaxSize <= 0 && diskMaxSize <= 0) {
+            return fetch.apply(request);
+        }
+        String key = key(request);
+        Lookup lookup = lookup(key, request);
+        CachedImage cached = lookup.cached();
+        if (lookup.fresh()) {
+            return toResponse(cached, clientEtag);
+        }
+
+        ResponseEntity<byte[]> response = fetch.apply(request);
+        if (cached != null && response.getStatusCode().value() == HttpStatus.NOT_MODIFIED.value()) {
+            return toResponse(revalidate(key, cached, response.getHeaders()), clientEtag);
+        }
+
+        misses.incrementAndGet();
+        if (response.getStatusCode().value() != HttpStatus.OK.value() || response.getBody() == null
+                || response.getBody().length > maxEntrySize) {
+            return response;
+        }
+        CachedImage fetched = new CachedImage(response.getBody(), cachedHeaders(response.getHeaders()),
+                System.currentTimeMillis());
+        put(key, fetched);
+        if (clientEtag != null && clientEtag.equals(fetched.etag())) {
+            return toResponse(fetched, clientEtag);
+        }
+        return response;
+    }
+
+    /**
+     * Same as get, but the image fetched is streamed to the client: it is put in the cache once it has been entirely
+     * read (if it is not larger than maxEntrySize).
+     */
+    public ResponseEntity<Resource> stream(PreparedRequest request, String clientEtag,
+                                           Function<PreparedRequest, ResponseEntity<Resource>> fetch) {
+        if (memoryMaxSize <= 0 && diskMaxSize <= 0) {
+            return fetch.apply(request);
+        }
+        String key = key(request);
+        Lookup lookup = lookup(key, request);
+        CachedImage cached = lookup.cached();
+        if (lookup.fresh()) {
+            return toResource(toResponse(cached, clientEtag));
+        }
+
+        ResponseEntity<Resource> response = fetch.apply(request);
+        if (cached != null && response.getStatusCode().value() == HttpStatus.NOT_MODIFIED.value()) {
+            return toResource(toResponse(revalidate(key, cached, response.getHeaders()), clientEtag));
+        }
+
+        misses.incrementAndGet();
+        long contentLength = response.getHeaders().getContentLength();
+        if (response.getStatusCode().value() != HttpStatus.OK.value() || response.getBody() == null
+                || contentLength > maxEntrySize) {
+            return response;
+        }
+        HttpHeaders headers = cachedHeaders(response.getHeaders());
+        try {
+            InputStream body = response.getBody().getInputStream();
+            if (clientEtag != null && clientEtag.equals(response.getHeaders().getETag())) {
+                // the client has the image: it is read for the cache only
+                byte[] image;
+                try (body) {
+                    image = body.readNBytes((int) Math.min(maxEntrySize + 1, Integer.MAX_VALUE));
+                }
+                CachedImage fetched = new CachedImage(image, headers, System.currentTimeMillis());
+                if (image.length <= maxEntrySize) {
+                    put(key, fetched);
+                }
+                return toResource(toResponse(fetched, clientEtag));
+            }
+            InputStream caching = new CachingInputStream(body, maxEntrySize,
+                    image -> put(key, new CachedImage(image, headers, System.currentTimeMillis())));
+            return new ResponseEntity<>(new InputStreamResource(caching), response.getHeaders(), response.getStatusCode());
+        } catch (IOException e) {
+            throw new MiddlewareException("Cannot read image from image server: " + e.getMessage());
+        }
+    }
+
+    public JsonObject getStatistics() {
+        long memoryHitCount = memoryHits.get();
+        long diskHitCount = diskHits.get();
+        long revalidationCount = revalidations.get();
+        long missCount = misses.get();
+        long total = memoryHitCount + diskHitCount + revalidationCount + missCount;
+        JsonObject statistics = new JsonObject();
+        statistics.put("memoryEntries", memory.stream().mapToInt(Segment::entryCount).sum());
+        statistics.put("memorySize", memory.stream().mapToLong(Segment::size).sum());
+        statistics.put("memoryMaxSize", memoryMaxSize);
+        statistics.put("memorySegments", memory.size());
+        statistics.put("diskEntries", disk.stream().mapToInt(Segment::entryCount).sum());
+        statistics.put("diskSize", disk.stream().mapToLong(Segment::size).sum());
+        statistics.put("diskMaxSize", diskMaxSize);
+        statistics.put("memoryHits", memoryHitCount);
+        statistics.put("diskHits", diskHitCount);
+        statistics.put("revalidations", revalidationCount);
+        statistics.put("misses", missCount);
+        statistics.put("rejectedAdmissions", rejectedAdmissions.get());
+        statistics.put("bytesSaved", bytesSaved.get());
+        statistics.put("hitRatio", total == 0 ? 0d : (double) (memoryHitCount + diskHitCount + revalidationCount) / total);
+        return statistics;
+    }
+
+    /**
+     * Entry of the key, from memory or from disk, and whether it can be served without revalidation. The If-None-Match
+     * of the request is replaced by the ETag of the entry to revalidate, if any.
+     */
+    private Lookup lookup(String key, PreparedRequest request) {
+        sketch.increment(key);
+
+        CachedImage cached = getFromMemory(key);
+        boolean fromDisk = false;
+        if (cached == null) {
+            cached = getFromDisk(key);
+            fromDisk = cached != null;
+        }
+
+        request.getHeaders().remove(HttpHeaders.IF_NONE_MATCH);
+        if (cached != null && System.currentTimeMillis() - cached.validatedAt <= freshnessInMillis) {
+            (fromDisk ? diskHits : memoryHits).incrementAndGet();
+            if (fromDisk) {
+                putInMemory(key, cached);
+            }
+            bytesSaved.addAndGet(cached.body.length);
+            return new Lookup(cached, true);
+        }
+        if (cached != null && cached.etag() != null) {
+            request.getHeaders().set(HttpHeaders.IF_NONE_MATCH, cached.etag());
+        }
+        return new Lookup(cached, false);
+    }
+
+    /**
+     * The image server answered 304 to the revalidation of the entry
+     */
+    private CachedImage revalidate(String key, CachedImage cached, HttpHeaders upstream) {
+        revalidations.incrementAndGet();
+        bytesSaved.addAndGet(cached.body.length);
+        // a 304 may update the cache headers (Cache-Control, Expires...) of the entry
+        HttpHeaders headers = new HttpHeaders();
+        headers.putAll(cached.headers);
+        headers.putAll(cachedHeaders(upstream));
+        CachedImage revalidated = new CachedImage(cached.body, headers, System.currentTimeMillis());
+        putInMemory(key, revalidated);
+        revalidateOnDisk(key, revalidated);
+        return revalidated;
+    }
+
+    private static ResponseEntity<Resource> toResource(ResponseEntity<byte[]> response) {
+        Resource body = response.getBody() != null ? new ByteArrayResource(response.getBody()) : null;
+        return new ResponseEntity<>(body, response.getHeaders(), response.getStatusCode());
+    }
+
+    private static HttpHeaders cachedHeaders(HttpHeaders upstream) {
+        HttpHeaders headers = new HttpHeaders();
+        for (String name : CACHED_HEADERS) {
+            List<String> values = upstream.get(name);
+            if (values != null && !values.isEmpty()) {
+                headers.put(name, values);
+            }
+        }
+        return headers;
+    }
+
+    private static ResponseEntity<byte[]> toResponse(CachedImage cached, String clientEtag) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.putAll(cached.headers);
+        if (clientEtag != null && clientEtag.equals(cached.etag())) {
+            headers.remove(HttpHeaders.CONTENT_TYPE);
+            headers.remove(HttpHeaders.CONTENT_DISPOSITION);
+            return new ResponseEntity<>(headers, HttpStatus.NOT_MODIFIED);
+        }
+        headers.setContentLength(cached.body.length);
+        return new ResponseEntity<>(cached.body, headers, HttpStatus.OK);
+    }
+
+    private void put(String key, CachedImage image) {
+        putInMemory(key, image);
+        if (diskMaxSize > 0) {
+            putOnDisk(key, image);
+        }
+    }
+
+    private CachedImage getFromMemory(String key) {
+        Segment<CachedImage> segment = segment(memory, key);
+        synchronized (segment) {
+            return segment.entries.get(key);
+        }
+    }
+
+    private void putInMemory(String key, CachedImage image) {
+        Segment<CachedImage> segment = segment(memory, key);
+        if (image.body.length > segment.maxSize) {
+            return;
+        }
+        int frequency = sketch.frequency(key);
+        synchronized (segment) {
+            CachedImage previous = segment.entries.get(key);
+            long needed = image.body.length - (previous != null ? previous.body.length : 0);
+
+            // the victims are chosen and the admission is decided before anything is evicted
+            List<String> victims = new ArrayList<>();
+            long freed = 0;
+            Iterator<Map.Entry<String, CachedImage>> lru = segment.entries.entrySet().iterator();
+            while (segment.size - freed + needed > segment.maxSize && lru.hasNext()) {
+                Map.Entry<String, CachedImage> victim = lru.next();
+                if (victim.getKey().equals(key)) {
+                    continue;
+                }
+                if (previous == null && frequency <= sketch.frequency(victim.getKey())) {
+                    rejectedAdmissions.incrementAndGet();
+                    return;
+                }
+                victims.add(victim.getKey());
+                freed += victim.getValue().body.length;
+            }
+
+            for (String victim : victims) {
+                segment.size -= segment.entries.remove(victim).body.length;
+            }
+            segment.entries.put(key, image);
+            segment.size += needed;
+        }
+    }
+
+    private CachedImage getFromDisk(String key) {
+        if (diskMaxSize <= 0) {
+            return null;
+        }
+        Segment<DiskEntry> segment = segment(disk, key);
+        DiskEntry entry;
+        synchronized (segment) {
+            entry = segment.entries.get(key);
+        }
+        if (entry == null) {
+            return null;
+        }
+        try {
+            return new CachedImage(Files.readAllBytes(diskPath.resolve(key)), entry.headers, entry.validatedAt);
+        } catch (IOException e) {
+            // evicted meanwhile
+            return null;
+        }
+    }
+
+    private void putOnDisk(String key, CachedImage image) {
+        Segment<DiskEntry> segment = segment(disk, key);
+        if (image.body.length > segment.maxSize) {
+            return;
+        }
+        try {
+            Path temp = Files.createTempFile(diskPath, key, ".tmp");
+            Files.write(temp, image.body);
+            Files.move(temp, diskPath.resolve(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Cannot write image cache entry {}: {}", key, e.getMessage());
+            return;
+        }
+        DiskEntry entry = new DiskEntry(image.body.length, image.headers, image.validatedAt);
+        synchronized (segment) {
+            DiskEntry previous = segment.entries.put(key, entry);
+            segment.size += entry.size - (previous != null ? previous.size : 0);
+            Iterator<Map.Entry<String, DiskEntry>> lru = segment.entries.entrySet().iterator();
+            while (segment.size > segment.maxSize && lru.hasNext()) {
+                Map.Entry<String, DiskEntry> victim = lru.next();
+                if (victim.getKey().equals(key)) {
+                    continue;
+                }
+                segment.size -= victim.getValue().size;
+                lru.remove();
+                try {
+                    Files.deleteIfExists(diskPath.resolve(victim.getKey()));
+                } catch (IOException e) {
+                    log.warn("Cannot delete image cache entry {}: {}", victim.getKey(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Update the validation time and the headers of the entry on disk, without writing the file again
+     */
+    private void revalidateOnDisk(String key, CachedImage image) {
+        if (diskMaxSize <= 0) {
+            return;
+        }
+        Segment<DiskEntry> segment = segment(disk, key);
+        synchronized (segment) {
+            DiskEntry entry = segment.entries.get(key);
+            if (entry != null) {
+                segment.entries.put(key, new DiskEntry(entry.size, image.headers, image.validatedAt));
+                return;
+            }
+        }
+        putOnDisk(key, image);
+    }
+
+    private static String key(PreparedRequest request) {
+        String value = request.getMethod() + " " + request.getURI() + "\n"
+                + request.getHeaders().getFirst(HttpHeaders.ACCEPT) + "\n"
+                + (request.getBody() != null ? request.getBody().toString() : "");
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new ServerException(e.getMessage(), e);
+        }
+    }
+
+    private record Lookup(CachedImage cached, boolean fresh) {
+    }
+
+    /**
+     * Copy of the bytes read, given to onComplete when the stream is closed after having been entirely read
+     * (nothing is kept above maxSize)
+     */
+    private static class CachingInputStream extends FilterInputStream {
+
+        private final long maxSize;
+
+        private final Consumer<byte[]> onComplete;
+
+        private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+        private boolean complete = false;
+
+        private CachingInputStream(InputStream in, long maxSize, Consumer<byte[]> onComplete) {
+            super(in);
+            this.maxSize = maxSize;
+            this.onComplete = onComplete;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int count = read(single, 0, 1);
+            return count < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            if (count < 0) {
+                complete = true;
+            } else if (copy != null && copy.size() + count <= maxSize) {
+                copy.write(buffer, offset, count);
+            } else {
+                copy = null;
+            }
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (complete && copy != null) {
+                    onComplete.accept(copy.toByteArray());
+                }
+                copy = null;
+            }
+        }
+    }
+
+    /**
+     * LRU entries of a segment of a tier, guarded by the segment monitor
+     */
+    private static class Segment<V> {
+
+        private final LinkedHashMap<String, V> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+        private final long maxSize;
+
+        private long size = 0;
+
+        private Segment(long maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        private synchronized int entryCount() {
+            return entries.size();
+        }
+
+        private synchronized long size() {
+            return size;
+        }
+    }
+
+    private static class CachedImage {
+
+        private final byte[] body;
+
+        private final HttpHeaders headers;
+
+        private final long validatedAt;
+
+        private CachedImage(byte[] body, HttpHeaders headers, long validatedAt) {
+            this.body = body;
+            this.headers = HttpHeaders.readOnlyHttpHeaders(headers);
+            this.validatedAt = validatedAt;
+        }
+
+        private String etag() {
+            return headers.getETag();
+        }
+    }
+
+    private static class DiskEntry {
+
+        private final long size;
+
+        private final HttpHeaders headers;
+
+        private final long validatedAt;
+
+        private DiskEntry(long size, HttpHeaders headers, long validatedAt) {
+            this.size = size;
+            this.headers = headers;
+            this.validatedAt = validatedAt;
+        }
+    }
+
+    /**
+     * Approximate access frequency of the keys (count-min sketch with 4 bit counters), halved periodically so that
+     * old popularity fades.
+     *
+     * The counters are updated with compare-and-set, without a lock. A halving may run concurrently with increments,
+     * which only makes the estimates slightly less accurate.
+     */
+    static class FrequencySketch {
+
+        private static final int[] SEEDS = {0x97cb3127, 0xb1a1b1a1, 0x4bd1b0f3, 0x2f8a5b4d};
+
+        private final AtomicIntegerArray counters;
+
+        private final int width;
+
+        private final int mask;
+
+        private final int sampleSize;
+
+        private final AtomicInteger additions = new AtomicInteger();
+
+        FrequencySketch(int width) {
+            counters = new AtomicIntegerArray(SEEDS.length * width);
+            this.width = width;
+            mask = width - 1;
+            sampleSize = 10 * width;
+        }
+
+        void increment(String key) {
+            int hash = key.hashCode();
+            for (int i = 0; i < SEEDS.length; i++) {
+                counters.getAndUpdate(index(hash, i), counter -> counter < 15 ? counter + 1 : counter);
+            }
+            // a single thread reaches the sample size and halves the counters
+            if (additions.incrementAndGet() == sampleSize) {
+                for (int j = 0; j < counters.length(); j++) {
+                    counters.getAndUpdate(j, counter -> counter >> 1);
+                }
+                additions.addAndGet(-sampleSize / 2);
+            }
+        }
+
+        int frequency(String key) {
+            int hash = key.hashCode();
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < SEEDS.length; i++) {
+                frequency = Math.min(frequency, counters.get(index(hash, i)));
+            }
+            return frequency;
+        }
+
+        private int index(int hash, int i) {
+            int h = (hash ^ SEEDS[i]) * 0x9E3779B9;
+            return i * width + ((h ^ (h >>> 16)) & mask);
+        }
+    }
+}
@@ -0,0 +1,419 @@
+package be.cytomine.service.middleware;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.NotImplementedException;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.gateway.mvc.ProxyExchange;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.client.RestTemplate;
+
+import be.cytomine.exceptions.MiddlewareException;
+import be.cytomine.utils.PreparedRequest;
+
+/**
+ * HTTP client used for all the image server traffic.
+ *
+ * Connections are pooled (and kept alive) per image server host. Each host has a bulkhead: a request waits at most
+ * bulkheadWaitInMillis for one of the maxConcurrentRequestsPerHost slots, otherwise it is rejected, so that a slow
+ * image server cannot hold all the request threads. The slots never outnumber the pooled connections of a host, so an
+ * admitted request does not wait again for a connection. Latency, errors and transferred bytes are recorded per
+ * endpoint.
+ *
+ * Images (thumbs, tiles) are streamed: the body of the upstream response is copied to the servlet output as it is
+ * received, and the bulkhead slot and the connection are held until it is closed. Other responses are read in memory.
+ */
+@Slf4j
+@Component
+public class ImageServerClient {
+
+    private final int maxConnections;
+
+    private final int maxConnectionsPerHost;
+
+    private final long connectTimeoutInMillis;
+
+    private final long readTimeoutInMillis;
+
+    @Getter
+    private final int maxConcurrentRequestsPerHost;
+
+    private final long bulkheadWaitInMillis;
+
+    private final long metricsLogIntervalInMinutes;
+
+    private final Map<String, Semaphore> bulkheads = new ConcurrentHashMap<>();
+
+    private final Map<String, EndpointMetrics> metrics = new ConcurrentHashMap<>();
+
+    private CloseableHttpClient httpClient;
+
+    @Getter
+    private ClientHttpRequestFactory requestFactory;
+
+    private RestTemplate restTemplate;
+
+    private ScheduledExecutorService scheduler;
+
+    public ImageServerClient(
+            @Value("${application.imageServer.client.maxConnections:200}") int maxConnections,
+            @Value("${application.imageServer.client.maxConnectionsPerHost:50}") int maxConnectionsPerHost,
+            @Value("${application.imageServer.client.connectTimeoutInMillis:5000}") long connectTimeoutInMillis,
+            @Value("${application.imageServer.client.readTimeoutInMillis:60000}") long readTimeoutInMillis,
+            @Value("${application.imageServer.client.maxConcurrentRequestsPerHost:50}") int maxConcurrentRequestsPerHost,
+            @Value("${application.imageServer.client.bulkheadWaitInMillis:1000}") long bulkheadWaitInMillis,
+            @Value("${application.imageServer.client.metricsLogIntervalInMinutes:5}") long metricsLogIntervalInMinutes) {
+        this.maxConnections = maxConnections;
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.connectTimeoutInMillis = connectTimeoutInMillis;
+        this.readTimeoutInMillis = readTimeoutInMillis;
+        if (maxConcurrentRequestsPerHost > maxConnectionsPerHost) {
+            log.warn("maxConcurrentRequestsPerHost ({}) is larger than maxConnectionsPerHost ({}), the bulkhead is "
+                    + "limited to {} requests per host", maxConcurrentRequestsPerHost, maxConnectionsPerHost,
+                    maxConnectionsPerHost);
+        }
+        this.maxConcurrentRequestsPerHost = Math.min(maxConcurrentRequestsPerHost, maxConnectionsPerHost);
+        this.bulkheadWaitInMillis = bulkheadWaitInMillis;
+        this.metricsLogIntervalInMinutes = metricsLogIntervalInMinutes;
+    }
+
+    @PostConstruct
+    public void init() {
+        PoolingHttpClientConnectionManager connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnectionsPerHost)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.ofMilliseconds(connectTimeoutInMillis))
+                        .setSocketTimeout(Timeout.ofMilliseconds(readTimeoutInMillis))
+                        .build())
+                .build();
+        httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.ofMilliseconds(connectTimeoutInMillis))
+                        .setResponseTimeout(Timeout.ofMilliseconds(readTimeoutInMillis))
+                        .build())
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.ofSeconds(30))
+                .build();
+        requestFactory = new HttpComponentsClientHttpRequestFactory(httpClient);
+        restTemplate = new RestTemplate(requestFactory);
+
+        if (metricsLogIntervalInMinutes > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "image-server-metrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleAtFixedRate(this::logMetrics, metricsLogIntervalInMinutes,
+                    metricsLogIntervalInMinutes, TimeUnit.MINUTES);
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        httpClient.close();
+    }
+
+    public <T> T toObject(PreparedRequest request, Class<T> returnType) {
+        return execute(request, () -> request.toObject(restTemplate, returnType));
+    }
+
+    public <T> ResponseEntity<T> toResponseEntity(PreparedRequest request, ProxyExchange<T> proxy, Class<T> returnType) {
+        return execute(request, () -> request.toResponseEntity(restTemplate, proxy, returnType));
+    }
+
+    /**
+     * Send a GET request and stream the body of a 200 response. The body must be closed: the message converter does it
+     * once it is copied to the servlet output. The body of other responses (304, errors) is read at once.
+     */
+    public ResponseEntity<Resource> toStreamedResponseEntity(PreparedRequest request) {
+        if (!HttpMethod.GET.equals(request.getMethod())) {
+            throw new NotImplementedException("toStreamedResponseEntity is not implemented for method: " + request.getMethod());
+        }
+        EndpointMetrics endpointMetrics = metrics.computeIfAbsent(request.getEndpoint(), k -> new EndpointMetrics());
+        Semaphore bulkhead = acquire(request, endpointMetrics);
+
+        long start = System.nanoTime();
+        ClientHttpResponse response = null;
+        boolean failed = true;
+        boolean streamed = false;
+        try {
+            ClientHttpRequest clientRequest = requestFactory.createRequest(request.getURI(), HttpMethod.GET);
+            clientRequest.getHeaders().addAll(request.getHeaders());
+            response = clientRequest.execute();
+
+            HttpHeaders headers = new HttpHeaders();
+            headers.putAll(response.getHeaders());
+            // hop-by-hop headers, set by the servlet container
+            headers.remove(HttpHeaders.TRANSFER_ENCODING);
+            headers.remove(HttpHeaders.CONNECTION);
+
+            if (response.getStatusCode().value() == HttpStatus.OK.value()) {
+                InputStream body = new StreamedBody(response, bulkhead, endpointMetrics, start);
+                streamed = true;
+                return new ResponseEntity<>(new InputStreamResource(body), headers, HttpStatus.OK);
+            }
+            byte[] body = StreamUtils.copyToByteArray(response.getBody());
+            failed = false;
+            endpointMetrics.bytes.add(body.length);
+            return new ResponseEntity<>(body.length > 0 ? new ByteArrayResource(body) : null, headers,
+                    response.getStatusCode());
+        } catch (IOException e) {
+            throw new MiddlewareException("Cannot get " + request.getEndpoint() + " from image server: " + e.getMessage());
+        } finally {
+            if (!streamed) {
+                if (response != null) {
+                    response.close();
+                }
+                bulkhead.release();
+                endpointMetrics.record(System.nanoTime() - start, failed);
+            }
+        }
+    }
+
+    /**
+     * Metrics per endpoint (method and path template), sorted by endpoint
+     */
+    public Map<String, EndpointMetrics> getMetrics() {
+        return Collections.unmodifiableMap(new TreeMap<>(metrics));
+    }
+
+    private <T> T execute(PreparedRequest request, Supplier<T> call) {
+        EndpointMetrics endpointMetrics = metrics.computeIfAbsent(request.getEndpoint(), k -> new EndpointMetrics());
+        Semaphore bulkhead = acquire(request, endpointMetrics);
+
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            T result = call.get();
+            failed = false;
+            endpointMetrics.bytes.add(sizeOf(result));
+            return result;
+        } finally {
+            bulkhead.release();
+            endpointMetrics.record(System.nanoTime() - start, failed);
+        }
+    }
+
+    /**
+     * Take a slot of the bulkhead of the image server host, or reject the request
+     */
+    private Semaphore acquire(PreparedRequest request, EndpointMetrics endpointMetrics) {
+        String host = request.getHost() + ":" + request.getPort();
+        Semaphore bulkhead = bulkheads.computeIfAbsent(host, k -> new Semaphore(maxConcurrentRequestsPerHost));
+
+        boolean acquired;
+        try {
+            acquired = bulkhead.tryAcquire(bulkheadWaitInMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        if (!acquired) {
+            endpointMetrics.rejected.increment();
+            throw new MiddlewareException("Too many concurrent requests to image server " + host);
+        }
+        return bulkhead;
+    }
+
+    private static long sizeOf(Object result) {
+        Object body = (result instanceof ResponseEntity<?> entity) ? entity.getBody() : result;
+        if (body instanceof byte[] bytes) {
+            return bytes.length;
+        } else if (body instanceof String string) {
+            return string.length();
+        }
+        return 0;
+    }
+
+    private void logMetrics() {
+        getMetrics().forEach((endpoint, endpointMetrics) -> {
+            if (endpointMetrics.getRequests() > 0 || endpointMetrics.getRejected() > 0) {
+                log.info("Image server {}: {}", endpoint, endpointMetrics);
+            }
+        });
+    }
+
+    /**
+     * Body of a streamed response: the response and the bulkhead slot are released (and the request recorded) when it
+     * is closed
+     */
+    private static class StreamedBody extends FilterInputStream {
+
+        private final ClientHttpResponse response;
+
+        private final Semaphore bulkhead;
+
+        private final EndpointMetrics endpointMetrics;
+
+        private final long start;
+
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private boolean failed = false;
+
+        private StreamedBody(ClientHttpResponse response, Semaphore bulkhead, EndpointMetrics endpointMetrics,
+                             long start) throws IOException {
+            super(response.getBody());
+            this.response = response;
+            this.bulkhead = bulkhead;
+            this.endpointMetrics = endpointMetrics;
+            this.start = start;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int count = read(single, 0, 1);
+            return count < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            try {
+                int count = super.read(buffer, offset, length);
+                if (count > 0) {
+                    endpointMetrics.bytes.add(count);
+                }
+                return count;
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                try {
+                    response.close();
+                } finally {
+                    bulkhead.release();
+                    endpointMetrics.record(System.nanoTime() - start, failed);
+                }
+            }
+        }
+    }
+
+    public static class EndpointMetrics {
+
+        private final LongAdder requests = new LongAdder();
+
+        private final LongAdder errors = new LongAdder();
+
+        private final LongAdder rejected = new LongAdder();
+
+        private final LongAdder bytes = new LongAdder();
+
+        private final LongAdder totalNanos = new LongAdder();
+
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private void record(long nanos, boolean failed) {
+            requests.increment();
+            if (failed) {
+                errors.increment();
+            }
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        public long getRequests() {
+            return requests.sum();
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        public long getRejected() {
+            return rejected.sum();
+        }
+
+        public long getBytes() {
+            return bytes.sum();
+        }
+
+        public double getAverageLatencyInMillis() {
+            long count = requests.sum();
+            return count == 0 ? 0 : totalNanos.sum() / 1e6 / count;
+        }
+
+        public double getMaxLatencyInMillis() {
+            return maxNanos.get() / 1e6;
+        }
+
+        /**
+         * Bytes received per second spent in requests
+         */
+        public double getThroughput() {
+            long nanos = totalNanos.sum();
+            return nanos == 0 ? 0 : bytes.sum() * 1e9 / nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("requests=%d errors=%d rejected=%d avg=%.1fms max=%.1fms bytes=%d throughput=%.0fB/s",
+                    getRequests(), getErrors(), getRejected(), getAverageLatencyInMillis(), getMaxLatencyInMillis(),
+                    getBytes(), getThroughput());
+        }
+    }
+}
@@ -33,6 +33,7 @@ import org.locationtech.jts.io.WKTReader;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.gateway.mvc.ProxyExchange;
+import org.springframework.core.io.Resource;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -74,6 +75,15 @@ public class ImageServerService {
     @Autowired
     private SimplifyGeometryService simplifyGeometryService;
 
+    @Autowired
+    private ImageServerClient imageServerClient;
+
+    @Autowired
+    private ImageResponseCache imageResponseCache;
+
+    @Autowired
+    private ImageMetadataCache imageMetadataCache;
+
     @Autowired
     public void setImageInstanceService(ImageInstanceService imageInstanceService) {
         this.imageInstanceService = imageInstanceService;
@@ -89,7 +99,7 @@ public class ImageServerService {
         request.setUrl(this.internalImageServerURL());
         request.addPathFragment("storage/size.json");
 
-        return JsonObject.toObject(request.toObject(String.class), StorageStats.class);
+        return JsonObject.toObject(imageServerClient.toObject(request, String.class), StorageStats.class);
     }
 
     private static String retrieveCropFormat(CropParameter cropParameter) {
@@ -148,14 +158,18 @@ public class ImageServerService {
     }
 
     public Map<String, Object> properties(AbstractImage image) throws IOException {
+        return JsonObject.toMap(getInfo(image.getPath()));
+    }
+
+    private String getInfo(String path) {
         PreparedRequest request = new PreparedRequest();
         request.setMethod(HttpMethod.GET);
         request.setUrl(this.internalImageServerURL());
         request.addPathFragment("image");
-        request.addPathFragment(image.getPath(), true);
+        request.addPathFragment(path, true);
         request.addPathFragment("info");
 
-        return JsonObject.toMap(request.toObject(String.class));
+        return getMetadata(path, request);
     }
 
     private static Map<String, Object> renameChannelHistogramKeys(Map<String, Object> hist) {
@@ -181,7 +195,7 @@ public class ImageServerService {
         request.addPathFragment("per-image");
         request.addQueryParameter("n_bins", nBins);
 
-        Map<String, Object> json = JsonObject.toMap(request.toObject(String.class));
+        Map<String, Object> json = JsonObject.toMap(getMetadata(image.getPath(), request));
         return StringUtils.keysToCamelCase(json);
     }
 
@@ -190,18 +204,22 @@ public class ImageServerService {
     }
 
     public Map<String, Object> imageHistogramBounds(AbstractImage image, int nBins) {
+        Map<String, Object> json = JsonObject.toMap(getImageHistogramBounds(image.getPath(), nBins));
+        return StringUtils.keysToCamelCase(json);
+    }
+
+    private String getImageHistogramBounds(String path, int nBins) {
         PreparedRequest request = new PreparedRequest();
         request.setMethod(HttpMethod.GET);
         request.setUrl(this.internalImageServerURL());
         request.addPathFragment("image");
-        request.addPathFragment(image.getPath(), true);
+        request.addPathFragment(path, true);
         request.addPathFragment("histogram");
         request.addPathFragment("per-image");
         request.addPathFragment("bounds");
         request.addQueryParameter("n_bins", nBins);
 
-        Map<String, Object> json = JsonObject.toMap(request.toObject(String.class));
-        return StringUtils.keysToCamelCase(json);
+        return getMetadata(path, request);
     }
 
     public List<Map<String, Object>> formats() {
@@ -210,7 +228,7 @@ public class ImageServerService {
         request.setUrl(this.internalImageServerURL());
         request.addPathFragment("formats");
 
-        JsonObject jsonObject = JsonObject.toJsonObject(request.toObject(String.class));
+        JsonObject jsonObject = JsonObject.toJsonObject(getMetadata(null, request));
         return ((List<Map<String, Object>>) jsonObject.get("items")).stream()
                    .map(StringUtils::keysToCamelCase)
                    .toList();
@@ -229,7 +247,7 @@ public class ImageServerService {
             .add(org.springframework.http.HttpHeaders.CONTENT_TYPE,
                 MediaType.APPLICATION_JSON_VALUE);
 
-        return request.toResponseEntity(proxy, byte[].class);
+        return imageServerClient.toResponseEntity(request, proxy, byte[].class);
     }
 
     public ResponseEntity<byte[]> download(AbstractImage abstractImage, ProxyExchange<byte[]> proxy)
@@ -245,7 +263,7 @@ public class ImageServerService {
             .add(org.springframework.http.HttpHeaders.CONTENT_TYPE,
                 MediaType.APPLICATION_JSON_VALUE);
 
-        return request.toResponseEntity(proxy, byte[].class);
+        return imageServerClient.toResponseEntity(request, proxy, byte[].class);
     }
 
     public ResponseEntity<byte[]> download(CompanionFile companionFile, ProxyExchange<byte[]> proxy)
@@ -261,7 +279,7 @@ public class ImageServerService {
         request.addPathFragment(image.getPath(), true);
         request.addPathFragment("metadata");
 
-        return JsonObject.toJsonObject(request.toObject(String.class))
+        return JsonObject.toJsonObject(getMetadata(image.getPath(), request))
                    .getJSONAttrListMap("items").stream().map(StringUtils::keysToCamelCase).toList();
     }
 
@@ -279,7 +297,7 @@ public class ImageServerService {
         request.addPathFragment("per-channels");
         request.addQueryParameter("n_bins", nBins);
 
-        Map<String, Object> json = JsonObject.toMap(request.toObject(String.class));
+        Map<String, Object> json = JsonObject.toMap(getMetadata(image.getPath(), request));
         List<Map<String, Object>> items = (List<Map<String, Object>>) json.get("items");
         return items.stream()
                    .map(x -> renameChannelHistogramKeys(StringUtils.keysToCamelCase(x)))
@@ -287,20 +305,47 @@ public class ImageServerService {
     }
 
     public List<Map<String, Object>> channelHistogramBounds(AbstractImage image) {
+        Map<String, Object> json = JsonObject.toMap(getChannelHistogramBounds(image.getPath()));
+        List<Map<String, Object>> items = (List<Map<String, Object>>) json.get("items");
+        return items.stream()
+                   .map(x -> renameChannelHistogramKeys(StringUtils.keysToCamelCase(x)))
+                   .toList();
+    }
+
+    private String getChannelHistogramBounds(String path) {
         PreparedRequest request = new PreparedRequest();
         request.setMethod(HttpMethod.GET);
         request.setUrl(this.internalImageServerURL());
         request.addPathFragment("image");
-        request.addPathFragment(image.getPath(), true);
+        request.addPathFragment(path, true);
         request.addPathFragment("histogram");
         request.addPathFragment("per-channels");
         request.addPathFragment("bounds");
 
-        Map<String, Object> json = JsonObject.toMap(request.toObject(String.class));
-        List<Map<String, Object>> items = (List<Map<String, Object>>) json.get("items");
-        return items.stream()
-                   .map(x -> renameChannelHistogramKeys(StringUtils.keysToCamelCase(x)))
-                   .toList();
+        return getMetadata(path, request);
+    }
+
+    /**
+     * Load in background the metadata requested when the image is opened in the viewer
+     */
+    public void warmUpMetadata(AbstractImage image) {
+        String path = image.getPath();
+        if (path == null) {
+            return;
+        }
+        imageMetadataCache.warmUp(() -> {
+            getInfo(path);
+            getImageHistogramBounds(path, 256);
+            getChannelHistogramBounds(path);
+        });
+    }
+
+    /**
+     * Image server metadata are immutable for an image path: they are read through ImageMetadataCache
+     */
+    private String getMetadata(String path, PreparedRequest request) {
+        return imageMetadataCache.get(path, request.getURI().toString(),
+            () -> imageServerClient.toObject(request, String.class));
     }
 
     public List<Map<String, Object>> planeHistograms(AbstractSlice slice, int nBins,
@@ -321,7 +366,7 @@ public class ImageServerService {
             request.addQueryParameter("channels", slice.getChannel());
         }
 
-        Map<String, Object> json = JsonObject.toMap(request.toObject(String.class));
+        Map<String, Object> json = JsonObject.toMap(getMetadata(slice.getPath(), request));
         List<Map<String, Object>> items = (List<Map<String, Object>>) json.get("items");
         return items.stream()
                    .map(x -> renameChannelHistogramKeys(StringUtils.keysToCamelCase(x)))
@@ -346,7 +391,7 @@ public class ImageServerService {
             request.addQueryParameter("channels", slice.getChannel());
         }
 
-        Map<String, Object> json = JsonObject.toMap(request.toObject(String.class));
+        Map<String, Object> json = JsonObject.toMap(getMetadata(slice.getPath(), request));
         List<Map<String, Object>> items = (List<Map<String, Object>>) json.get("items");
         return items.stream()
                    .map(x -> renameChannelHistogramKeys(StringUtils.keysToCamelCase(x)))
@@ -362,7 +407,7 @@ public class ImageServerService {
         request.addPathFragment("info");
         request.addPathFragment("associated");
 
-        return JsonObject.toJsonObject(request.toObject(String.class))
+        return JsonObject.toJsonObject(getMetadata(image.getPath(), request))
                    .getJSONAttrListMap("items").stream().map(x -> (String) x.get("name")).toList();
     }
 
@@ -392,21 +437,19 @@ public class ImageServerService {
             request.getHeaders().add(org.springframework.http.HttpHeaders.IF_NONE_MATCH, etag);
         }
 
-        return request.toResponseEntity(proxy, byte[].class);
+        return imageResponseCache.get(request, etag,
+            r -> imageServerClient.toResponseEntity(r, proxy, byte[].class));
     }
 
-    public ResponseEntity<byte[]> thumb(ImageInstance image, ImageParameter params, String etag,
-                                        ProxyExchange<byte[]> proxy) {
-        return thumb(imageInstanceService.getReferenceSlice(image), params, etag, proxy);
+    public ResponseEntity<Resource> thumb(ImageInstance image, ImageParameter params, String etag) {
+        return thumb(imageInstanceService.getReferenceSlice(image), params, etag);
     }
 
-    public ResponseEntity<byte[]> thumb(SliceInstance slice, ImageParameter params, String etag,
-                                        ProxyExchange<byte[]> proxy) {
-        return thumb(slice.getBaseSlice(), params, etag, proxy);
+    public ResponseEntity<Resource> thumb(SliceInstance slice, ImageParameter params, String etag) {
+        return thumb(slice.getBaseSlice(), params, etag);
     }
 
-    public ResponseEntity<byte[]> thumb(AbstractSlice slice, ImageParameter params, String etag,
-                                        ProxyExchange<byte[]> proxy) {
+    public ResponseEntity<Resource> thumb(AbstractSlice slice, ImageParameter params, String etag) {
         PreparedRequest request = new PreparedRequest();
         request.setMethod(HttpMethod.GET);
         request.setUrl(this.internalImageServerURL());
@@ -451,16 +494,14 @@ public class ImageServerService {
         if (etag != null) {
             request.getHeaders().add(org.springframework.http.HttpHeaders.IF_NONE_MATCH, etag);
         }
-        return request.toResponseEntity(proxy, byte[].class);
+        return imageResponseCache.stream(request, etag, imageServerClient::toStreamedResponseEntity);
     }
 
-    public ResponseEntity<byte[]> normalizedTile(SliceInstance slice, TileParameters params,
-                                                 String etag, ProxyExchange<byte[]> proxy) {
-        return normalizedTile(slice.getBaseSlice(), params, etag, proxy);
+    public ResponseEntity<Resource> normalizedTile(SliceInstance slice, TileParameters params, String etag) {
+        return normalizedTile(slice.getBaseSlice(), params, etag);
     }
 
-    public ResponseEntity<byte[]> normalizedTile(AbstractSlice slice, TileParameters params,
-                                                 String etag, ProxyExchange<byte[]> proxy) {
+    public ResponseEntity<Resource> normalizedTile(AbstractSlice slice, TileParameters params, String etag) {
         PreparedRequest request = new PreparedRequest();
         request.setMethod(HttpMethod.GET);
         request.setUrl(this.internalImageServerURL());
@@ -503,7 +544,7 @@ public class ImageServerService {
             request.getHeaders().add(org.springframework.http.HttpHeaders.IF_NONE_MATCH, etag);
         }
 
-        return request.toResponseEntity(proxy, byte[].class);
+        return imageResponseCache.stream(request, etag, imageServerClient::toStreamedResponseEntity);
     }
 
     public ResponseEntity<byte[]> crop(AnnotationDomain annotation, CropParameter params,
@@ -648,7 +689,8 @@ public class ImageServerService {
             request.getHeaders().add("X-Image-Size-Safety", "SAFE_RESIZE");
         }
 
-        return request.toResponseEntity(proxy, byte[].class);
+        return imageResponseCache.get(request, etag,
+            r -> imageServerClient.toResponseEntity(r, proxy, byte[].class));
     }
 
     public ResponseEntity<byte[]> window(AbstractSlice slice, WindowParameter params, String etag,
@@ -768,7 +810,7 @@ public class ImageServerService {
             request.getHeaders().add("X-Image-Size-Safety", "SAFE_RESIZE");
         }
 
-        return request.toResponseEntity(proxy, byte[].class);
+        return imageServerClient.toResponseEntity(request, proxy, byte[].class);
     }
 
     private static String invertColormap(String colormap) {
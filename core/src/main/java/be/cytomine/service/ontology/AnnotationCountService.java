@@ -0,0 +1,339 @@
+package be.cytomine.service.ontology;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.service.utils.AnnotationGridService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Query;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deferred annotation counters.
+ *
+ * By default, the annotation triggers update the counters of the image, the project and annotation_index for each
+ * annotation row, locking these rows until the end of the transaction: bulk imports serialize on them.
+ * When counters are deferred (for the current transaction with deferInCurrentTransaction(), or for all sessions with
+ * "ALTER DATABASE ... SET cytomine.deferred_annotation_counters = 'on'"), the triggers only append a delta row in
+ * annotation_count_delta (and the centroid of user annotations in annotation_grid_delta, for the grid summary).
+ * The deltas are applied in batches by flush(), and reconcile() recomputes the counters of a project from the
+ * annotation tables to repair any drift. The periodic reconciliation is disabled by default; when enabled, a single
+ * replica runs it at a time.
+ *
+ * AnnotationIndexService counts include the pending deltas. Image and project counters are up to date once flushed.
+ */
+@Slf4j
+@Service
+public class AnnotationCountService {
+
+    public static final String DEFERRED_SETTING = "cytomine.deferred_annotation_counters";
+
+    // advisory lock (namespace, id) held by the replica that reconciles all projects
+    private static final String RECONCILIATION_LOCK = "annotationCountReconciliation";
+
+    // a reconcile() waiting longer than this for a counter row gives up, before a deadlock with the triggers
+    // could be detected (deadlock_timeout is 1s by default)
+    private static final String RECONCILIATION_LOCK_TIMEOUT = "200ms";
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Value("${application.annotation.counters.flushIntervalInMillis:2000}")
+    private long flushIntervalInMillis;
+
+    @Value("${application.annotation.counters.reconciliationIntervalInHours:0}")
+    private long reconciliationIntervalInHours;
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void countersScheduler() {
+        if (flushIntervalInMillis <= 0 && reconciliationIntervalInHours <= 0) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        if (flushIntervalInMillis > 0) {
+            scheduler.scheduleWithFixedDelay(() -> {
+                try {
+                    transactionTemplate.execute(status -> flush());
+                } catch (Exception e) {
+                    log.error("Cannot flush annotation counters", e);
+                }
+            }, flushIntervalInMillis, flushIntervalInMillis, TimeUnit.MILLISECONDS);
+        }
+        if (reconciliationIntervalInHours > 0) {
+            scheduler.scheduleWithFixedDelay(() -> {
+                try {
+                    reconcileAll();
+                } catch (Exception e) {
+                    log.error("Cannot reconcile annotation counters", e);
+                }
+            }, reconciliationIntervalInHours, reconciliationIntervalInHours, TimeUnit.HOURS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Defer the counters updated by the annotation triggers until the end of the current transaction
+     * (the deltas are applied by the next flush). Must be called in a transaction.
+     */
+    public void deferInCurrentTransaction() {
+        entityManager.createNativeQuery("SELECT set_config('" + DEFERRED_SETTING + "', 'on', true)").getSingleResult();
+    }
+
+    /**
+     * Apply all pending deltas to the counters with one statement per counter table.
+     * Must be called in a transaction.
+     *
+     * @return the number of delta rows that have been applied
+     */
+    public long flush() {
+        String request = "WITH consumed AS (\n" +
+                "    DELETE FROM annotation_count_delta\n" +
+                "    RETURNING project_id, image_id, slice_id, user_id, count_annotation, count_job_annotation, count_reviewed_annotation\n" +
+                "), index_delta AS (\n" +
+                "    SELECT slice_id, user_id, SUM(count_annotation + count_job_annotation) AS annotation, SUM(count_reviewed_annotation) AS reviewed\n" +
+                "    FROM consumed WHERE slice_id IS NOT NULL AND user_id IS NOT NULL GROUP BY slice_id, user_id\n" +
+                "), updated_index AS (\n" +
+                "    UPDATE annotation_index ai\n" +
+                "    SET count_annotation = ai.count_annotation + d.annotation, count_reviewed_annotation = ai.count_reviewed_annotation + d.reviewed, version = ai.version + 1\n" +
+                "    FROM index_delta d WHERE ai.slice_id = d.slice_id AND ai.user_id = d.user_id\n" +
+                "    RETURNING ai.id\n" +
+                "), inserted_index AS (\n" +
+                "    INSERT INTO annotation_index(id, version, count_annotation, count_reviewed_annotation, slice_id, user_id)\n" +
+                "    SELECT nextval('hibernate_sequence'), 0, d.annotation, d.reviewed, d.slice_id, d.user_id FROM index_delta d\n" +
+                "    WHERE NOT EXISTS (SELECT 1 FROM annotation_index ai WHERE ai.slice_id = d.slice_id AND ai.user_id = d.user_id)\n" +
+                // the row may have been created since the snapshot by a trigger or a concurrent flush
+                "    ON CONFLICT (slice_id, user_id) DO UPDATE\n" +
+                "    SET count_annotation = annotation_index.count_annotation + EXCLUDED.count_annotation,\n" +
+                "        count_reviewed_annotation = annotation_index.count_reviewed_annotation + EXCLUDED.count_reviewed_annotation,\n" +
+                "        version = annotation_index.version + 1\n" +
+                "    RETURNING id\n" +
+                "), updated_image AS (\n" +
+                "    UPDATE image_instance ii\n" +
+                "    SET count_image_annotations = ii.count_image_annotations + d.annotation,\n" +
+                "        count_image_job_annotations = ii.count_image_job_annotations + d.job,\n" +
+                "        count_image_reviewed_annotations = ii.count_image_reviewed_annotations + d.reviewed\n" +
+                "    FROM (SELECT image_id, SUM(count_annotation) AS annotation, SUM(count_job_annotation) AS job, SUM(count_reviewed_annotation) AS reviewed\n" +
+                "          FROM consumed WHERE image_id IS NOT NULL GROUP BY image_id) d\n" +
+                "    WHERE ii.id = d.image_id\n" +
+                "    RETURNING ii.id\n" +
+                "), updated_project AS (\n" +
+                "    UPDATE project p\n" +
+                "    SET count_annotations = p.count_annotations + d.annotation,\n" +
+                "        count_job_annotations = p.count_job_annotations + d.job,\n" +
+                "        count_reviewed_annotations = p.count_reviewed_annotations + d.reviewed\n" +
+                "    FROM (SELECT project_id, SUM(count_annotation) AS annotation, SUM(count_job_annotation) AS job, SUM(count_reviewed_annotation) AS reviewed\n" +
+                "          FROM consumed WHERE project_id IS NOT NULL GROUP BY project_id) d\n" +
+                "    WHERE p.id = d.project_id\n" +
+                "    RETURNING p.id\n" +
+                ")\n" +
+                "SELECT count(*) FROM consumed";
+        long count = ((Number) entityManager.createNativeQuery(request).getSingleResult()).longValue();
+        if (count > 0) {
+            log.debug("{} annotation counter deltas flushed", count);
+        }
+        flushGrid();
+        return count;
+    }
+
+    /**
+     * Apply the pending centroids of annotation_grid_delta to the stored levels of annotation_grid_cell
+     */
+    private void flushGrid() {
+        String request = "WITH consumed AS (\n" +
+                "    DELETE FROM annotation_grid_delta RETURNING slice_id, user_id, x, y, delta\n" +
+                ")\n" +
+                "INSERT INTO annotation_grid_cell(slice_id, level, cell_x, cell_y, user_id, count_annotation, sum_x, sum_y)\n" +
+                "SELECT c.slice_id, l.level, floor(c.x / (" + AnnotationGridService.BASE_CELL_SIZE + " * power(2, l.level)))::int, " +
+                "floor(c.y / (" + AnnotationGridService.BASE_CELL_SIZE + " * power(2, l.level)))::int, c.user_id, SUM(c.delta), SUM(c.delta * c.x), SUM(c.delta * c.y)\n" +
+                "FROM consumed c CROSS JOIN generate_series(0, " + (AnnotationGridService.STORED_LEVELS - 1) + ") AS l(level)\n" +
+                "GROUP BY 1, 2, 3, 4, 5\n" +
+                "ON CONFLICT (slice_id, level, cell_x, cell_y, user_id) DO UPDATE\n" +
+                "SET count_annotation = annotation_grid_cell.count_annotation + EXCLUDED.count_annotation,\n" +
+                "    sum_x = annotation_grid_cell.sum_x + EXCLUDED.sum_x,\n" +
+                "    sum_y = annotation_grid_cell.sum_y + EXCLUDED.sum_y";
+        int cells = entityManager.createNativeQuery(request).executeUpdate();
+        if (cells > 0) {
+            log.debug("{} annotation grid cells flushed", cells);
+        }
+    }
+
+    /**
+     * Recompute the annotation counters of the project (images, project, annotation_index) from the annotation tables.
+     * Pending deltas are flushed first, while new deltas are blocked until the end of the transaction. The counter
+     * rows of the project are then locked in the order of the annotation triggers (images, then project), so that a
+     * concurrent annotation either is counted or updates the recomputed counters after this transaction.
+     * Must be called in a transaction, which fails if a counter row stays locked by another transaction.
+     *
+     * @return the number of counter rows that have been repaired
+     */
+    public long reconcile(Long projectId) {
+        entityManager.createNativeQuery("SELECT set_config('lock_timeout', '" + RECONCILIATION_LOCK_TIMEOUT + "', true)").getSingleResult();
+        entityManager.createNativeQuery("LOCK TABLE annotation_count_delta IN SHARE ROW EXCLUSIVE MODE").executeUpdate();
+        flush();
+
+        entityManager.createNativeQuery("SELECT id FROM image_instance WHERE project_id = :project ORDER BY id FOR UPDATE")
+                .setParameter("project", projectId).getResultList();
+        entityManager.createNativeQuery("SELECT id FROM project WHERE id = :project FOR UPDATE")
+                .setParameter("project", projectId).getResultList();
+
+        String imageRequest = "UPDATE image_instance ii\n" +
+                "SET count_image_annotations = c.annotation, count_image_job_annotations = c.job, count_image_reviewed_annotations = c.reviewed\n" +
+                "FROM (SELECT i.id,\n" +
+                "        (SELECT count(*) FROM user_annotation ua WHERE ua.image_id = i.id AND ua.deleted IS NULL) AS annotation,\n" +
+                "        (SELECT count(*) FROM algo_annotation aa WHERE aa.image_id = i.id AND aa.deleted IS NULL) AS job,\n" +
+                "        (SELECT count(*) FROM reviewed_annotation ra WHERE ra.image_id = i.id AND ra.deleted IS NULL) AS reviewed\n" +
+                "      FROM image_instance i WHERE i.project_id = :project) c\n" +
+                "WHERE ii.id = c.id\n" +
+                "AND (ii.count_image_annotations <> c.annotation OR ii.count_image_job_annotations <> c.job OR ii.count_image_reviewed_annotations <> c.reviewed)";
+
+        String projectRequest = "UPDATE project p\n" +
+                "SET count_annotations = c.annotation, count_job_annotations = c.job, count_reviewed_annotations = c.reviewed\n" +
+                "FROM (SELECT\n" +
+                "        (SELECT count(*) FROM user_annotation ua WHERE ua.project_id = :project AND ua.deleted IS NULL) AS annotation,\n" +
+                "        (SELECT count(*) FROM algo_annotation aa WHERE aa.project_id = :project AND aa.deleted IS NULL) AS job,\n" +
+                "        (SELECT count(*) FROM reviewed_annotation ra WHERE ra.project_id = :project AND ra.deleted IS NULL) AS reviewed) c\n" +
+                "WHERE p.id = :project\n" +
+                "AND (p.count_annotations <> c.annotation OR p.count_job_annotations <> c.job OR p.count_reviewed_annotations <> c.reviewed)";
+
+        String indexUpdateRequest = "UPDATE annotation_index ai\n" +
+                "SET count_annotation = c.annotation, count_reviewed_annotation = c.reviewed, version = ai.version + 1\n" +
+                "FROM (SELECT i.id,\n" +
+                "        (SELECT count(*) FROM user_annotation ua WHERE ua.slice_id = i.slice_id AND ua.user_id = i.user_id AND ua.deleted IS NULL)\n" +
+                "        + (SELECT count(*) FROM algo_annotation aa WHERE aa.slice_id = i.slice_id AND aa.user_id = i.user_id AND aa.deleted IS NULL) AS annotation,\n" +
+                "        (SELECT count(*) FROM reviewed_annotation ra WHERE ra.slice_id = i.slice_id AND ra.review_user_id = i.user_id AND ra.deleted IS NULL) AS reviewed\n" +
+                "      FROM annotation_index i JOIN slice_instance si ON si.id = i.slice_id WHERE si.project_id = :project) c\n" +
+                "WHERE ai.id = c.id\n" +
+                "AND (ai.count_annotation <> c.annotation OR ai.count_reviewed_annotation <> c.reviewed)";
+
+        String indexInsertRequest = "INSERT INTO annotation_index(id, version, count_annotation, count_reviewed_annotation, slice_id, user_id)\n" +
+                "SELECT nextval('hibernate_sequence'), 0, c.annotation, c.reviewed, c.slice_id, c.user_id\n" +
+                "FROM (SELECT slice_id, user_id, SUM(annotation) AS annotation, SUM(reviewed) AS reviewed FROM (\n" +
+                "        SELECT slice_id, user_id, 1 AS annotation, 0 AS reviewed FROM user_annotation WHERE project_id = :project AND deleted IS NULL\n" +
+                "        UNION ALL\n" +
+                "        SELECT slice_id, user_id, 1 AS annotation, 0 AS reviewed FROM algo_annotation WHERE project_id = :project AND deleted IS NULL\n" +
+                "        UNION ALL\n" +
+                "        SELECT slice_id, review_user_id AS user_id, 0 AS annotation, 1 AS reviewed FROM reviewed_annotation WHERE project_id = :project AND deleted IS NULL\n" +
+                "      ) a WHERE slice_id IS NOT NULL GROUP BY slice_id, user_id) c\n" +
+                "WHERE NOT EXISTS (SELECT 1 FROM annotation_index ai WHERE ai.slice_id = c.slice_id AND ai.user_id = c.user_id)\n" +
+                "ON CONFLICT (slice_id, user_id) DO UPDATE\n" +
+                "SET count_annotation = EXCLUDED.count_annotation, count_reviewed_annotation = EXCLUDED.count_reviewed_annotation, version = annotation_index.version + 1";
+
+        long repaired = 0;
+        for (String request : List.of(imageRequest, projectRequest, indexUpdateRequest, indexInsertRequest)) {
+            repaired += entityManager.createNativeQuery(request).setParameter("project", projectId).executeUpdate();
+        }
+        if (repaired > 0) {
+            log.warn("{} annotation counters repaired for project {}", repaired, projectId);
+        }
+        return repaired;
+    }
+
+    /**
+     * Reconcile the counters of all projects, with one transaction per project.
+     * Nothing is done if another replica is already reconciling.
+     */
+    public void reconcileAll() {
+        // session advisory lock, held by a connection of its own for the whole run
+        try (Connection connection = dataSource.getConnection()) {
+            if (!advisoryLock(connection, "SELECT pg_try_advisory_lock(?, ?)")) {
+                log.info("Annotation counters are already reconciled by another replica");
+                return;
+            }
+            try {
+                List<Long> projects = transactionTemplate.execute(status ->
+                        ((List<Number>) entityManager.createNativeQuery("SELECT id FROM project WHERE deleted IS NULL ORDER BY id").getResultList())
+                                .stream().map(Number::longValue).toList());
+                for (Long project : projects) {
+                    try {
+                        transactionTemplate.execute(status -> reconcile(project));
+                    } catch (Exception e) {
+                        // the counters are locked by a long transaction, the next run will repair them
+                        log.warn("Cannot reconcile annotation counters of project {}: {}", project, e.getMessage());
+                    }
+                }
+            } finally {
+                advisoryLock(connection, "SELECT pg_advisory_unlock(?, ?)");
+            }
+        } catch (SQLException e) {
+            log.error("Cannot take the reconciliation lock", e);
+        }
+    }
+
+    private static boolean advisoryLock(Connection connection, String request) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(request)) {
+            statement.setInt(1, RECONCILIATION_LOCK.hashCode());
+            statement.setInt(2, 0);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() && resultSet.getBoolean(1);
+            }
+        }
+    }
+
+    /**
+     * Number of annotations (user or algo) of the user in the slices that are not yet flushed in annotation_index
+     */
+    public long countPendingAnnotations(List<Long> slices, Long user) {
+        if (slices.isEmpty()) {
+            return 0;
+        }
+        Query query = entityManager.createNativeQuery("SELECT COALESCE(SUM(count_annotation + count_job_annotation), 0) FROM annotation_count_delta WHERE slice_id IN (:slices) AND user_id = :user");
+        query.setParameter("slices", slices);
+        query.setParameter("user", user);
+        return ((Number) query.getSingleResult()).longValue();
+    }
+
+    /**
+     * Number of reviewed annotations in the slices that are not yet flushed in annotation_index
+     */
+    public long countPendingReviewedAnnotations(List<Long> slices) {
+        if (slices.isEmpty()) {
+            return 0;
+        }
+        Query query = entityManager.createNativeQuery("SELECT COALESCE(SUM(count_reviewed_annotation), 0) FROM annotation_count_delta WHERE slice_id IN (:slices)");
+        query.setParameter("slices", slices);
+        return ((Number) query.getSingleResult()).longValue();
+    }
+}
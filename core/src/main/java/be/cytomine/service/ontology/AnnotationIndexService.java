@@ -39,6 +39,9 @@ public class AnnotationIndexService {
     @Autowired
     private EntityManager entityManager;
 
+    @Autowired
+    private AnnotationCountService annotationCountService;
+
     public List<AnnotationIndexLightDTO> list(SliceInstance sliceInstance) {
         return annotationIndexRepository.findAllLightBySliceInstance(sliceInstance.getId());
     }
@@ -46,24 +49,30 @@ public class AnnotationIndexService {
     /**
      * Return the number of annotation created by this user for this slice
      * If user is null, return the number of reviewed annotation for this slice
+     * Counter deltas not yet flushed (see AnnotationCountService) are included.
      */
     public Long count(SliceInstance slice, User user) {
         if (user!=null) {
             return annotationIndexRepository.findOneBySliceAndUser(slice, user)
-                    .map(AnnotationIndexLightDTO::getCountAnnotation).orElse(0L);
+                    .map(AnnotationIndexLightDTO::getCountAnnotation).orElse(0L)
+                    + annotationCountService.countPendingAnnotations(List.of(slice.getId()), user.getId());
         } else {
             return annotationIndexRepository.findAllBySlice(slice)
-                    .stream().mapToLong(AnnotationIndexLightDTO::getCountReviewedAnnotation).sum();
+                    .stream().mapToLong(AnnotationIndexLightDTO::getCountReviewedAnnotation).sum()
+                    + annotationCountService.countPendingReviewedAnnotations(List.of(slice.getId()));
         }
     }
 
-    public Long count(List<SliceInstance> slices, User user) {
+    /**
+     * Count annotations of a user (or reviewed annotations if user is null) in the slices, with a single request
+     */
+    public Long countBySliceIds(List<Long> slices, User user) {
         if (user!=null) {
-            return annotationIndexRepository.findOneBySliceInAndUser(slices, user)
-                    .map(AnnotationIndexLightDTO::getCountAnnotation).orElse(0L);
+            return annotationIndexRepository.sumCountAnnotationBySliceIdsAndUser(slices, user.getId())
+                    + annotationCountService.countPendingAnnotations(slices, user.getId());
         } else {
-            return annotationIndexRepository.findAllBySliceIn(slices)
-                    .stream().mapToLong(AnnotationIndexLightDTO::getCountReviewedAnnotation).sum();
+            return annotationIndexRepository.sumCountReviewedAnnotationBySliceIds(slices)
+                    + annotationCountService.countPendingReviewedAnnotations(slices);
         }
     }
 
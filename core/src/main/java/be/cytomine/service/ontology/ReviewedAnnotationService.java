@@ -49,10 +49,14 @@ import org.locationtech.jts.io.WKTReader;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import jakarta.persistence.EntityManager;
 import jakarta.transaction.Transactional;
 import java.util.*;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static org.springframework.security.acls.domain.BasePermission.READ;
@@ -62,6 +66,8 @@ import static org.springframework.security.acls.domain.BasePermission.READ;
 @Transactional
 public class ReviewedAnnotationService extends ModelService {
 
+    public static final int REVIEW_CHUNK_SIZE = 1000;
+
     @Autowired
     private ReviewedAnnotationRepository reviewedAnnotationRepository;
 
@@ -101,6 +107,12 @@ public class ReviewedAnnotationService extends ModelService {
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private AnnotationCountService annotationCountService;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
     @Override
     public Class currentDomain() {
         return ReviewedAnnotation.class;
@@ -303,7 +315,14 @@ public class ReviewedAnnotationService extends ModelService {
     }
 
 
-
+    /**
+     * Review all the annotations of the users layers on the image, by chunks of REVIEW_CHUNK_SIZE annotations.
+     * Each chunk is committed in its own transaction: if a chunk fails, the previous ones stay reviewed and the layer
+     * can be reviewed again for the rest.
+     * The reviews are not recorded as commands, so they cannot be undone one at a time: they are undone with
+     * unreviewLayer (or unReviewAnnotation for one annotation).
+     * @return Id of the new reviewed annotations
+     */
     public List<Long> reviewLayer(Long imageInstanceId, List<Long> usersIds, Task task) {
 
         taskService.updateTask(task, 2, "Extract parameters...");
@@ -325,39 +344,30 @@ public class ReviewedAnnotationService extends ModelService {
 
         taskService.updateTask(task, 2, "Extract parameters...");
 
-        List<AnnotationDomain> annotations = new ArrayList<>();
-
-        //get all annotations for each user
+        //get all annotations for each user, not yet reviewed
         taskService.updateTask(task,5,"Look for all annotations...");
+        List<Long> annotationIds = findLayerAnnotationIds(imageInstance, users, true);
 
-        for (User user : users) {
-            annotations.addAll(userAnnotationRepository.findAllByUserAndImage((User)user, imageInstance));
-        }
-
-        //review each annotation
-        taskService.updateTask(task,10,annotations.size() + " annotations found...");
+        //review them by chunks
+        taskService.updateTask(task,10,annotationIds.size() + " annotations found...");
 
-        int realReviewed = 0;
-        int taskRefresh =  annotations.size()>1000? 100 : 10;
+        Long reviewUserId = currentUserService.getCurrentUser().getId();
         List<Long> reviewedIds = new ArrayList<>();
-        for(int i = 0; i < annotations.size(); i++) {
-            if (i%taskRefresh==0) {
-                taskService.updateTask(task,10+(int)(((double)i/(double)annotations.size())*0.9d*100),realReviewed + " new reviewed annotations...");
-            }
-            entityManager.refresh(annotations.get(i));
-            if (reviewedAnnotationRepository.findByParentIdent(annotations.get(i).getId()).isEmpty()) {
-                //if not yet reviewed, review it
-                realReviewed++;
-                CommandResponse review = reviewAnnotation(annotations.get(i).getId(), null);
-                reviewedIds.add(review.getObject().getId());
-            }
-
-
+        for (int i = 0; i < annotationIds.size(); i += REVIEW_CHUNK_SIZE) {
+            taskService.updateTask(task,10+(int)(((double)i/(double)annotationIds.size())*0.9d*100),reviewedIds.size() + " new reviewed annotations...");
+            List<Long> chunk = annotationIds.subList(i, Math.min(i + REVIEW_CHUNK_SIZE, annotationIds.size()));
+            reviewedIds.addAll(inChunkTransaction(() -> reviewChunk(chunk, reviewUserId)));
         }
+
         taskService.finishTask(task);
         return reviewedIds;
     }
 
+    /**
+     * Delete the reviews of all the annotations of the users layers on the image, by chunks of REVIEW_CHUNK_SIZE
+     * annotations committed in their own transaction (like reviewLayer). It is not recorded as commands either.
+     * @return Id of the deleted reviewed annotations
+     */
     public List<Long> unreviewLayer(Long imageInstanceId, List<Long> usersIds, Task task) {
 
         taskService.updateTask(task,2,"Extract parameters...");
@@ -376,40 +386,97 @@ public class ReviewedAnnotationService extends ModelService {
             throw new WrongArgumentException("There is no layer:"+usersIds);
         }
 
-        List<AnnotationDomain> annotations = new ArrayList<>();
         taskService.updateTask(task,5,"Look for all annotations...");
-        for (User user : users) {
-            annotations.addAll(userAnnotationRepository.findAllByUserAndImage((User)user, imageInstance));
-        }
-
-        //unreview each one
-        taskService.updateTask(task,10,annotations.size() + " annotations found...");
-        int realUnReviewed = 0;
-        int taskRefresh =  annotations.size()>1000? 100 : 10;
-
-        List<ReviewedAnnotation> reviewed = new ArrayList<>();
-        for(int i = 0; i < annotations.size(); i++) {
-            if (i%taskRefresh==0) {
-                taskService.updateTask(task,10+(int)(((double)i/(double)annotations.size())*0.9d*100),realUnReviewed + " new reviewed annotations...");
-            }
-            Optional<ReviewedAnnotation> optionalReviewedAnnotation = reviewedAnnotationRepository.findByParentIdent(annotations.get(i).getId());
-
-            if (optionalReviewedAnnotation.isPresent()) {
-                realUnReviewed++;
-                reviewed.add(optionalReviewedAnnotation.get());
-            }
+        List<Long> annotationIds = findLayerAnnotationIds(imageInstance, users, false);
 
+        //unreview them by chunks
+        taskService.updateTask(task,10,annotationIds.size() + " annotations found...");
 
+        List<Long> unreviewedIds = new ArrayList<>();
+        for (int i = 0; i < annotationIds.size(); i += REVIEW_CHUNK_SIZE) {
+            taskService.updateTask(task,10+(int)(((double)i/(double)annotationIds.size())*0.9d*100),unreviewedIds.size() + " new unreviewed annotations...");
+            List<Long> chunk = annotationIds.subList(i, Math.min(i + REVIEW_CHUNK_SIZE, annotationIds.size()));
+            unreviewedIds.addAll(inChunkTransaction(() -> unreviewChunk(chunk)));
         }
 
-        if (!reviewed.isEmpty()) {
-            reviewedAnnotationRepository.deleteAll(reviewed);
-        }
+        taskService.finishTask(task);
+        return unreviewedIds;
+    }
+
+    /**
+     * Run a chunk of a layer in a new transaction, committed (and its locks released) before the next chunk.
+     * The counters are updated once for all the annotations of the chunk.
+     */
+    private List<Long> inChunkTransaction(Supplier<List<Long>> chunk) {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        return transactionTemplate.execute(status -> {
+            annotationCountService.deferInCurrentTransaction();
+            List<Long> ids = chunk.get();
+            annotationCountService.flush();
+            return ids;
+        });
+    }
 
+    /**
+     * Id of the user annotations of the users on the image
+     * @param notReviewed Only the annotations that are not yet reviewed
+     */
+    private List<Long> findLayerAnnotationIds(ImageInstance image, List<User> users, boolean notReviewed) {
+        String request = "SELECT ua.id FROM user_annotation ua " +
+                "WHERE ua.image_id = :image AND ua.user_id IN (:users) " +
+                (notReviewed ? "AND NOT EXISTS (SELECT 1 FROM reviewed_annotation ra WHERE ra.parent_ident = ua.id) " : "") +
+                "ORDER BY ua.id";
+        List<?> ids = entityManager.createNativeQuery(request)
+                .setParameter("image", image.getId())
+                .setParameter("users", users.stream().map(CytomineDomain::getId).toList())
+                .getResultList();
+        return ids.stream().map(x -> ((Number) x).longValue()).collect(Collectors.toList());
+    }
 
+    /**
+     * Review the user annotations with their terms, in one statement
+     * @return Id of the new reviewed annotations
+     */
+    private List<Long> reviewChunk(List<Long> annotationIds, Long reviewUserId) {
+        String request = "WITH reviewed AS (\n" +
+                "    INSERT INTO reviewed_annotation(id, version, created, updated, count_comments, status, parent_ident, parent_class_name, user_id, review_user_id,\n" +
+                "        image_id, slice_id, project_id, location, wkt_location, geometry_compression, area, area_unit, perimeter, perimeter_unit)\n" +
+                "    SELECT nextval('hibernate_sequence'), 0, now(), now(), 0, 1, ua.id, :parentClassName, ua.user_id, :reviewUser,\n" +
+                "        ua.image_id, ua.slice_id, ua.project_id, ua.location, ua.wkt_location, ua.geometry_compression, ua.area, ua.area_unit, ua.perimeter, ua.perimeter_unit\n" +
+                "    FROM user_annotation ua\n" +
+                "    WHERE ua.id IN (:ids) AND NOT EXISTS (SELECT 1 FROM reviewed_annotation ra WHERE ra.parent_ident = ua.id)\n" +
+                "    RETURNING id, parent_ident\n" +
+                "), reviewed_term AS (\n" +
+                "    INSERT INTO reviewed_annotation_term(reviewed_annotation_terms_id, term_id)\n" +
+                "    SELECT DISTINCT r.id, at.term_id FROM reviewed r JOIN annotation_term at ON at.user_annotation_id = r.parent_ident\n" +
+                ")\n" +
+                "SELECT id FROM reviewed";
+        List<?> ids = entityManager.createNativeQuery(request)
+                .setParameter("parentClassName", UserAnnotation.class.getName())
+                .setParameter("reviewUser", reviewUserId)
+                .setParameter("ids", annotationIds)
+                .getResultList();
+        return ids.stream().map(x -> ((Number) x).longValue()).collect(Collectors.toList());
+    }
 
-        taskService.finishTask(task);
-        return reviewed.stream().map(CytomineDomain::getId).collect(Collectors.toList());
+    /**
+     * Delete the reviewed annotations of the user annotations with their terms, in one statement
+     * @return Id of the deleted reviewed annotations
+     */
+    private List<Long> unreviewChunk(List<Long> annotationIds) {
+        String request = "WITH reviewed AS (\n" +
+                "    SELECT id FROM reviewed_annotation WHERE parent_ident IN (:ids)\n" +
+                "), reviewed_term AS (\n" +
+                "    DELETE FROM reviewed_annotation_term WHERE reviewed_annotation_terms_id IN (SELECT id FROM reviewed)\n" +
+                "), deleted AS (\n" +
+                "    DELETE FROM reviewed_annotation WHERE id IN (SELECT id FROM reviewed) RETURNING id\n" +
+                ")\n" +
+                "SELECT id FROM deleted";
+        List<?> ids = entityManager.createNativeQuery(request)
+                .setParameter("ids", annotationIds)
+                .getResultList();
+        return ids.stream().map(x -> ((Number) x).longValue()).collect(Collectors.toList());
     }
 
     protected void beforeAdd(CytomineDomain domain) {
@@ -33,6 +33,7 @@ import be.cytomine.repository.UserAnnotationListing;
 import be.cytomine.repository.image.ImageInstanceRepository;
 import be.cytomine.repository.image.SliceInstanceRepository;
 import be.cytomine.repository.ontology.SharedAnnotationRepository;
+import be.cytomine.repository.ontology.TermRepository;
 import be.cytomine.repository.ontology.UserAnnotationRepository;
 import be.cytomine.service.AnnotationListingService;
 import be.cytomine.service.CurrentUserService;
@@ -64,11 +65,16 @@ import jakarta.transaction.Transactional;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static org.springframework.security.acls.domain.BasePermission.READ;
 
@@ -77,6 +83,8 @@ import static org.springframework.security.acls.domain.BasePermission.READ;
 @Transactional
 public class UserAnnotationService extends ModelService {
 
+    public static final int ADD_MULTIPLE_BATCH_SIZE = 500;
+
     @Autowired
     private AnnotationLinkService annotationLinkService;
 
@@ -137,6 +145,12 @@ public class UserAnnotationService extends ModelService {
     @Autowired
     private RetrievalService retrievalService;
 
+    @Autowired
+    private TermRepository termRepository;
+
+    @Autowired
+    private AnnotationCountService annotationCountService;
+
     @Override
     public Class currentDomain() {
         return UserAnnotation.class;
@@ -214,106 +228,11 @@ public class UserAnnotationService extends ModelService {
      */
     @Override
     public CommandResponse add(JsonObject jsonObject) {
-        SliceInstance slice = null;
-        ImageInstance image = null;
-        // TODO perf: we load twice slice/image/... : here + in userannotation domain "build from json" method
-        // Same for user
-        // We could provide "sliceObject", "imageObject", "userObject" in JSON and first check for them in the userannotation class
-        if (!jsonObject.isMissing("slice")) {
-            slice = sliceInstanceService.find(jsonObject.getJSONAttrLong("slice"))
-                    .orElseThrow(() -> new ObjectNotFoundException("SliceInstance with id " + jsonObject.get("slice")));
-            image = slice.getImage();
-        } else if (!jsonObject.isMissing("image")) {
-            image = imageInstanceRepository.findById(jsonObject.getJSONAttrLong("image"))
-                    .orElseThrow(() -> new ObjectNotFoundException("ImageInstance with id " + jsonObject.get("image")));
-            slice = sliceCoordinatesService.getReferenceSlice(image);
-
-        } else {
-            throw new WrongArgumentException("Cannot retrieve slice or image");
-        }
-        Project project = slice.getProject();
-
-        if (jsonObject.isMissing("location")) {
-            throw new WrongArgumentException("Annotation must have a valid geometry:" + jsonObject.get("location"));
-        }
-
-        jsonObject.put("sliceObject", slice);
-        jsonObject.put("imageObject", image);
-        jsonObject.put("projectObject", project);
-
         User currentUser = currentUserService.getCurrentUser();
 
-        //Check if user has at least READ permission for the project
-        securityACLService.check(project, READ, currentUser);
-        //Check if project EditingMode is not READ_ONLY
-        securityACLService.checkIsNotReadOnly(project);
-        //Check if user has a role that allows to create annotations
-        securityACLService.checkGuest(currentUser);
-        //If user info is missing from input, add it
-        if (jsonObject.isMissing("user")) {
-            jsonObject.put("user", currentUser.getId());
-            jsonObject.put("userObject", currentUser);
-            // check if user is the owner of the annotation, if not check project editing mode and user role
-        } else if (!Objects.equals(jsonObject.getJSONAttrLong("user"), currentUser.getId())) {
-            securityACLService.checkFullOrRestrictedForOwner(project, null);
-        }
-
-        Geometry annotationShape;
-        try {
-            annotationShape = new WKTReader().read(jsonObject.getJSONAttrStr("location"));
-        }
-        catch (Exception ignored) {
-            throw new WrongArgumentException("Annotation location is not valid");
-        }
-
-        if (!annotationShape.isValid()) {
-            throw new WrongArgumentException("Annotation location is not valid");
-        }
-
-
-        Envelope envelope = annotationShape.getEnvelopeInternal();
-        boolean isSizeDefined = image.getBaseImage().getWidth()!=null && image.getBaseImage().getHeight()!=null;
-        if (isSizeDefined && (envelope.getMinX() < 0 || envelope.getMinY() < 0 ||
-                envelope.getMaxX() > image.getBaseImage().getWidth() ||
-                envelope.getMaxY() > image.getBaseImage().getHeight())) {
-            double maxX = Math.min(envelope.getMaxX(), image.getBaseImage().getWidth());
-            double maxY = Math.min(envelope.getMaxY(), image.getBaseImage().getHeight());
-            Geometry insideBounds = null;
-            try {
-                insideBounds = new WKTReader().read("POLYGON((0 0,0 " + maxY + "," + maxX + " " + maxY + "," + maxX + " 0,0 0))");
-            } catch (ParseException e) {
-                throw new WrongArgumentException("Annotation cannot be parsed with maxX/maxY:" + e.getMessage());
-            }
-            annotationShape = annotationShape.intersection(insideBounds);
-        }
-
-        if(!(annotationShape.getGeometryType().equals("LineString"))) {
-            BoundariesCropParameter boundaries = GeometryUtils.getGeometryBoundaries(annotationShape);
-            if (boundaries == null || boundaries.getWidth() == 0 || boundaries.getHeight() == 0) {
-                throw new WrongArgumentException("Annotation dimension not valid");
-            }
-        }
-
-        //simplify annotation
-        try {
-            SimplifiedAnnotation simplifiedAnnotation =
-                    simplifyGeometryService.simplifyPolygon(annotationShape, jsonObject.getJSONAttrLong("minPoint", null), jsonObject.getJSONAttrLong("maxPoint", null));
-            jsonObject.put("location", simplifiedAnnotation.getNewAnnotation());
-            jsonObject.put("geometryCompression", simplifiedAnnotation.getRate());
-        } catch (Exception e) {
-            log.error("Cannot simplify annotation location:" + e);
-        }
-
-        if (jsonObject.isMissing("location")) {
-            jsonObject.put("location", annotationShape);
-            jsonObject.put("geometryCompression", 0.0d);
-        }
-
-        if (jsonObject.get("location") instanceof Geometry) {
-            jsonObject.put("location", validateGeometryService.tryToMakeItValidIfNotValid((Geometry)jsonObject.get("location")));
-        } else {
-            jsonObject.put("location", validateGeometryService.tryToMakeItValidIfNotValid(jsonObject.getJSONAttrStr("location")));
-        }
+        AnnotationContext context = resolveContext(jsonObject, currentUser, new HashMap<>(), new HashMap<>());
+        prepareLocation(jsonObject, context);
+        validateLocation(jsonObject);
 
         //Start transaction
         Transaction transaction = transactionService.start();
@@ -386,6 +305,274 @@ public class UserAnnotationService extends ModelService {
         return commandResponse;
     }
 
+    /**
+     * Add new annotations with JSON data, with the same status for each entry as add().
+     *
+     * The slices, images and project permissions shared by the annotations are resolved once, and the geometries
+     * are parsed, cropped and simplified in parallel. The annotations of a project are then inserted with their terms
+     * by batches of ADD_MULTIPLE_BATCH_SIZE, each batch with a single flush (JDBC batch) and a single
+     * AddMultipleCommand. All the batches share a transaction, so that an undo drops the whole request. Entries are
+     * validated before the batches: a batch that still fails (e.g. on a database constraint) rolls back the whole
+     * request.
+     * Annotations with properties, tracks or a group are added one by one with add().
+     */
+    @Override
+    public JsonObject addMultiple(List entries) {
+        List<JsonObject> json = entries;
+        User currentUser = currentUserService.getCurrentUser();
+        int size = json.size();
+        JsonObject[] results = new JsonObject[size];
+        Exception[] failures = new Exception[size];
+        AnnotationContext[] resolved = new AnnotationContext[size];
+
+        Map<String, AnnotationContext> contexts = new HashMap<>();
+        Map<String, RuntimeException> permissions = new HashMap<>();
+        Set<Long> terms = new HashSet<>();
+        for (int i = 0; i < size; i++) {
+            JsonObject jsonObject = json.get(i);
+            try {
+                if (hasLinkedDomains(jsonObject)) {
+                    CommandResponse commandResponse = addOne(jsonObject);
+                    results[i] = JsonObject.of("domain", ((Map<String, Object>)commandResponse.getData().get("annotation")).get("id"), "status", commandResponse.getStatus());
+                } else {
+                    resolved[i] = resolveContext(jsonObject, currentUser, contexts, permissions);
+                    jsonObject.put("term", resolveTerms(jsonObject, terms));
+                    jsonObject.remove("terms");
+                }
+            } catch (Exception e) {
+                failures[i] = e;
+            }
+        }
+
+        // geometries still not valid need the database (ST_MakeValid): they are fixed afterwards, one by one
+        boolean[] invalid = new boolean[size];
+        IntStream.range(0, size).parallel().filter(i -> resolved[i] != null && failures[i] == null).forEach(i -> {
+            try {
+                prepareLocation(json.get(i), resolved[i]);
+                if (json.get(i).get("location") instanceof Geometry geometry && geometry.isValid()) {
+                    validateLocation(json.get(i));
+                } else {
+                    invalid[i] = true;
+                }
+            } catch (Exception e) {
+                failures[i] = e;
+            }
+        });
+
+        Map<Long, List<Integer>> projects = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            if (resolved[i] != null && failures[i] == null) {
+                projects.computeIfAbsent(resolved[i].project().getId(), id -> new ArrayList<>()).add(i);
+            }
+        }
+
+        if (!projects.isEmpty()) {
+            // counters are updated once for all the added annotations
+            annotationCountService.deferInCurrentTransaction();
+            Transaction transaction = transactionService.start();
+            for (List<Integer> indexes : projects.values()) {
+                for (int from = 0; from < indexes.size(); from += ADD_MULTIPLE_BATCH_SIZE) {
+                    List<Integer> batch = new ArrayList<>();
+                    for (Integer i : indexes.subList(from, Math.min(from + ADD_MULTIPLE_BATCH_SIZE, indexes.size()))) {
+                        try {
+                            if (invalid[i]) {
+                                validateLocation(json.get(i));
+                            }
+                            batch.add(i);
+                        } catch (Exception e) {
+                            failures[i] = e;
+                        }
+                    }
+                    if (batch.isEmpty()) {
+                        continue;
+                    }
+
+                    AddMultipleCommand command = new AddMultipleCommand(currentUser, transaction);
+                    command.setProject(resolved[batch.get(0)].project());
+                    // not caught: after a failed flush, the transaction can only be rolled back
+                    CommandResponse commandResponse = executeCommand(command, null, JsonObject.of("domains", batch.stream().map(json::get).toList()));
+                    List<Map<String, Object>> domains = (List<Map<String, Object>>) commandResponse.getData().get("domains");
+                    for (int k = 0; k < batch.size(); k++) {
+                        results[batch.get(k)] = JsonObject.of("domain", domains.get(k).get("id"), "status", commandResponse.getStatus());
+                    }
+                }
+            }
+            annotationCountService.flush();
+        }
+
+        List<JsonObject> result = new ArrayList<>();
+        List errors = new ArrayList();
+        for (int i = 0; i < size; i++) {
+            result.add(failures[i] != null ? addMultipleError(json.get(i), failures[i], errors) : results[i]);
+        }
+        return addMultipleResponse(result, errors);
+    }
+
+    private boolean hasLinkedDomains(JsonObject jsonObject) {
+        return !jsonObject.isMissing("property") || !jsonObject.isMissing("properties")
+                || !jsonObject.isMissing("track") || !jsonObject.isMissing("tracks")
+                || !jsonObject.isMissing("group");
+    }
+
+    /**
+     * Terms ("term" and "terms") of a new annotation, without duplicates
+     * @param found Terms already found
+     */
+    private List<Long> resolveTerms(JsonObject jsonObject, Set<Long> found) {
+        Set<Long> termIds = new LinkedHashSet<>();
+        termIds.addAll(jsonObject.getJSONAttrListLong("term", new ArrayList<>()));
+        termIds.addAll(jsonObject.getJSONAttrListLong("terms", new ArrayList<>()));
+        for (Long termId : termIds) {
+            if (!found.contains(termId)) {
+                termRepository.findById(termId).orElseThrow(() -> new ObjectNotFoundException("Term", termId));
+                found.add(termId);
+            }
+        }
+        return new ArrayList<>(termIds);
+    }
+
+    /**
+     * Slice, image and project of new annotations
+     */
+    private record AnnotationContext(SliceInstance slice, ImageInstance image, Project project, Integer width, Integer height) {
+
+        private AnnotationContext(SliceInstance slice, ImageInstance image) {
+            this(slice, image, slice.getProject(), image.getBaseImage().getWidth(), image.getBaseImage().getHeight());
+        }
+    }
+
+    /**
+     * Resolve the slice, image and project of a new annotation, and check that the current user can add it
+     * @param contexts Contexts already resolved, by slice or image
+     * @param permissions Permission checks already done, by project
+     */
+    private AnnotationContext resolveContext(JsonObject jsonObject, User currentUser, Map<String, AnnotationContext> contexts, Map<String, RuntimeException> permissions) {
+        AnnotationContext context;
+        if (!jsonObject.isMissing("slice")) {
+            context = contexts.computeIfAbsent("slice/" + jsonObject.getJSONAttrLong("slice"), key -> {
+                SliceInstance slice = sliceInstanceService.find(jsonObject.getJSONAttrLong("slice"))
+                        .orElseThrow(() -> new ObjectNotFoundException("SliceInstance with id " + jsonObject.get("slice")));
+                return new AnnotationContext(slice, slice.getImage());
+            });
+        } else if (!jsonObject.isMissing("image")) {
+            context = contexts.computeIfAbsent("image/" + jsonObject.getJSONAttrLong("image"), key -> {
+                ImageInstance image = imageInstanceRepository.findById(jsonObject.getJSONAttrLong("image"))
+                        .orElseThrow(() -> new ObjectNotFoundException("ImageInstance with id " + jsonObject.get("image")));
+                return new AnnotationContext(sliceCoordinatesService.getReferenceSlice(image), image);
+            });
+        } else {
+            throw new WrongArgumentException("Cannot retrieve slice or image");
+        }
+        Project project = context.project();
+
+        if (jsonObject.isMissing("location")) {
+            throw new WrongArgumentException("Annotation must have a valid geometry:" + jsonObject.get("location"));
+        }
+
+        jsonObject.put("sliceObject", context.slice());
+        jsonObject.put("imageObject", context.image());
+        jsonObject.put("projectObject", project);
+
+        // check if user is the owner of the annotation, if not check project editing mode and user role
+        boolean otherUser = !jsonObject.isMissing("user") && !Objects.equals(jsonObject.getJSONAttrLong("user"), currentUser.getId());
+        String key = project.getId() + (otherUser ? "/other" : "");
+        if (!permissions.containsKey(key)) {
+            RuntimeException denied = null;
+            try {
+                //Check if user has at least READ permission for the project
+                securityACLService.check(project, READ, currentUser);
+                //Check if project EditingMode is not READ_ONLY
+                securityACLService.checkIsNotReadOnly(project);
+                //Check if user has a role that allows to create annotations
+                securityACLService.checkGuest(currentUser);
+                if (otherUser) {
+                    securityACLService.checkFullOrRestrictedForOwner(project, null);
+                }
+            } catch (RuntimeException e) {
+                denied = e;
+            }
+            permissions.put(key, denied);
+        }
+        if (permissions.get(key) != null) {
+            throw permissions.get(key);
+        }
+
+        //If user info is missing from input, add it
+        if (jsonObject.isMissing("user")) {
+            jsonObject.put("user", currentUser.getId());
+            jsonObject.put("userObject", currentUser);
+        }
+        return context;
+    }
+
+    /**
+     * Parse the location of a new annotation, crop it to the image and simplify it.
+     * Does not use the database: addMultiple runs it in parallel.
+     */
+    private void prepareLocation(JsonObject jsonObject, AnnotationContext context) {
+        Geometry annotationShape;
+        try {
+            annotationShape = new WKTReader().read(jsonObject.getJSONAttrStr("location"));
+        }
+        catch (Exception ignored) {
+            throw new WrongArgumentException("Annotation location is not valid");
+        }
+
+        if (!annotationShape.isValid()) {
+            throw new WrongArgumentException("Annotation location is not valid");
+        }
+
+
+        Envelope envelope = annotationShape.getEnvelopeInternal();
+        boolean isSizeDefined = context.width()!=null && context.height()!=null;
+        if (isSizeDefined && (envelope.getMinX() < 0 || envelope.getMinY() < 0 ||
+                envelope.getMaxX() > context.width() ||
+                envelope.getMaxY() > context.height())) {
+            double maxX = Math.min(envelope.getMaxX(), context.width());
+            double maxY = Math.min(envelope.getMaxY(), context.height());
+            Geometry insideBounds = null;
+            try {
+                insideBounds = new WKTReader().read("POLYGON((0 0,0 " + maxY + "," + maxX + " " + maxY + "," + maxX + " 0,0 0))");
+            } catch (ParseException e) {
+                throw new WrongArgumentException("Annotation cannot be parsed with maxX/maxY:" + e.getMessage());
+            }
+            annotationShape = annotationShape.intersection(insideBounds);
+        }
+
+        if(!(annotationShape.getGeometryType().equals("LineString"))) {
+            BoundariesCropParameter boundaries = GeometryUtils.getGeometryBoundaries(annotationShape);
+            if (boundaries == null || boundaries.getWidth() == 0 || boundaries.getHeight() == 0) {
+                throw new WrongArgumentException("Annotation dimension not valid");
+            }
+        }
+
+        //simplify annotation
+        try {
+            SimplifiedAnnotation simplifiedAnnotation =
+                    simplifyGeometryService.simplifyPolygon(annotationShape, jsonObject.getJSONAttrLong("minPoint", null), jsonObject.getJSONAttrLong("maxPoint", null));
+            jsonObject.put("location", simplifiedAnnotation.getNewAnnotation());
+            jsonObject.put("geometryCompression", simplifiedAnnotation.getRate());
+        } catch (Exception e) {
+            log.error("Cannot simplify annotation location:" + e);
+        }
+
+        if (jsonObject.isMissing("location")) {
+            jsonObject.put("location", annotationShape);
+            jsonObject.put("geometryCompression", 0.0d);
+        }
+    }
+
+    /**
+     * Make the location of a new annotation valid, if possible
+     */
+    private void validateLocation(JsonObject jsonObject) {
+        if (jsonObject.get("location") instanceof Geometry) {
+            jsonObject.put("location", validateGeometryService.tryToMakeItValidIfNotValid((Geometry)jsonObject.get("location")));
+        } else {
+            jsonObject.put("location", validateGeometryService.tryToMakeItValidIfNotValid(jsonObject.getJSONAttrStr("location")));
+        }
+    }
+
     protected void beforeAdd(CytomineDomain domain) {
         // this will be done in the PrePersist method ; but the validation is done before PrePersist
         ((UserAnnotation)domain).setWktLocation(((UserAnnotation)domain).getLocation().toText());
@@ -403,6 +590,37 @@ public class UserAnnotationService extends ModelService {
         }
     }
 
+    /**
+     * Insert the terms ("term") of the annotations added by an AddMultipleCommand, with a single flush
+     */
+    @Override
+    protected void afterAddMultiple(List annotations, List entries, CommandResponse response) {
+        List<CytomineDomain> domains = annotations;
+        List<JsonObject> jsons = entries;
+        User currentUser = currentUserService.getCurrentUser();
+        List<Map<String, Object>> data = (List<Map<String, Object>>) response.getData().get("domains");
+        for (int i = 0; i < domains.size(); i++) {
+            List<Long> termIds = jsons.get(i).getJSONAttrListLong("term", new ArrayList<>());
+            for (Long termId : termIds) {
+                AnnotationTerm annotationTerm = new AnnotationTerm();
+                annotationTerm.setUserAnnotation((UserAnnotation) domains.get(i));
+                annotationTerm.setTerm(entityManager.getReference(Term.class, termId));
+                annotationTerm.setUser(currentUser);
+                entityManager.persist(annotationTerm);
+            }
+            data.get(i).put("term", termIds);
+        }
+        entityManager.flush();
+
+        for (CytomineDomain domain : domains) {
+            try {
+                retrievalService.indexAnnotation((AnnotationDomain) domain);
+            } catch (HttpClientErrorException e) {
+                log.warn("Indexing annotation failed: " + e.getMessage());
+            }
+        }
+    }
+
     /**
      * Update this domain with new data from json
      * @param domain Domain to update
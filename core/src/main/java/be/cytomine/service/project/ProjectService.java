@@ -51,6 +51,7 @@ import be.cytomine.service.search.ProjectSearchExtension;
 import be.cytomine.service.search.RetrievalService;
 import be.cytomine.service.security.UserService;
 import be.cytomine.service.security.SecurityACLService;
+import be.cytomine.service.social.PresenceService;
 import be.cytomine.service.utils.TaskService;
 import be.cytomine.utils.*;
 import be.cytomine.utils.filters.SQLSearchParameter;
@@ -65,7 +66,6 @@ import jakarta.persistence.TupleElement;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.time.DateUtils;
 import org.bson.Document;
 import org.bson.conversions.Bson;
 import org.springframework.beans.factory.annotation.Value;
@@ -81,7 +81,6 @@ import java.util.stream.Collectors;
 
 import static com.mongodb.client.model.Aggregates.*;
 import static com.mongodb.client.model.Filters.eq;
-import static com.mongodb.client.model.Filters.gte;
 import static com.mongodb.client.model.Sorts.descending;
 import static org.springframework.security.acls.domain.BasePermission.*;
 
@@ -137,6 +136,8 @@ public class ProjectService extends ModelService {
 
     private final RetrievalService retrievalService;
 
+    private final PresenceService presenceService;
+
     @Value("${spring.data.mongodb.database}")
     private String mongoDatabaseName;
 
@@ -220,6 +221,18 @@ public class ProjectService extends ModelService {
     }
 
     public Page<JsonObject> list(User user, ProjectSearchExtension projectSearchExtension, List<SearchParameterEntry> searchParameters, String sortColumn, String sortDirection, Long max, Long offset) {
+        return list(user, projectSearchExtension, searchParameters, sortColumn, sortDirection, max, offset, null);
+    }
+
+    /**
+     * List projects with keyset pagination: the page starts after the cursor instead of an offset
+     */
+    public KeysetPage<JsonObject> list(User user, ProjectSearchExtension projectSearchExtension, List<SearchParameterEntry> searchParameters, String sortColumn, String sortDirection, Long max, KeysetCursor cursor) {
+        return (KeysetPage<JsonObject>) list(user, projectSearchExtension, searchParameters, sortColumn, sortDirection, max, 0L, cursor);
+    }
+
+    private Page<JsonObject> list(User user, ProjectSearchExtension projectSearchExtension, List<SearchParameterEntry> searchParameters, String sortColumn, String sortDirection, Long max, Long offset, KeysetCursor cursor) {
+        String requestedSortColumn = sortColumn;
 
         for (SearchParameterEntry parameter : searchParameters){
             if(parameter.getProperty().equals("numberOfImages")){
@@ -507,7 +520,21 @@ public class ProjectService extends ModelService {
         sort += (sortDirection.equals("desc")) ? " DESC " : " ASC ";
         sort += (sortDirection.equals("desc")) ? " NULLS LAST " : " NULLS FIRST ";
 
-        request = select + from + where + search + sort;
+        String keysetConstraint = "";
+        Map<String, Object> keysetParams = new HashMap<>();
+        if (cursor != null) {
+            if (requestedSortColumn.equals("currentUserRole")) {
+                throw new WrongArgumentException("Cursor pagination is not available for projects sorted by currentUserRole");
+            }
+            String sortExpression = sortColumn.contains(".") ? sortColumn : "p." + SQLUtils.toSnakeCase(sortColumn);
+            sortDirection = sortDirection.equals("desc") ? "desc" : "asc";
+            cursor.checkSort(requestedSortColumn, sortDirection);
+            select += ", " + sortExpression + " AS keyset_value ";
+            keysetConstraint = cursor.toSQLConstraint(sortExpression, "p.id", keysetParams);
+            sort = KeysetCursor.orderBy(sortExpression, "p.id", sortDirection);
+        }
+
+        request = select + from + where + search + keysetConstraint + sort;
 
         if (max > 0) {
             request += " LIMIT " + max;
@@ -522,8 +549,13 @@ public class ProjectService extends ModelService {
         for (Map.Entry<String, Object> entry : mapParams.entrySet()) {
             query.setParameter(entry.getKey(), entry.getValue());
         }
+        for (Map.Entry<String, Object> entry : keysetParams.entrySet()) {
+            query.setParameter(entry.getKey(), entry.getValue());
+        }
         List<Tuple> resultList = query.getResultList();
         List<JsonObject> results = new ArrayList<>();
+        Object lastKeysetValue = null;
+        Long lastId = null;
         for (Tuple rowResult : resultList) {
             JsonObject result = new JsonObject();
             for (TupleElement<?> element : rowResult.getElements()) {
@@ -534,6 +566,10 @@ public class ProjectService extends ModelService {
                 String alias = SQLUtils.toCamelCase(element.getAlias());
                 result.put(alias, value);
             }
+            if (cursor != null) {
+                lastKeysetValue = result.remove("keysetValue");
+                lastId = (Long) result.get("id");
+            }
             result.computeIfPresent("created", (k, v) -> ((Date)v).getTime());
             result.computeIfPresent("updated", (k, v) -> ((Date)v).getTime());
             Ontology eagerOntology = new Ontology();
@@ -595,6 +631,9 @@ public class ProjectService extends ModelService {
             query.setParameter(entry.getKey(), entry.getValue());
         }
         long count = (Long)query.getResultList().get(0);
+        if (cursor != null) {
+            return KeysetPage.of(results, max, count, requestedSortColumn, sortDirection, lastKeysetValue, lastId);
+        }
         Page<JsonObject> page = PageUtils.buildPageFromPageResults(results, max, offset, count);
         return page;
 
@@ -899,36 +938,15 @@ public class ProjectService extends ModelService {
     }
 
     public List<Long> getActiveProjects() {
-        Date xSecondAgo = DateUtils.addSeconds(new Date(), -120);
-        List<Bson> requests = new ArrayList<>();
-        requests.add(match(gte("created", xSecondAgo)));
-        requests.add(group("$project"));
-        MongoCollection<Document> persistentImageConsultation = mongoClient.getDatabase(mongoDatabaseName).getCollection("persistentProjectConnection");
-        List<Document> results = persistentImageConsultation.aggregate(requests)
-                .into(new ArrayList<>());
-        return results.stream().map(x -> x.getLong("_id")).collect(Collectors.toList());
+        return new ArrayList<>(presenceService.getActiveProjectsWithNumberOfUsers().keySet());
     }
 
     public List<JsonObject> getActiveProjectsWithNumberOfUsers() {
-        Date xSecondAgo = DateUtils.addSeconds(new Date(), -120);
-        List<Bson> requests = new ArrayList<>();
-        requests.add(match(gte("created", xSecondAgo)));
-        requests.add(group(Document.parse("{project: '$project', user: '$user'}")));
-        requests.add(group("$_id.project", Accumulators.sum("users", 1)));
-
-        MongoCollection<Document> persistentImageConsultation = mongoClient.getDatabase(mongoDatabaseName).getCollection("persistentProjectConnection");
-        List<Document> results = persistentImageConsultation.aggregate(requests)
-                .into(new ArrayList<>());
-
-        List<JsonObject> tmp = results.stream().map(x -> JsonObject.of("project", x.get("_id"), "users", x.get("users"))).collect(Collectors.toList());
-
-        List<Project> projects = projectRepository.findAllByIdIn(tmp.stream().map(x-> (Long)x.get("project")).collect(Collectors.toList()));
-
+        Map<Long, Integer> numberOfUsers = presenceService.getActiveProjectsWithNumberOfUsers();
         List<JsonObject> data = new ArrayList<>();
-        for (Project project : projects) {
+        for (Project project : projectRepository.findAllByIdIn(new ArrayList<>(numberOfUsers.keySet()))) {
             JsonObject jsonObject = JsonObject.of("project", Project.getDataFromDomain(project));
-            Optional<JsonObject> optEntry = tmp.stream().filter(entry -> Objects.equals(project.getId(), entry.getJSONAttrLong("project"))).findFirst();
-            jsonObject.put("users", optEntry.orElse(new JsonObject()).get("users"));
+            jsonObject.put("users", numberOfUsers.get(project.getId()));
             data.add(jsonObject);
         }
         return data;
@@ -6,6 +6,7 @@ import be.cytomine.domain.security.User;
 import be.cytomine.repository.security.TemporaryAccessTokenRepository;
 import be.cytomine.service.CurrentUserService;
 import be.cytomine.service.ModelService;
+import be.cytomine.service.PrincipalCache;
 import be.cytomine.utils.JsonObject;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -24,6 +25,7 @@ public class TemporaryAccessTokenService extends ModelService {
     private final TemporaryAccessTokenRepository temporaryAccessTokenRepository;
     private final CurrentUserService currentUserService;
     private final SecurityACLService securityACLService;
+    private final PrincipalCache principalCache;
 
     @Override
     public Class currentDomain() {
@@ -86,6 +88,13 @@ public class TemporaryAccessTokenService extends ModelService {
         return temporaryAccessTokenRepository.findByTokenKey(tokenKey);
     }
 
+    /**
+     * What the token grants, from the principal cache (the token is not read from the database on each request)
+     */
+    public Optional<PrincipalCache.TokenGrant> findGrant(String tokenKey) {
+        return principalCache.findTokenGrant(tokenKey);
+    }
+
     public Optional<TemporaryAccessToken> findByTokenKeyAndProjectId(String tokenKey, Long projectId) {
         return temporaryAccessTokenRepository.findByTokenKeyAndProjectId(tokenKey, projectId);
     }
@@ -96,19 +105,8 @@ public class TemporaryAccessTokenService extends ModelService {
             return false;
         }
         
-        Optional<TemporaryAccessToken> tokenOptional = findByTokenKey(tokenKey);
-        if (tokenOptional.isEmpty()) {
-            return false;
-        }
-        
-        TemporaryAccessToken token = tokenOptional.get();
-        // 检查是否过期
-        if (token.getExpiryDate().before(new Date())) {
-            return false;
-        }
-        
-        // 检查项目ID是否在令牌允许的列表中
-        return token.containsProjectId(projectId);
+        // 检查是否过期，以及项目ID是否在令牌允许的列表中
+        return findGrant(tokenKey).map(grant -> grant.isValid(projectId)).orElse(false);
     }
     
     /**
@@ -118,14 +116,8 @@ public class TemporaryAccessTokenService extends ModelService {
      * @return 令牌是否有效
      */
     public boolean isValidToken(String tokenKey) {
-        Optional<TemporaryAccessToken> tokenOptional = findByTokenKey(tokenKey);
-        if (tokenOptional.isEmpty()) {
-            return false;
-        }
-        
-        TemporaryAccessToken token = tokenOptional.get();
         // 检查是否过期
-        return !token.getExpiryDate().before(new Date());
+        return findGrant(tokenKey).map(PrincipalCache.TokenGrant::isValid).orElse(false);
     }
 
     public List<TemporaryAccessToken> listByProject(Long projectId) {
@@ -136,15 +128,13 @@ public class TemporaryAccessTokenService extends ModelService {
      * 根据令牌获取支持的项目ID列表
      */
     public List<Long> getProjectIdsByToken(String tokenKey) {
-        Optional<TemporaryAccessToken> tokenOptional = findByTokenKey(tokenKey);
-        if (tokenOptional.isPresent()) {
-            return tokenOptional.get().getProjectIdList();
-        }
-        return List.of(); // 返回空列表如果令牌不存在
+        return findGrant(tokenKey).map(PrincipalCache.TokenGrant::projectIds)
+                .orElse(List.of()); // 返回空列表如果令牌不存在
     }
 
     public TemporaryAccessToken delete(TemporaryAccessToken token) {
         temporaryAccessTokenRepository.delete(token);
+        principalCache.invalidateToken(token.getTokenKey());
         return token;
     }
 }
\ No newline at end of file
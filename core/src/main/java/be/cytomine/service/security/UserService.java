@@ -25,7 +25,6 @@ import be.cytomine.domain.project.Project;
 import be.cytomine.domain.project.ProjectDefaultLayer;
 import be.cytomine.domain.project.ProjectRepresentativeUser;
 import be.cytomine.domain.security.*;
-import be.cytomine.domain.social.LastConnection;
 import be.cytomine.dto.auth.AuthInformation;
 import be.cytomine.exceptions.*;
 import be.cytomine.repository.command.CommandHistoryRepository;
@@ -42,13 +41,13 @@ import be.cytomine.repository.project.ProjectRepository;
 import be.cytomine.repository.project.ProjectRepresentativeUserRepository;
 import be.cytomine.repository.security.*;
 import be.cytomine.repositorynosql.social.AnnotationActionRepository;
-import be.cytomine.repositorynosql.social.LastConnectionRepository;
 import be.cytomine.repositorynosql.social.PersistentImageConsultationRepository;
 import be.cytomine.repositorynosql.social.PersistentProjectConnectionRepository;
 import be.cytomine.service.CurrentRoleService;
 import be.cytomine.service.CurrentUserService;
 import be.cytomine.service.ModelService;
 import be.cytomine.service.PermissionService;
+import be.cytomine.service.PrincipalCache;
 import be.cytomine.service.image.ImageInstanceService;
 import be.cytomine.service.image.server.StorageService;
 import be.cytomine.service.ontology.*;
@@ -56,12 +55,12 @@ import be.cytomine.service.project.ProjectDefaultLayerService;
 import be.cytomine.service.project.ProjectRepresentativeUserService;
 import be.cytomine.service.search.UserSearchExtension;
 import be.cytomine.service.social.ImageConsultationService;
+import be.cytomine.service.social.PresenceService;
 import be.cytomine.service.social.ProjectConnectionService;
 import be.cytomine.service.social.UserPositionService;
 import be.cytomine.utils.*;
 import be.cytomine.utils.filters.SearchParameterEntry;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.time.DateUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.*;
 import org.springframework.stereotype.Service;
@@ -114,7 +113,10 @@ public class UserService extends ModelService {
     private ProjectRepository projectRepository;
 
     @Autowired
-    private LastConnectionRepository lastConnectionRepository;
+    private PresenceService presenceService;
+
+    @Autowired
+    private PrincipalCache principalCache;
 
     @Autowired
     private CommandHistoryRepository commandHistoryRepository;
@@ -677,12 +679,7 @@ public class UserService extends ModelService {
      */
     public List<User> getAllOnlineUsers() {
         securityACLService.checkGuest(currentUserService.getCurrentUser());
-        //get date with -X secondes
-        Date xSecondAgo = DateUtils.addSeconds(new Date(), -300);
-        // TODO: could be improve regarding performance...
-        List<LastConnection> connections = lastConnectionRepository.findAllByCreatedAfter(xSecondAgo);
-        List<Long> userIds = connections.stream().map(LastConnection::getUser).distinct().collect(Collectors.toList());
-        return userRepository.findAllByIdIn(userIds);
+        return userRepository.findAllByIdIn(presenceService.getOnlineUserIds());
     }
 
     /**
@@ -690,12 +687,7 @@ public class UserService extends ModelService {
      */
     public List<Long> getAllOnlineUserIds(Project project) {
         securityACLService.checkGuest(currentUserService.getCurrentUser());
-        //get date with -X secondes
-        Date xSecondAgo = DateUtils.addSeconds(new Date(), -300);
-        // TODO: could be improve regarding performance...
-        List<LastConnection> connections = lastConnectionRepository.findAllByProjectAndCreatedAfter(project.getId(), xSecondAgo);
-        List<Long> userIds = connections.stream().map(LastConnection::getUser).distinct().collect(Collectors.toList());
-        return userIds;
+        return presenceService.getOnlineUserIds(project.getId());
     }
 
     /**
@@ -738,6 +730,7 @@ public class UserService extends ModelService {
 
     public User regenerateKeys(User user) {
         user.generateKeys();
+        principalCache.invalidateUser(user.getId());
         return userRepository.save(user);
     }
 
@@ -851,6 +844,16 @@ public class UserService extends ModelService {
         commandRepository.deleteAllByUser(user);
     }
 
+    @Override
+    protected void afterUpdate(CytomineDomain domain, CommandResponse response) {
+        principalCache.invalidateUser(domain.getId());
+    }
+
+    @Override
+    protected void afterDelete(CytomineDomain domain, CommandResponse response) {
+        principalCache.invalidateUser(domain.getId());
+    }
+
 
     protected void afterAdd(CytomineDomain domain, CommandResponse response) {
         User user = (User) domain;
@@ -0,0 +1,205 @@
+package be.cytomine.service.social;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import com.mongodb.client.MongoCollection;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static com.mongodb.client.model.Aggregates.match;
+import static com.mongodb.client.model.Aggregates.sort;
+import static com.mongodb.client.model.Filters.*;
+import static com.mongodb.client.model.Sorts.ascending;
+
+/**
+ * Hourly and daily activity buckets per project and user.
+ *
+ * A bucket holds the number of project connections, image consultations and annotation actions started in the
+ * hour (or day, in UTC) and the time spent in the closed connections and consultations. Buckets are incremented
+ * when the events are inserted, and back-filled once from the raw collections when the rollup collection is created,
+ * so that the statistics read a few buckets instead of aggregating the whole history.
+ */
+@Slf4j
+@Service
+public class ActivityRollupService {
+
+    public static final String COLLECTION = "activityRollup";
+
+    public static final String CONNECTIONS = "connections";
+
+    public static final String CONNECTION_TIME = "connectionTime";
+
+    public static final String CONSULTATIONS = "consultations";
+
+    public static final String CONSULTATION_TIME = "consultationTime";
+
+    public static final String ANNOTATION_ACTIONS = "annotationActions";
+
+    public enum Granularity {
+        HOUR("hour", 3_600_000L),
+        DAY("day", 86_400_000L);
+
+        private final String name;
+
+        private final long durationInMillis;
+
+        Granularity(String name, long durationInMillis) {
+            this.name = name;
+            this.durationInMillis = durationInMillis;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long truncate(long time) {
+            return time - Math.floorMod(time, durationInMillis);
+        }
+    }
+
+    private final MongoTemplate mongoTemplate;
+
+    public ActivityRollupService(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    public void connection(Long project, Long user, Date created) {
+        increment(project, user, created, CONNECTIONS, 1);
+    }
+
+    public void connectionTime(Long project, Long user, Date created, Long time) {
+        increment(project, user, created, CONNECTION_TIME, time);
+    }
+
+    public void consultation(Long project, Long user, Date created) {
+        increment(project, user, created, CONSULTATIONS, 1);
+    }
+
+    public void consultationTime(Long project, Long user, Date created, Long time) {
+        increment(project, user, created, CONSULTATION_TIME, time);
+    }
+
+    public void annotationAction(Long project, Long user, Date created) {
+        increment(project, user, created, ANNOTATION_ACTIONS, 1);
+    }
+
+    /**
+     * Buckets with a value for the field, of the project (all projects if null) and user (all users if null),
+     * whose start is in [after, before]. The lower bound is truncated, so the bucket containing it is included.
+     */
+    public Bson matchBuckets(Granularity granularity, String field, Long project, Long user, Date after, Date before) {
+        List<Bson> filters = new ArrayList<>();
+        filters.add(eq("granularity", granularity.getName()));
+        filters.add(gt(field, 0));
+        if (project != null) {
+            filters.add(eq("project", project));
+        }
+        if (user != null) {
+            filters.add(eq("user", user));
+        }
+        if (after != null) {
+            filters.add(gte("time", new Date(granularity.truncate(after.getTime()))));
+        }
+        if (before != null) {
+            filters.add(lte("time", before));
+        }
+        return match(and(filters));
+    }
+
+    /**
+     * Start of each bucket of the project with the value of the field, sorted by time
+     */
+    public List<Document> buckets(Granularity granularity, Long project, Date after, Date before, String field) {
+        List<Bson> requests = List.of(
+                matchBuckets(granularity, field, project, null, after, before),
+                sort(ascending("time"))
+        );
+        return getCollection().aggregate(requests).into(new ArrayList<>());
+    }
+
+    public MongoCollection<Document> getCollection() {
+        return mongoTemplate.getCollection(COLLECTION);
+    }
+
+    /**
+     * Build the buckets of the events already in the raw collections.
+     * Must run once, on an empty rollup collection, before new events are recorded.
+     */
+    public void backFill() {
+        log.info("Back-fill activity rollups");
+        for (Granularity granularity : Granularity.values()) {
+            backFill("persistentProjectConnection", granularity, CONNECTIONS, CONNECTION_TIME);
+            backFill("persistentImageConsultation", granularity, CONSULTATIONS, CONSULTATION_TIME);
+            backFill("annotationAction", granularity, ANNOTATION_ACTIONS, null);
+        }
+    }
+
+    private void backFill(String source, Granularity granularity, String countField, String timeField) {
+        long size = granularity.durationInMillis;
+        List<Bson> requests = new ArrayList<>();
+        requests.add(Document.parse("{$match: {project: {$ne: null}, user: {$ne: null}, created: {$ne: null}}}"));
+        requests.add(Document.parse("{$group: {_id: {project: '$project', user: '$user', time: " +
+                "{$subtract: ['$created', {$mod: [{$toLong: '$created'}, " + size + "]}]}}, " +
+                "count: {$sum: 1}, time: {$sum: {$ifNull: ['$time', 0]}}}}"));
+        requests.add(Document.parse("{$project: {_id: {$concat: ['" + granularity.getName() + "/', " +
+                "{$toString: {$toLong: '$_id.time'}}, '/', {$toString: '$_id.project'}, '/', {$toString: '$_id.user'}]}, " +
+                "granularity: {$literal: '" + granularity.getName() + "'}, project: '$_id.project', user: '$_id.user', time: '$_id.time', " +
+                countField + ": '$count'" + (timeField != null ? ", " + timeField + ": '$time'" : "") + "}}"));
+        // the buckets of the other sources have other fields: merge them
+        requests.add(Document.parse("{$merge: {into: '" + COLLECTION + "', on: '_id', whenMatched: 'merge', whenNotMatched: 'insert'}}"));
+        mongoTemplate.getCollection(source).aggregate(requests).toCollection();
+    }
+
+    private void increment(Long project, Long user, Date created, String field, Number value) {
+        if (project == null || user == null || created == null || value == null) {
+            return;
+        }
+        try {
+            BulkOperations operations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, COLLECTION);
+            for (Granularity granularity : Granularity.values()) {
+                long time = granularity.truncate(created.getTime());
+                operations.upsert(
+                        Query.query(Criteria.where("_id").is(bucketId(granularity, time, project, user))),
+                        new Update()
+                                .setOnInsert("granularity", granularity.getName())
+                                .setOnInsert("project", project)
+                                .setOnInsert("user", user)
+                                .setOnInsert("time", new Date(time))
+                                .inc(field, value)
+                );
+            }
+            operations.execute();
+        } catch (RuntimeException e) {
+            log.error("Cannot update activity rollup {} of project {} and user {}", field, project, user, e);
+        }
+    }
+
+    static String bucketId(Granularity granularity, long time, Long project, Long user) {
+        return granularity.getName() + "/" + time + "/" + project + "/" + user;
+    }
+}
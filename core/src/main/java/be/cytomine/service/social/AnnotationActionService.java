@@ -54,6 +54,8 @@ public class AnnotationActionService {
 
     private final MongoTemplate mongoTemplate;
 
+    private final ActivityRollupService activityRollupService;
+
     public AnnotationAction add(AnnotationDomain annotation, User user, String action, Date created) {
         securityACLService.check(annotation, READ);
         AnnotationAction annotationAction = new AnnotationAction();
@@ -68,7 +70,9 @@ public class AnnotationActionService {
         annotationAction.setAnnotationClassName(annotation.getClass().getName());
         annotationAction.setAnnotationCreator(annotation.user().getId());
 
-        return annotationActionRepository.insert(annotationAction);
+        annotationAction = annotationActionRepository.insert(annotationAction);
+        activityRollupService.annotationAction(annotationAction.getProject(), annotationAction.getUser(), created);
+        return annotationAction;
     }
 
     public List<AnnotationAction> list(SliceInstance sliceInstance, User user, Long afterThan, Long beforeThan) {
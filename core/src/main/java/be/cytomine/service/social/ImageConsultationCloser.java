@@ -0,0 +1,207 @@
+package be.cytomine.service.social;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.domain.social.PersistentImageConsultation;
+import be.cytomine.domain.social.PersistentUserPosition;
+import be.cytomine.repository.ontology.UserAnnotationRepository;
+import be.cytomine.repositorynosql.social.PersistentImageConsultationRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Closes the image consultations in background.
+ *
+ * When a user opens an image, the previous consultation of the image is queued with the date it ended. Every
+ * closeIntervalInMillis, the queued consultations of all the sessions are closed in batches: the time spent is
+ * summed from the gaps between the positions (streamed from Mongo) and the created annotations are counted with an
+ * indexed count. With a close interval <= 0, consultations are closed immediately.
+ */
+@Slf4j
+@Component
+public class ImageConsultationCloser {
+
+    // a longer gap between two positions is a period of non activity
+    static final long MAX_POSITION_GAP_IN_MILLIS = 15000L;
+
+    private final PersistentImageConsultationRepository persistentImageConsultationRepository;
+
+    private final UserAnnotationRepository userAnnotationRepository;
+
+    private final MongoTemplate mongoTemplate;
+
+    private final UserPositionBuffer userPositionBuffer;
+
+    private final ActivityRollupService activityRollupService;
+
+    private final long closeIntervalInMillis;
+
+    private final int batchSize;
+
+    // consultation id -> end of the consultation
+    private final Map<Long, Date> pending = new ConcurrentHashMap<>();
+
+    private final AtomicLong closed = new AtomicLong();
+
+    private ScheduledExecutorService scheduler;
+
+    public ImageConsultationCloser(
+            PersistentImageConsultationRepository persistentImageConsultationRepository,
+            UserAnnotationRepository userAnnotationRepository,
+            MongoTemplate mongoTemplate,
+            UserPositionBuffer userPositionBuffer,
+            ActivityRollupService activityRollupService,
+            @Value("${application.imageConsultation.closeIntervalInMillis:1000}") long closeIntervalInMillis,
+            @Value("${application.imageConsultation.closeBatchSize:200}") int batchSize) {
+        this.persistentImageConsultationRepository = persistentImageConsultationRepository;
+        this.userAnnotationRepository = userAnnotationRepository;
+        this.mongoTemplate = mongoTemplate;
+        this.userPositionBuffer = userPositionBuffer;
+        this.activityRollupService = activityRollupService;
+        this.closeIntervalInMillis = closeIntervalInMillis;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    @PostConstruct
+    public void closeScheduler() {
+        if (closeIntervalInMillis <= 0) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (Exception e) {
+                log.error("Cannot close image consultations", e);
+            }
+        }, closeIntervalInMillis, closeIntervalInMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        flush();
+    }
+
+    /**
+     * Close the consultation as it was at the given date (in background)
+     */
+    public void close(PersistentImageConsultation consultation, Date before) {
+        pending.merge(consultation.getId(), before, (date, other) -> date.before(other) ? date : other);
+        if (closeIntervalInMillis <= 0) {
+            flush();
+        }
+    }
+
+    /**
+     * Close the queued consultations
+     *
+     * @return the number of consultations that have been closed
+     */
+    public synchronized int flush() {
+        if (pending.isEmpty()) {
+            return 0;
+        }
+        Map<Long, Date> ends = new HashMap<>();
+        for (Long id : new ArrayList<>(pending.keySet())) {
+            Date before = pending.remove(id);
+            if (before != null) {
+                ends.put(id, before);
+            }
+        }
+
+        userPositionBuffer.flush();
+        int count = 0;
+        List<Long> ids = new ArrayList<>(ends.keySet());
+        for (int i = 0; i < ids.size(); i += batchSize) {
+            List<PersistentImageConsultation> consultations = new ArrayList<>();
+            for (PersistentImageConsultation consultation : persistentImageConsultationRepository.findAllById(ids.subList(i, Math.min(i + batchSize, ids.size())))) {
+                //already closed
+                if (consultation.getTime() == null) {
+                    fill(consultation, ends.get(consultation.getId()));
+                    consultations.add(consultation);
+                }
+            }
+            persistentImageConsultationRepository.saveAll(consultations);
+            for (PersistentImageConsultation consultation : consultations) {
+                activityRollupService.consultationTime(consultation.getProject(), consultation.getUser(), consultation.getCreated(), consultation.getTime());
+            }
+            count += consultations.size();
+        }
+        closed.addAndGet(count);
+        return count;
+    }
+
+    /**
+     * Set the time spent and the number of annotations created during the consultation, until the given date.
+     * The pending positions must have been flushed.
+     */
+    public void fill(PersistentImageConsultation consultation, Date before) {
+        Date after = consultation.getCreated();
+
+        Query query = new Query(Criteria.where("project").is(consultation.getProject())
+                .and("user").is(consultation.getUser())
+                .and("image").is(consultation.getImage())
+                .and("created").gte(after).lte(before));
+        query.fields().include("created");
+        query.with(Sort.by(Sort.Direction.ASC, "created"));
+
+        //we sum the gaps between positions, without the periods of non activity
+        long time = 0;
+        long previous = after.getTime();
+        try (Stream<PersistentUserPosition> positions = mongoTemplate.stream(query, PersistentUserPosition.class)) {
+            for (Iterator<PersistentUserPosition> iterator = positions.iterator(); iterator.hasNext(); ) {
+                long created = iterator.next().getCreated().getTime();
+                if (created - previous < MAX_POSITION_GAP_IN_MILLIS) {
+                    time += created - previous;
+                }
+                previous = created;
+            }
+        }
+        consultation.setTime(time);
+
+        // count created annotations
+        Long annotations = userAnnotationRepository.countByImageIdAndUserIdAndCreatedGreaterThanAndCreatedLessThan(
+                consultation.getImage(), consultation.getUser(), after, before);
+        consultation.setCountCreatedAnnotations(annotations.intValue());
+    }
+
+    public int getPending() {
+        return pending.size();
+    }
+
+    public long getClosed() {
+        return closed.get();
+    }
+}
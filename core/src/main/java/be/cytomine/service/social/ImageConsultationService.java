@@ -21,15 +21,11 @@ import be.cytomine.domain.project.Project;
 import be.cytomine.domain.security.User;
 import be.cytomine.domain.social.PersistentImageConsultation;
 import be.cytomine.domain.social.PersistentProjectConnection;
-import be.cytomine.domain.social.PersistentUserPosition;
 import be.cytomine.exceptions.CytomineException;
 import be.cytomine.exceptions.ObjectNotFoundException;
-import be.cytomine.repository.AnnotationListing;
-import be.cytomine.repository.UserAnnotationListing;
 import be.cytomine.repository.image.ImageInstanceRepository;
 import be.cytomine.repository.project.ProjectRepository;
 import be.cytomine.repositorynosql.social.*;
-import be.cytomine.service.AnnotationListingService;
 import be.cytomine.service.CurrentUserService;
 import be.cytomine.service.UrlApi;
 import be.cytomine.service.database.SequenceService;
@@ -50,7 +46,6 @@ import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.aggregation.AggregationResults;
 import org.springframework.stereotype.Service;
 
-import jakarta.persistence.EntityManager;
 import jakarta.transaction.Transactional;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -77,20 +72,20 @@ public class ImageConsultationService {
 
     private final PersistentProjectConnectionRepository persistentProjectConnectionRepository;
 
-    private final AnnotationListingService annotationListingService;
-
-    private final EntityManager entityManager;
-
     private final ImageInstanceRepository imageInstanceRepository;
 
     private final PersistentImageConsultationRepository persistentImageConsultationRepository;
 
-    private final PersistentUserPositionRepository persistentUserPositionRepository;
+    private final UserPositionBuffer userPositionBuffer;
 
     private final SequenceService sequenceService;
 
     private final ImageInstanceService imageInstanceService;
 
+    private final ActivityRollupService activityRollupService;
+
+    private final ImageConsultationCloser imageConsultationCloser;
+
     @Value("${spring.data.mongodb.database}")
     private String mongoDatabaseName;
 
@@ -124,6 +119,7 @@ public class ImageConsultationService {
 
 
         persistentImageConsultationRepository.insert(consultation);
+        activityRollupService.consultation(consultation.getProject(), user.getId(), created);
 
         return consultation;
     }
@@ -143,59 +139,19 @@ public class ImageConsultationService {
             return;
         }
 
-        fillImageConsultation(consultation.get(), before);
-
-        persistentImageConsultationRepository.save(consultation.get());
+        imageConsultationCloser.close(consultation.get(), before);
     }
 
 
     public void fillImageConsultation(PersistentImageConsultation consultation, Date before) {
-        Date after = consultation.getCreated();
-
-        AggregationResults positions = persistentUserPositionRepository
-                .retrieve(consultation.getProject(), consultation.getUser(), consultation.getImage(), before, after, new Date(0));
-
-
-        if (!positions.getMappedResults().isEmpty()) {
-            log.debug(positions.toString());
-        }
-
-        List<Long> continuousConnections = (List<Long>)positions.getMappedResults().stream().map(x ->
-                x instanceof LinkedHashMap ? be.cytomine.utils.DateUtils.computeDateInMillis((Date)((LinkedHashMap) x).get("created")) :
-                        be.cytomine.utils.DateUtils.computeDateInMillis((Date)((PersistentUserPosition) x).getCreated())).collect(Collectors.toList());
-
-
-        //we calculated the gaps between connections to identify the period of non activity
-        List<Long> continuousConnectionIntervals = new ArrayList<>();
-
-        Long first = consultation.getCreated().getTime();
-        for (Long time : continuousConnections) {
-            continuousConnectionIntervals.add(time - first);
-            first = time;
-        }
-
-        consultation.setTime(continuousConnectionIntervals.stream().filter(x -> x < 15000L).reduce(0L, Long::sum));
-
-        if (consultation.getTime() == null) {
-            consultation.setTime(0L);
-        }
-
-        AnnotationListing al = new UserAnnotationListing(entityManager);
-        al.setProject(consultation.getProject());
-        al.setUser(consultation.getUser());
-        al.setImage(consultation.getImage());
-        al.setBeforeThan(before);
-        al.setAfterThan(after);
-
-        // count created annotations
-
-        consultation.setCountCreatedAnnotations(annotationListingService.listGeneric(al).size());
+        userPositionBuffer.flush();
+        imageConsultationCloser.fill(consultation, before);
         persistentImageConsultationRepository.save(consultation);
-
     }
 
     public Page<PersistentImageConsultation> listImageConsultationByProjectAndUserNoImageDistinct(Project project, User user, Integer max, Integer offset) {
         securityACLService.checkIsSameUserOrAdminContainer(project, user, currentUserService.getCurrentUser());
+        imageConsultationCloser.flush();
         if (max != 0) {
             max += offset; // ?
         } else {
@@ -206,6 +162,7 @@ public class ImageConsultationService {
 
     public List<JsonObject> listImageConsultationByProjectAndUserWithDistinctImage(Project project, User user) {
         securityACLService.checkIsSameUserOrAdminContainer(project, user, currentUserService.getCurrentUser());
+        imageConsultationCloser.flush();
         List<Bson> requests = new ArrayList<>();
         List<JsonObject> data = new ArrayList<>();
 
@@ -397,6 +354,7 @@ public class ImageConsultationService {
     public List<JsonObject> resumeByUserAndProject(Long userId, Long projectId) {
         Project project = projectRepository.findById(projectId).orElseThrow(() -> new ObjectNotFoundException("Project", projectId));
         securityACLService.check(project, READ);
+        imageConsultationCloser.flush();
 
         List<Bson> requests = new ArrayList<>();
         requests.add(match(eq("project", projectId)));
@@ -0,0 +1,195 @@
+package be.cytomine.service.social;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.domain.social.LastConnection;
+import be.cytomine.service.database.SequenceService;
+import be.cytomine.utils.ExpiringMap;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.NonTransientDataAccessException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * Users currently online, and the projects and images they are working on.
+ *
+ * Presence is fed by the project connections and the user positions: the last time each (user, project, image) has
+ * been seen is kept in an expiring map, so that the online users and the active projects are computed from the
+ * active entries only.
+ *
+ * With several replicas, the shared backend also upserts the last connection of each (user, project) in the
+ * lastConnection collection (expired by Mongo) and the queries read this collection instead of the local entries.
+ */
+@Slf4j
+@Component
+public class PresenceService {
+
+    private final MongoTemplate mongoTemplate;
+
+    private final SequenceService sequenceService;
+
+    private final long onlineWindowInMillis;
+
+    private final long activeProjectWindowInMillis;
+
+    private final boolean shared;
+
+    // last time seen, in millis
+    private final ExpiringMap<Presence, Long> lastSeen;
+
+    // last time written to the shared backend, key -> "userId/projectId"
+    private final ExpiringMap<String, Long> lastShared;
+
+    public PresenceService(
+            MongoTemplate mongoTemplate,
+            SequenceService sequenceService,
+            @Value("${application.presence.onlineWindowInSeconds:300}") long onlineWindowInSeconds,
+            @Value("${application.presence.activeProjectWindowInSeconds:120}") long activeProjectWindowInSeconds,
+            @Value("${application.presence.shared:false}") boolean shared,
+            @Value("${application.presence.sharedWriteIntervalInSeconds:10}") long sharedWriteIntervalInSeconds) {
+        this.mongoTemplate = mongoTemplate;
+        this.sequenceService = sequenceService;
+        this.onlineWindowInMillis = onlineWindowInSeconds * 1000;
+        this.activeProjectWindowInMillis = activeProjectWindowInSeconds * 1000;
+        this.shared = shared;
+        this.lastSeen = new ExpiringMap<>(Math.max(onlineWindowInMillis, activeProjectWindowInMillis));
+        this.lastShared = new ExpiringMap<>(sharedWriteIntervalInSeconds * 1000);
+    }
+
+    /**
+     * Whether the presence is shared between replicas through Mongo
+     */
+    public boolean isShared() {
+        return shared;
+    }
+
+    /**
+     * The user has been seen in the project (and image, if not null) at the given date
+     */
+    public void seen(Long user, Long project, Long image, Date date) {
+        if (user == null || date == null) {
+            return;
+        }
+        long time = date.getTime();
+        lastSeen.merge(new Presence(user, project, image), time, Math::max);
+        if (shared) {
+            share(user, project, time);
+        }
+    }
+
+    /**
+     * Users seen in the online window
+     */
+    public List<Long> getOnlineUserIds() {
+        long after = System.currentTimeMillis() - onlineWindowInMillis;
+        if (shared) {
+            Query query = Query.query(Criteria.where("created").gt(new Date(after)));
+            return mongoTemplate.findDistinct(query, "user", LastConnection.class, Long.class);
+        }
+        Set<Long> users = new HashSet<>();
+        lastSeen.forEach((presence, time) -> {
+            if (time > after) {
+                users.add(presence.user());
+            }
+        });
+        return new ArrayList<>(users);
+    }
+
+    /**
+     * Users seen in the project in the online window
+     */
+    public List<Long> getOnlineUserIds(Long project) {
+        long after = System.currentTimeMillis() - onlineWindowInMillis;
+        if (shared) {
+            Query query = Query.query(Criteria.where("project").is(project).and("created").gt(new Date(after)));
+            return mongoTemplate.findDistinct(query, "user", LastConnection.class, Long.class);
+        }
+        Set<Long> users = new HashSet<>();
+        lastSeen.forEach((presence, time) -> {
+            if (time > after && Objects.equals(presence.project(), project)) {
+                users.add(presence.user());
+            }
+        });
+        return new ArrayList<>(users);
+    }
+
+    public boolean isOnline(Long user, Long project) {
+        return getOnlineUserIds(project).contains(user);
+    }
+
+    /**
+     * Number of users of each project seen in the active project window
+     */
+    public Map<Long, Integer> getActiveProjectsWithNumberOfUsers() {
+        long after = System.currentTimeMillis() - activeProjectWindowInMillis;
+        Map<Long, Set<Long>> users = new HashMap<>();
+        if (shared) {
+            Query query = Query.query(Criteria.where("project").ne(null).and("created").gte(new Date(after)));
+            query.fields().include("user", "project");
+            for (LastConnection connection : mongoTemplate.find(query, LastConnection.class)) {
+                users.computeIfAbsent(connection.getProject(), project -> new HashSet<>()).add(connection.getUser());
+            }
+        } else {
+            lastSeen.forEach((presence, time) -> {
+                if (time >= after && presence.project() != null) {
+                    users.computeIfAbsent(presence.project(), project -> new HashSet<>()).add(presence.user());
+                }
+            });
+        }
+        Map<Long, Integer> numberOfUsers = new HashMap<>();
+        users.forEach((project, projectUsers) -> numberOfUsers.put(project, projectUsers.size()));
+        return numberOfUsers;
+    }
+
+    /**
+     * Forget the presence seen by this replica
+     */
+    public void clear() {
+        lastSeen.clear();
+        lastShared.clear();
+    }
+
+    private void share(Long user, Long project, long time) {
+        // written at most once per interval
+        if (lastShared.putIfAbsent(user + "/" + project, time) != null) {
+            return;
+        }
+        try {
+            Date date = new Date(time);
+            mongoTemplate.upsert(
+                    Query.query(Criteria.where("user").is(user).and("project").is(project)),
+                    new Update()
+                            .setOnInsert("_id", sequenceService.generateID())
+                            .setOnInsert("version", 0)
+                            .set("date", date)
+                            .set("created", date)
+                            .set("updated", date),
+                    LastConnection.class);
+        } catch (NonTransientDataAccessException e) {
+            log.error(e.getMessage());
+        }
+    }
+
+    private record Presence(Long user, Long project, Long image) {
+    }
+}
@@ -94,6 +94,12 @@ public class ProjectConnectionService {
 
     private final PersistentImageConsultationRepository persistentImageConsultationRepository;
 
+    private final ActivityRollupService activityRollupService;
+
+    private final ImageConsultationCloser imageConsultationCloser;
+
+    private final PresenceService presenceService;
+
     @Value("${spring.data.mongodb.database}")
     private String mongoDatabaseName;
 
@@ -116,6 +122,8 @@ public class ProjectConnectionService {
         connection.setBrowserVersion(browserVersion);
 
         persistentProjectConnectionRepository.insert(connection);
+        activityRollupService.connection(project.getId(), user.getId(), created);
+        presenceService.seen(user.getId(), project.getId(), null, created);
 
         return connection;
     }
@@ -391,22 +399,18 @@ public class ProjectConnectionService {
         securityACLService.check(project, WRITE);
 
         Bson projection1 = Document.parse(
-                "{$project : { created : {$subtract:['$created', {$add : [{$millisecond : '$created'}, {$multiply : [{$second : '$created'}, 1000]}, {$multiply : [{$minute : '$created'}, 60000]} ]}]}}}");
+                "{$project : { time : {$subtract:['$time', {$add : [{$millisecond : '$time'}, {$multiply : [{$second : '$time'}, 1000]}, {$multiply : [{$minute : '$time'}, 60000]} ]}]}, connections : 1}}");
         Bson projection2 = Document.parse(
-                "{$project : { y : {$year:'$created'}, m : {$month:'$created'}, d : {$dayOfMonth:'$created'}, h : {$hour:'$created'}, time : '$created'}}");
+                "{$project : { y : {$year:'$time'}, m : {$month:'$time'}, d : {$dayOfMonth:'$time'}, h : {$hour:'$time'}, time : '$time', connections : 1}}");
         Bson group = Document.parse(
-                "{$group : {_id : { year: '$y', month: '$m', day: '$d', hour: '$h'}, \"time\":{$first:'$time'}, \"frequency\":{$sum:1}}}");
+                "{$group : {_id : { year: '$y', month: '$m', day: '$d', hour: '$h'}, \"time\":{$first:'$time'}, \"frequency\":{$sum:'$connections'}}}");
 
-        Bson match = match(eq("project", project.getId()));
-        if (afterThan != null) {
-            match = match(and(gte("created", new Date(afterThan)), eq("project", project.getId())));
-        }
+        Bson match = activityRollupService.matchBuckets(ActivityRollupService.Granularity.HOUR, ActivityRollupService.CONNECTIONS,
+                project.getId(), null, (afterThan != null ? new Date(afterThan) : null), null);
 
         List<Bson> requests = List.of(match, projection1, projection2, group);
 
-        MongoCollection<Document> persistentProjectConnection = mongoClient.getDatabase(mongoDatabaseName).getCollection("persistentProjectConnection");
-
-        List<Document> results = persistentProjectConnection.aggregate(requests)
+        List<Document> results = activityRollupService.getCollection().aggregate(requests)
                 .into(new ArrayList<>());
         results.forEach(printDocuments());
 
@@ -459,52 +463,46 @@ public class ProjectConnectionService {
             case "hour" :
                 //substract all minutes,seconds & milliseconds (last unit is hour)
                 projection1 = Document.parse(
-                        "{$project : { created : {$subtract:['$created', {$add : [{$millisecond : '$created'}, {$multiply : [{$second : '$created'}, 1000]}, {$multiply : [{$minute : '$created'}, 60000]} ]}]}}}");
+                        "{$project : { time : {$subtract:['$time', {$add : [{$millisecond : '$time'}, {$multiply : [{$second : '$time'}, 1000]}, {$multiply : [{$minute : '$time'}, 60000]} ]}]}, connections : 1}}");
                 projection2 = Document.parse(
-                        "{$project : { y : {$year:'$created'}, m : {$month:'$created'}, d : {$dayOfMonth:'$created'}, h : {$hour:'$created'}, time : '$created'}}");
+                        "{$project : { y : {$year:'$time'}, m : {$month:'$time'}, d : {$dayOfMonth:'$time'}, h : {$hour:'$time'}, time : '$time', connections : 1}}");
                 group = Document.parse(
-                        "{$group : {_id : { year: '$y', month: '$m', day: '$d', hour: '$h'}, \"time\":{$first:'$time'}, \"frequency\":{$sum:1}}}");
+                        "{$group : {_id : { year: '$y', month: '$m', day: '$d', hour: '$h'}, \"time\":{$first:'$time'}, \"frequency\":{$sum:'$connections'}}}");
                 break;
             case "day" :
                 //also substract hours (last unit is day)
                 projection1 = Document.parse(
-                        "{$project : { created : {$subtract:['$created', {$add : [{$millisecond : '$created'}, {$multiply : [{$second : '$created'}, 1000]}, {$multiply : [{$minute : '$created'}, 60000]}, {$multiply : [{$hour : '$created'}, 3600000]}]}]}}}");
+                        "{$project : { time : {$subtract:['$time', {$add : [{$millisecond : '$time'}, {$multiply : [{$second : '$time'}, 1000]}, {$multiply : [{$minute : '$time'}, 60000]}, {$multiply : [{$hour : '$time'}, 3600000]}]}]}, connections : 1}}");
                 projection2 = Document.parse(
-                        "{$project : { y : {$year:'$created'}, m : {$month:'$created'}, d : {$dayOfMonth:'$created'}, time : '$created'}}");
+                        "{$project : { y : {$year:'$time'}, m : {$month:'$time'}, d : {$dayOfMonth:'$time'}, time : '$time', connections : 1}}");
                 group = Document.parse(
-                        "{$group : {_id : { year: '$y', month: '$m', day: '$d'}, \"time\":{$first:'$time'}, \"frequency\":{$sum:1}}}");
+                        "{$group : {_id : { year: '$y', month: '$m', day: '$d'}, \"time\":{$first:'$time'}, \"frequency\":{$sum:'$connections'}}}");
                 break;
             case "week" :
                 //also substract days (last unit is week)
                 projection1 = Document.parse(
-                        "{$project : { created : {$subtract:['$created', {$add : [{$millisecond : '$created'}, {$multiply : [{$second : '$created'}, 1000]}, {$multiply : [{$minute : '$created'}, 60000]}, {$multiply : [{$hour : '$created'}, 3600000]},  {$multiply : [{$subtract : [{$dayOfWeek: '$created'}, 1]}, 86400000]}       ]}]}}}");
+                        "{$project : { time : {$subtract:['$time', {$add : [{$millisecond : '$time'}, {$multiply : [{$second : '$time'}, 1000]}, {$multiply : [{$minute : '$time'}, 60000]}, {$multiply : [{$hour : '$time'}, 3600000]},  {$multiply : [{$subtract : [{$dayOfWeek: '$time'}, 1]}, 86400000]}       ]}]}, connections : 1}}");
                 projection2 = Document.parse(
-                        "{$project : { y : {$year:'$created'}, m : {$month:'$created'}, w : {$week:'$created'}, time : '$created'}}");
+                        "{$project : { y : {$year:'$time'}, m : {$month:'$time'}, w : {$week:'$time'}, time : '$time', connections : 1}}");
                 group = Document.parse(
-                        "{$group : {_id : { year: '$y', month: '$m', week: '$w'}, \"time\":{$first:'$time'}, \"frequency\":{$sum:1}}}");
+                        "{$group : {_id : { year: '$y', month: '$m', week: '$w'}, \"time\":{$first:'$time'}, \"frequency\":{$sum:'$connections'}}}");
                 break;
         }
 
-        if(afterThan!=null) {
-            matchs.add(match(gte("created", new Date(afterThan))));
-        }
-        if(beforeThan!=null) {
-            matchs.add(match(lte("created", new Date(beforeThan))));
-        }
-        if(project!=null){
-            matchs.add(match(eq("project", project.getId())));
-        }
-        if(user!=null){
-            matchs.add(match(eq("user", user.getId())));
-        }
+        // hours are read from the hourly buckets, days and weeks from the daily buckets
+        matchs.add(activityRollupService.matchBuckets(
+                (period.equals("hour") ? ActivityRollupService.Granularity.HOUR : ActivityRollupService.Granularity.DAY),
+                ActivityRollupService.CONNECTIONS,
+                (project != null ? project.getId() : null),
+                (user != null ? user.getId() : null),
+                (afterThan != null ? new Date(afterThan) : null),
+                new Date(beforeThan)));
 
         List<Bson> requests = new ArrayList<>();
         requests.addAll(matchs);
         requests.addAll(List.of(projection1, projection2, group));
 
-        MongoCollection<Document> persistentProjectConnection = mongoClient.getDatabase(mongoDatabaseName).getCollection("persistentProjectConnection");
-
-        List<Document> results = persistentProjectConnection.aggregate(requests)
+        List<Document> results = activityRollupService.getCollection().aggregate(requests)
                 .into(new ArrayList<>());
 
         List<JsonObject> connections = new ArrayList<>();
@@ -551,49 +549,46 @@ public class ProjectConnectionService {
             case "hour" :
                 //substract all minutes,seconds & milliseconds (last unit is hour)
                 projection1 = Document.parse(
-                        "{$project : { created : {$subtract:['$created', {$add : [{$millisecond : '$created'}, {$multiply : [{$second : '$created'}, 1000]}, {$multiply : [{$minute : '$created'}, 60000]} ]}]}}}");
+                        "{$project : { time : {$subtract:['$time', {$add : [{$millisecond : '$time'}, {$multiply : [{$second : '$time'}, 1000]}, {$multiply : [{$minute : '$time'}, 60000]} ]}]}, connections : 1}}");
                 projection2 = Document.parse(
-                        "{$project : { h : {$hour:'$created'}, time : '$created'}}");
+                        "{$project : { h : {$hour:'$time'}, time : '$time', connections : 1}}");
                 group = Document.parse(
-                        "{$group : {_id : { hour: '$h'}, \"time\":{$first:'$time'}, \"frequency\":{$sum:1}}}");
+                        "{$group : {_id : { hour: '$h'}, \"time\":{$first:'$time'}, \"frequency\":{$sum:'$connections'}}}");
                 break;
             case "day" :
                 //also substract hours (last unit is day)
                 projection1 = Document.parse(
-                        "{$project : { created : {$subtract:['$created', {$add : [{$millisecond : '$created'}, {$multiply : [{$second : '$created'}, 1000]}, {$multiply : [{$minute : '$created'}, 60000]}, {$multiply : [{$hour : '$created'}, 3600000]}]}]}}}");
+                        "{$project : { time : {$subtract:['$time', {$add : [{$millisecond : '$time'}, {$multiply : [{$second : '$time'}, 1000]}, {$multiply : [{$minute : '$time'}, 60000]}, {$multiply : [{$hour : '$time'}, 3600000]}]}]}, connections : 1}}");
                 projection2 = Document.parse(
-                        "{$project : { d : {$dayOfMonth:'$created'}, time : '$created'}}");
+                        "{$project : { d : {$dayOfMonth:'$time'}, time : '$time', connections : 1}}");
                 group = Document.parse(
-                        "{$group : {_id : { day: '$d'}, \"time\":{$first:'$time'}, \"frequency\":{$sum:1}}}");
+                        "{$group : {_id : { day: '$d'}, \"time\":{$first:'$time'}, \"frequency\":{$sum:'$connections'}}}");
                 break;
             case "week" :
                 //also substract days (last unit is week)
                 projection1 = Document.parse(
-                        "{$project : { created : {$subtract:['$created', {$add : [{$millisecond : '$created'}, {$multiply : [{$second : '$created'}, 1000]}, {$multiply : [{$minute : '$created'}, 60000]}, {$multiply : [{$hour : '$created'}, 3600000]},  {$multiply : [{$subtract : [{$dayOfWeek: '$created'}, 1]}, 86400000]}       ]}]}}}");
+                        "{$project : { time : {$subtract:['$time', {$add : [{$millisecond : '$time'}, {$multiply : [{$second : '$time'}, 1000]}, {$multiply : [{$minute : '$time'}, 60000]}, {$multiply : [{$hour : '$time'}, 3600000]},  {$multiply : [{$subtract : [{$dayOfWeek: '$time'}, 1]}, 86400000]}       ]}]}, connections : 1}}");
                 projection2 = Document.parse(
-                        "{$project : { w : {$week:'$created'}, time : '$created'}}");
+                        "{$project : { w : {$week:'$time'}, time : '$time', connections : 1}}");
                 group = Document.parse(
-                        "{$group : {_id : { week: '$w'}, \"time\":{$first:'$time'}, \"frequency\":{$sum:1}}}");
+                        "{$group : {_id : { week: '$w'}, \"time\":{$first:'$time'}, \"frequency\":{$sum:'$connections'}}}");
                 break;
         }
 
-        matchs.add(match(gte("created", new Date(afterThan))));
-        matchs.add(match(lte("created", new Date(beforeThan))));
-
-        if(project!=null){
-            matchs.add(match(eq("project", project.getId())));
-        }
-        if(user!=null){
-            matchs.add(match(eq("user", user.getId())));
-        }
+        // hours are read from the hourly buckets, days and weeks from the daily buckets
+        matchs.add(activityRollupService.matchBuckets(
+                (period.equals("hour") ? ActivityRollupService.Granularity.HOUR : ActivityRollupService.Granularity.DAY),
+                ActivityRollupService.CONNECTIONS,
+                (project != null ? project.getId() : null),
+                (user != null ? user.getId() : null),
+                new Date(afterThan),
+                new Date(beforeThan)));
 
         List<Bson> requests = new ArrayList<>();
         requests.addAll(matchs);
         requests.addAll(List.of(projection1, projection2, group));
 
-        MongoCollection<Document> persistentProjectConnection = mongoClient.getDatabase(mongoDatabaseName).getCollection("persistentProjectConnection");
-
-        List<Document> results = persistentProjectConnection.aggregate(requests)
+        List<Document> results = activityRollupService.getCollection().aggregate(requests)
                 .into(new ArrayList<>());
 
         Integer total = results.stream().map(x -> x.get("frequency",0)).reduce(0, Integer::sum);
@@ -618,6 +613,7 @@ public class ProjectConnectionService {
         Project project = projectRepository.getById(connection.getProject());
         securityACLService.check(project,WRITE);
 
+        imageConsultationCloser.flush();
         List<PersistentImageConsultation> consultations = persistentImageConsultationRepository
                 .findAllByCreatedGreaterThanAndProjectConnectionOrderByCreatedDesc(connection.getCreated(), activityId);
 
@@ -655,6 +651,7 @@ public class ProjectConnectionService {
         fillProjectConnection(connection.get(), before);
 
         persistentProjectConnectionRepository.save(connection.get());
+        activityRollupService.connectionTime(project, user, connection.get().getCreated(), connection.get().getTime());
     }
 
 
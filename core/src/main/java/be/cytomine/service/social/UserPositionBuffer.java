@@ -0,0 +1,341 @@
+package be.cytomine.service.social;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.domain.social.LastUserPosition;
+import be.cytomine.domain.social.PersistentUserPosition;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Write-behind buffer of the viewer positions.
+ *
+ * Positions are queued and inserted in Mongo in bulk (one insertMany per collection) by the scheduler every
+ * flushIntervalInMillis. With a flush interval <= 0, positions are inserted immediately. Only the latest last position
+ * of each user on each slice is written. At most maxPendingPositions persistent positions are kept: above, the oldest
+ * ones are dropped (and counted).
+ * When a bulk insert fails, the positions are inserted one by one, and the ones that still cannot be inserted are
+ * queued again for the next flush.
+ *
+ * The last position of each user on each slice is kept in memory (until it expires like in the lastUserPosition
+ * collection), so that the last positions and the online users of this replica are read without querying Mongo.
+ * Positions sent before the startup or to another replica are only in Mongo.
+ */
+@Slf4j
+@Component
+public class UserPositionBuffer {
+
+    // same as the TTL index of the lastUserPosition collection
+    static final long LAST_POSITION_TIME_TO_LIVE_IN_MILLIS = 60_000;
+
+    private final MongoTemplate mongoTemplate;
+
+    private final long flushIntervalInMillis;
+
+    private final int maxPendingPositions;
+
+    // "userId/imageId/sliceId" -> latest last position not written yet
+    private final Map<String, LastUserPosition> pendingLastPositions = new ConcurrentHashMap<>();
+
+    private final Deque<PersistentUserPosition> pendingPersistentPositions = new ConcurrentLinkedDeque<>();
+
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final AtomicLong reportedDropped = new AtomicLong();
+
+    // image id -> "userId/sliceId" -> last positions of the user on the slice
+    private final Map<Long, Map<String, LastPositions>> lastPositionsByImage = new ConcurrentHashMap<>();
+
+    private final long startedAt = System.currentTimeMillis();
+
+    private final AtomicLong flushes = new AtomicLong();
+
+    private final AtomicLong inserted = new AtomicLong();
+
+    private ScheduledExecutorService scheduler;
+
+    public UserPositionBuffer(
+            MongoTemplate mongoTemplate,
+            @Value("${application.userPosition.flushIntervalInMillis:1000}") long flushIntervalInMillis,
+            @Value("${application.userPosition.maxPendingPositions:10000}") int maxPendingPositions) {
+        this.mongoTemplate = mongoTemplate;
+        this.flushIntervalInMillis = flushIntervalInMillis;
+        this.maxPendingPositions = maxPendingPositions;
+    }
+
+    @PostConstruct
+    public void flushScheduler() {
+        if (flushIntervalInMillis <= 0) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (Exception e) {
+                log.error("Cannot flush user positions", e);
+            }
+        }, flushIntervalInMillis, flushIntervalInMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        flush();
+    }
+
+    public void add(LastUserPosition lastPosition, PersistentUserPosition persistentPosition) {
+        lastPositionsByImage.compute(lastPosition.getImage(), (image, positions) -> {
+            Map<String, LastPositions> result = (positions != null ? positions : new ConcurrentHashMap<>());
+            result.computeIfAbsent(lastPosition.getUser() + "/" + lastPosition.getSlice(), k -> new LastPositions())
+                    .update(lastPosition);
+            return result;
+        });
+
+        if (flushIntervalInMillis <= 0) {
+            mongoTemplate.insert(lastPosition);
+            mongoTemplate.insert(persistentPosition);
+            return;
+        }
+        // the last position is queued first, so that draining the persistent positions first never leaves
+        // the last position of a drained persistent position behind
+        queue(lastPosition);
+        pendingPersistentPositions.offerLast(persistentPosition);
+        pending.incrementAndGet();
+        dropOldest();
+    }
+
+    /**
+     * Insert the pending positions in Mongo and forget the expired last positions
+     *
+     * @return the number of positions that have been inserted
+     */
+    public int flush() {
+        List<PersistentUserPosition> persistentPositions = drain(pendingPersistentPositions);
+        List<LastUserPosition> lastPositions = drain(pendingLastPositions);
+        pending.addAndGet(-persistentPositions.size());
+
+        insert(lastPositions, LastUserPosition.class, remaining -> remaining.forEach(this::queue));
+        int count = insert(persistentPositions, PersistentUserPosition.class, this::queueAgain);
+        if (!persistentPositions.isEmpty()) {
+            flushes.incrementAndGet();
+            inserted.addAndGet(count);
+        }
+        long droppedCount = dropped.get();
+        long droppedSinceLastFlush = droppedCount - reportedDropped.getAndSet(droppedCount);
+        if (droppedSinceLastFlush > 0) {
+            log.warn("{} user positions have been dropped, more than {} were pending", droppedSinceLastFlush, maxPendingPositions);
+        }
+        evictExpired();
+        return count;
+    }
+
+    /**
+     * Insert the positions with a single insertMany. If it fails, insert them one by one (the ones inserted before
+     * the failure are duplicates) and queue again the ones that cannot be inserted.
+     *
+     * @return the number of positions that are in Mongo
+     */
+    private <T> int insert(List<T> positions, Class<T> type, Consumer<List<T>> queueAgain) {
+        if (positions.isEmpty()) {
+            return 0;
+        }
+        try {
+            mongoTemplate.insert(positions, type);
+            return positions.size();
+        } catch (RuntimeException e) {
+            log.warn("Cannot insert {} {} in bulk, inserting them one by one: {}", positions.size(),
+                    type.getSimpleName(), e.getMessage());
+        }
+
+        int count = 0;
+        for (int i = 0; i < positions.size(); i++) {
+            try {
+                mongoTemplate.insert(positions.get(i));
+                count++;
+            } catch (DuplicateKeyException e) {
+                // inserted by the bulk insert before it failed
+                count++;
+            } catch (RuntimeException e) {
+                // mongo is not available, the next flush tries again
+                List<T> remaining = positions.subList(i, positions.size());
+                log.error("Cannot insert {} {}, they are queued again", remaining.size(), type.getSimpleName(), e);
+                queueAgain.accept(remaining);
+                break;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Last position of the user on the image (on the slice if not null)
+     */
+    public Optional<LastUserPosition> lastPosition(Long imageId, Long sliceId, Long userId, boolean broadcast) {
+        Map<String, LastPositions> positions = lastPositionsByImage.getOrDefault(imageId, Map.of());
+        return positions.values().stream()
+                .map(position -> position.get(broadcast))
+                .filter(Objects::nonNull)
+                .filter(position -> position.getUser().equals(userId))
+                .filter(position -> sliceId == null || position.getSlice().equals(sliceId))
+                .max(Comparator.comparing(LastUserPosition::getCreated));
+    }
+
+    /**
+     * Users that sent a position on the image (on the slice if not null) after the given date
+     */
+    public List<Long> onlineUsers(Long imageId, Long sliceId, boolean broadcast, Date after) {
+        Map<String, LastPositions> positions = lastPositionsByImage.getOrDefault(imageId, Map.of());
+        return positions.values().stream()
+                .map(position -> position.get(broadcast))
+                .filter(Objects::nonNull)
+                .filter(position -> !position.getCreated().before(after))
+                .filter(position -> sliceId == null || position.getSlice().equals(sliceId))
+                .map(LastUserPosition::getUser)
+                .distinct()
+                .toList();
+    }
+
+    /**
+     * Insert the pending positions and forget the last positions of a deleted image
+     */
+    public void removeImage(Long imageId) {
+        flush();
+        lastPositionsByImage.remove(imageId);
+    }
+
+    public long getFlushes() {
+        return flushes.get();
+    }
+
+    public long getInserted() {
+        return inserted.get();
+    }
+
+    public int getPending() {
+        return pending.get();
+    }
+
+    /**
+     * Number of persistent positions dropped because too many were pending
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Whether the in-memory last positions of this replica are complete: the positions sent before the startup have
+     * expired
+     */
+    public boolean isComplete() {
+        return System.currentTimeMillis() - startedAt > LAST_POSITION_TIME_TO_LIVE_IN_MILLIS;
+    }
+
+    private void evictExpired() {
+        Date limit = new Date(System.currentTimeMillis() - LAST_POSITION_TIME_TO_LIVE_IN_MILLIS);
+        for (Long image : lastPositionsByImage.keySet()) {
+            lastPositionsByImage.computeIfPresent(image, (k, positions) -> {
+                positions.values().removeIf(position -> position.isExpired(limit));
+                return positions.isEmpty() ? null : positions;
+            });
+        }
+    }
+
+    private void queue(LastUserPosition position) {
+        String key = position.getUser() + "/" + position.getImage() + "/" + position.getSlice();
+        pendingLastPositions.merge(key, position,
+                (queued, added) -> added.getCreated().before(queued.getCreated()) ? queued : added);
+    }
+
+    /**
+     * Put back the positions that cannot be inserted at the head of the queue: they are the oldest ones
+     */
+    private void queueAgain(List<PersistentUserPosition> positions) {
+        for (int i = positions.size() - 1; i >= 0; i--) {
+            pendingPersistentPositions.offerFirst(positions.get(i));
+        }
+        pending.addAndGet(positions.size());
+        dropOldest();
+    }
+
+    private void dropOldest() {
+        int count = 0;
+        while (pending.get() > maxPendingPositions && pendingPersistentPositions.pollFirst() != null) {
+            pending.decrementAndGet();
+            count++;
+        }
+        dropped.addAndGet(count);
+    }
+
+    private static <T> List<T> drain(Map<String, T> positions) {
+        List<T> drained = new ArrayList<>();
+        for (Map.Entry<String, T> entry : positions.entrySet()) {
+            if (positions.remove(entry.getKey(), entry.getValue())) {
+                drained.add(entry.getValue());
+            }
+        }
+        return drained;
+    }
+
+    private static <T> List<T> drain(Queue<T> queue) {
+        List<T> drained = new ArrayList<>();
+        T element;
+        while ((element = queue.poll()) != null) {
+            drained.add(element);
+        }
+        return drained;
+    }
+
+    private static class LastPositions {
+
+        private volatile LastUserPosition latest;
+
+        private volatile LastUserPosition latestBroadcast;
+
+        private synchronized void update(LastUserPosition position) {
+            if (latest == null || !position.getCreated().before(latest.getCreated())) {
+                latest = position;
+            }
+            if (position.isBroadcast()
+                    && (latestBroadcast == null || !position.getCreated().before(latestBroadcast.getCreated()))) {
+                latestBroadcast = position;
+            }
+        }
+
+        private LastUserPosition get(boolean broadcast) {
+            return broadcast ? latestBroadcast : latest;
+        }
+
+        private boolean isExpired(Date limit) {
+            return latest.getCreated().before(limit);
+        }
+    }
+}
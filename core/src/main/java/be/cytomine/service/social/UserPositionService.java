@@ -31,7 +31,6 @@ import be.cytomine.utils.JsonObject;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.model.Accumulators;
-import com.mongodb.client.model.Projections;
 import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -53,6 +52,7 @@ import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 import static com.mongodb.client.model.Aggregates.*;
 import static com.mongodb.client.model.Filters.*;
@@ -80,6 +80,10 @@ public class UserPositionService {
 
     private final SequenceService sequenceService;
 
+    private final UserPositionBuffer userPositionBuffer;
+
+    private final PresenceService presenceService;
+
     // usersTracked key -> "trackedUserId/imageId"
     public static Map<String, List<User>> broadcasters = new ConcurrentHashMap<>();
 
@@ -98,10 +102,8 @@ public class UserPositionService {
             Integer zoom,
             Double rotation,
             Boolean broadcast) {
+        securityACLService.check(imageInstance,READ);
 
-        Optional<LastUserPosition> lastPosition = lastPositionByUser(imageInstance, sliceInstance, user, broadcast);
-
-        //TODO: no ACL???
         LastUserPosition position = new LastUserPosition();
         position.setId(sequenceService.generateID());
         position.setUser(user.getId());
@@ -116,7 +118,6 @@ public class UserPositionService {
         position.setCreated(created);
         position.setUpdated(created);
         position.setImageName(imageInstance.getBlindInstanceFilename());
-        lastUserPositionRepository.insert(position);
 
         PersistentUserPosition persistedPosition = new PersistentUserPosition();
         persistedPosition.setId(sequenceService.generateID());
@@ -131,7 +132,8 @@ public class UserPositionService {
         persistedPosition.setCreated(created);
         persistedPosition.setUpdated(created);
         persistedPosition.setImageName(imageInstance.getBlindInstanceFilename());
-        persistentUserPositionRepository.insert(persistedPosition);
+        userPositionBuffer.add(position, persistedPosition);
+        presenceService.seen(user.getId(), imageInstance.getProject().getId(), imageInstance.getId(), created);
 
         return persistedPosition;
     }
@@ -172,6 +174,13 @@ public class UserPositionService {
     }
 
     private Optional<LastUserPosition> getLastUserPosition(ImageInstance image, SliceInstance slice, User user, boolean broadcast) {
+        Optional<LastUserPosition> lastPosition = userPositionBuffer.lastPosition(
+                image.getId(), slice != null ? slice.getId() : null, user.getId(), broadcast);
+        if (lastPosition.isPresent() && !presenceService.isShared()) {
+            return lastPosition;
+        }
+
+        // positions sent before the startup or to another replica are not in memory
         Query query = new Query();
         query.addCriteria(Criteria.where("user").is(user.getId()));
         query.addCriteria(Criteria.where("image").is(image.getId()));
@@ -185,13 +194,19 @@ public class UserPositionService {
         query.limit(1);
 
         List<LastUserPosition> lastUserPositions = mongoTemplate.find(query, LastUserPosition.class);
-        return lastUserPositions.stream().findFirst();
+        return Stream.concat(lastPosition.stream(), lastUserPositions.stream())
+                .max(Comparator.comparing(LastUserPosition::getCreated));
     }
 
     public List<Long> listOnlineUsersByImage(ImageInstance image, SliceInstance slice, boolean broadcast) {
         securityACLService.check(image,READ);
         Date thirtySecondsAgo = DateUtils.addSeconds(new Date(), -30);
+        List<Long> onlineUsers = userPositionBuffer.onlineUsers(image.getId(), slice != null ? slice.getId() : null, broadcast, thirtySecondsAgo);
+        if (!presenceService.isShared() && userPositionBuffer.isComplete()) {
+            return onlineUsers;
+        }
 
+        // positions sent before the startup or to another replica are not in memory
         List<Bson> request = new ArrayList<>();
         request.add(match(eq("image", image.getId())));
         request.add(match(gte("created", thirtySecondsAgo)));
@@ -201,21 +216,18 @@ public class UserPositionService {
         if (slice!=null) {
             request.add(match(eq("slice", slice.getId())));
         }
-
-        request.add(project(Projections.fields(Projections.computed("user", "$user"))));
         request.add(group("$user"));
 
+        MongoCollection<Document> lastUserPosition = mongoClient.getDatabase(mongoDatabaseName).getCollection("lastUserPosition");
 
-        MongoCollection<Document> persistentProjectConnection = mongoClient.getDatabase(mongoDatabaseName).getCollection("lastUserPosition");
-
-        List<Document> results = persistentProjectConnection.aggregate(request)
-                .into(new ArrayList<>());
-
-        return results.stream().map(x -> x.getLong("_id")).toList();
+        Set<Long> users = new LinkedHashSet<>(onlineUsers);
+        lastUserPosition.aggregate(request).forEach(x -> users.add(x.getLong("_id")));
+        return new ArrayList<>(users);
     }
 
     public List<PersistentUserPosition> list(ImageInstance image, User user, SliceInstance slice, Long afterThan, Long beforeThan, Integer max, Integer offset){
         securityACLService.check(image,WRITE);
+        userPositionBuffer.flush();
         if (max == 0) {
             max = Integer.MAX_VALUE;
         }
@@ -273,6 +285,7 @@ public class UserPositionService {
 
     public List<Map<String, Object>> summarize(ImageInstance image, User user, SliceInstance slice, Long afterThan, Long beforeThan) {
         securityACLService.check(image, WRITE);
+        userPositionBuffer.flush();
 
         List<Bson> request = new ArrayList<>();
         request.add(match(eq("image", image.getId())));
@@ -312,6 +325,8 @@ public class UserPositionService {
 
     public List<JsonObject> findUsersPositions(Project project) {
 
+        userPositionBuffer.flush();
+
         //Get all user online and their pictures
         Date thirtySecondsAgo = DateUtils.addSeconds(new Date(), -30);
 
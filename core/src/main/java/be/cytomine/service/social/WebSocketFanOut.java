@@ -0,0 +1,184 @@
+package be.cytomine.service.social;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import be.cytomine.utils.JsonObject;
+
+/**
+ * Sends the frames of a broadcaster to its followers without blocking the broadcaster.
+ *
+ * Each follower session has a bounded mailbox: when a follower is too slow, its oldest frames are dropped (a viewer
+ * position is replaced by the next one anyway). Mailboxes are drained by a shared pool of threads, one session at a
+ * time, so the frames of a session are sent in order and a slow session only delays itself.
+ */
+@Slf4j
+@Component
+public class WebSocketFanOut {
+
+    private final int mailboxSize;
+
+    private final ExecutorService executor;
+
+    // mailboxes key -> session id
+    private final Map<String, Mailbox> mailboxes = new ConcurrentHashMap<>();
+
+    private final LongAdder published = new LongAdder();
+
+    private final LongAdder sent = new LongAdder();
+
+    private final LongAdder dropped = new LongAdder();
+
+    private final LongAdder failed = new LongAdder();
+
+    private final LongAdder totalLatencyNanos = new LongAdder();
+
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    public WebSocketFanOut(
+            @Value("${application.websocket.fanOut.threads:4}") int threads,
+            @Value("${application.websocket.fanOut.mailboxSize:16}") int mailboxSize) {
+        this.mailboxSize = Math.max(1, mailboxSize);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, "websocket-fan-out-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Queue the frame for each session. The frame is encoded once and shared by all the sessions.
+     */
+    public void publish(WebSocketSession[] sessions, TextMessage frame) {
+        long publishedAt = System.nanoTime();
+        published.increment();
+        for (WebSocketSession session : sessions) {
+            if (session == null || session.getId() == null || !session.isOpen()) {
+                continue;
+            }
+            Mailbox mailbox = mailboxes.computeIfAbsent(session.getId(), id -> new Mailbox(session));
+            mailbox.offer(new Frame(frame, publishedAt));
+        }
+    }
+
+    /**
+     * Forget the pending frames of a closed session
+     */
+    public void remove(WebSocketSession session) {
+        if (session != null && session.getId() != null) {
+            mailboxes.remove(session.getId());
+        }
+    }
+
+    public JsonObject getStatistics() {
+        long sentFrames = sent.sum();
+        JsonObject statistics = new JsonObject();
+        statistics.put("sessions", mailboxes.size());
+        statistics.put("published", published.sum());
+        statistics.put("sent", sentFrames);
+        statistics.put("dropped", dropped.sum());
+        statistics.put("failed", failed.sum());
+        statistics.put("averageLatencyInMillis", sentFrames == 0 ? 0 : totalLatencyNanos.sum() / 1e6 / sentFrames);
+        statistics.put("maxLatencyInMillis", maxLatencyNanos.get() / 1e6);
+        return statistics;
+    }
+
+    private record Frame(TextMessage message, long publishedAt) {
+    }
+
+    private class Mailbox {
+
+        private final WebSocketSession session;
+
+        private final Deque<Frame> frames = new ArrayDeque<>();
+
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private Mailbox(WebSocketSession session) {
+            this.session = session;
+        }
+
+        private void offer(Frame frame) {
+            synchronized (frames) {
+                if (frames.size() >= mailboxSize) {
+                    frames.pollFirst();
+                    dropped.increment();
+                }
+                frames.offerLast(frame);
+            }
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                executor.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            try {
+                Frame frame;
+                while ((frame = poll()) != null) {
+                    send(frame);
+                }
+            } finally {
+                scheduled.set(false);
+            }
+            // a frame may have been queued after the last poll but before the mailbox was released
+            if (!isEmpty()) {
+                schedule();
+            }
+        }
+
+        private void send(Frame frame) {
+            if (!session.isOpen()) {
+                mailboxes.remove(session.getId(), this);
+                return;
+            }
+            try {
+                session.sendMessage(frame.message());
+                long latency = System.nanoTime() - frame.publishedAt();
+                sent.increment();
+                totalLatencyNanos.add(latency);
+                maxLatencyNanos.accumulateAndGet(latency, Math::max);
+            } catch (IOException | RuntimeException e) {
+                failed.increment();
+                log.error("Failed to send message to session : " + session.getId() + " " + e.getMessage());
+            }
+        }
+
+        private Frame poll() {
+            synchronized (frames) {
+                return frames.pollFirst();
+            }
+        }
+
+        private boolean isEmpty() {
+            synchronized (frames) {
+                return frames.isEmpty();
+            }
+        }
+    }
+}
@@ -5,6 +5,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -25,7 +26,7 @@ import be.cytomine.exceptions.ServerException;
 import be.cytomine.repository.image.ImageInstanceRepository;
 import be.cytomine.repository.security.UserRepository;
 import be.cytomine.service.CytomineWebSocketHandler;
-import be.cytomine.utils.JsonObject;
+import be.cytomine.service.LockService;
 
 @Slf4j
 @RequiredArgsConstructor
@@ -46,6 +47,15 @@ public class WebSocketUserPositionHandler extends CytomineWebSocketHandler {
 
     private final UserRepository userRepository;
 
+    private final WebSocketFanOut webSocketFanOut;
+
+    private final LockService lockService;
+
+    @Override
+    protected LockService getLockService() {
+        return lockService;
+    }
+
     @Override
     public void afterConnectionEstablished(WebSocketSession session) {
         sessions = super.afterConnectionEstablished(session, sessions);
@@ -74,6 +84,7 @@ public class WebSocketUserPositionHandler extends CytomineWebSocketHandler {
             removeSessionFromTrackerSessions(session);
         }
         removeFromSessions(session);
+        webSocketFanOut.remove(session);
         log.debug("Closing user position WebSocket connection from {}", session.getRemoteAddress());
     }
 
@@ -87,12 +98,9 @@ public class WebSocketUserPositionHandler extends CytomineWebSocketHandler {
         String followerId = session.getAttributes().get("userId").toString();
         String imageId = session.getAttributes().get("imageId").toString();
 
-        boolean isNumeric = StringUtils.isNumeric(message.getPayload().toString());
-
-        if (!isNumeric) {
-            Map<String, Object> payloadMap = JsonObject.toMap(payload);
-            String userId = session.getAttributes().get("userId").toString();
-            sendPositionToFollowers(userId, imageId, message.getPayload().toString());
+        if (!StringUtils.isNumeric(payload)) {
+            // the position is forwarded as is, without being parsed
+            sendPositionToFollowers(followerId, imageId, payload);
             return;
         }
 
@@ -119,26 +127,18 @@ public class WebSocketUserPositionHandler extends CytomineWebSocketHandler {
     }
 
     private void addToTrackedSessions(ConcurrentWebSocketSessionDecorator broadcastSession, ConcurrentWebSocketSessionDecorator trackingSession){
-        if (WebSocketUserPositionHandler.sessionsTracked.containsKey(broadcastSession)) {
-            ConcurrentWebSocketSessionDecorator[] trackedSessions = WebSocketUserPositionHandler.sessionsTracked.get(broadcastSession);
-
-            boolean alreadyContainsSession = false;
+        // followers are copy-on-write arrays: they are read on each position, but only change when someone (un)follows
+        WebSocketUserPositionHandler.sessionsTracked.compute(broadcastSession, (key, trackedSessions) -> {
+            if (trackedSessions == null) {
+                return new ConcurrentWebSocketSessionDecorator[]{trackingSession};
+            }
             for (ConcurrentWebSocketSessionDecorator trackedSession : trackedSessions) {
                 if (trackedSession.getId().equals(trackingSession.getId())) {
-                    alreadyContainsSession = true;
-                    break;
+                    return trackedSessions;
                 }
             }
-
-            if(!alreadyContainsSession){
-                trackedSessions = addSession(trackedSessions, trackingSession);
-            }
-
-            WebSocketUserPositionHandler.sessionsTracked.replace(broadcastSession, WebSocketUserPositionHandler.sessionsTracked.get(broadcastSession), trackedSessions);
-        } else {
-            ConcurrentWebSocketSessionDecorator[] trackingSessions = new ConcurrentWebSocketSessionDecorator[]{trackingSession};
-            WebSocketUserPositionHandler.sessionsTracked.put(broadcastSession, trackingSessions);
-        }
+            return addSession(trackedSessions, trackingSession);
+        });
     }
 
     private void moveFollowerAfterInitialConnection(Long userId, Long imageId, WebSocketSession session) {
@@ -180,12 +180,7 @@ public class WebSocketUserPositionHandler extends CytomineWebSocketHandler {
     }
 
     private void sendPosition(ConcurrentWebSocketSessionDecorator[] sessions, String position){
-        TextMessage message = new TextMessage(position);
-        for(ConcurrentWebSocketSessionDecorator s : sessions){
-            new Thread(() -> {
-                sendPosition(s, message);
-            }).start();
-        }
+        webSocketFanOut.publish(sessions, new TextMessage(position));
     }
 
     private void sendPosition(WebSocketSession session, TextMessage position){
@@ -233,9 +228,7 @@ public class WebSocketUserPositionHandler extends CytomineWebSocketHandler {
     }
 
     private void removeSessionFromTrackerSessions(WebSocketSession session, ConcurrentWebSocketSessionDecorator trackedSession){
-        ConcurrentWebSocketSessionDecorator[] oldSessions = WebSocketUserPositionHandler.sessionsTracked.get(trackedSession);
-        ConcurrentWebSocketSessionDecorator[] newSessions = removeSession(oldSessions, session);
-        WebSocketUserPositionHandler.sessionsTracked.replace(trackedSession, oldSessions, newSessions);
+        WebSocketUserPositionHandler.sessionsTracked.computeIfPresent(trackedSession, (key, oldSessions) -> removeSession(oldSessions, session));
     }
 
     private void removeFromSessions(WebSocketSession session) {
@@ -243,10 +236,7 @@ public class WebSocketUserPositionHandler extends CytomineWebSocketHandler {
 
             for(ConcurrentWebSocketSessionDecorator trackedSession : entry.getValue()){
                 if(trackedSession.getId().equals(session.getId())){
-                    String userId = entry.getKey();
-                    ConcurrentWebSocketSessionDecorator[] oldSessions = WebSocketUserPositionHandler.sessions.get(userId);
-                    ConcurrentWebSocketSessionDecorator[] newSessions = removeSession(oldSessions, session);
-                    WebSocketUserPositionHandler.sessions.replace(userId, oldSessions, newSessions);
+                    WebSocketUserPositionHandler.sessions.computeIfPresent(entry.getKey(), (key, oldSessions) -> removeSession(oldSessions, session));
                 }
             }
         }
@@ -271,13 +261,9 @@ public class WebSocketUserPositionHandler extends CytomineWebSocketHandler {
     }
 
     private ConcurrentWebSocketSessionDecorator[] removeSession(ConcurrentWebSocketSessionDecorator[] oldSessions, WebSocketSession oldSession){
-        ConcurrentWebSocketSessionDecorator[] newSessions = new ConcurrentWebSocketSessionDecorator[oldSessions.length - 1];
-        for(int i=0; i < oldSessions.length; i++){
-            if(!oldSessions[i].getId().equals(oldSession.getId())){
-                newSessions[i] = oldSessions[i];
-            }
-        }
-        return newSessions;
+        return Arrays.stream(oldSessions)
+                .filter(s -> !Objects.equals(s.getId(), oldSession.getId()))
+                .toArray(ConcurrentWebSocketSessionDecorator[]::new);
     }
 
     private void sendNotificationsAndCloseSessions(List<ConcurrentWebSocketSessionDecorator> sessionDecorators){
@@ -22,8 +22,6 @@ import be.cytomine.domain.ontology.UserAnnotation;
 import be.cytomine.domain.project.Project;
 import be.cytomine.domain.security.User;
 import be.cytomine.domain.social.AnnotationAction;
-import be.cytomine.domain.social.PersistentImageConsultation;
-import be.cytomine.domain.social.PersistentProjectConnection;
 import be.cytomine.dto.StorageStats;
 import be.cytomine.repository.ontology.RelationRepository;
 import be.cytomine.repository.ontology.TermRepository;
@@ -33,9 +31,11 @@ import be.cytomine.service.middleware.ImageServerService;
 import be.cytomine.service.project.ProjectService;
 import be.cytomine.service.security.UserService;
 import be.cytomine.service.security.SecurityACLService;
+import be.cytomine.service.social.ActivityRollupService;
 import be.cytomine.utils.JsonObject;
 import jakarta.persistence.TypedQuery;
 import jakarta.persistence.criteria.*;
+import org.bson.Document;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Sort;
@@ -89,6 +89,9 @@ public class StatsService {
     @Autowired
     private CurrentUserService currentUserService;
 
+    @Autowired
+    ActivityRollupService activityRollupService;
+
     public Long total(Class domain) {
         return entityManager.createQuery("SELECT COUNT(*) FROM " + domain.getName(), Long.class).getSingleResult();
     }
@@ -531,43 +534,21 @@ public class StatsService {
 
     public List<JsonObject> statConnectionsEvolution(Project project, int daysRange, Date startDate, Date endDate, boolean accumulate) {
         securityACLService.check(project, READ);
-        Query query = new Query();
-        query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("project").is(project.getId()));
-        if (startDate != null && endDate != null) {
-            query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("created").gte(startDate).lte(endDate));
-        } else if (startDate != null) {
-            query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("created").gte(startDate));
-        } else if (endDate != null) {
-            query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("created").lte(endDate));
-        }
-        query.with(Sort.by(Sort.Direction.ASC, "created"));
-
-        List<PersistentProjectConnection> persistentProjectConnections = mongoTemplate.find(query, PersistentProjectConnection.class);
-        List<Date> createdDates = persistentProjectConnections.stream().map(x -> x.getCreated()).collect(Collectors.toList());
-        return this.aggregateByPeriods(createdDates, daysRange, (startDate == null ? project.getCreated() : startDate), (endDate == null ? new Date() : endDate), accumulate);
+        return this.aggregateBucketsByPeriods(project, ActivityRollupService.CONNECTIONS, daysRange, startDate, endDate, accumulate);
     }
 
 
     public List<JsonObject> statImageConsultationsEvolution(Project project, int daysRange, Date startDate, Date endDate, boolean accumulate) {
         securityACLService.check(project, READ);
-        Query query = new Query();
-        query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("project").is(project.getId()));
-        if (startDate != null && endDate != null) {
-            query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("created").gte(startDate).lte(endDate));
-        } else if (startDate != null) {
-            query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("created").gte(startDate));
-        } else if (endDate != null) {
-            query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("created").lte(endDate));
-        }
-        query.with(Sort.by(Sort.Direction.ASC, "created"));
-
-        List<PersistentImageConsultation> persistentProjectConnections = mongoTemplate.find(query, PersistentImageConsultation.class);
-        List<Date> createdDates = persistentProjectConnections.stream().map(x -> x.getCreated()).collect(Collectors.toList());
-        return this.aggregateByPeriods(createdDates, daysRange, (startDate == null ? project.getCreated() : startDate), (endDate == null ? new Date() : endDate), accumulate);
+        return this.aggregateBucketsByPeriods(project, ActivityRollupService.CONSULTATIONS, daysRange, startDate, endDate, accumulate);
     }
 
     public List<JsonObject> statAnnotationActionsEvolution(Project project, int daysRange, Date startDate, Date endDate, boolean accumulate, String type) {
         securityACLService.check(project, READ);
+        if (type == null) {
+            return this.aggregateBucketsByPeriods(project, ActivityRollupService.ANNOTATION_ACTIONS, daysRange, startDate, endDate, accumulate);
+        }
+        // the rollups are not split by action type
         Query query = new Query();
         query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("project").is(project.getId()));
         if (startDate != null && endDate != null) {
@@ -588,7 +569,21 @@ public class StatsService {
     }
 
 
+    /**
+     * Count the events of the project by periods from its hourly activity rollups
+     */
+    private List<JsonObject> aggregateBucketsByPeriods(Project project, String field, int daysRange, Date startDate, Date endDate, boolean accumulate) {
+        List<Document> buckets = activityRollupService.buckets(ActivityRollupService.Granularity.HOUR, project.getId(), startDate, endDate, field);
+        List<Date> times = buckets.stream().map(x -> x.getDate("time")).collect(Collectors.toList());
+        List<Integer> counts = buckets.stream().map(x -> ((Number) x.get(field)).intValue()).collect(Collectors.toList());
+        return this.aggregateByPeriods(times, counts, daysRange, (startDate == null ? project.getCreated() : startDate), (endDate == null ? new Date() : endDate), accumulate);
+    }
+
     private List<JsonObject> aggregateByPeriods(List<Date> creationDates, int daysRange, Date startDate, Date endDate, boolean accumulate) {
+        return aggregateByPeriods(creationDates, Collections.nCopies(creationDates.size(), 1), daysRange, startDate, endDate, accumulate);
+    }
+
+    private List<JsonObject> aggregateByPeriods(List<Date> creationDates, List<Integer> counts, int daysRange, Date startDate, Date endDate, boolean accumulate) {
         List<JsonObject> data = new ArrayList<>();
         int nbItems = creationDates.size();
         int count = 0;
@@ -613,8 +608,8 @@ public class StatsService {
             }
 
             while (idx < nbItems && creationDates.get(idx).getTime() < current.getTime()) {
+                count += counts.get(idx);
                 idx++;
-                count++;
             }
 
             item.put("endDate", Math.min(current.getTime(), endTime));
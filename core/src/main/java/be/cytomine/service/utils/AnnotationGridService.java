@@ -0,0 +1,208 @@
+package be.cytomine.service.utils;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.dto.GridCell;
+import be.cytomine.exceptions.WrongArgumentException;
+import be.cytomine.repository.AnnotationListing;
+import be.cytomine.repository.UserAnnotationListing;
+import lombok.AllArgsConstructor;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKTReader;
+import org.springframework.stereotype.Service;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Query;
+import jakarta.persistence.Tuple;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Aggregate annotations on a grid over the requested bbox (replacement for kmeans on dense slides).
+ *
+ * The grid is aligned on the image origin. At level l, a cell is BASE_CELL_SIZE * 2^l pixels wide, and the level
+ * is chosen so that the bbox is at most gridSize cells wide. Cells are thus stable from one pan to the next.
+ *
+ * User annotations are summarized per (slice, user, level, cell) in annotation_grid_cell, kept up to date by
+ * triggers on user_annotation (or by AnnotationCountService.flush() when counters are deferred). Only the fine levels
+ * are stored, coarser cells are the sum of the cells of the last stored level. The summary is used when the request
+ * only filters on slices, creators and bbox; other requests (terms, tags, reviewed annotations,...) and per-term counts
+ * are aggregated from the listing request.
+ */
+@Service
+@AllArgsConstructor
+public class AnnotationGridService {
+
+    /**
+     * Size (in pixels) of a cell at level 0. Must match annotation_grid_cell triggers.
+     */
+    public static final int BASE_CELL_SIZE = 256;
+
+    /**
+     * Number of levels in annotation_grid_cell. Must match annotation_grid_cell triggers.
+     */
+    public static final int LEVELS = 10;
+
+    /**
+     * Number of levels stored in annotation_grid_cell (the others are derived). Must match annotation_grid_cell triggers.
+     */
+    public static final int STORED_LEVELS = 4;
+
+    public static final int MAX_GRID_SIZE = 1024;
+
+    private final EntityManager entityManager;
+
+    public static double getCellSize(int level) {
+        return BASE_CELL_SIZE * Math.pow(2, level);
+    }
+
+    /**
+     * Get the smallest level for which the bbox is at most gridSize cells wide
+     */
+    public static int getLevel(double bboxWidth, int gridSize) {
+        for (int level = 0; level < LEVELS; level++) {
+            if (bboxWidth / getCellSize(level) <= gridSize) {
+                return level;
+            }
+        }
+        return LEVELS - 1;
+    }
+
+    public List<GridCell> aggregate(AnnotationListing al) {
+        if (al.getBbox() == null) {
+            throw new WrongArgumentException("If you want to use grid aggregation, you must provide image bbox");
+        }
+        if (al.getSlice() == null && (al.getSlices() == null || al.getSlices().isEmpty())) {
+            throw new WrongArgumentException("If you want to use grid aggregation, you must provide slice Id");
+        }
+        if (al.getGridSize() == null || al.getGridSize() < 1 || al.getGridSize() > MAX_GRID_SIZE) {
+            throw new WrongArgumentException("gridSize must be between 1 and " + MAX_GRID_SIZE + ": " + al.getGridSize());
+        }
+
+        Envelope bbox;
+        try {
+            bbox = new WKTReader().read(al.getBbox()).getEnvelopeInternal();
+        } catch (ParseException e) {
+            throw new WrongArgumentException("Annotation location cannot be converted to geometry: " + al.getBbox());
+        }
+        int level = getLevel(bbox.getWidth(), al.getGridSize());
+        double cellSize = getCellSize(level);
+
+        List<Long> slices = (al.getSlices() == null || al.getSlices().isEmpty()) ? List.of(al.getSlice()) : al.getSlices();
+
+        Map<String, GridCell> cells;
+        if (al instanceof UserAnnotationListing && al.hasOnlyGridSummaryFilters()) {
+            cells = selectSummaryCells(al, slices, level, cellSize, bbox);
+        } else {
+            cells = selectListingCells(al, level, cellSize);
+        }
+
+        if (Boolean.TRUE.equals(al.getGridTerms())) {
+            addTermCounts(al, cellSize, cells);
+        }
+
+        List<GridCell> data = new ArrayList<>(cells.values());
+        data.sort(Comparator.comparing(GridCell::getY).thenComparing(GridCell::getX));
+        double max = Math.max(1, data.stream().mapToLong(GridCell::getCount).max().orElse(1));
+        for (GridCell cell : data) {
+            cell.setRatio(cell.getCount() / max);
+        }
+        return data;
+    }
+
+    private Map<String, GridCell> selectSummaryCells(AnnotationListing al, List<Long> slices, int level, double cellSize, Envelope bbox) {
+        List<Long> users = al.getUser() != null ? List.of(al.getUser()) : al.getUsers();
+        int storedLevel = Math.min(level, STORED_LEVELS - 1);
+        double storedCellSize = getCellSize(storedLevel);
+        // number of stored cells along each side of a cell of the requested level
+        int factor = 1 << (level - storedLevel);
+        String cellX = factor == 1 ? "cell_x" : "floor(cell_x::double precision / " + factor + ")::int";
+        String cellY = factor == 1 ? "cell_y" : "floor(cell_y::double precision / " + factor + ")::int";
+
+        String request = "SELECT " + cellX + " AS cell_x, " + cellY + " AS cell_y, SUM(count_annotation) AS count, SUM(sum_x) AS sum_x, SUM(sum_y) AS sum_y\n" +
+                "FROM annotation_grid_cell\n" +
+                "WHERE level = " + storedLevel + "\n" +
+                "AND slice_id IN (" + joinValues(slices) + ")\n" +
+                "AND cell_x BETWEEN " + (int) Math.floor(bbox.getMinX() / storedCellSize) + " AND " + (int) Math.floor(bbox.getMaxX() / storedCellSize) + "\n" +
+                "AND cell_y BETWEEN " + (int) Math.floor(bbox.getMinY() / storedCellSize) + " AND " + (int) Math.floor(bbox.getMaxY() / storedCellSize) + "\n" +
+                (users != null ? "AND user_id IN (" + joinValues(users) + ")\n" : "") +
+                "GROUP BY 1, 2\n" +
+                "HAVING SUM(count_annotation) > 0";
+        return selectCells(request, level, cellSize);
+    }
+
+    private Map<String, GridCell> selectListingCells(AnnotationListing al, int level, double cellSize) {
+        al.setColumnsToPrint(new ArrayList<>(List.of("basic", "gis")));
+        al.setKmeansValue(KmeansGeometryService.FULL);
+        String request = "SELECT floor(g.x / " + cellSize + ")::int AS cell_x, floor(g.y / " + cellSize + ")::int AS cell_y, " +
+                "count(*) AS count, sum(g.x) AS sum_x, sum(g.y) AS sum_y\n" +
+                "FROM (SELECT DISTINCT r.id, r.x, r.y FROM (" + al.getAnnotationsRequest() + ") r) g\n" +
+                "WHERE g.x IS NOT NULL AND g.y IS NOT NULL\n" +
+                "GROUP BY 1, 2";
+        return selectCells(request, level, cellSize);
+    }
+
+    private void addTermCounts(AnnotationListing al, double cellSize, Map<String, GridCell> cells) {
+        al.setColumnsToPrint(new ArrayList<>(List.of("basic", "gis", "term")));
+        al.setKmeansValue(KmeansGeometryService.FULL);
+        String request = "SELECT floor(g.x / " + cellSize + ")::int AS cell_x, floor(g.y / " + cellSize + ")::int AS cell_y, " +
+                "g.term AS term, count(*) AS count\n" +
+                "FROM (SELECT DISTINCT r.id, r.x, r.y, r.term FROM (" + al.getAnnotationsRequest() + ") r) g\n" +
+                "WHERE g.x IS NOT NULL AND g.y IS NOT NULL AND g.term IS NOT NULL\n" +
+                "GROUP BY 1, 2, 3";
+
+        for (GridCell cell : cells.values()) {
+            cell.setTerms(new LinkedHashMap<>());
+        }
+        Query nativeQuery = entityManager.createNativeQuery(request, Tuple.class);
+        List<Tuple> resultList = nativeQuery.getResultList();
+        for (Tuple tuple : resultList) {
+            GridCell cell = cells.get(key(((Number) tuple.get("cell_x")).intValue(), ((Number) tuple.get("cell_y")).intValue()));
+            if (cell != null) {
+                cell.getTerms().put(((Number) tuple.get("term")).longValue(), ((Number) tuple.get("count")).longValue());
+            }
+        }
+    }
+
+    private Map<String, GridCell> selectCells(String request, int level, double cellSize) {
+        Map<String, GridCell> cells = new LinkedHashMap<>();
+        Query nativeQuery = entityManager.createNativeQuery(request, Tuple.class);
+        List<Tuple> resultList = nativeQuery.getResultList();
+        for (Tuple tuple : resultList) {
+            GridCell cell = new GridCell();
+            cell.setLevel(level);
+            cell.setCellSize(cellSize);
+            cell.setX(((Number) tuple.get("cell_x")).intValue());
+            cell.setY(((Number) tuple.get("cell_y")).intValue());
+            cell.setCount(((Number) tuple.get("count")).longValue());
+            double x = ((Number) tuple.get("sum_x")).doubleValue() / cell.getCount();
+            double y = ((Number) tuple.get("sum_y")).doubleValue() / cell.getCount();
+            cell.setLocation("POINT(" + x + " " + y + ")");
+            cells.put(key(cell.getX(), cell.getY()), cell);
+        }
+        return cells;
+    }
+
+    private static String key(int x, int y) {
+        return x + "_" + y;
+    }
+
+    private static String joinValues(List<Long> values) {
+        return values.stream().map(String::valueOf).collect(Collectors.joining(","));
+    }
+}
@@ -50,8 +50,10 @@ public class GeometryService {
     }
 
     public static Geometry addOffset(String geom, Integer xOffset, Integer yOffset) {
-        Geometry geometry = parseWKT(geom);
+        return addOffset(parseWKT(geom), xOffset, yOffset);
+    }
 
+    public static Geometry addOffset(Geometry geometry, Integer xOffset, Integer yOffset) {
         geometry.apply((Coordinate c) -> {
             c.x += xOffset;
             c.y += yOffset;
@@ -60,13 +62,20 @@ public class GeometryService {
         return geometry;
     }
 
-    public Boolean isGeometry(String input) {
+    /**
+     * Parse a WKT or GeoJSON geometry, return null if the input is not a geometry of a supported type
+     */
+    public static Geometry parseGeometry(String input) {
         Geometry geometry = parseWKT(input);
         if (geometry == null) {
             geometry = parseGeoJSON(input);
         }
 
-        return geometry != null && SUPPORTED_TYPES.contains(geometry.getGeometryType());
+        return geometry != null && SUPPORTED_TYPES.contains(geometry.getGeometryType()) ? geometry : null;
+    }
+
+    public Boolean isGeometry(String input) {
+        return parseGeometry(input) != null;
     }
 
     public String WKTToGeoJSON(String wkt) {
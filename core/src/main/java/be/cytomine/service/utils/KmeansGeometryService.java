@@ -21,7 +21,6 @@ import be.cytomine.domain.image.SliceInstance;
 import be.cytomine.domain.security.User;
 import be.cytomine.dto.Kmeans;
 import be.cytomine.exceptions.WrongArgumentException;
-import be.cytomine.repository.image.SliceInstanceRepository;
 import be.cytomine.service.ontology.AnnotationIndexService;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.io.ParseException;
@@ -44,8 +43,6 @@ public class KmeansGeometryService {
 
     private final EntityManager entityManager;
 
-    private final SliceInstanceRepository sliceInstanceRepository;
-
     public static final int FULL = 3;
     public static final int KMEANSFULL = 2;
     public static final int KMEANSSOFT = 1;
@@ -109,27 +106,38 @@ public class KmeansGeometryService {
     }
 
     public int mustBeReduce(List<Long> slices, Long userId, String bbox) {
-        List<SliceInstance> sliceInstances = sliceInstanceRepository.findAllById(slices);
+        List<Long> sliceImages = entityManager.createQuery(
+                "SELECT DISTINCT si.image.id FROM SliceInstance si WHERE si.id IN :slices", Long.class)
+                .setParameter("slices", slices)
+                .getResultList();
+        return mustBeReduce(slices, sliceImages, userId, bbox);
+    }
 
+    /**
+     * Get the kmeans rule for the slices, whose images are already known (e.g. resolved by AnnotationListing.container())
+     */
+    public int mustBeReduce(List<Long> slices, List<Long> sliceImages, Long userId, String bbox) {
         User user = null;
         if (userId !=null) {
             user = entityManager.find(User.class, userId);
         }
         try {
-            return mustBeReduce(sliceInstances, user,new WKTReader().read(bbox));
+            return mustBeReduce(slices, sliceImages, user, new WKTReader().read(bbox));
         } catch (ParseException e) {
             throw new WrongArgumentException("Annotation location cannot be converted to geometry: " + bbox);
         }
     }
 
-
     public int mustBeReduce(List<SliceInstance> slices, User user, Geometry bbox) {
-        List<ImageInstance> images = slices.stream().map(x -> x.getImage()).distinct().toList();
+        List<Long> sliceImages = slices.stream().map(x -> x.getImage().getId()).distinct().toList();
+        return mustBeReduce(slices.stream().map(SliceInstance::getId).toList(), sliceImages, user, bbox);
+    }
 
-        if (images.size() != 1) {
+    private int mustBeReduce(List<Long> slices, List<Long> sliceImages, User user, Geometry bbox) {
+        if (sliceImages.size() != 1) {
             throw new WrongArgumentException("To use kmeans, all slices must belong to the same image.");
         }
-        ImageInstance image = images.get(0);
+        ImageInstance image = entityManager.find(ImageInstance.class, sliceImages.get(0));
 
         if (image.getBaseImage().getWidth()==null) {
             return  FULL;
@@ -144,7 +152,7 @@ public class KmeansGeometryService {
 
         Map<Integer, Integer> ruleLine = rules.get(Math.min(ratio25,100));
 
-        long numberOfAnnotation = Math.max(0, annotationIndexService.count(slices,user));
+        long numberOfAnnotation = Math.max(0, annotationIndexService.countBySliceIds(slices, user));
 
         Integer rule = getRuleForNumberOfAnnotations(numberOfAnnotation, ruleLine);
         return rule;
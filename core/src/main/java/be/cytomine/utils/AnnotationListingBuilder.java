@@ -155,6 +155,11 @@ public class AnnotationListingBuilder {
         al.setKmeans(params.getJSONAttrBoolean("kmeans", false));
         al.setKmeansValue(params.getJSONAttrInteger("kmeansValue", null));
 
+        // Grid aggregation
+        al.setGrid(params.getJSONAttrBoolean("grid", false));
+        al.setGridSize(params.getJSONAttrInteger("gridSize", 64));
+        al.setGridTerms(params.getJSONAttrBoolean("gridTerms", false));
+
         // BBOX
         if(params.get("bbox")!=null) {
             try {
@@ -0,0 +1,125 @@
+package be.cytomine.utils;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashed timing wheel running the expiration of all the expiring maps.
+ *
+ * A timeout is added in O(1) to the slot of its deadline tick. At each tick, one thread runs the timeouts of the
+ * current slot that are due; a timeout whose deadline is more than one rotation away stays in its slot until the
+ * rotation it is due. A timeout added while its slot is being drained runs one rotation later: expirations are only
+ * used to reclaim memory, the maps check the expiration of an entry when it is read.
+ */
+@Slf4j
+public class ExpirationWheel {
+
+    private static final ExpirationWheel SHARED = new ExpirationWheel(1000, 512, System.currentTimeMillis()).start();
+
+    private final long tickInMillis;
+
+    private final int mask;
+
+    private final Queue<Timeout>[] slots;
+
+    private final long startedAt;
+
+    // last tick that has been run
+    private volatile long currentTick;
+
+    public static ExpirationWheel shared() {
+        return SHARED;
+    }
+
+    /**
+     * @param size number of slots, rounded up to a power of two
+     */
+    public ExpirationWheel(long tickInMillis, int size, long startedAt) {
+        this.tickInMillis = Math.max(1, tickInMillis);
+        int slotCount = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+        this.mask = slotCount - 1;
+        this.slots = new Queue[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            slots[i] = new ConcurrentLinkedQueue<>();
+        }
+        this.startedAt = startedAt;
+    }
+
+    private ExpirationWheel start() {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "expiration-wheel");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(() -> advance(System.currentTimeMillis()), tickInMillis, tickInMillis, TimeUnit.MILLISECONDS);
+        return this;
+    }
+
+    /**
+     * Run the action once the deadline (in millis) is passed
+     */
+    public void schedule(long deadline, Runnable action) {
+        long tick = Math.max(Math.floorDiv(deadline - startedAt + tickInMillis - 1, tickInMillis), currentTick + 1);
+        slots[(int) (tick & mask)].add(new Timeout(tick, action));
+    }
+
+    /**
+     * Run the timeouts of the ticks until now
+     *
+     * @return the number of timeouts that have been run
+     */
+    public synchronized int advance(long now) {
+        long nowTick = Math.floorDiv(now - startedAt, tickInMillis);
+        int count = 0;
+        while (currentTick < nowTick) {
+            long tick = currentTick + 1;
+            Queue<Timeout> slot = slots[(int) (tick & mask)];
+            List<Timeout> timeouts = new ArrayList<>();
+            Timeout timeout;
+            while ((timeout = slot.poll()) != null) {
+                timeouts.add(timeout);
+            }
+            for (Timeout each : timeouts) {
+                if (each.tick() > tick) {
+                    // later rotation
+                    slot.add(each);
+                    continue;
+                }
+                try {
+                    each.action().run();
+                    count++;
+                } catch (RuntimeException e) {
+                    log.error("Cannot run expiration", e);
+                }
+            }
+            currentTick = tick;
+        }
+        return count;
+    }
+
+    private record Timeout(long tick, Runnable action) {
+    }
+}
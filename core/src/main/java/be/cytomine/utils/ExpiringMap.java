@@ -0,0 +1,194 @@
+package be.cytomine.utils;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.LongSupplier;
+
+/**
+ * Concurrent map whose entries expire a time to live after they have been put.
+ *
+ * An expired entry is never returned; it is removed from the map by the shared expiration wheel, so there is no
+ * thread per map. Writes are atomic per key (putIfAbsent, merge), like in a ConcurrentHashMap.
+ *
+ * A single timeout is scheduled when a key is added, not at each write: when it fires on an entry whose expiration
+ * has been extended since, it is scheduled again for the new expiration.
+ */
+public class ExpiringMap<K, V> {
+
+    private final Map<K, Entry<V>> entries = new ConcurrentHashMap<>();
+
+    private final long timeToLiveInMillis;
+
+    private final ExpirationWheel wheel;
+
+    private final LongSupplier clock;
+
+    public ExpiringMap(long timeToLiveInMillis) {
+        this(timeToLiveInMillis, ExpirationWheel.shared(), System::currentTimeMillis);
+    }
+
+    public ExpiringMap(long timeToLiveInMillis, ExpirationWheel wheel, LongSupplier clock) {
+        this.timeToLiveInMillis = timeToLiveInMillis;
+        this.wheel = wheel;
+        this.clock = clock;
+    }
+
+    public V get(K key) {
+        Entry<V> entry = entries.get(key);
+        return entry != null && !entry.isExpired(clock.getAsLong()) ? entry.value : null;
+    }
+
+    public boolean containsKey(K key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Put the value, that expires a time to live from now
+     *
+     * @return the previous value
+     */
+    @SuppressWarnings("unchecked")
+    public V put(K key, V value) {
+        long now = clock.getAsLong();
+        Object lifetime = new Object();
+        Object[] previous = new Object[1];
+        Entry<V> entry = entries.compute(key, (k, current) -> {
+            if (current != null && !current.isExpired(now)) {
+                previous[0] = current.value;
+            }
+            return new Entry<>(value, now + timeToLiveInMillis, current != null ? current.lifetime : lifetime);
+        });
+        scheduleIfAdded(key, entry, lifetime);
+        return (V) previous[0];
+    }
+
+    /**
+     * Put the value if there is no value (or only an expired one) for the key
+     *
+     * @return the current value, null if the value has been put
+     */
+    public V putIfAbsent(K key, V value) {
+        long now = clock.getAsLong();
+        Object lifetime = new Object();
+        Object[] created = new Object[1];
+        Entry<V> current = entries.compute(key, (k, entry) -> {
+            if (entry != null && !entry.isExpired(now)) {
+                return entry;
+            }
+            Entry<V> added = new Entry<>(value, now + timeToLiveInMillis, entry != null ? entry.lifetime : lifetime);
+            created[0] = added;
+            return added;
+        });
+        scheduleIfAdded(key, current, lifetime);
+        return current == created[0] ? null : current.value;
+    }
+
+    /**
+     * Put the value, or the result of the function of the current value and the value; it expires a time to live
+     * from now
+     *
+     * @return the new value
+     */
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remapping) {
+        long now = clock.getAsLong();
+        Object lifetime = new Object();
+        Entry<V> merged = entries.compute(key, (k, entry) -> new Entry<>(
+                entry == null || entry.isExpired(now) ? value : remapping.apply(entry.value, value),
+                now + timeToLiveInMillis,
+                entry != null ? entry.lifetime : lifetime));
+        scheduleIfAdded(key, merged, lifetime);
+        return merged.value;
+    }
+
+    public V remove(K key) {
+        Entry<V> previous = entries.remove(key);
+        return previous != null && !previous.isExpired(clock.getAsLong()) ? previous.value : null;
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Run the action on each entry that has not expired
+     */
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        long now = clock.getAsLong();
+        entries.forEach((key, entry) -> {
+            if (!entry.isExpired(now)) {
+                action.accept(key, entry.value);
+            }
+        });
+    }
+
+    /**
+     * Number of entries, including the expired ones not yet removed by the expiration wheel
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Schedule the timeout of the key if the write has added it (the entry has the lifetime of the write)
+     */
+    private void scheduleIfAdded(K key, Entry<V> entry, Object lifetime) {
+        if (entry.lifetime == lifetime) {
+            schedule(key, lifetime, entry.expiration);
+        }
+    }
+
+    private void schedule(K key, Object lifetime, long deadline) {
+        wheel.schedule(deadline, () -> expire(key, lifetime));
+    }
+
+    /**
+     * Remove the entry of the key if it has expired, or schedule its timeout again if its expiration has been
+     * extended. The timeout of a key that has been removed (and maybe added again since) does nothing.
+     */
+    private void expire(K key, Object lifetime) {
+        long now = clock.getAsLong();
+        Entry<V> entry = entries.computeIfPresent(key, (k, current) ->
+                current.lifetime == lifetime && current.isExpired(now) ? null : current);
+        if (entry != null && entry.lifetime == lifetime) {
+            schedule(key, lifetime, entry.expiration);
+        }
+    }
+
+    private static class Entry<V> {
+
+        private final V value;
+
+        private final long expiration;
+
+        // same object for all the entries of a key until it is removed, identifies its timeout
+        private final Object lifetime;
+
+        private Entry(V value, long expiration, Object lifetime) {
+            this.value = value;
+            this.expiration = expiration;
+            this.lifetime = lifetime;
+        }
+
+        private boolean isExpired(long now) {
+            return expiration <= now;
+        }
+    }
+}
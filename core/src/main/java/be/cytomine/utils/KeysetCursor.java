@@ -0,0 +1,178 @@
+package be.cytomine.utils;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.exceptions.WrongArgumentException;
+import lombok.Getter;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Continuation token for keyset (cursor) pagination.
+ *
+ * A cursor holds the sort key and the id of the last row of a page. The next page is the rows strictly after
+ * (sort value, id) in the "ORDER BY sort, id" order, so that a page costs the same whatever its depth.
+ * Null sort values are considered as the smallest values (NULLS LAST for desc, NULLS FIRST for asc).
+ *
+ * The token given to the client is opaque (base64 of a json). The "*" token (or an empty token) asks the first page.
+ */
+@Getter
+public class KeysetCursor {
+
+    public static final String START = "*";
+
+    private final String sort;
+
+    private final String order;
+
+    private final Object value;
+
+    private final Long id;
+
+    private KeysetCursor(String sort, String order, Object value, Long id) {
+        this.sort = sort;
+        this.order = order;
+        this.value = value;
+        this.id = id;
+    }
+
+    public static KeysetCursor start() {
+        return new KeysetCursor(null, null, null, null);
+    }
+
+    public static KeysetCursor after(String sort, String order, Object value, Long id) {
+        return new KeysetCursor(sort, order, value, id);
+    }
+
+    public boolean isStart() {
+        return id == null;
+    }
+
+    /**
+     * Check that the cursor has been built for the same sort than the current request
+     */
+    public void checkSort(String sort, String order) {
+        if (!isStart() && (!this.sort.equals(sort) || !this.order.equalsIgnoreCase(order))) {
+            throw new WrongArgumentException("Cursor was built for sort " + this.sort + " " + this.order + " and cannot be used with sort " + sort + " " + order);
+        }
+    }
+
+    /**
+     * Get the SQL order by clause. The id is used as tie-breaker so that the order is total.
+     */
+    public static String orderBy(String sortExpression, String idExpression, String order) {
+        boolean desc = order.equalsIgnoreCase("desc");
+        if (sortExpression.equals(idExpression)) {
+            return " ORDER BY " + idExpression + (desc ? " DESC " : " ASC ");
+        }
+        return " ORDER BY " + sortExpression + (desc ? " DESC NULLS LAST, " : " ASC NULLS FIRST, ") + idExpression + (desc ? " DESC " : " ASC ");
+    }
+
+    /**
+     * Get the SQL constraint to keep only rows after the cursor. SQL parameters are added in the given map.
+     */
+    public String toSQLConstraint(String sortExpression, String idExpression, Map<String, Object> parameters) {
+        if (isStart()) {
+            return "";
+        }
+        boolean desc = order.equalsIgnoreCase("desc");
+        parameters.put("keysetId", id);
+        if (sortExpression.equals(idExpression)) {
+            return " AND " + idExpression + (desc ? " < " : " > ") + ":keysetId ";
+        }
+        if (value == null) {
+            if (desc) {
+                return " AND (" + sortExpression + " IS NULL AND " + idExpression + " < :keysetId) ";
+            } else {
+                return " AND ((" + sortExpression + " IS NULL AND " + idExpression + " > :keysetId) OR " + sortExpression + " IS NOT NULL) ";
+            }
+        }
+        parameters.put("keysetValue", value);
+        if (desc) {
+            return " AND ((" + sortExpression + ", " + idExpression + ") < (:keysetValue, :keysetId) OR " + sortExpression + " IS NULL) ";
+        } else {
+            return " AND (" + sortExpression + ", " + idExpression + ") > (:keysetValue, :keysetId) ";
+        }
+    }
+
+    public String encode() {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("sort", sort);
+        data.put("order", order);
+        data.put("id", id);
+        if (value instanceof Date) {
+            data.put("type", "date");
+            data.put("value", (value instanceof Timestamp ? ((Timestamp) value).toInstant() : ((Date) value).toInstant()).toString());
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short) {
+            data.put("type", "long");
+            data.put("value", ((Number) value).longValue());
+        } else if (value instanceof Number) {
+            data.put("type", "double");
+            data.put("value", value.toString());
+        } else if (value instanceof Boolean) {
+            data.put("type", "boolean");
+            data.put("value", value);
+        } else if (value != null) {
+            data.put("type", "string");
+            data.put("value", value.toString());
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(JsonObject.toJsonString(data).getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static KeysetCursor decode(String token) {
+        if (token == null || token.isBlank() || token.equals(START)) {
+            return start();
+        }
+        try {
+            JsonObject data = JsonObject.toJsonObject(new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8));
+            if (data == null || data.getJSONAttrStr("sort") == null || data.getJSONAttrStr("order") == null || data.getJSONAttrLong("id") == null) {
+                throw new WrongArgumentException("Cursor " + token + " is not valid");
+            }
+            Object value = null;
+            String type = data.getJSONAttrStr("type");
+            if (type != null) {
+                switch (type) {
+                    case "date":
+                        value = Timestamp.from(Instant.parse(data.getJSONAttrStr("value")));
+                        break;
+                    case "long":
+                        value = data.getJSONAttrLong("value");
+                        break;
+                    case "double":
+                        value = new BigDecimal(data.getJSONAttrStr("value")).doubleValue();
+                        break;
+                    case "boolean":
+                        value = data.getJSONAttrBoolean("value", false);
+                        break;
+                    default:
+                        value = data.getJSONAttrStr("value");
+                }
+            }
+            return after(data.getJSONAttrStr("sort"), data.getJSONAttrStr("order"), value, data.getJSONAttrLong("id"));
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            throw new WrongArgumentException("Cursor " + token + " is not valid");
+        }
+    }
+}
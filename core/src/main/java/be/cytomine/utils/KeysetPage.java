@@ -0,0 +1,58 @@
+package be.cytomine.utils;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Sort;
+
+import java.util.List;
+
+/**
+ * Page retrieved with a keyset cursor.
+ * nextCursor is the token to use to get the next page (null if this page is the last one).
+ * The total may be unknown (null) when counting all elements would cost as much as a deep offset.
+ */
+public class KeysetPage<T> extends PageImpl<T> {
+
+    private final String nextCursor;
+
+    private final boolean totalKnown;
+
+    public KeysetPage(List<T> content, Long max, Long total, String nextCursor) {
+        super(content, new OffsetBasedPageRequest(0, (max==0 ? Integer.MAX_VALUE : max.intValue()), Sort.unsorted()), total != null ? total : content.size());
+        this.nextCursor = nextCursor;
+        this.totalKnown = total != null;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean isTotalKnown() {
+        return totalKnown;
+    }
+
+    /**
+     * Build the page from the rows returned by a request limited to max rows.
+     * If the page is full, the next page starts after the last row.
+     */
+    public static <T> KeysetPage<T> of(List<T> content, Long max, Long total, String sort, String order, Object lastValue, Long lastId) {
+        String nextCursor = (max > 0 && content.size() >= max && lastId != null) ?
+                KeysetCursor.after(sort, order, lastValue, lastId).encode() : null;
+        return new KeysetPage<>(content, max, total, nextCursor);
+    }
+}
@@ -35,6 +35,12 @@ public class PreparedRequest {
 
     private String path;
 
+    /**
+     * Path where the encoded fragments and numbers are replaced by placeholders (e.g. /ims/image/{path}/thumb),
+     * used to group the requests per endpoint
+     */
+    private String pathTemplate;
+
     private LinkedHashMap<String, Object> queryParameters;
 
     private HttpHeaders headers;
@@ -47,6 +53,7 @@ public class PreparedRequest {
         queryParameters = new LinkedHashMap<>();
         headers = new HttpHeaders();
         path = "";
+        pathTemplate = "";
     }
 
     public void setUrl(String url){
@@ -60,6 +67,7 @@ public class PreparedRequest {
         this.host = uri.getHost();
         this.port = uri.getPort();
         this.path = uri.getPath();
+        this.pathTemplate = uri.getPath();
         this.headers.add(HttpHeaders.HOST, this.host);
     }
 
@@ -85,6 +93,11 @@ public class PreparedRequest {
         }
         fragment = org.apache.commons.lang3.StringUtils.strip(fragment, "/");
         this.path += "/" + fragment;
+        this.pathTemplate += "/" + (encode ? "{path}" : fragment.matches("\\d+") ? "{n}" : fragment);
+    }
+
+    public String getEndpoint() {
+        return this.method + " " + this.pathTemplate;
     }
 
     public String getQuery() {
@@ -112,23 +125,23 @@ public class PreparedRequest {
         );
     }
 
-    public <T> T toObject(Class<T> returnType) {
+    public <T> T toObject(RestTemplate restTemplate, Class<T> returnType) {
         if (method.equals(GET)) {
-            return new RestTemplate().getForObject(this.getURI(), returnType);
+            return restTemplate.getForObject(this.getURI(), returnType);
         } else if (method.equals(POST)) {
-            return new RestTemplate().postForObject(this.getURI(), this.body, returnType);
+            return restTemplate.postForObject(this.getURI(), this.body, returnType);
         }
         throw new NotImplementedException("toObject is not implemented for method: " + method);
     }
 
-    public <T> ResponseEntity<T> toResponseEntity(ProxyExchange<T> proxy, Class<T> returnType) {
+    public <T> ResponseEntity<T> toResponseEntity(RestTemplate restTemplate, ProxyExchange<T> proxy, Class<T> returnType) {
         if (proxy == null) {
             if (method.equals(GET)) {
                 HttpEntity<?> request = new HttpEntity<>(this.headers);
-                return new RestTemplate().exchange(this.getURI(), this.method, request, returnType);
+                return restTemplate.exchange(this.getURI(), this.method, request, returnType);
             } else if (method.equals(POST)) {
                 HttpEntity<?> request = new HttpEntity<>(this.body, this.headers);
-                return new RestTemplate().exchange(this.getURI(), this.method, request, returnType);
+                return restTemplate.exchange(this.getURI(), this.method, request, returnType);
             }
         }
         else {
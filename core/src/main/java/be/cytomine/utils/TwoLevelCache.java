@@ -0,0 +1,257 @@
+package be.cytomine.utils;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Cache with two levels:
+ * - the current http request keeps every value it has already read;
+ * - a shared cache, bounded (LRU) and with a time to live, used by all requests.
+ *
+ * Invalidations are done now and again once the current transaction is completed, so that a value read by another
+ * request before the commit (or a value of a rollbacked transaction) is not kept.
+ */
+public class TwoLevelCache<V> {
+
+    private final String requestAttribute;
+
+    private final int maxSize;
+
+    private final long timeToLiveInMillis;
+
+    private final Map<String, Entry<V>> shared;
+
+    private final AtomicLong requestHits = new AtomicLong();
+
+    private final AtomicLong sharedHits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * @param requestAttribute name of the request attribute that holds the values of the request
+     */
+    public TwoLevelCache(String requestAttribute, int maxSize, long timeToLiveInMillis) {
+        this.requestAttribute = requestAttribute;
+        this.maxSize = maxSize;
+        this.timeToLiveInMillis = timeToLiveInMillis;
+        this.shared = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry<V>> eldest) {
+                return size() > TwoLevelCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Get the value from the current request, then from the shared cache, then from the loader (a value loaded is put
+     * in both levels, unless it is null)
+     */
+    public V get(String key, Supplier<V> loader) {
+        V value = getFromRequest(key);
+        if (value != null) {
+            requestHits.incrementAndGet();
+            return value;
+        }
+        value = getShared(key);
+        if (value != null) {
+            sharedHits.incrementAndGet();
+            putInRequest(key, value);
+            return value;
+        }
+        misses.incrementAndGet();
+        value = loader.get();
+        if (value != null) {
+            put(key, value);
+        }
+        return value;
+    }
+
+    /**
+     * Value read by the current request, null if none
+     */
+    public V getFromRequest(String key) {
+        Map<String, V> requestCache = requestCache();
+        return requestCache != null ? requestCache.get(key) : null;
+    }
+
+    /**
+     * Value of the shared cache, null if none or expired
+     */
+    public V getShared(String key) {
+        if (!isSharedCacheEnabled()) {
+            return null;
+        }
+        synchronized (shared) {
+            Entry<V> entry = shared.get(key);
+            if (entry != null && entry.expiration > System.currentTimeMillis()) {
+                return entry.value;
+            } else if (entry != null) {
+                shared.remove(key);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Put the value in both levels, for the time to live of the cache
+     */
+    public void put(String key, V value) {
+        putShared(key, value, System.currentTimeMillis() + timeToLiveInMillis);
+        putInRequest(key, value);
+    }
+
+    public void putInRequest(String key, V value) {
+        Map<String, V> requestCache = requestCache();
+        if (requestCache != null) {
+            requestCache.put(key, value);
+        }
+    }
+
+    public void removeFromRequest(String key) {
+        Map<String, V> requestCache = requestCache();
+        if (requestCache != null) {
+            requestCache.remove(key);
+        }
+    }
+
+    /**
+     * Put the value in the shared cache until the expiration (in millis)
+     */
+    public void putShared(String key, V value, long expiration) {
+        if (isSharedCacheEnabled()) {
+            synchronized (shared) {
+                shared.put(key, new Entry<>(value, expiration));
+            }
+        }
+    }
+
+    /**
+     * Count a hit of a value that has been checked by the caller (in the request level or the shared one)
+     */
+    public void hit(boolean inRequest) {
+        (inRequest ? requestHits : sharedHits).incrementAndGet();
+    }
+
+    public void miss() {
+        misses.incrementAndGet();
+    }
+
+    /**
+     * Remove the value of the key from both levels (now and once the current transaction is completed)
+     */
+    public void invalidate(String key) {
+        invalidateIf((entryKey, value) -> entryKey.equals(key));
+    }
+
+    /**
+     * Remove the values that match from both levels (now and once the current transaction is completed)
+     */
+    public void invalidateIf(Predicate<V> values) {
+        invalidateIf((entryKey, value) -> values.test(value));
+    }
+
+    /**
+     * Remove all values (now and once the current transaction is completed)
+     */
+    public void invalidateAll() {
+        invalidateIf((entryKey, value) -> true);
+    }
+
+    private void invalidateIf(BiPredicate<String, V> entries) {
+        runNowAndAfterTransaction(() -> {
+            invalidations.incrementAndGet();
+            Map<String, V> requestCache = requestCache();
+            if (requestCache != null) {
+                requestCache.entrySet().removeIf(entry -> entries.test(entry.getKey(), entry.getValue()));
+            }
+            synchronized (shared) {
+                shared.entrySet().removeIf(entry -> entries.test(entry.getKey(), entry.getValue().value));
+            }
+        });
+    }
+
+    public JsonObject getStatistics() {
+        int size;
+        synchronized (shared) {
+            size = shared.size();
+        }
+        long requestHitCount = requestHits.get();
+        long sharedHitCount = sharedHits.get();
+        long missCount = misses.get();
+        long total = requestHitCount + sharedHitCount + missCount;
+        JsonObject statistics = new JsonObject();
+        statistics.put("size", size);
+        statistics.put("maxSize", maxSize);
+        statistics.put("timeToLiveInSeconds", timeToLiveInMillis / 1000);
+        statistics.put("requestHits", requestHitCount);
+        statistics.put("sharedHits", sharedHitCount);
+        statistics.put("misses", missCount);
+        statistics.put("invalidations", invalidations.get());
+        statistics.put("hitRatio", total == 0 ? 0d : (double) (requestHitCount + sharedHitCount) / total);
+        return statistics;
+    }
+
+    /**
+     * Run the invalidation now and once the current transaction (if any) is completed
+     */
+    public static void runNowAndAfterTransaction(Runnable invalidation) {
+        invalidation.run();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    invalidation.run();
+                }
+            });
+        }
+    }
+
+    private boolean isSharedCacheEnabled() {
+        return maxSize > 0 && timeToLiveInMillis > 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, V> requestCache() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes == null) {
+            return null;
+        }
+        Map<String, V> cache = (Map<String, V>) attributes.getAttribute(requestAttribute, RequestAttributes.SCOPE_REQUEST);
+        if (cache == null) {
+            cache = new HashMap<>();
+            attributes.setAttribute(requestAttribute, cache, RequestAttributes.SCOPE_REQUEST);
+        }
+        return cache;
+    }
+
+    private record Entry<V>(V value, long expiration) {
+    }
+}
@@ -1,72 +0,0 @@
-package be.cytomine.utils;
-
-import java.util.Date;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-
-public class WeakConcurrentHashMap<K, V> extends ConcurrentHashMap<K, V> {
-    private static final long serialVersionUID = 1L;
-
-    private Map<K, Long> timeMap = new ConcurrentHashMap<K, Long>();
-    private long expiryInMillis = 1000;
-
-    public WeakConcurrentHashMap() {
-        initialize();
-    }
-
-    public WeakConcurrentHashMap(long expiryInMillis) {
-        this.expiryInMillis = expiryInMillis;
-        initialize();
-    }
-
-    void initialize() {
-        new CleanerThread().start();
-    }
-
-    @Override
-    public V put(K key, V value) {
-        Date date = new Date();
-        timeMap.put(key, date.getTime());
-        V returnVal = super.put(key, value);
-        return returnVal;
-    }
-
-    @Override
-    public void putAll(Map<? extends K, ? extends V> m) {
-        for (K key : m.keySet()) {
-            put(key, m.get(key));
-        }
-    }
-
-    @Override
-    public V putIfAbsent(K key, V value) {
-        if (!containsKey(key))
-            return put(key, value);
-        else
-            return get(key);
-    }
-
-    class CleanerThread extends Thread {
-        @Override
-        public void run() {
-            while (true) {
-                cleanMap();
-                try {
-                    Thread.sleep(expiryInMillis / 2);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        private void cleanMap() {
-            long currentTime = new Date().getTime();
-            for (K key : timeMap.keySet()) {
-                if (currentTime > (timeMap.get(key) + expiryInMillis)) {
-                    remove(key);
-                    timeMap.remove(key);
-                }
-            }
-        }
-    }
-}
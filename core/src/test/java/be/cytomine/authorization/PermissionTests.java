@@ -99,4 +99,16 @@ public class PermissionTests {
         acEntry = aclRepository.getAclEntryId(aclObjectIdentity, aclSidId, 2);
         assertThat(acEntry).isNotNull();
     }
+
+    @Test
+    public void permission_check_sees_added_and_deleted_permission() {
+        Ontology ontology = builder.given_an_ontology();
+        assertThat(permissionService.hasACLPermission(ontology, "superadmin", BasePermission.ADMINISTRATION)).isFalse();
+
+        permissionService.addPermission(ontology, "superadmin", BasePermission.ADMINISTRATION);
+        assertThat(permissionService.hasACLPermission(ontology, "superadmin", BasePermission.ADMINISTRATION)).isTrue();
+
+        permissionService.deletePermission(ontology, "superadmin", BasePermission.ADMINISTRATION);
+        assertThat(permissionService.hasACLPermission(ontology, "superadmin", BasePermission.ADMINISTRATION)).isFalse();
+    }
 }
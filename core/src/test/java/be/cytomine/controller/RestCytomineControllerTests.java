@@ -0,0 +1,99 @@
+package be.cytomine.controller;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.domain.CytomineSocialDomain;
+import be.cytomine.utils.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RestCytomineControllerTests {
+
+    static class CountingSocialDomain extends CytomineSocialDomain {
+
+        private final long id;
+
+        private final AtomicInteger conversions;
+
+        CountingSocialDomain(long id, AtomicInteger conversions) {
+            this.id = id;
+            this.conversions = conversions;
+        }
+
+        @Override
+        public JsonObject toJsonObject() {
+            conversions.incrementAndGet();
+            return JsonObject.of("id", id, "path", "/data/" + id);
+        }
+    }
+
+    static class FilteringController extends RestCytomineController {
+
+        private final AtomicInteger filtered = new AtomicInteger();
+
+        @Override
+        protected void filterOneElement(Map<String, Object> element) {
+            filtered.incrementAndGet();
+            element.put("path", null);
+        }
+    }
+
+    @Test
+    public void only_requested_page_is_converted_and_filtered() {
+        AtomicInteger conversions = new AtomicInteger();
+        List<CountingSocialDomain> list = new ArrayList<>();
+        for (long i = 0; i < 100; i++) {
+            list.add(new CountingSocialDomain(i, conversions));
+        }
+        FilteringController controller = new FilteringController();
+
+        ResponseEntity<String> response = controller.responseSuccess(list, 10, 5, true);
+
+        assertThat(conversions.get()).isEqualTo(5);
+        assertThat(controller.filtered.get()).isEqualTo(5);
+        JsonObject json = JsonObject.toJsonObject(response.getBody());
+        assertThat(json.getJSONAttrLong("size")).isEqualTo(100);
+        assertThat(json.getJSONAttrLong("totalPages")).isEqualTo(20);
+        List<Map<String, Object>> collection = (List<Map<String, Object>>) json.get("collection");
+        assertThat(collection).hasSize(5);
+        assertThat(((Number) collection.get(0).get("id")).longValue()).isEqualTo(10L);
+        assertThat(collection.get(0).get("path")).isNull();
+    }
+
+    @Test
+    public void map_list_is_filtered_on_requested_page_only() {
+        List<Map<String, Object>> list = new ArrayList<>();
+        for (long i = 0; i < 10; i++) {
+            list.add(new HashMap<>(Map.of("id", i, "path", "/data/" + i)));
+        }
+        FilteringController controller = new FilteringController();
+
+        controller.responseSuccess(list, 8, 0, true);
+
+        assertThat(controller.filtered.get()).isEqualTo(2);
+        assertThat(list.get(7).get("path")).isEqualTo("/data/7");
+        assertThat(list.get(8).get("path")).isNull();
+    }
+}
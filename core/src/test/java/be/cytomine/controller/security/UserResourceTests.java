@@ -38,7 +38,6 @@ import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.web.context.request.RequestContextHolder;
 
 import be.cytomine.BasicInstanceBuilder;
 import be.cytomine.CytomineCoreApplication;
@@ -48,8 +47,6 @@ import be.cytomine.domain.image.server.Storage;
 import be.cytomine.domain.ontology.Ontology;
 import be.cytomine.domain.project.Project;
 import be.cytomine.domain.security.User;
-import be.cytomine.domain.social.LastConnection;
-import be.cytomine.domain.social.PersistentConnection;
 import be.cytomine.domain.social.PersistentImageConsultation;
 import be.cytomine.domain.social.PersistentProjectConnection;
 import be.cytomine.domain.social.PersistentUserPosition;
@@ -63,8 +60,8 @@ import be.cytomine.repositorynosql.social.PersistentProjectConnectionRepository;
 import be.cytomine.repositorynosql.social.PersistentUserPositionRepository;
 import be.cytomine.repositorynosql.social.ProjectConnectionRepository;
 import be.cytomine.service.PermissionService;
-import be.cytomine.service.database.SequenceService;
 import be.cytomine.service.social.ImageConsultationService;
+import be.cytomine.service.social.PresenceService;
 import be.cytomine.service.social.ProjectConnectionService;
 import be.cytomine.service.social.UserPositionService;
 import be.cytomine.service.social.UserPositionServiceTests;
@@ -110,7 +107,7 @@ public class UserResourceTests {
     private LastUserPositionRepository lastUserPositionRepository;
 
     @Autowired
-    private SequenceService sequenceService;
+    private PresenceService presenceService;
 
     @Autowired
     private UserPositionService userPositionService;
@@ -142,6 +139,7 @@ public class UserResourceTests {
         projectConnectionRepository.deleteAll();
         lastUserPositionRepository.deleteAll();
         persistentUserPositionRepository.deleteAll();
+        presenceService.clear();
     }
 
     PersistentProjectConnection given_a_persistent_connection_in_project(User user, Project project,
@@ -171,27 +169,6 @@ public class UserResourceTests {
         return connection;
     }
 
-    PersistentConnection given_a_last_connection(User user, Long idProject, Date date) {
-        LastConnection connection = new LastConnection();
-        connection.setId(sequenceService.generateID());
-        connection.setUser(user.getId());
-        connection.setDate(date);
-        connection.setCreated(date);
-        connection.setProject(idProject);
-        lastConnectionRepository.insert(connection); //don't use save (stateless collection)
-
-        PersistentConnection connectionPersist = new PersistentConnection();
-        connectionPersist.setId(sequenceService.generateID());
-        connectionPersist.setUser(user.getId());
-        connectionPersist.setCreated(date);
-        connectionPersist.setProject(idProject);
-        connectionPersist.setSession(
-            RequestContextHolder.currentRequestAttributes().getSessionId());
-        persistentConnectionRepository.insert(
-            connectionPersist); //don't use save (stateless collection)
-        return connectionPersist;
-    }
-
     @Test
     @Transactional
     public void list_project_admin() throws Exception {
@@ -1054,9 +1031,11 @@ public class UserResourceTests {
         Project project = builder.given_a_project();
         Project anotherProject = builder.given_a_project();
 
-        given_a_last_connection(userOffline, project.getId(), DateUtils.addDays(new Date(), -15));
-        given_a_last_connection(userOnline, project.getId(), DateUtils.addSeconds(new Date(), -15));
-        given_a_last_connection(userOnlineButOnDifferentProject, anotherProject.getId(),
+        given_a_persistent_connection_in_project(userOffline, project,
+            DateUtils.addDays(new Date(), -15));
+        given_a_persistent_connection_in_project(userOnline, project,
+            DateUtils.addSeconds(new Date(), -15));
+        given_a_persistent_connection_in_project(userOnlineButOnDifferentProject, anotherProject,
             DateUtils.addSeconds(new Date(), -10));
 
         PersistentUserPosition persistentUserPosition =
@@ -0,0 +1,79 @@
+package be.cytomine.service;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.dto.annotation.AnnotationResult;
+import be.cytomine.repository.UserAnnotationListing;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AnnotationResultFolderTests {
+
+    private Map<String, Object> row(Long id, Long term, Long annotationTerm, Long userTerm) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("id", id);
+        row.put("term", term);
+        row.put("annotationterms", annotationTerm);
+        row.put("userterm", userTerm);
+        return row;
+    }
+
+    @Test
+    public void fold_rows_of_same_annotation_into_one_result() {
+        UserAnnotationListing listing = new UserAnnotationListing(null);
+        listing.setColumnsToPrint(new ArrayList<>(List.of("basic", "term")));
+
+        List<AnnotationResult> results = new ArrayList<>();
+        AnnotationResultFolder folder = new AnnotationResultFolder(listing, results::add);
+
+        folder.accept(row(3L, 10L, 100L, 1L));
+        folder.accept(row(3L, 10L, 101L, 2L));
+        folder.accept(row(3L, 11L, 102L, 1L));
+        assertThat(results).isEmpty();
+
+        folder.accept(row(2L, null, null, null));
+        assertThat(results).hasSize(1);
+
+        folder.finish();
+        assertThat(results).hasSize(2);
+
+        assertThat(results.get(0).get("id")).isEqualTo(3L);
+        assertThat(results.get(0).get("class")).isEqualTo("be.cytomine.domain.ontology.UserAnnotation");
+        assertThat((List<Long>) results.get(0).get("term")).containsExactly(10L, 11L);
+        List<Map<String, Object>> userByTerm = (List<Map<String, Object>>) results.get(0).get("userByTerm");
+        assertThat(userByTerm).hasSize(2);
+        assertThat((List<Long>) userByTerm.get(0).get("user")).containsExactly(1L, 2L);
+        assertThat((List<Long>) userByTerm.get(1).get("user")).containsExactly(1L);
+
+        assertThat(results.get(1).get("id")).isEqualTo(2L);
+        assertThat((List<Long>) results.get(1).get("term")).isEmpty();
+    }
+
+    @Test
+    public void finish_without_rows_gives_nothing() {
+        UserAnnotationListing listing = new UserAnnotationListing(null);
+        listing.setColumnsToPrint(new ArrayList<>(List.of("basic")));
+
+        List<AnnotationResult> results = new ArrayList<>();
+        AnnotationResultFolder folder = new AnnotationResultFolder(listing, results::add);
+        folder.finish();
+        assertThat(results).isEmpty();
+    }
+}
@@ -0,0 +1,93 @@
+package be.cytomine.service;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.exceptions.ServerException;
+import be.cytomine.utils.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class LockServiceTests {
+
+    @Test
+    void lease_is_reentrant_and_released_on_close() throws Exception {
+        LockService lockService = new LockService(null, 16, 1, false, 1);
+        try (LockService.Lease lease = lockService.lockProject(1L)) {
+            try (LockService.Lease nested = lockService.lockProject(1L)) {
+                assertThat(holders(lockService)).hasSize(1);
+            }
+            assertThat(holders(lockService)).hasSize(1);
+        }
+        assertThat(holders(lockService)).isEmpty();
+
+        // another thread can lock the project once released
+        CompletableFuture.runAsync(() -> lockService.lockProject(1L).close()).get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void lock_times_out_when_held_by_another_thread() throws Exception {
+        LockService lockService = new LockService(null, 16, 1, false, 1);
+        try (LockService.Lease lease = lockService.lockCustomUI(2L)) {
+            CompletableFuture<Void> other = CompletableFuture.runAsync(() -> lockService.lockCustomUI(2L).close());
+            assertThatThrownBy(() -> other.get(5, TimeUnit.SECONDS))
+                    .hasCauseInstanceOf(ServerException.class)
+                    .hasMessageContaining("Cannot acquire lock for custom UI project 2");
+        }
+
+        JsonObject customUI = (JsonObject) ((JsonObject) lockService.getStatistics().get("namespaces")).get(LockService.CUSTOM_UI);
+        assertThat(customUI.get("acquisitions")).isEqualTo(1L);
+        assertThat(customUI.get("timeouts")).isEqualTo(1L);
+        assertThat((Long) customUI.get("maxWaitInMillis")).isGreaterThanOrEqualTo(900L);
+    }
+
+    @Test
+    void holders_are_reported_with_their_thread() {
+        LockService lockService = new LockService(null, 1, 1, false, 1);
+        try (LockService.Lease lease = lockService.lockWebSocketSessions("3")) {
+            List<JsonObject> holders = holders(lockService);
+            assertThat(holders).hasSize(1);
+            assertThat(holders.get(0).get("key")).isEqualTo("websocketSessions/3");
+            assertThat(holders.get(0).get("thread")).isEqualTo(Thread.currentThread().getName());
+            // a single stripe: every key shares the same lock
+            assertThat(lockService.getStatistics().get("stripes")).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void closing_a_lease_twice_releases_it_once() {
+        LockService lockService = new LockService(null, 16, 1, false, 1);
+        LockService.Lease outer = lockService.lockProject(4L);
+        LockService.Lease inner = lockService.lockProject(4L);
+        inner.close();
+        inner.close();
+        assertThat(holders(lockService)).extracting(holder -> holder.get("count")).containsExactly(1);
+        outer.close();
+        assertThat(holders(lockService)).isEmpty();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<JsonObject> holders(LockService lockService) {
+        return (List<JsonObject>) ((Map<String, Object>) lockService.getStatistics()).get("holders");
+    }
+}
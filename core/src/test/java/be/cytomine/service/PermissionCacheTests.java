@@ -0,0 +1,109 @@
+package be.cytomine.service;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PermissionCacheTests {
+
+    @AfterEach
+    public void cleanRequest() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    private Supplier<List<Integer>> loader(AtomicInteger calls, List<Integer> masks) {
+        return () -> {
+            calls.incrementAndGet();
+            return masks;
+        };
+    }
+
+    @Test
+    public void shared_cache_avoids_second_load() {
+        PermissionCache cache = new PermissionCache(100, 60);
+        AtomicInteger calls = new AtomicInteger();
+
+        assertThat(cache.get(1L, "user", loader(calls, List.of(1, 16)))).containsExactly(1, 16);
+        assertThat(cache.get(1L, "user", loader(calls, List.of(1, 16)))).containsExactly(1, 16);
+        assertThat(cache.get(1L, "other", loader(calls, List.of()))).isEmpty();
+
+        assertThat(calls.get()).isEqualTo(2);
+        assertThat(cache.getStatistics().getJSONAttrLong("sharedHits")).isEqualTo(1);
+        assertThat(cache.getStatistics().getJSONAttrLong("misses")).isEqualTo(2);
+    }
+
+    @Test
+    public void invalidation_forces_reload() {
+        PermissionCache cache = new PermissionCache(100, 60);
+        AtomicInteger calls = new AtomicInteger();
+
+        cache.get(1L, "user", loader(calls, List.of(1)));
+        cache.invalidate(1L, "user");
+        assertThat(cache.get(1L, "user", loader(calls, List.of(1, 16)))).containsExactly(1, 16);
+
+        cache.invalidateAll();
+        cache.get(1L, "user", loader(calls, List.of(1, 16)));
+        assertThat(calls.get()).isEqualTo(3);
+    }
+
+    @Test
+    public void request_cache_is_used_when_shared_cache_is_disabled() {
+        PermissionCache cache = new PermissionCache(0, 60);
+        AtomicInteger calls = new AtomicInteger();
+
+        cache.get(1L, "user", loader(calls, List.of(1)));
+        cache.get(1L, "user", loader(calls, List.of(1)));
+        assertThat(calls.get()).isEqualTo(2);
+
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        cache.get(1L, "user", loader(calls, List.of(1)));
+        cache.get(1L, "user", loader(calls, List.of(1)));
+        assertThat(calls.get()).isEqualTo(3);
+        assertThat(cache.getStatistics().getJSONAttrLong("requestHits")).isEqualTo(1);
+
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        cache.get(1L, "user", loader(calls, List.of(1)));
+        assertThat(calls.get()).isEqualTo(4);
+    }
+
+    @Test
+    public void least_recently_used_entry_is_evicted() {
+        PermissionCache cache = new PermissionCache(2, 60);
+        AtomicInteger calls = new AtomicInteger();
+
+        cache.get(1L, "user", loader(calls, List.of(1)));
+        cache.get(2L, "user", loader(calls, List.of(1)));
+        cache.get(1L, "user", loader(calls, List.of(1)));
+        cache.get(3L, "user", loader(calls, List.of(1)));
+        assertThat(calls.get()).isEqualTo(3);
+
+        cache.get(1L, "user", loader(calls, List.of(1)));
+        assertThat(calls.get()).isEqualTo(3);
+        cache.get(2L, "user", loader(calls, List.of(1)));
+        assertThat(calls.get()).isEqualTo(4);
+    }
+}
@@ -0,0 +1,167 @@
+package be.cytomine.service;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.domain.security.TemporaryAccessToken;
+import be.cytomine.domain.security.User;
+import be.cytomine.repository.security.TemporaryAccessTokenRepository;
+import be.cytomine.repository.security.UserRepository;
+import org.apache.commons.lang3.time.DateUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class PrincipalCacheTests {
+
+    @Mock
+    private UserRepository userRepository;
+
+    @Mock
+    private TemporaryAccessTokenRepository temporaryAccessTokenRepository;
+
+    @AfterEach
+    public void cleanRequest() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    // API keys are deprecated but still accepted
+    @SuppressWarnings("deprecation")
+    private static User given_a_user(Long id, String username, String publicKey) {
+        User user = new User();
+        user.setId(id);
+        user.setUsername(username);
+        user.setPublicKey(publicKey);
+        user.setEnabled(true);
+        return user;
+    }
+
+    @Test
+    public void username_is_resolved_once_then_read_by_id() {
+        PrincipalCache cache = new PrincipalCache(userRepository, temporaryAccessTokenRepository, 100, 60);
+        User user = given_a_user(1L, "john", "public");
+        when(userRepository.findByUsernameLikeIgnoreCase("john")).thenReturn(Optional.of(user));
+        when(userRepository.findById(1L)).thenReturn(Optional.of(user));
+
+        assertThat(cache.findUserByUsername("john")).contains(user);
+        assertThat(cache.findUserByUsername("JOHN")).contains(user);
+        assertThat(cache.findUserByUsername("john")).contains(user);
+
+        verify(userRepository, times(1)).findByUsernameLikeIgnoreCase("john");
+        verify(userRepository, times(2)).findById(1L);
+        assertThat(cache.getStatistics().getJSONAttrLong("sharedHits")).isEqualTo(2);
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void changed_public_key_is_resolved_again() {
+        PrincipalCache cache = new PrincipalCache(userRepository, temporaryAccessTokenRepository, 100, 60);
+        User user = given_a_user(1L, "john", "old");
+        when(userRepository.findByPublicKeyAndEnabled("old", true)).thenReturn(Optional.of(user));
+        when(userRepository.findById(1L)).thenReturn(Optional.of(user));
+
+        assertThat(cache.findEnabledUserByPublicKey("old")).contains(user);
+
+        // keys regenerated without invalidation: the cached id must not authenticate the old key
+        user.setPublicKey("new");
+        when(userRepository.findByPublicKeyAndEnabled("old", true)).thenReturn(Optional.empty());
+        assertThat(cache.findEnabledUserByPublicKey("old")).isEmpty();
+
+        // disabled user
+        user.setPublicKey("old");
+        user.setEnabled(false);
+        assertThat(cache.findEnabledUserByPublicKey("old")).isEmpty();
+    }
+
+    @Test
+    public void invalidation_removes_the_entries_of_the_user() {
+        PrincipalCache cache = new PrincipalCache(userRepository, temporaryAccessTokenRepository, 100, 60);
+        User user = given_a_user(1L, "john", "public");
+        when(userRepository.findByUsernameLikeIgnoreCase("john")).thenReturn(Optional.of(user));
+        when(userRepository.findByPublicKeyAndEnabled("public", true)).thenReturn(Optional.of(user));
+
+        cache.findUserByUsername("john");
+        cache.findEnabledUserByPublicKey("public");
+        assertThat(cache.getStatistics().getJSONAttrLong("size")).isEqualTo(2);
+
+        cache.invalidateUser(1L);
+        assertThat(cache.getStatistics().getJSONAttrLong("size")).isEqualTo(0);
+        cache.findUserByUsername("john");
+        verify(userRepository, times(2)).findByUsernameLikeIgnoreCase("john");
+        verify(userRepository, never()).findById(1L);
+    }
+
+    @Test
+    public void request_cache_is_used_when_shared_cache_is_disabled() {
+        PrincipalCache cache = new PrincipalCache(userRepository, temporaryAccessTokenRepository, 0, 60);
+        User user = given_a_user(1L, "john", "public");
+        when(userRepository.findByUsernameLikeIgnoreCase("john")).thenReturn(Optional.of(user));
+        when(userRepository.findById(1L)).thenReturn(Optional.of(user));
+
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        cache.findUserByUsername("john");
+        cache.findUserByUsername("john");
+        assertThat(cache.getStatistics().getJSONAttrLong("requestHits")).isEqualTo(1);
+
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        cache.findUserByUsername("john");
+        verify(userRepository, times(2)).findByUsernameLikeIgnoreCase("john");
+    }
+
+    @Test
+    public void token_grant_is_cached_until_invalidated() {
+        PrincipalCache cache = new PrincipalCache(userRepository, temporaryAccessTokenRepository, 100, 60);
+        TemporaryAccessToken token = new TemporaryAccessToken();
+        token.setTokenKey("key");
+        token.setUser(given_a_user(1L, "john", "public"));
+        token.setProjectIds("10,11");
+        token.setExpiryDate(DateUtils.addHours(new Date(), 1));
+        when(temporaryAccessTokenRepository.findByTokenKey("key")).thenReturn(Optional.of(token));
+
+        Optional<PrincipalCache.TokenGrant> grant = cache.findTokenGrant("key");
+        assertThat(grant).isPresent();
+        assertThat(grant.get().username()).isEqualTo("john");
+        assertThat(grant.get().projectIds()).isEqualTo(List.of(10L, 11L));
+        assertThat(grant.get().isValid(11L)).isTrue();
+        assertThat(grant.get().isValid(12L)).isFalse();
+        cache.findTokenGrant("key");
+        verify(temporaryAccessTokenRepository, times(1)).findByTokenKey("key");
+
+        cache.invalidateToken("key");
+        cache.findTokenGrant("key");
+        verify(temporaryAccessTokenRepository, times(2)).findByTokenKey("key");
+    }
+
+    @Test
+    public void expired_token_grant_is_not_valid() {
+        PrincipalCache.TokenGrant grant = new PrincipalCache.TokenGrant("john", DateUtils.addHours(new Date(), -1), List.of(10L));
+        assertThat(grant.isValid()).isFalse();
+        assertThat(grant.isValid(10L)).isFalse();
+    }
+}
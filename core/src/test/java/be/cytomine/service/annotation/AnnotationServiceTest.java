@@ -1,7 +1,15 @@
 package be.cytomine.service.annotation;
 
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.util.Optional;
 
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Query;
+import org.hibernate.Session;
+import org.hibernate.jdbc.Work;
+
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -13,12 +21,19 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import be.cytomine.domain.annotation.Annotation;
 import be.cytomine.domain.annotation.AnnotationLayer;
 import be.cytomine.repository.annotation.AnnotationRepository;
+import be.cytomine.service.utils.GeometryService;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.AdditionalMatchers.aryEq;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -29,6 +44,9 @@ public class AnnotationServiceTest {
     @Mock
     private AnnotationRepository annotationRepository;
 
+    @Mock
+    private EntityManager entityManager;
+
     @InjectMocks
     private AnnotationService annotationService;
 
@@ -82,4 +100,55 @@ public class AnnotationServiceTest {
 
         assertTrue(result.isEmpty());
     }
+
+    @DisplayName("Successfully skip the ingestion of a layer that already has annotations")
+    @Test
+    public void createAnnotationsShouldNotIngestLayerTwice() {
+        AnnotationLayer layer = new AnnotationLayer();
+        layer.setId(1L);
+        Query query = mock(Query.class);
+        when(entityManager.createNativeQuery(anyString())).thenReturn(query);
+        when(query.setParameter("id", 1L)).thenReturn(query);
+        when(annotationRepository.existsByAnnotationLayer(layer)).thenReturn(true);
+
+        long result = annotationService.createAnnotations(layer, sink -> sink.accept(mockGeometry), geometry -> {});
+
+        assertEquals(0, result);
+        verify(entityManager, never()).unwrap(Session.class);
+    }
+
+    @DisplayName("Successfully ingest geometries by batches")
+    @Test
+    public void createAnnotationsShouldInsertGeometriesByBatches() throws Exception {
+        AnnotationLayer layer = new AnnotationLayer();
+        layer.setId(1L);
+        Query query = mock(Query.class);
+        when(entityManager.createNativeQuery(anyString())).thenReturn(query);
+        when(query.setParameter("id", 1L)).thenReturn(query);
+        when(annotationRepository.existsByAnnotationLayer(layer)).thenReturn(false);
+
+        Session session = mock(Session.class);
+        Connection connection = mock(Connection.class);
+        PreparedStatement statement = mock(PreparedStatement.class);
+        when(entityManager.unwrap(Session.class)).thenReturn(session);
+        when(connection.prepareStatement(anyString())).thenReturn(statement);
+        doAnswer(invocation -> {
+            ((Work) invocation.getArgument(0)).execute(connection);
+            return null;
+        }).when(session).doWork(any(Work.class));
+
+        long result = annotationService.createAnnotations(layer, sink -> {
+            for (int i = 0; i < AnnotationService.BATCH_SIZE; i++) {
+                sink.accept(mockGeometry);
+            }
+            sink.accept("not a geometry");
+            sink.accept("POINT (1 2)");
+        }, geometry -> GeometryService.addOffset(geometry, 10, 20));
+
+        assertEquals(AnnotationService.BATCH_SIZE + 1, result);
+        verify(statement, times(AnnotationService.BATCH_SIZE + 1)).addBatch();
+        verify(statement, times(2)).executeBatch();
+        verify(statement, times(AnnotationService.BATCH_SIZE)).setBytes(eq(4), aryEq("POINT (10 20)".getBytes(StandardCharsets.UTF_8)));
+        verify(statement).setBytes(eq(4), aryEq("POINT (11 22)".getBytes(StandardCharsets.UTF_8)));
+    }
 }
@@ -0,0 +1,85 @@
+package be.cytomine.service.database;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Query;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class SequenceServiceTests {
+
+    @Mock
+    private EntityManager entityManager;
+
+    @Mock
+    private Query query;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private void given_a_sequence(int blockSize) {
+        when(entityManager.createNativeQuery(anyString())).thenReturn(query);
+        when(query.getResultList()).thenAnswer(invocation ->
+                LongStream.range(0, blockSize).mapToObj(i -> sequence.incrementAndGet()).toList());
+    }
+
+    @Test
+    void ids_are_reserved_by_block() {
+        given_a_sequence(10);
+        SequenceService sequenceService = new SequenceService(entityManager, 10);
+
+        for (long i = 1; i <= 25; i++) {
+            assertThat(sequenceService.generateID()).isEqualTo(i);
+        }
+
+        verify(query, times(3)).getResultList();
+        verify(query, times(3)).setParameter(eq("count"), eq(10));
+        assertThat(sequenceService.getStatistics().get("roundTrips")).isEqualTo(3L);
+        assertThat(sequenceService.getStatistics().get("roundTripsSaved")).isEqualTo(22L);
+    }
+
+    @Test
+    void ids_are_unique_across_threads() throws InterruptedException {
+        given_a_sequence(7);
+        SequenceService sequenceService = new SequenceService(entityManager, 7);
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 1000; i++) {
+            executor.execute(() -> ids.add(sequenceService.generateID()));
+        }
+        executor.shutdown();
+        assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(ids).hasSize(1000);
+    }
+
+    @Test
+    void block_of_one_id_uses_nextval() {
+        when(entityManager.createNativeQuery(anyString())).thenReturn(query);
+        when(query.getSingleResult()).thenReturn(42L);
+        SequenceService sequenceService = new SequenceService(entityManager, 1);
+
+        assertThat(sequenceService.generateID()).isEqualTo(42L);
+        assertThat(sequenceService.generateIDs(1)).isEqualTo(List.of(42L));
+        verify(query, times(0)).setParameter(anyString(), anyInt());
+    }
+}
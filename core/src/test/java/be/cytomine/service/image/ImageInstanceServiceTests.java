@@ -57,6 +57,8 @@ import be.cytomine.service.social.ImageConsultationService;
 import be.cytomine.service.social.UserPositionService;
 import be.cytomine.utils.CommandResponse;
 import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.KeysetCursor;
+import be.cytomine.utils.KeysetPage;
 import be.cytomine.utils.filters.SearchOperation;
 import be.cytomine.utils.filters.SearchParameterEntry;
 
@@ -252,6 +254,37 @@ public class ImageInstanceServiceTests {
         assertThat(page.getContent().stream().map(x -> x.get("id")).collect(Collectors.toList())).doesNotContain(imageInstance2.getId());
     }
 
+    @Test
+    void list_image_by_project_with_keyset_cursor() {
+        ImageInstance imageInstance1 = builder.given_an_image_instance();
+        ImageInstance imageInstance2 = builder.given_an_image_instance(imageInstance1.getProject());
+        ImageInstance imageInstance3 = builder.given_an_image_instance(imageInstance1.getProject());
+
+        KeysetPage<Map<String, Object>> page = imageInstanceService.list(imageInstance1.getProject(), new ArrayList<>(), "created", "desc", KeysetCursor.start(), 2L, false, false);
+        assertThat(page.getTotalElements()).isEqualTo(3);
+        assertThat(page.getContent()).hasSize(2);
+        assertThat(page.getNextCursor()).isNotNull();
+        List<Object> ids = new ArrayList<>(page.getContent().stream().map(x -> x.get("id")).collect(Collectors.toList()));
+
+        page = imageInstanceService.list(imageInstance1.getProject(), new ArrayList<>(), "created", "desc", KeysetCursor.decode(page.getNextCursor()), 2L, false, false);
+        assertThat(page.getContent()).hasSize(1);
+        assertThat(page.getNextCursor()).isNull();
+        ids.addAll(page.getContent().stream().map(x -> x.get("id")).collect(Collectors.toList()));
+
+        assertThat(ids).containsOnly(imageInstance1.getId(), imageInstance2.getId(), imageInstance3.getId());
+        assertThat(ids).hasSize(3);
+    }
+
+    @Test
+    void list_image_by_project_with_cursor_from_another_sort_fails() {
+        ImageInstance imageInstance1 = builder.given_an_image_instance();
+        builder.given_an_image_instance(imageInstance1.getProject());
+
+        KeysetPage<Map<String, Object>> page = imageInstanceService.list(imageInstance1.getProject(), new ArrayList<>(), "created", "desc", KeysetCursor.start(), 1L, false, false);
+        Assertions.assertThrows(WrongArgumentException.class, () ->
+                imageInstanceService.list(imageInstance1.getProject(), new ArrayList<>(), "id", "asc", KeysetCursor.decode(page.getNextCursor()), 1L, false, false));
+    }
+
     @Test
     void list_all_image_by_projects_ignore_nested_image_instance() {
         ImageInstance imageInstance1 = builder.given_an_image_instance();
@@ -0,0 +1,116 @@
+package be.cytomine.service.middleware;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ImageMetadataCacheTests {
+
+    private static final String PATH = "1636379100999/image.svs";
+
+    private static final String URI = "http://localhost:8888/ims/image/1636379100999/image.svs/info";
+
+    @Test
+    void metadata_is_loaded_once() {
+        ImageMetadataCache cache = new ImageMetadataCache(10, 60, false);
+        AtomicInteger loads = new AtomicInteger();
+
+        assertThat(cache.get(PATH, URI, () -> "info" + loads.incrementAndGet())).isEqualTo("info1");
+        assertThat(cache.get(PATH, URI, () -> "info" + loads.incrementAndGet())).isEqualTo("info1");
+
+        assertThat(loads.get()).isEqualTo(1);
+        assertThat(cache.getStatistics().get("hits")).isEqualTo(1L);
+        assertThat(cache.getStatistics().get("misses")).isEqualTo(1L);
+    }
+
+    @Test
+    void concurrent_misses_share_the_same_load() throws Exception {
+        ImageMetadataCache cache = new ImageMetadataCache(10, 60, false);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            results.add(executor.submit(() -> cache.get(PATH, URI, () -> {
+                loads.incrementAndGet();
+                loading.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "info";
+            })));
+            assertThat(loading.await(5, TimeUnit.SECONDS)).isTrue();
+            for (int i = 0; i < 3; i++) {
+                results.add(executor.submit(() -> cache.get(PATH, URI, () -> {
+                    loads.incrementAndGet();
+                    return "other";
+                })));
+            }
+            // let the waiting callers join the pending load
+            Thread.sleep(200);
+            release.countDown();
+
+            for (Future<String> result : results) {
+                assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("info");
+            }
+            assertThat(loads.get()).isEqualTo(1);
+            assertThat(cache.getStatistics().get("sharedMisses")).isEqualTo(3L);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void invalidation_removes_entries_of_the_path() {
+        ImageMetadataCache cache = new ImageMetadataCache(10, 60, false);
+        AtomicInteger loads = new AtomicInteger();
+        String otherPath = "1636379100999/other.svs";
+
+        cache.get(PATH, URI, () -> "info" + loads.incrementAndGet());
+        cache.get(otherPath, URI + "?other", () -> "other");
+        cache.invalidate(PATH);
+
+        assertThat(cache.get(PATH, URI, () -> "info" + loads.incrementAndGet())).isEqualTo("info2");
+        assertThat(cache.get(otherPath, URI + "?other", () -> "reloaded")).isEqualTo("other");
+    }
+
+    @Test
+    void disabled_cache_always_loads() {
+        ImageMetadataCache cache = new ImageMetadataCache(0, 60, true);
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.get(PATH, URI, () -> "info" + loads.incrementAndGet());
+        cache.get(PATH, URI, () -> "info" + loads.incrementAndGet());
+
+        assertThat(loads.get()).isEqualTo(2);
+    }
+}
@@ -0,0 +1,269 @@
+package be.cytomine.service.middleware;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import be.cytomine.utils.PreparedRequest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ImageResponseCacheTests {
+
+    private static final byte[] IMAGE = {1, 2, 3, 4};
+
+    private static PreparedRequest thumbRequest(String etag) {
+        PreparedRequest request = new PreparedRequest();
+        request.setMethod(HttpMethod.GET);
+        request.setUrl("http://localhost:8888/ims");
+        request.addPathFragment("image");
+        request.addPathFragment("1636379100999/image.svs", true);
+        request.addPathFragment("thumb");
+        request.addQueryParameter("length", 512);
+        request.getHeaders().add(HttpHeaders.ACCEPT, "image/jpeg");
+        if (etag != null) {
+            request.getHeaders().add(HttpHeaders.IF_NONE_MATCH, etag);
+        }
+        return request;
+    }
+
+    private static Function<PreparedRequest, ResponseEntity<byte[]>> imageServer(List<String> receivedEtags) {
+        return request -> {
+            String etag = request.getHeaders().getFirst(HttpHeaders.IF_NONE_MATCH);
+            receivedEtags.add(etag);
+            HttpHeaders headers = new HttpHeaders();
+            headers.setETag("\"abc\"");
+            if ("\"abc\"".equals(etag)) {
+                return new ResponseEntity<>(headers, HttpStatus.NOT_MODIFIED);
+            }
+            headers.set(HttpHeaders.CONTENT_TYPE, "image/jpeg");
+            headers.setCacheControl("max-age=3600");
+            headers.set("X-Upstream", "ims");
+            return new ResponseEntity<>(IMAGE, headers, HttpStatus.OK);
+        };
+    }
+
+    private static Function<PreparedRequest, ResponseEntity<Resource>> streamingImageServer(List<String> receivedEtags) {
+        Function<PreparedRequest, ResponseEntity<byte[]>> imageServer = imageServer(receivedEtags);
+        return request -> {
+            ResponseEntity<byte[]> response = imageServer.apply(request);
+            Resource body = response.getBody() != null
+                    ? new InputStreamResource(new ByteArrayInputStream(response.getBody())) : null;
+            return new ResponseEntity<>(body, response.getHeaders(), response.getStatusCode());
+        };
+    }
+
+    @Test
+    void fresh_entry_is_served_from_memory() {
+        ImageResponseCache cache = new ImageResponseCache(1, 0, null, 1024, 300);
+        List<String> received = new ArrayList<>();
+
+        assertThat(cache.get(thumbRequest(null), null, imageServer(received)).getBody()).isEqualTo(IMAGE);
+        ResponseEntity<byte[]> response = cache.get(thumbRequest(null), null, imageServer(received));
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody()).isEqualTo(IMAGE);
+        assertThat(response.getHeaders().getFirst(HttpHeaders.CONTENT_TYPE)).isEqualTo("image/jpeg");
+        assertThat(response.getHeaders().getCacheControl()).isEqualTo("max-age=3600");
+        assertThat(response.getHeaders().getETag()).isEqualTo("\"abc\"");
+        assertThat(response.getHeaders().getContentLength()).isEqualTo(4L);
+        assertThat(response.getHeaders().containsKey("X-Upstream")).isFalse();
+        assertThat(received).hasSize(1);
+        assertThat(cache.getStatistics().get("memoryHits")).isEqualTo(1L);
+        assertThat(cache.getStatistics().get("bytesSaved")).isEqualTo(4L);
+    }
+
+    @Test
+    void streamed_image_is_cached_once_read() throws IOException {
+        ImageResponseCache cache = new ImageResponseCache(1, 0, null, 1024, 300);
+        List<String> received = new ArrayList<>();
+
+        ResponseEntity<Resource> first = cache.stream(thumbRequest(null), null, streamingImageServer(received));
+        assertThat(cache.getStatistics().get("memoryEntries")).isEqualTo(0);
+        assertThat(first.getBody().getContentAsByteArray()).isEqualTo(IMAGE);
+
+        ResponseEntity<Resource> second = cache.stream(thumbRequest(null), null, streamingImageServer(received));
+        assertThat(second.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(second.getBody().getContentAsByteArray()).isEqualTo(IMAGE);
+        assertThat(second.getHeaders().getContentLength()).isEqualTo(4L);
+        assertThat(received).hasSize(1);
+        assertThat(cache.getStatistics().get("memoryHits")).isEqualTo(1L);
+    }
+
+    @Test
+    void streamed_image_larger_than_an_entry_is_not_cached() throws IOException {
+        ImageResponseCache cache = new ImageResponseCache(1, 0, null, 1, 300);
+        byte[] large = new byte[1500];
+        List<PreparedRequest> received = new ArrayList<>();
+        Function<PreparedRequest, ResponseEntity<Resource>> imageServer = request -> {
+            received.add(request);
+            return new ResponseEntity<>(new InputStreamResource(new ByteArrayInputStream(large)), HttpStatus.OK);
+        };
+
+        assertThat(cache.stream(thumbRequest(null), null, imageServer).getBody().getContentAsByteArray()).isEqualTo(large);
+        assertThat(cache.stream(thumbRequest(null), null, imageServer).getBody().getContentAsByteArray()).isEqualTo(large);
+
+        assertThat(received).hasSize(2);
+        assertThat(cache.getStatistics().get("memoryEntries")).isEqualTo(0);
+    }
+
+    @Test
+    void stale_entry_is_revalidated_with_its_etag() {
+        ImageResponseCache cache = new ImageResponseCache(1, 0, null, 1024, 0);
+        List<String> received = new ArrayList<>();
+
+        cache.get(thumbRequest(null), null, imageServer(received));
+        ResponseEntity<byte[]> response = cache.get(thumbRequest(null), null, imageServer(received));
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody()).isEqualTo(IMAGE);
+        assertThat(received).containsExactly(null, "\"abc\"");
+        assertThat(cache.getStatistics().get("revalidations")).isEqualTo(1L);
+    }
+
+    @Test
+    void client_with_same_etag_gets_not_modified() {
+        ImageResponseCache cache = new ImageResponseCache(1, 0, null, 1024, 300);
+        List<String> received = new ArrayList<>();
+
+        ResponseEntity<byte[]> response = cache.get(thumbRequest("\"abc\""), "\"abc\"", imageServer(received));
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+        // the client etag is not forwarded, so that the image can be cached
+        assertThat(received).containsExactly((String) null);
+
+        response = cache.get(thumbRequest("\"abc\""), "\"abc\"", imageServer(received));
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+        assertThat(received).hasSize(1);
+    }
+
+    @Test
+    void entry_is_served_from_disk_when_not_in_memory() throws IOException {
+        Path directory = Files.createTempDirectory("image-cache");
+        ImageResponseCache cache = new ImageResponseCache(0, 1, directory.toString(), 1024, 300);
+        cache.init();
+        List<String> received = new ArrayList<>();
+
+        cache.get(thumbRequest(null), null, imageServer(received));
+        ResponseEntity<byte[]> response = cache.get(thumbRequest(null), null, imageServer(received));
+
+        assertThat(response.getBody()).isEqualTo(IMAGE);
+        assertThat(received).hasSize(1);
+        assertThat(cache.getStatistics().get("diskHits")).isEqualTo(1L);
+        assertThat(cache.getStatistics().get("diskSize")).isEqualTo(4L);
+    }
+
+    @Test
+    void startup_only_removes_the_entries_of_stopped_instances() throws IOException {
+        Path root = Files.createTempDirectory("image-cache");
+        Path foreign = Files.writeString(root.resolve("foreign.txt"), "keep");
+        String entry = "0123456789abcdef".repeat(4);
+        Path stopped = Files.createDirectory(root.resolve("instance-stopped"));
+        Files.createFile(stopped.resolve(".cytomine-image-cache"));
+        Files.write(stopped.resolve(entry), IMAGE);
+        Path stoppedWithForeignFile = Files.createDirectory(root.resolve("instance-foreign"));
+        Files.createFile(stoppedWithForeignFile.resolve(".cytomine-image-cache"));
+        Files.write(stoppedWithForeignFile.resolve(entry), IMAGE);
+        Path foreignInInstance = Files.writeString(stoppedWithForeignFile.resolve("foreign.txt"), "keep");
+        Path notAnInstance = Files.createDirectory(root.resolve("instance-without-marker"));
+        Path notAnEntry = Files.write(notAnInstance.resolve(entry), IMAGE);
+
+        ImageResponseCache running = new ImageResponseCache(0, 1, root.toString(), 1024, 300);
+        running.init();
+        running.get(thumbRequest(null), null, imageServer(new ArrayList<>()));
+        ImageResponseCache cache = new ImageResponseCache(0, 1, root.toString(), 1024, 300);
+        cache.init();
+
+        assertThat(stopped).doesNotExist();
+        assertThat(stoppedWithForeignFile.resolve(entry)).doesNotExist();
+        assertThat(foreignInInstance).exists();
+        assertThat(foreign).exists();
+        assertThat(notAnEntry).exists();
+        // the entry of the running instance is kept
+        assertThat(running.get(thumbRequest(null), null, request -> {
+            throw new AssertionError("served from disk");
+        }).getBody()).isEqualTo(IMAGE);
+
+        running.destroy();
+        cache.destroy();
+        try (Stream<Path> instances = Files.list(root)) {
+            assertThat(instances.map(path -> path.getFileName().toString()))
+                    .containsExactlyInAnyOrder("foreign.txt", "instance-foreign", "instance-without-marker");
+        }
+    }
+
+    @Test
+    void frequency_sketch_counts_accesses() {
+        ImageResponseCache.FrequencySketch sketch = new ImageResponseCache.FrequencySketch(1024);
+        sketch.increment("a");
+        sketch.increment("a");
+        sketch.increment("b");
+        assertThat(sketch.frequency("a")).isGreaterThanOrEqualTo(2);
+        assertThat(sketch.frequency("a")).isGreaterThan(sketch.frequency("c"));
+    }
+
+    private static PreparedRequest request(String name) {
+        PreparedRequest request = new PreparedRequest();
+        request.setMethod(HttpMethod.GET);
+        request.setUrl("http://localhost:8888/ims");
+        request.addPathFragment("image");
+        request.addPathFragment(name);
+        request.addPathFragment("thumb");
+        return request;
+    }
+
+    @Test
+    void rejected_entry_does_not_evict_anything() {
+        // one segment of 1 MB
+        ImageResponseCache cache = new ImageResponseCache(1, 0, null, 1024, 300);
+        Map<String, Integer> sizes = Map.of("a", 400 * 1024, "b", 400 * 1024, "c", 700 * 1024);
+        List<String> fetched = new ArrayList<>();
+        Function<PreparedRequest, ResponseEntity<byte[]>> imageServer = request -> {
+            String name = request.getURI().getPath().split("/")[3];
+            fetched.add(name);
+            return new ResponseEntity<>(new byte[sizes.get(name)], HttpStatus.OK);
+        };
+
+        cache.get(request("a"), null, imageServer);
+        for (int i = 0; i < 5; i++) {
+            cache.get(request("b"), null, imageServer);
+        }
+        // c is more frequent than a (the LRU victim) but less than b, which must also be evicted to make room
+        cache.get(request("c"), null, imageServer);
+        cache.get(request("c"), null, imageServer);
+        cache.get(request("a"), null, imageServer);
+
+        assertThat(fetched).containsExactly("a", "b", "c", "c");
+        assertThat(cache.getStatistics().get("rejectedAdmissions")).isEqualTo(2L);
+        assertThat(cache.getStatistics().get("memoryEntries")).isEqualTo(2);
+    }
+}
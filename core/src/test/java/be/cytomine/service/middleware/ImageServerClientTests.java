@@ -0,0 +1,118 @@
+package be.cytomine.service.middleware;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+
+import be.cytomine.exceptions.MiddlewareException;
+import be.cytomine.utils.PreparedRequest;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ImageServerClientTests {
+
+    private static WireMockServer wireMockServer = new WireMockServer(8889);
+
+    @BeforeAll
+    public static void beforeAll() {
+        wireMockServer.start();
+        configureFor("localhost", 8889);
+        stubFor(get(urlPathMatching("/ims/image/.*/thumb"))
+                .willReturn(aResponse().withBody(new byte[] {1, 2, 3, 4})));
+    }
+
+    @AfterAll
+    public static void afterAll() {
+        wireMockServer.stop();
+    }
+
+    private static PreparedRequest thumbRequest() {
+        PreparedRequest request = new PreparedRequest();
+        request.setMethod(HttpMethod.GET);
+        request.setUrl("http://localhost:8889/ims");
+        request.addPathFragment("image");
+        request.addPathFragment("1636379100999/image.svs", true);
+        request.addPathFragment("thumb");
+        return request;
+    }
+
+    @Test
+    void requests_are_measured_per_endpoint() throws IOException {
+        ImageServerClient client = new ImageServerClient(10, 10, 1000, 1000, 10, 100, 0);
+        client.init();
+        try {
+            ResponseEntity<byte[]> response = client.toResponseEntity(thumbRequest(), null, byte[].class);
+            assertThat(response.getBody()).hasSize(4);
+            client.toResponseEntity(thumbRequest(), null, byte[].class);
+
+            ImageServerClient.EndpointMetrics metrics = client.getMetrics().get("GET /ims/image/{path}/thumb");
+            assertThat(metrics.getRequests()).isEqualTo(2L);
+            assertThat(metrics.getErrors()).isEqualTo(0L);
+            assertThat(metrics.getBytes()).isEqualTo(8L);
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    void requests_are_rejected_when_bulkhead_is_full() throws IOException {
+        ImageServerClient client = new ImageServerClient(10, 10, 1000, 1000, 0, 10, 0);
+        client.init();
+        try {
+            assertThrows(MiddlewareException.class, () -> client.toResponseEntity(thumbRequest(), null, byte[].class));
+            assertThat(client.getMetrics().get("GET /ims/image/{path}/thumb").getRejected()).isEqualTo(1L);
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    void streamed_body_holds_the_bulkhead_until_it_is_closed() throws IOException {
+        ImageServerClient client = new ImageServerClient(10, 10, 1000, 1000, 1, 10, 0);
+        client.init();
+        try {
+            ResponseEntity<Resource> response = client.toStreamedResponseEntity(thumbRequest());
+            assertThrows(MiddlewareException.class, () -> client.toStreamedResponseEntity(thumbRequest()));
+
+            assertThat(response.getBody().getContentAsByteArray()).hasSize(4);
+            assertThat(client.toStreamedResponseEntity(thumbRequest()).getBody().getContentAsByteArray()).hasSize(4);
+
+            ImageServerClient.EndpointMetrics metrics = client.getMetrics().get("GET /ims/image/{path}/thumb");
+            assertThat(metrics.getRequests()).isEqualTo(2L);
+            assertThat(metrics.getRejected()).isEqualTo(1L);
+            assertThat(metrics.getBytes()).isEqualTo(8L);
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    void bulkhead_does_not_exceed_the_connection_pool() {
+        assertThat(new ImageServerClient(10, 5, 1000, 1000, 20, 10, 0).getMaxConcurrentRequestsPerHost()).isEqualTo(5);
+        assertThat(new ImageServerClient(10, 5, 1000, 1000, 3, 10, 0).getMaxConcurrentRequestsPerHost()).isEqualTo(3);
+    }
+}
@@ -0,0 +1,117 @@
+package be.cytomine.service.middleware;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.BasicInstanceBuilder;
+import be.cytomine.CytomineCoreApplication;
+import be.cytomine.domain.image.AbstractImage;
+import be.cytomine.domain.image.AbstractSlice;
+import be.cytomine.dto.image.ImageParameter;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.test.context.support.WithMockUser;
+
+import jakarta.transaction.Transactional;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import static be.cytomine.service.middleware.ImageServerService.IMS_API_BASE_PATH;
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Image server requests going through the image response cache, which is disabled for the other tests
+ */
+@SpringBootTest(classes = CytomineCoreApplication.class, properties = {
+        "application.imageServer.cache.memoryMaxSizeInMB=16",
+        "application.imageServer.cache.diskMaxSizeInMB=0"
+})
+@WithMockUser(authorities = "ROLE_SUPER_ADMIN", username = "superadmin")
+@Transactional
+public class ImageServerServiceCacheTests {
+
+    @Autowired
+    BasicInstanceBuilder builder;
+
+    @Autowired
+    ImageServerService imageServerService;
+
+    private static WireMockServer wireMockServer = new WireMockServer(8888);
+
+    @BeforeAll
+    public static void beforeAll() {
+        wireMockServer.start();
+    }
+
+    @AfterAll
+    public static void afterAll() {
+        try {
+            wireMockServer.stop();
+        } catch (Exception e) {
+        }
+    }
+
+    @Test
+    void thumb_is_served_from_the_cache_with_its_upstream_headers() throws IOException {
+        AbstractImage image = builder.given_an_abstract_image();
+        image.getUploadedFile().setFilename("1636379100999/" + UUID.randomUUID() + "/CMU-2.mrxs");
+        image.getUploadedFile().setContentType("MRXS");
+        AbstractSlice slice = builder.given_an_abstract_slice(image, 0, 0, 0);
+        slice.setUploadedFile(image.getUploadedFile());
+
+        configureFor("localhost", 8888);
+        byte[] mockResponse = UUID.randomUUID().toString().getBytes();
+        String url = IMS_API_BASE_PATH + "/image/"
+                + URLEncoder.encode(image.getPath(), StandardCharsets.UTF_8).replace("%2F", "/")
+                + "/thumb?z_slices=0&timepoints=0&length=256";
+        stubFor(get(urlEqualTo(url))
+                .willReturn(aResponse()
+                        .withHeader(HttpHeaders.CONTENT_TYPE, "image/png")
+                        .withHeader(HttpHeaders.CACHE_CONTROL, "max-age=86400")
+                        .withHeader(HttpHeaders.ETAG, "\"thumb\"")
+                        .withBody(mockResponse)));
+
+        ImageParameter imageParameter = new ImageParameter();
+        imageParameter.setMaxSize(256);
+        imageParameter.setFormat("png");
+
+        // the streamed image is cached once it has been read
+        ResponseEntity<Resource> first = imageServerService.thumb(slice, imageParameter, null);
+        assertThat(first.getBody().getContentAsByteArray()).isEqualTo(mockResponse);
+        ResponseEntity<Resource> second = imageServerService.thumb(slice, imageParameter, null);
+        ResponseEntity<Resource> notModified = imageServerService.thumb(slice, imageParameter, "\"thumb\"");
+
+        assertThat(second.getBody().getContentAsByteArray()).isEqualTo(mockResponse);
+        assertThat(second.getHeaders().getFirst(HttpHeaders.CONTENT_TYPE)).isEqualTo("image/png");
+        assertThat(second.getHeaders().getCacheControl()).isEqualTo("max-age=86400");
+        assertThat(second.getHeaders().getContentLength()).isEqualTo(mockResponse.length);
+        assertThat(notModified.getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+        verify(1, getRequestedFor(urlEqualTo(url)));
+    }
+}
@@ -349,7 +349,7 @@ public class ImageServerServiceTests {
         imageParameter.setMaxSize(256);
         imageParameter.setFormat("png");
 
-        byte[] data = imageServerService.thumb(slice, imageParameter, null, null).getBody();
+        byte[] data = imageServerService.thumb(slice, imageParameter, null).getBody().getContentAsByteArray();
         printLastRequest();
         assertThat(data).isEqualTo(mockResponse);
 
@@ -364,7 +364,7 @@ public class ImageServerServiceTests {
 
         imageParameter.setMaxSize(512);
         imageParameter.setFormat("png");
-        data = imageServerService.thumb(slice, imageParameter, null, null).getBody();
+        data = imageServerService.thumb(slice, imageParameter, null).getBody().getContentAsByteArray();
         printLastRequest();
         assertThat(data).isEqualTo(mockResponse2);
     }
@@ -395,7 +395,7 @@ public class ImageServerServiceTests {
         tileParameters.setFormat("webp");
         tileParameters.setFilters("binary");
 
-        byte[] data = imageServerService.normalizedTile(slice, tileParameters, null, null).getBody();
+        byte[] data = imageServerService.normalizedTile(slice, tileParameters, null).getBody().getContentAsByteArray();
         printLastRequest();
         assertThat(data).isEqualTo(mockResponse);
 
@@ -412,7 +412,7 @@ public class ImageServerServiceTests {
         tileParameters.setFilters("otsu");
         tileParameters.setTimepoints("3");
         tileParameters.setChannels("1");
-        data = imageServerService.normalizedTile(slice, tileParameters, null, null).getBody();
+        data = imageServerService.normalizedTile(slice, tileParameters, null).getBody().getContentAsByteArray();
         printLastRequest();
         assertThat(data).isEqualTo(mockResponse2);
     }
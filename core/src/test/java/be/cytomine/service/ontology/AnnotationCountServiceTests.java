@@ -0,0 +1,123 @@
+package be.cytomine.service.ontology;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.BasicInstanceBuilder;
+import be.cytomine.CytomineCoreApplication;
+import be.cytomine.domain.ontology.UserAnnotation;
+import be.cytomine.service.utils.AnnotationGridService;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceException;
+import jakarta.transaction.Transactional;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.test.context.support.WithMockUser;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest(classes = CytomineCoreApplication.class)
+@WithMockUser(authorities = "ROLE_SUPER_ADMIN", username = "superadmin")
+@Transactional
+public class AnnotationCountServiceTests {
+
+    @Autowired
+    AnnotationCountService annotationCountService;
+
+    @Autowired
+    AnnotationIndexService annotationIndexService;
+
+    @Autowired
+    BasicInstanceBuilder builder;
+
+    @Autowired
+    EntityManager entityManager;
+
+    @Test
+    void deferred_counters_are_applied_by_flush() {
+        UserAnnotation annotation = builder.given_a_not_persisted_user_annotation();
+        annotationCountService.deferInCurrentTransaction();
+        builder.persistAndReturn(annotation);
+
+        entityManager.refresh(annotation.getImage());
+        entityManager.refresh(annotation.getProject());
+        assertThat(annotation.getImage().getCountImageAnnotations()).isEqualTo(0L);
+        assertThat(annotation.getProject().getCountAnnotations()).isEqualTo(0);
+        assertThat(annotationIndexService.count(annotation.getSlice(), annotation.getUser())).isEqualTo(1L);
+
+        assertThat(annotationCountService.flush()).isEqualTo(1);
+
+        entityManager.refresh(annotation.getImage());
+        entityManager.refresh(annotation.getProject());
+        assertThat(annotation.getImage().getCountImageAnnotations()).isEqualTo(1L);
+        assertThat(annotation.getProject().getCountAnnotations()).isEqualTo(1);
+        assertThat(annotationIndexService.count(annotation.getSlice(), annotation.getUser())).isEqualTo(1L);
+        assertThat(annotationCountService.flush()).isEqualTo(0);
+    }
+
+    @Test
+    void deferred_grid_cells_are_applied_by_flush() {
+        UserAnnotation annotation = builder.given_a_not_persisted_user_annotation();
+        annotationCountService.deferInCurrentTransaction();
+        builder.persistAndReturn(annotation);
+        entityManager.flush();
+
+        assertThat(countGridCells(annotation)).isEqualTo(0L);
+        annotationCountService.flush();
+        // one cell for each stored level
+        assertThat(countGridCells(annotation)).isEqualTo(AnnotationGridService.STORED_LEVELS);
+    }
+
+    private long countGridCells(UserAnnotation annotation) {
+        return ((Number) entityManager.createNativeQuery("SELECT count(*) FROM annotation_grid_cell WHERE slice_id = :slice AND user_id = :user AND count_annotation > 0")
+                .setParameter("slice", annotation.getSlice().getId())
+                .setParameter("user", annotation.getUser().getId())
+                .getSingleResult()).longValue();
+    }
+
+    @Test
+    void annotation_index_has_one_row_per_slice_and_user() {
+        UserAnnotation annotation = builder.given_a_user_annotation();
+        entityManager.flush();
+
+        assertThatThrownBy(() -> entityManager.createNativeQuery("INSERT INTO annotation_index(id, version, count_annotation, count_reviewed_annotation, slice_id, user_id) " +
+                        "VALUES (nextval('hibernate_sequence'), 0, 0, 0, :slice, :user)")
+                .setParameter("slice", annotation.getSlice().getId())
+                .setParameter("user", annotation.getUser().getId())
+                .executeUpdate())
+                .isInstanceOf(PersistenceException.class);
+    }
+
+    @Test
+    void reconcile_repairs_drifted_counters() {
+        UserAnnotation annotation = builder.given_a_user_annotation();
+        entityManager.createNativeQuery("UPDATE image_instance SET count_image_annotations = 42 WHERE id = :id")
+                .setParameter("id", annotation.getImage().getId())
+                .executeUpdate();
+        entityManager.createNativeQuery("UPDATE annotation_index SET count_annotation = 0 WHERE slice_id = :id")
+                .setParameter("id", annotation.getSlice().getId())
+                .executeUpdate();
+
+        assertThat(annotationCountService.reconcile(annotation.getProject().getId())).isEqualTo(2);
+
+        entityManager.refresh(annotation.getImage());
+        assertThat(annotation.getImage().getCountImageAnnotations()).isEqualTo(1L);
+        assertThat(annotationIndexService.count(annotation.getSlice(), annotation.getUser())).isEqualTo(1L);
+        assertThat(annotationCountService.reconcile(annotation.getProject().getId())).isEqualTo(0);
+    }
+}
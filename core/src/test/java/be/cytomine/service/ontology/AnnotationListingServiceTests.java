@@ -22,6 +22,7 @@ import be.cytomine.domain.CytomineDomain;
 import be.cytomine.domain.image.SliceInstance;
 import be.cytomine.domain.ontology.*;
 import be.cytomine.domain.security.User;
+import be.cytomine.dto.GridCell;
 import be.cytomine.dto.annotation.AnnotationResult;
 import be.cytomine.exceptions.WrongArgumentException;
 import be.cytomine.repository.ReviewedAnnotationListing;
@@ -30,7 +31,9 @@ import be.cytomine.repository.ontology.UserAnnotationRepository;
 import be.cytomine.service.AnnotationListingService;
 import be.cytomine.service.CommandService;
 import be.cytomine.service.command.TransactionService;
+import be.cytomine.service.utils.AnnotationGridService;
 import be.cytomine.service.utils.KmeansGeometryService;
+import be.cytomine.utils.JsonObject;
 import org.locationtech.jts.io.ParseException;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
@@ -41,6 +44,10 @@ import org.springframework.security.test.context.support.WithMockUser;
 
 import jakarta.persistence.EntityManager;
 import jakarta.transaction.Transactional;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -133,6 +140,112 @@ public class AnnotationListingServiceTests {
         Assertions.assertThrows(WrongArgumentException.class, () -> annotationListingService.listGeneric(userAnnotationListing));
     }
 
+    @Test
+    void search_user_annotation_by_slices() {
+        UserAnnotation userAnnotation = builder.given_a_user_annotation();
+        SliceInstance otherSlice = builder.given_a_slice_instance(userAnnotation.getImage(), 0, 1, 0);
+        UserAnnotation userAnnotationFromAnotherSlice = builder.given_a_user_annotation(otherSlice);
+
+        UserAnnotationListing userAnnotationListing = new UserAnnotationListing(entityManager);
+        userAnnotationListing.setSlices(Arrays.asList(userAnnotation.getSlice().getId(), otherSlice.getId()));
+        assertThat(annotationListingService.listGeneric(userAnnotationListing)
+                .stream().map(x->((AnnotationResult)x).get("id")))
+                .contains(userAnnotation.getId(), userAnnotationFromAnotherSlice.getId());
+        assertThat(userAnnotationListing.getSlicesImages()).containsExactly(userAnnotation.getImage().getId());
+    }
+
+    @Test
+    void search_user_annotation_by_slices_from_different_project_fails() {
+        UserAnnotation userAnnotation = builder.given_a_user_annotation();
+        UserAnnotation userAnnotationFromAnotherProject = builder.given_a_user_annotation();
+
+        UserAnnotationListing userAnnotationListing = new UserAnnotationListing(entityManager);
+        userAnnotationListing.setSlices(Arrays.asList(userAnnotation.getSlice().getId(), userAnnotationFromAnotherProject.getSlice().getId()));
+        Assertions.assertThrows(WrongArgumentException.class, () -> annotationListingService.listGeneric(userAnnotationListing));
+    }
+
+    @Test
+    void grid_level_depends_on_bbox_width() {
+        assertThat(AnnotationGridService.getLevel(4096, 64)).isEqualTo(0);
+        assertThat(AnnotationGridService.getLevel(4096, 4)).isEqualTo(2);
+        assertThat(AnnotationGridService.getLevel(100000000, 4)).isEqualTo(AnnotationGridService.LEVELS - 1);
+    }
+
+    @Test
+    void grid_aggregation_counts_user_annotations_per_cell() throws ParseException {
+        UserAnnotation userAnnotation = builder.given_a_user_annotation();
+        UserAnnotation userAnnotationInAnotherCell = builder.given_a_user_annotation(userAnnotation.getSlice(), "POLYGON((90 90,110 90,110 110,90 110,90 90))", userAnnotation.getUser(), null);
+        entityManager.flush();
+
+        UserAnnotationListing userAnnotationListing = new UserAnnotationListing(entityManager);
+        userAnnotationListing.setColumnsToPrint(new ArrayList<>(List.of("basic")));
+        userAnnotationListing.setSlice(userAnnotation.getSlice().getId());
+        userAnnotationListing.setBbox("POLYGON((0 0,4096 0,4096 4096,0 4096,0 0))");
+        userAnnotationListing.setGrid(true);
+        userAnnotationListing.setGridSize(4);
+
+        List<GridCell> cells = annotationListingService.listGeneric(userAnnotationListing);
+        assertThat(cells).hasSize(2);
+        assertThat(cells.get(0).getLevel()).isEqualTo(2);
+        assertThat(cells.get(0).getX()).isEqualTo(0);
+        assertThat(cells.get(0).getY()).isEqualTo(0);
+        assertThat(cells.get(0).getCount()).isEqualTo(1);
+        assertThat(cells.get(0).getLocation()).isEqualTo("POINT(100.0 100.0)");
+        assertThat(cells.get(1).getX()).isEqualTo(1);
+        assertThat(cells.get(1).getY()).isEqualTo(2);
+        assertThat(cells.get(1).getCount()).isEqualTo(1);
+
+        userAnnotationInAnotherCell.setLocation(userAnnotation.getLocation());
+        entityManager.flush();
+        cells = annotationListingService.listGeneric(userAnnotationListing);
+        assertThat(cells).hasSize(1);
+        assertThat(cells.get(0).getCount()).isEqualTo(2);
+    }
+
+    @Test
+    void grid_aggregation_derives_coarse_levels_from_stored_cells() throws ParseException {
+        UserAnnotation userAnnotation = builder.given_a_user_annotation();
+        builder.given_a_user_annotation(userAnnotation.getSlice(), "POLYGON((3090 3090,3110 3090,3110 3110,3090 3110,3090 3090))", userAnnotation.getUser(), null);
+        entityManager.flush();
+
+        UserAnnotationListing userAnnotationListing = new UserAnnotationListing(entityManager);
+        userAnnotationListing.setColumnsToPrint(new ArrayList<>(List.of("basic")));
+        userAnnotationListing.setSlice(userAnnotation.getSlice().getId());
+        userAnnotationListing.setBbox("POLYGON((0 0,65536 0,65536 65536,0 65536,0 0))");
+        userAnnotationListing.setGrid(true);
+        userAnnotationListing.setGridSize(4);
+
+        List<GridCell> cells = annotationListingService.listGeneric(userAnnotationListing);
+        // level 6 (16384 pixels) is not stored, the two level 3 cells are summed
+        assertThat(cells).hasSize(1);
+        assertThat(cells.get(0).getLevel()).isEqualTo(6);
+        assertThat(cells.get(0).getX()).isEqualTo(0);
+        assertThat(cells.get(0).getY()).isEqualTo(0);
+        assertThat(cells.get(0).getCount()).isEqualTo(2);
+    }
+
+    @Test
+    void grid_aggregation_with_term_filter_and_term_counts() {
+        AnnotationTerm annotationTerm = builder.given_an_annotation_term();
+        UserAnnotation userAnnotation = annotationTerm.getUserAnnotation();
+        builder.given_a_user_annotation(userAnnotation.getSlice());
+        entityManager.flush();
+
+        UserAnnotationListing userAnnotationListing = new UserAnnotationListing(entityManager);
+        userAnnotationListing.setColumnsToPrint(new ArrayList<>(List.of("basic")));
+        userAnnotationListing.setSlice(userAnnotation.getSlice().getId());
+        userAnnotationListing.setTerms(List.of(annotationTerm.getTerm().getId()));
+        userAnnotationListing.setBbox("POLYGON((0 0,4096 0,4096 4096,0 4096,0 0))");
+        userAnnotationListing.setGrid(true);
+        userAnnotationListing.setGridSize(4);
+        userAnnotationListing.setGridTerms(true);
+
+        List<GridCell> cells = annotationListingService.listGeneric(userAnnotationListing);
+        assertThat(cells).hasSize(1);
+        assertThat(cells.get(0).getCount()).isEqualTo(1);
+        assertThat(cells.get(0).getTerms()).containsEntry(annotationTerm.getTerm().getId(), 1L);
+    }
+
     @Test
     void search_user_annotation_by_terms() {
         UserAnnotation userAnnotation = builder.given_an_annotation_term().getUserAnnotation();
@@ -179,6 +292,38 @@ public class AnnotationListingServiceTests {
         assertThat((List<Long>)annotationResult.get("term")).containsExactlyElementsOf(userAnnotation.getTerms().stream().map(CytomineDomain::getId).collect(Collectors.toList()));
     }
 
+    @Test
+    void stream_user_annotation_gives_same_result_as_list() throws IOException {
+        UserAnnotation userAnnotation = builder.given_an_annotation_term().getUserAnnotation();
+        builder.given_an_annotation_term(userAnnotation, builder.given_a_term(userAnnotation.getProject().getOntology()));
+        builder.given_a_user_annotation(userAnnotation.getSlice(), builder.given_superadmin());
+
+        UserAnnotationListing userAnnotationListing = new UserAnnotationListing(entityManager);
+        userAnnotationListing.setProject(userAnnotation.getProject().getId());
+        List expected = annotationListingService.listGeneric(userAnnotationListing);
+
+        userAnnotationListing = new UserAnnotationListing(entityManager);
+        userAnnotationListing.setProject(userAnnotation.getProject().getId());
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        annotationListingService.streamGeneric(userAnnotationListing, outputStream, 0L, 0L);
+
+        assertThat(outputStream.toString(StandardCharsets.UTF_8))
+                .startsWith("{\"collection\":" + JsonObject.toJsonString(expected) + ",");
+        JsonObject streamed = JsonObject.toJsonObject(outputStream.toString(StandardCharsets.UTF_8));
+        assertThat(streamed.get("size")).isEqualTo(expected.size());
+
+        userAnnotationListing = new UserAnnotationListing(entityManager);
+        userAnnotationListing.setProject(userAnnotation.getProject().getId());
+        outputStream = new ByteArrayOutputStream();
+        annotationListingService.streamGeneric(userAnnotationListing, outputStream, 1L, 1L);
+
+        streamed = JsonObject.toJsonObject(outputStream.toString(StandardCharsets.UTF_8));
+        assertThat(streamed.get("size")).isEqualTo(expected.size());
+        assertThat((List) streamed.get("collection")).hasSize(1);
+        assertThat(((Map) ((List) streamed.get("collection")).get(0)).get("id"))
+                .isEqualTo(((Long) ((AnnotationResult) expected.get(1)).get("id")).intValue());
+    }
+
 
 
     @Test
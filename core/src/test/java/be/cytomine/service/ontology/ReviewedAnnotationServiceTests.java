@@ -575,20 +575,58 @@ public class ReviewedAnnotationServiceTests {
     }
 
 
+    // the chunks of a layer are committed in their own transaction, so the annotations are committed before
     @Test
+    @Transactional(Transactional.TxType.NOT_SUPPORTED)
     void review_all_user_layers() {
-        ImageInstance image = builder.given_an_image_instance();
-        imageInstanceService.startReview(image);
-        UserAnnotation userAnnotation = builder.given_a_not_persisted_user_annotation(image.getProject());
-        userAnnotation.setImage(image);
-        builder.persistAndReturn(userAnnotation);
+        UserAnnotation userAnnotation = transactionTemplate.execute(status -> {
+            ImageInstance image = builder.given_an_image_instance();
+            imageInstanceService.startReview(image);
+            UserAnnotation annotation = builder.given_a_not_persisted_user_annotation(image.getProject());
+            annotation.setImage(image);
+            return builder.persistAndReturn(annotation);
+        });
 
-        List<Long> ids = reviewedAnnotationService.reviewLayer(image.getId(), List.of(userAnnotation.getUser().getId()), null);
+        List<Long> ids = reviewedAnnotationService.reviewLayer(userAnnotation.getImage().getId(), List.of(userAnnotation.getUser().getId()), null);
         assertThat(ids).hasSize(1);
         assertThat(reviewedAnnotationRepository.findByParentIdent(userAnnotation.getId())).isPresent();
     }
 
 
+    @Test
+    @Transactional(Transactional.TxType.NOT_SUPPORTED)
+    void review_and_unreview_all_user_layers_with_terms() {
+        record Layer(UserAnnotation userAnnotation, Long term, UserAnnotation alreadyReviewed) {}
+        Layer layer = transactionTemplate.execute(status -> {
+            ImageInstance image = builder.given_an_image_instance();
+            imageInstanceService.startReview(image);
+            UserAnnotation userAnnotation = builder.given_a_not_persisted_user_annotation(image.getProject());
+            userAnnotation.setImage(image);
+            builder.persistAndReturn(userAnnotation);
+            AnnotationTerm annotationTerm = builder.given_an_annotation_term(userAnnotation);
+            UserAnnotation alreadyReviewed = builder.given_a_not_persisted_user_annotation(image.getProject());
+            alreadyReviewed.setImage(image);
+            builder.persistAndReturn(alreadyReviewed);
+            reviewedAnnotationService.reviewAnnotation(alreadyReviewed.getId(), null);
+            return new Layer(userAnnotation, annotationTerm.getTerm().getId(), alreadyReviewed);
+        });
+        Long imageId = layer.userAnnotation().getImage().getId();
+        List<Long> users = List.of(layer.userAnnotation().getUser().getId());
+
+        List<Long> ids = reviewedAnnotationService.reviewLayer(imageId, users, null);
+        assertThat(ids).hasSize(1);
+        transactionTemplate.executeWithoutResult(status -> {
+            ReviewedAnnotation reviewed = reviewedAnnotationRepository.findByParentIdent(layer.userAnnotation().getId()).get();
+            assertThat(reviewed.getReviewUser().getId()).isEqualTo(builder.given_superadmin().getId());
+            assertThat(reviewed.termsId()).containsExactly(layer.term());
+        });
+
+        ids = reviewedAnnotationService.unreviewLayer(imageId, users, null);
+        assertThat(ids).hasSize(2);
+        assertThat(reviewedAnnotationRepository.findByParentIdent(layer.userAnnotation().getId())).isEmpty();
+        assertThat(reviewedAnnotationRepository.findByParentIdent(layer.alreadyReviewed().getId())).isEmpty();
+    }
+
     @Test
     void review_all_user_layers_not_in_review_mode() {
         ImageInstance image = builder.given_an_image_instance();
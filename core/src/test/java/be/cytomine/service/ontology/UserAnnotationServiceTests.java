@@ -393,6 +393,53 @@ public class UserAnnotationServiceTests {
         assertThat(userAnnotation.terms()).hasSize(2);
     }
 
+    @Test
+    void add_multiple_user_annotations_with_terms() {
+        UserAnnotation userAnnotation = builder.given_a_not_persisted_user_annotation();
+        Term term = builder.given_a_term(userAnnotation.getProject().getOntology());
+
+        JsonObject first = userAnnotation.toJsonObject();
+        first.put("term", List.of(term.getId()));
+        JsonObject second = userAnnotation.toJsonObject();
+        JsonObject invalid = userAnnotation.toJsonObject();
+        invalid.put("location", "POINT(BAD GEOMETRY)");
+
+        JsonObject response = userAnnotationService.addMultiple(List.of(first, invalid, second));
+
+        assertThat(response.getJSONAttrInteger("status")).isEqualTo(206);
+        List<UserAnnotation> created = userAnnotationRepository.findAllByImage(userAnnotation.getImage());
+        assertThat(created).hasSize(2);
+        created.forEach(entityManager::refresh);
+        assertThat(created.stream().mapToInt(x -> x.getTerms().size()).sum()).isEqualTo(1);
+        // deferred counters are flushed before the end of the request
+        entityManager.refresh(userAnnotation.getImage());
+        assertThat(userAnnotation.getImage().getCountImageAnnotations()).isEqualTo(2L);
+
+        commandService.undo();
+
+        assertThat(userAnnotationRepository.findAllByImage(userAnnotation.getImage())).isEmpty();
+
+        commandService.redo();
+
+        created = userAnnotationRepository.findAllByImage(userAnnotation.getImage());
+        assertThat(created).hasSize(2);
+        created.forEach(entityManager::refresh);
+        assertThat(created.stream().mapToInt(x -> x.getTerms().size()).sum()).isEqualTo(1);
+    }
+
+    @Test
+    void add_multiple_user_annotations_rolls_back_when_a_batch_fails() {
+        UserAnnotation userAnnotation = builder.given_a_not_persisted_user_annotation();
+        UserAnnotation otherProjectAnnotation = builder.given_a_not_persisted_user_annotation();
+        // the annotations of the second project violate a constraint when they are flushed
+        entityManager.createNativeQuery("ALTER TABLE user_annotation ADD CONSTRAINT test_slice_check CHECK (slice_id <> "
+                + otherProjectAnnotation.getSlice().getId() + ")").executeUpdate();
+
+        List<JsonObject> entries = List.of(userAnnotation.toJsonObject(), otherProjectAnnotation.toJsonObject());
+
+        Assertions.assertThrows(WrongArgumentException.class, () -> userAnnotationService.addMultiple(entries));
+    }
+
     @Test
     void add_user_annotation_bad_geom() throws ParseException {
         UserAnnotation userAnnotation = builder.given_a_not_persisted_user_annotation();
@@ -55,6 +55,7 @@ import be.cytomine.service.PermissionService;
 import be.cytomine.service.ontology.UserAnnotationService;
 import be.cytomine.service.search.ProjectSearchExtension;
 import be.cytomine.service.security.SecurityACLService;
+import be.cytomine.service.social.PresenceService;
 import be.cytomine.service.social.ProjectConnectionService;
 import be.cytomine.utils.CommandResponse;
 import be.cytomine.utils.JsonObject;
@@ -89,6 +90,9 @@ public class ProjectServiceTests {
     @Autowired
     PersistentProjectConnectionRepository persistentProjectConnectionRepository;
 
+    @Autowired
+    PresenceService presenceService;
+
     @Autowired
     ProjectConnectionService projectConnectionService;
 
@@ -158,6 +162,7 @@ public class ProjectServiceTests {
     @BeforeEach
     void cleanMongo() {
         persistentProjectConnectionRepository.deleteAll();
+        presenceService.clear();
     }
 
     @Test
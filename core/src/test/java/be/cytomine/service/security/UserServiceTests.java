@@ -31,7 +31,6 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.data.domain.Page;
 import org.springframework.http.HttpStatus;
 import org.springframework.security.test.context.support.WithMockUser;
-import org.springframework.web.context.request.RequestContextHolder;
 
 import be.cytomine.BasicInstanceBuilder;
 import be.cytomine.CytomineCoreApplication;
@@ -45,10 +44,10 @@ import be.cytomine.dto.auth.AuthInformation;
 import be.cytomine.dto.image.AreaDTO;
 import be.cytomine.repositorynosql.social.*;
 import be.cytomine.service.PermissionService;
-import be.cytomine.service.database.SequenceService;
 import be.cytomine.service.project.ProjectMemberService;
 import be.cytomine.service.search.UserSearchExtension;
 import be.cytomine.service.social.ImageConsultationService;
+import be.cytomine.service.social.PresenceService;
 import be.cytomine.service.social.ProjectConnectionService;
 import be.cytomine.service.social.UserPositionService;
 import be.cytomine.service.social.UserPositionServiceTests;
@@ -107,7 +106,7 @@ public class UserServiceTests {
     private LastUserPositionRepository lastUserPositionRepository;
 
     @Autowired
-    private SequenceService sequenceService;
+    private PresenceService presenceService;
 
     @Autowired
     private PermissionService permissionService;
@@ -155,6 +154,7 @@ public class UserServiceTests {
         projectConnectionRepository.deleteAll();
         lastUserPositionRepository.deleteAll();
         persistentUserPositionRepository.deleteAll();
+        presenceService.clear();
     }
 
     PersistentProjectConnection given_a_persistent_connection_in_project(User user, Project project, Date created) {
@@ -166,25 +166,6 @@ public class UserServiceTests {
         return imageConsultationService.add(user, imageInstance.getId(), "xxx", "mode", created);
     }
 
-    PersistentConnection given_a_last_connection(User user, Long idProject, Date date) {
-            LastConnection connection = new LastConnection();
-            connection.setId(sequenceService.generateID());
-            connection.setUser(user.getId());
-            connection.setDate(date);
-            connection.setCreated(date);
-            connection.setProject(idProject);
-            lastConnectionRepository.insert(connection); //don't use save (stateless collection)
-
-            PersistentConnection connectionPersist = new PersistentConnection();
-            connectionPersist.setId(sequenceService.generateID());
-            connectionPersist.setUser(user.getId());
-            connectionPersist.setCreated(date);
-            connectionPersist.setProject(idProject);
-            connectionPersist.setSession(RequestContextHolder.currentRequestAttributes().getSessionId());
-            persistentConnectionRepository.insert(connectionPersist); //don't use save (stateless collection)
-        return connectionPersist;
-    }
-
     @Test
     void find_unexisting_user_return_empty() {
         assertThat(userService.find(0L)).isEmpty();
@@ -728,7 +709,7 @@ public class UserServiceTests {
         User userOffline = builder.given_a_user();
 
         assertThat(userService.getAllOnlineUsers()).isEmpty();
-        given_a_last_connection(userOnline, null, new Date());
+        given_a_persistent_connection_in_project(userOnline, builder.given_a_project(), new Date());
 
         assertThat(userService.getAllOnlineUsers()).contains(userOnline)
                 .doesNotContain(userOffline);
@@ -743,9 +724,9 @@ public class UserServiceTests {
         Project project = builder.given_a_project();
         Project anotherProject = builder.given_a_project();
 
-        given_a_last_connection(userOffline, project.getId(), DateUtils.addDays(new Date(), -15));
-        given_a_last_connection(userOnline, project.getId(), DateUtils.addSeconds(new Date(), -15));
-        given_a_last_connection(userOnlineButOnDifferentProject, anotherProject.getId(), DateUtils.addSeconds(new Date(), -10));
+        given_a_persistent_connection_in_project(userOffline, project, DateUtils.addDays(new Date(), -15));
+        given_a_persistent_connection_in_project(userOnline, project, DateUtils.addSeconds(new Date(), -15));
+        given_a_persistent_connection_in_project(userOnlineButOnDifferentProject, anotherProject, DateUtils.addSeconds(new Date(), -10));
 
 
         assertThat(userService.getAllOnlineUserIds(project)).contains(userOnline.getId())
@@ -782,8 +763,8 @@ public class UserServiceTests {
         builder.addUserToProject(project, userFriendOnline.getUsername(), READ);
         builder.addUserToProject(project, userFriendOffline.getUsername(), READ);
 
-        given_a_last_connection(userFriendOffline, project.getId(), DateUtils.addDays(new Date(), -15));
-        given_a_last_connection(userFriendOnline, project.getId(), DateUtils.addSeconds(new Date(), -15));
+        given_a_persistent_connection_in_project(userFriendOffline, project, DateUtils.addDays(new Date(), -15));
+        given_a_persistent_connection_in_project(userFriendOnline, project, DateUtils.addSeconds(new Date(), -15));
 
         assertThat(userService.getAllFriendsUsersOnline(user)).contains(userFriendOnline)
                 .doesNotContain(userFriendOffline);
@@ -801,8 +782,8 @@ public class UserServiceTests {
         builder.addUserToProject(project, userFriendOnline.getUsername(), READ);
         builder.addUserToProject(project, userFriendOnlineButOnAnotherProject.getUsername(), READ);
 
-        given_a_last_connection(userFriendOnlineButOnAnotherProject, builder.given_a_project().getId(), DateUtils.addSeconds(new Date(), -15));
-        given_a_last_connection(userFriendOnline, project.getId(), DateUtils.addSeconds(new Date(), -15));
+        given_a_persistent_connection_in_project(userFriendOnlineButOnAnotherProject, builder.given_a_project(), DateUtils.addSeconds(new Date(), -15));
+        given_a_persistent_connection_in_project(userFriendOnline, project, DateUtils.addSeconds(new Date(), -15));
 
         assertThat(userService.getAllFriendsUsersOnline(user, project)).contains(userFriendOnline)
                 .doesNotContain(userFriendOnlineButOnAnotherProject);
@@ -839,9 +820,9 @@ public class UserServiceTests {
         Project project = builder.given_a_project();
         Project anotherProject = builder.given_a_project();
 
-        given_a_last_connection(userOffline, project.getId(), DateUtils.addDays(new Date(), -15));
-        given_a_last_connection(userOnline, project.getId(), DateUtils.addSeconds(new Date(), -15));
-        given_a_last_connection(userOnlineButOnDifferentProject, anotherProject.getId(), DateUtils.addSeconds(new Date(), -10));
+        given_a_persistent_connection_in_project(userOffline, project, DateUtils.addDays(new Date(), -15));
+        given_a_persistent_connection_in_project(userOnline, project, DateUtils.addSeconds(new Date(), -15));
+        given_a_persistent_connection_in_project(userOnlineButOnDifferentProject, anotherProject, DateUtils.addSeconds(new Date(), -10));
 
         given_a_persistent_user_position(DateUtils.addSeconds(new Date(), -15), userOnline,
                 builder.given_a_not_persisted_slice_instance(builder.given_an_image_instance(project), builder.given_an_abstract_slice()), UserPositionServiceTests.USER_VIEW);
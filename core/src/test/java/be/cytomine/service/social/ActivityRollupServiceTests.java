@@ -0,0 +1,92 @@
+package be.cytomine.service.social;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class ActivityRollupServiceTests {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private BulkOperations bulkOperations;
+
+    private static Date utc(String date) throws ParseException {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.parse(date);
+    }
+
+    @Test
+    void time_is_truncated_to_the_bucket() throws ParseException {
+        long time = utc("2022-01-01T12:34:56.789").getTime();
+        assertThat(ActivityRollupService.Granularity.HOUR.truncate(time)).isEqualTo(utc("2022-01-01T12:00:00.000").getTime());
+        assertThat(ActivityRollupService.Granularity.DAY.truncate(time)).isEqualTo(utc("2022-01-01T00:00:00.000").getTime());
+    }
+
+    @Test
+    void event_increments_hourly_and_daily_buckets() throws ParseException {
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ActivityRollupService.COLLECTION)).thenReturn(bulkOperations);
+        ActivityRollupService activityRollupService = new ActivityRollupService(mongoTemplate);
+
+        activityRollupService.connection(1L, 2L, utc("2022-01-01T12:34:56.789"));
+
+        ArgumentCaptor<Query> queries = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> updates = ArgumentCaptor.forClass(Update.class);
+        verify(bulkOperations, times(2)).upsert(queries.capture(), updates.capture());
+        verify(bulkOperations).execute();
+
+        List<Object> ids = queries.getAllValues().stream().map(x -> x.getQueryObject().get("_id")).toList();
+        assertThat(ids).containsExactly(
+                "hour/" + utc("2022-01-01T12:00:00.000").getTime() + "/1/2",
+                "day/" + utc("2022-01-01T00:00:00.000").getTime() + "/1/2");
+
+        Document update = updates.getAllValues().get(0).getUpdateObject();
+        assertThat(update.get("$inc", Document.class).get(ActivityRollupService.CONNECTIONS)).isEqualTo(1);
+        assertThat(update.get("$setOnInsert", Document.class).get("time")).isEqualTo(utc("2022-01-01T12:00:00.000"));
+    }
+
+    @Test
+    void event_without_user_is_ignored() {
+        ActivityRollupService activityRollupService = new ActivityRollupService(mongoTemplate);
+
+        activityRollupService.consultation(1L, null, new Date());
+
+        verify(mongoTemplate, never()).bulkOps(eq(BulkOperations.BulkMode.UNORDERED), eq(ActivityRollupService.COLLECTION));
+    }
+}
@@ -0,0 +1,125 @@
+package be.cytomine.service.social;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.domain.social.PersistentImageConsultation;
+import be.cytomine.domain.social.PersistentUserPosition;
+import be.cytomine.repository.ontology.UserAnnotationRepository;
+import be.cytomine.repositorynosql.social.PersistentImageConsultationRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class ImageConsultationCloserTests {
+
+    @Mock
+    private PersistentImageConsultationRepository persistentImageConsultationRepository;
+
+    @Mock
+    private UserAnnotationRepository userAnnotationRepository;
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private UserPositionBuffer userPositionBuffer;
+
+    @Mock
+    private ActivityRollupService activityRollupService;
+
+    private ImageConsultationCloser imageConsultationCloser;
+
+    @BeforeEach
+    public void setUp() {
+        imageConsultationCloser = new ImageConsultationCloser(persistentImageConsultationRepository,
+                userAnnotationRepository, mongoTemplate, userPositionBuffer, activityRollupService, 1000, 200);
+    }
+
+    private static PersistentImageConsultation given_a_consultation(long id, Date created) {
+        PersistentImageConsultation consultation = new PersistentImageConsultation();
+        consultation.setId(id);
+        consultation.setCreated(created);
+        consultation.setProject(1L);
+        consultation.setUser(2L);
+        consultation.setImage(3L);
+        return consultation;
+    }
+
+    private static PersistentUserPosition position(long created) {
+        PersistentUserPosition position = new PersistentUserPosition();
+        position.setCreated(new Date(created));
+        return position;
+    }
+
+    @Test
+    void time_is_the_sum_of_the_gaps_between_active_positions() {
+        PersistentImageConsultation consultation = given_a_consultation(10L, new Date(0));
+        // 5s, 5s, then 60s of inactivity, then 10s
+        when(mongoTemplate.stream(any(Query.class), eq(PersistentUserPosition.class)))
+                .thenReturn(Stream.of(position(5000), position(10000), position(70000), position(80000)));
+        when(userAnnotationRepository.countByImageIdAndUserIdAndCreatedGreaterThanAndCreatedLessThan(
+                3L, 2L, new Date(0), new Date(90000))).thenReturn(4L);
+
+        imageConsultationCloser.fill(consultation, new Date(90000));
+
+        assertThat(consultation.getTime()).isEqualTo(20000L);
+        assertThat(consultation.getCountCreatedAnnotations()).isEqualTo(4);
+    }
+
+    @Test
+    void queued_consultations_are_closed_in_one_batch() {
+        PersistentImageConsultation first = given_a_consultation(10L, new Date(0));
+        PersistentImageConsultation second = given_a_consultation(11L, new Date(0));
+        when(persistentImageConsultationRepository.findAllById(anyList())).thenReturn(List.of(first, second));
+        when(mongoTemplate.stream(any(Query.class), eq(PersistentUserPosition.class)))
+                .thenAnswer(invocation -> Stream.empty());
+        when(userAnnotationRepository.countByImageIdAndUserIdAndCreatedGreaterThanAndCreatedLessThan(any(), any(), any(), any()))
+                .thenReturn(0L);
+
+        imageConsultationCloser.close(first, new Date(2000));
+        imageConsultationCloser.close(first, new Date(1000));
+        imageConsultationCloser.close(second, new Date(3000));
+        assertThat(imageConsultationCloser.getPending()).isEqualTo(2);
+        verify(persistentImageConsultationRepository, never()).saveAll(anyList());
+
+        assertThat(imageConsultationCloser.flush()).isEqualTo(2);
+
+        verify(persistentImageConsultationRepository, times(1)).findAllById(anyList());
+        verify(persistentImageConsultationRepository, times(1)).saveAll(List.of(first, second));
+        // the earliest end of the consultation is kept
+        verify(userAnnotationRepository).countByImageIdAndUserIdAndCreatedGreaterThanAndCreatedLessThan(3L, 2L, new Date(0), new Date(1000));
+        verify(userPositionBuffer, times(1)).flush();
+        assertThat(first.getTime()).isEqualTo(0L);
+        assertThat(imageConsultationCloser.getPending()).isEqualTo(0);
+        assertThat(imageConsultationCloser.getClosed()).isEqualTo(2L);
+    }
+}
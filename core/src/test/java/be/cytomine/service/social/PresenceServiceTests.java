@@ -0,0 +1,93 @@
+package be.cytomine.service.social;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.domain.social.LastConnection;
+import be.cytomine.service.database.SequenceService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.Date;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class PresenceServiceTests {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private SequenceService sequenceService;
+
+    private static Date secondsAgo(int seconds) {
+        return new Date(System.currentTimeMillis() - seconds * 1000L);
+    }
+
+    @Test
+    void online_users_and_active_projects_are_computed_from_memory() {
+        PresenceService presenceService = new PresenceService(mongoTemplate, sequenceService, 300, 120, false, 10);
+
+        presenceService.seen(1L, 10L, null, secondsAgo(200));
+        presenceService.seen(1L, 10L, 100L, secondsAgo(5));
+        presenceService.seen(2L, 10L, 100L, secondsAgo(60));
+        presenceService.seen(3L, 20L, null, secondsAgo(150));
+        presenceService.seen(4L, 30L, null, secondsAgo(400));
+        presenceService.seen(5L, null, null, secondsAgo(1));
+
+        assertThat(presenceService.getOnlineUserIds()).containsExactlyInAnyOrder(1L, 2L, 3L, 5L);
+        assertThat(presenceService.getOnlineUserIds(10L)).containsExactlyInAnyOrder(1L, 2L);
+        assertThat(presenceService.isOnline(3L, 20L)).isTrue();
+        assertThat(presenceService.isOnline(4L, 30L)).isFalse();
+        // project 20 has only been seen before the active project window
+        assertThat(presenceService.getActiveProjectsWithNumberOfUsers()).isEqualTo(Map.of(10L, 2));
+        verifyNoInteractions(mongoTemplate);
+    }
+
+    @Test
+    void latest_date_is_kept() {
+        PresenceService presenceService = new PresenceService(mongoTemplate, sequenceService, 300, 120, false, 10);
+
+        presenceService.seen(1L, 10L, null, secondsAgo(400));
+        presenceService.seen(2L, 10L, null, secondsAgo(10));
+        presenceService.seen(2L, 10L, null, secondsAgo(500));
+
+        assertThat(presenceService.getOnlineUserIds()).containsExactly(2L);
+    }
+
+    @Test
+    void shared_presence_is_written_at_most_once_per_interval() {
+        PresenceService presenceService = new PresenceService(mongoTemplate, sequenceService, 300, 120, true, 10);
+        when(sequenceService.generateID()).thenReturn(42L);
+
+        presenceService.seen(1L, 10L, 100L, secondsAgo(30));
+        presenceService.seen(1L, 10L, 101L, secondsAgo(25));
+        presenceService.seen(1L, 11L, 100L, secondsAgo(15));
+
+        // once for each project
+        verify(mongoTemplate, times(2)).upsert(any(Query.class), any(Update.class), eq(LastConnection.class));
+    }
+}
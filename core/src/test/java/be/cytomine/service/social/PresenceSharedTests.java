@@ -0,0 +1,135 @@
+package be.cytomine.service.social;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.BasicInstanceBuilder;
+import be.cytomine.CytomineCoreApplication;
+import be.cytomine.domain.project.Project;
+import be.cytomine.domain.security.User;
+import be.cytomine.domain.social.LastConnection;
+import be.cytomine.repositorynosql.social.LastConnectionRepository;
+import be.cytomine.service.database.SequenceService;
+import be.cytomine.service.project.ProjectService;
+import be.cytomine.service.security.UserService;
+import be.cytomine.utils.JsonObject;
+import org.apache.commons.lang3.time.DateUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.test.context.support.WithMockUser;
+
+import jakarta.transaction.Transactional;
+
+import java.util.Date;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Presence shared between replicas through the lastConnection collection, the other tests run in memory
+ */
+@SpringBootTest(classes = CytomineCoreApplication.class, properties = {
+        "application.presence.shared=true",
+        "application.presence.sharedWriteIntervalInSeconds=0"
+})
+@WithMockUser(username = "superadmin")
+@Transactional
+public class PresenceSharedTests {
+
+    @Autowired
+    BasicInstanceBuilder builder;
+
+    @Autowired
+    PresenceService presenceService;
+
+    @Autowired
+    ProjectConnectionService projectConnectionService;
+
+    @Autowired
+    UserService userService;
+
+    @Autowired
+    ProjectService projectService;
+
+    @Autowired
+    LastConnectionRepository lastConnectionRepository;
+
+    @Autowired
+    SequenceService sequenceService;
+
+    @BeforeEach
+    public void init() {
+        lastConnectionRepository.deleteAll();
+        presenceService.clear();
+    }
+
+    // written by another replica
+    LastConnection given_a_last_connection(User user, Project project, Date date) {
+        LastConnection connection = new LastConnection();
+        connection.setId(sequenceService.generateID());
+        connection.setUser(user.getId());
+        connection.setProject(project.getId());
+        connection.setDate(date);
+        connection.setCreated(date);
+        return lastConnectionRepository.insert(connection);
+    }
+
+    @Test
+    void list_online_users_seen_by_another_replica() {
+        User userOnline = builder.given_default_user();
+        User userOnlineButOnDifferentProject = builder.given_a_user();
+        User userOffline = builder.given_a_user();
+
+        Project project = builder.given_a_project();
+        Project anotherProject = builder.given_a_project();
+
+        given_a_last_connection(userOffline, project, DateUtils.addDays(new Date(), -15));
+        given_a_last_connection(userOnline, project, DateUtils.addSeconds(new Date(), -15));
+        given_a_last_connection(userOnlineButOnDifferentProject, anotherProject, DateUtils.addSeconds(new Date(), -10));
+
+        assertThat(userService.getAllOnlineUserIds(project)).containsExactly(userOnline.getId());
+        assertThat(userService.getAllOnlineUsers()).contains(userOnline, userOnlineButOnDifferentProject)
+                .doesNotContain(userOffline);
+    }
+
+    @Test
+    void list_active_projects_seen_by_another_replica() {
+        Project activeProject = builder.given_a_project();
+        Project inactiveProject = builder.given_a_project();
+
+        given_a_last_connection(builder.given_superadmin(), activeProject, DateUtils.addSeconds(new Date(), -5));
+        given_a_last_connection(builder.given_a_user(), activeProject, DateUtils.addSeconds(new Date(), -10));
+        given_a_last_connection(builder.given_superadmin(), inactiveProject, DateUtils.addSeconds(new Date(), -300));
+
+        assertThat(projectService.getActiveProjectsWithNumberOfUsers()).hasSize(1);
+        assertThat(((JsonObject) projectService.getActiveProjectsWithNumberOfUsers().get(0).get("project")).getId())
+                .isEqualTo(activeProject.getId());
+        assertThat(projectService.getActiveProjectsWithNumberOfUsers().get(0).get("users")).isEqualTo(2);
+    }
+
+    @Test
+    void connection_is_shared_with_the_other_replicas() {
+        User user = builder.given_superadmin();
+        Project project = builder.given_a_project();
+
+        projectConnectionService.add(user, project, "xxx", "linux", "chrome", "123", DateUtils.addSeconds(new Date(), -15));
+        projectConnectionService.add(user, project, "xxx", "linux", "chrome", "123", DateUtils.addSeconds(new Date(), -5));
+
+        assertThat(lastConnectionRepository.findByProjectAndUser(project.getId(), user.getId())).hasSize(1);
+        assertThat(userService.getAllOnlineUserIds(project)).containsExactly(user.getId());
+    }
+}
@@ -0,0 +1,186 @@
+package be.cytomine.service.social;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.domain.social.LastUserPosition;
+import be.cytomine.domain.social.PersistentUserPosition;
+import org.apache.commons.lang3.time.DateUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class UserPositionBufferTests {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    private UserPositionBuffer userPositionBuffer;
+
+    @BeforeEach
+    public void setUp() {
+        userPositionBuffer = new UserPositionBuffer(mongoTemplate, 1000, 3);
+    }
+
+    private void given_a_position(long user, long image, long slice, Date created, boolean broadcast) {
+        LastUserPosition last = new LastUserPosition();
+        last.setUser(user);
+        last.setImage(image);
+        last.setSlice(slice);
+        last.setCreated(created);
+        last.setBroadcast(broadcast);
+        PersistentUserPosition persistent = new PersistentUserPosition();
+        persistent.setUser(user);
+        persistent.setImage(image);
+        persistent.setSlice(slice);
+        persistent.setCreated(created);
+        userPositionBuffer.add(last, persistent);
+    }
+
+    @Test
+    void positions_are_inserted_in_bulk() {
+        given_a_position(1, 10, 100, new Date(), false);
+        given_a_position(2, 10, 100, new Date(), false);
+        verifyNoInteractions(mongoTemplate);
+
+        assertThat(userPositionBuffer.flush()).isEqualTo(2);
+        verify(mongoTemplate).insert(argThat((List<LastUserPosition> list) -> list.size() == 2), eq(LastUserPosition.class));
+        verify(mongoTemplate).insert(argThat((List<PersistentUserPosition> list) -> list.size() == 2), eq(PersistentUserPosition.class));
+        assertThat(userPositionBuffer.getPending()).isEqualTo(0);
+    }
+
+    @Test
+    void oldest_positions_are_dropped_when_too_many_are_pending() {
+        Date now = new Date();
+        for (int i = 0; i < 5; i++) {
+            given_a_position(1, 10, 100, DateUtils.addSeconds(now, i - 5), false);
+        }
+        verifyNoInteractions(mongoTemplate);
+        assertThat(userPositionBuffer.getPending()).isEqualTo(3);
+        assertThat(userPositionBuffer.getDropped()).isEqualTo(2L);
+
+        assertThat(userPositionBuffer.flush()).isEqualTo(3);
+        verify(mongoTemplate).insert(argThat((List<PersistentUserPosition> list) -> list.size() == 3
+                && list.get(0).getCreated().equals(DateUtils.addSeconds(now, -3))), eq(PersistentUserPosition.class));
+    }
+
+    @Test
+    void only_the_latest_last_position_of_a_user_on_a_slice_is_inserted() {
+        Date now = new Date();
+        given_a_position(1, 10, 100, now, false);
+        given_a_position(1, 10, 100, DateUtils.addSeconds(now, -1), false);
+        given_a_position(1, 10, 101, now, false);
+
+        assertThat(userPositionBuffer.flush()).isEqualTo(3);
+        verify(mongoTemplate).insert(argThat((List<LastUserPosition> list) -> list.size() == 2
+                && list.stream().allMatch(position -> position.getCreated().equals(now))), eq(LastUserPosition.class));
+    }
+
+    @Test
+    void last_position_is_served_from_memory() {
+        Date now = new Date();
+        given_a_position(1, 10, 100, DateUtils.addSeconds(now, -2), true);
+        given_a_position(1, 10, 101, DateUtils.addSeconds(now, -1), false);
+
+        Optional<LastUserPosition> last = userPositionBuffer.lastPosition(10L, null, 1L, false);
+        assertThat(last).isPresent();
+        assertThat(last.get().getSlice()).isEqualTo(101L);
+
+        last = userPositionBuffer.lastPosition(10L, null, 1L, true);
+        assertThat(last).isPresent();
+        assertThat(last.get().getSlice()).isEqualTo(100L);
+
+        assertThat(userPositionBuffer.lastPosition(10L, 100L, 2L, false)).isEmpty();
+    }
+
+    @Test
+    void online_users_are_served_from_memory() {
+        Date now = new Date();
+        given_a_position(1, 10, 100, now, false);
+        given_a_position(2, 10, 101, now, true);
+        given_a_position(3, 10, 100, DateUtils.addSeconds(now, -40), false);
+
+        Date thirtySecondsAgo = DateUtils.addSeconds(now, -30);
+        assertThat(userPositionBuffer.onlineUsers(10L, null, false, thirtySecondsAgo)).containsExactlyInAnyOrder(1L, 2L);
+        assertThat(userPositionBuffer.onlineUsers(10L, 100L, false, thirtySecondsAgo)).containsExactly(1L);
+        assertThat(userPositionBuffer.onlineUsers(10L, null, true, thirtySecondsAgo)).containsExactly(2L);
+    }
+
+    @Test
+    void expired_positions_are_forgotten() {
+        given_a_position(1, 10, 100, DateUtils.addMinutes(new Date(), -2), false);
+        userPositionBuffer.flush();
+
+        assertThat(userPositionBuffer.lastPosition(10L, 100L, 1L, false)).isEmpty();
+    }
+
+    @Test
+    void positions_are_inserted_one_by_one_when_the_bulk_insert_fails() {
+        given_a_position(1, 10, 100, new Date(), false);
+        given_a_position(2, 10, 100, new Date(), false);
+        when(mongoTemplate.insert(anyList(), eq(PersistentUserPosition.class)))
+                .thenThrow(new DuplicateKeyException("duplicate"));
+        // the first position has been inserted by the bulk insert
+        when(mongoTemplate.insert(any(PersistentUserPosition.class)))
+                .thenThrow(new DuplicateKeyException("duplicate"))
+                .thenAnswer(invocation -> invocation.getArgument(0));
+
+        assertThat(userPositionBuffer.flush()).isEqualTo(2);
+        verify(mongoTemplate, times(2)).insert(any(PersistentUserPosition.class));
+        assertThat(userPositionBuffer.getPending()).isEqualTo(0);
+    }
+
+    @Test
+    void positions_are_queued_again_when_mongo_is_not_available() {
+        given_a_position(1, 10, 100, new Date(), false);
+        given_a_position(2, 10, 100, new Date(), false);
+        when(mongoTemplate.insert(anyList(), eq(PersistentUserPosition.class)))
+                .thenThrow(new DataAccessResourceFailureException("down"))
+                .thenAnswer(invocation -> invocation.getArgument(0));
+        when(mongoTemplate.insert(any(PersistentUserPosition.class)))
+                .thenThrow(new DataAccessResourceFailureException("down"));
+
+        assertThat(userPositionBuffer.flush()).isEqualTo(0);
+        assertThat(userPositionBuffer.getPending()).isEqualTo(2);
+
+        // new positions do not flush the queue again
+        given_a_position(3, 10, 100, new Date(), false);
+        given_a_position(4, 10, 100, new Date(), false);
+        verify(mongoTemplate, times(1)).insert(anyList(), eq(PersistentUserPosition.class));
+        assertThat(userPositionBuffer.getPending()).isEqualTo(3);
+        assertThat(userPositionBuffer.getDropped()).isEqualTo(1L);
+
+        assertThat(userPositionBuffer.flush()).isEqualTo(3);
+        assertThat(userPositionBuffer.getPending()).isEqualTo(0);
+        assertThat(userPositionBuffer.getInserted()).isEqualTo(3L);
+    }
+}
@@ -0,0 +1,77 @@
+package be.cytomine.service.social;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class WebSocketFanOutTests {
+
+    private static WebSocketSession given_a_session(String id, List<String> received) throws IOException {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn(id);
+        when(session.isOpen()).thenReturn(true);
+        doAnswer(invocation -> {
+            received.add(((TextMessage) invocation.getArgument(0)).getPayload());
+            return null;
+        }).when(session).sendMessage(any());
+        return session;
+    }
+
+    @Test
+    void frames_are_sent_in_order_to_each_follower() throws IOException {
+        WebSocketFanOut fanOut = new WebSocketFanOut(2, 16);
+        List<String> received1 = new CopyOnWriteArrayList<>();
+        List<String> received2 = new CopyOnWriteArrayList<>();
+        WebSocketSession[] followers = {given_a_session("1", received1), given_a_session("2", received2)};
+
+        for (int i = 0; i < 10; i++) {
+            fanOut.publish(followers, new TextMessage("position" + i));
+        }
+
+        verify(followers[0], timeout(2000).times(10)).sendMessage(any());
+        verify(followers[1], timeout(2000).times(10)).sendMessage(any());
+        assertThat(received1).containsExactlyElementsOf(received2);
+        assertThat(received1.get(9)).isEqualTo("position9");
+        assertThat(fanOut.getStatistics().get("sent")).isEqualTo(20L);
+        fanOut.shutdown();
+    }
+
+    @Test
+    void oldest_frames_of_a_slow_follower_are_dropped() throws Exception {
+        WebSocketFanOut fanOut = new WebSocketFanOut(2, 2);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> slowReceived = new CopyOnWriteArrayList<>();
+        List<String> fastReceived = new CopyOnWriteArrayList<>();
+        WebSocketSession slow = given_a_session("slow", slowReceived);
+        doAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            slowReceived.add(((TextMessage) invocation.getArgument(0)).getPayload());
+            return null;
+        }).when(slow).sendMessage(any());
+        WebSocketSession fast = given_a_session("fast", fastReceived);
+
+        fanOut.publish(new WebSocketSession[]{slow, fast}, new TextMessage("position0"));
+        // the slow follower is blocked on the first frame, but it does not delay the other follower
+        verify(slow, timeout(2000)).sendMessage(any());
+        verify(fast, timeout(2000)).sendMessage(any());
+        for (int i = 1; i < 5; i++) {
+            fanOut.publish(new WebSocketSession[]{slow}, new TextMessage("position" + i));
+        }
+        release.countDown();
+
+        verify(slow, timeout(2000).times(3)).sendMessage(any());
+        assertThat(slowReceived).containsExactly("position0", "position3", "position4");
+        assertThat(fanOut.getStatistics().get("dropped")).isEqualTo(2L);
+        fanOut.shutdown();
+    }
+}
@@ -0,0 +1,148 @@
+package be.cytomine.utils;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ExpiringMapTests {
+
+    private final AtomicLong now = new AtomicLong(0);
+
+    private final ExpirationWheel wheel = new ExpirationWheel(10, 8, 0);
+
+    @Test
+    void entry_expires_after_time_to_live() {
+        ExpiringMap<String, Integer> map = new ExpiringMap<>(100, wheel, now::get);
+        map.put("a", 1);
+        now.set(99);
+        assertThat(map.get("a")).isEqualTo(1);
+        assertThat(map.containsKey("a")).isTrue();
+
+        now.set(100);
+        assertThat(map.get("a")).isNull();
+        assertThat(map.containsKey("a")).isFalse();
+        // not removed yet
+        assertThat(map.size()).isEqualTo(1);
+
+        wheel.advance(100);
+        assertThat(map.size()).isEqualTo(0);
+    }
+
+    @Test
+    void put_again_postpones_the_expiration() {
+        ExpiringMap<String, Integer> map = new ExpiringMap<>(100, wheel, now::get);
+        map.put("a", 1);
+        now.set(50);
+        assertThat(map.put("a", 2)).isEqualTo(1);
+
+        now.set(120);
+        wheel.advance(120);
+        // the first expiration does not remove the new entry
+        assertThat(map.get("a")).isEqualTo(2);
+
+        now.set(150);
+        wheel.advance(150);
+        assertThat(map.size()).isEqualTo(0);
+    }
+
+    @Test
+    void put_if_absent_replaces_only_expired_value() {
+        ExpiringMap<String, Integer> map = new ExpiringMap<>(100, wheel, now::get);
+        assertThat(map.putIfAbsent("a", 1)).isNull();
+        assertThat(map.putIfAbsent("a", 2)).isEqualTo(1);
+        assertThat(map.get("a")).isEqualTo(1);
+
+        now.set(100);
+        assertThat(map.putIfAbsent("a", 3)).isNull();
+        assertThat(map.get("a")).isEqualTo(3);
+    }
+
+    @Test
+    void merge_and_for_each_ignore_expired_values() {
+        ExpiringMap<String, Integer> map = new ExpiringMap<>(100, wheel, now::get);
+        map.merge("a", 1, Integer::sum);
+        map.merge("a", 2, Integer::sum);
+        map.put("b", 10);
+        now.set(50);
+        map.merge("c", 5, Integer::sum);
+        assertThat(map.get("a")).isEqualTo(3);
+
+        now.set(100);
+        assertThat(map.merge("a", 4, Integer::sum)).isEqualTo(4);
+        Map<String, Integer> live = new HashMap<>();
+        map.forEach(live::put);
+        assertThat(live).isEqualTo(Map.of("a", 4, "c", 5));
+    }
+
+    @Test
+    void writes_on_a_key_schedule_a_single_timeout() {
+        ExpiringMap<String, Integer> map = new ExpiringMap<>(100, wheel, now::get);
+        for (int i = 0; i < 50; i++) {
+            now.set(i);
+            map.put("a", i);
+            map.merge("a", 1, Integer::sum);
+            map.putIfAbsent("a", 0);
+        }
+
+        // the timeout of the key fires at 100 and is scheduled again for the extended expiration
+        now.set(100);
+        assertThat(wheel.advance(100)).isEqualTo(1);
+        assertThat(map.size()).isEqualTo(1);
+        now.set(150);
+        assertThat(wheel.advance(150)).isEqualTo(1);
+        assertThat(map.size()).isEqualTo(0);
+    }
+
+    @Test
+    void timeout_of_a_removed_key_does_not_remove_it_again() {
+        ExpiringMap<String, Integer> map = new ExpiringMap<>(100, wheel, now::get);
+        map.put("a", 1);
+        map.remove("a");
+        now.set(60);
+        map.put("a", 2);
+
+        now.set(100);
+        wheel.advance(100);
+        assertThat(map.get("a")).isEqualTo(2);
+
+        now.set(160);
+        wheel.advance(160);
+        assertThat(map.size()).isEqualTo(0);
+        assertThat(wheel.advance(400)).isEqualTo(0);
+    }
+
+    @Test
+    void timeouts_beyond_one_rotation_wait_for_their_tick() {
+        // 8 slots of 10ms: one rotation is 80ms
+        AtomicInteger runs = new AtomicInteger();
+        wheel.schedule(25, runs::incrementAndGet);
+        wheel.schedule(205, runs::incrementAndGet);
+
+        assertThat(wheel.advance(20)).isEqualTo(0);
+        assertThat(wheel.advance(30)).isEqualTo(1);
+        assertThat(wheel.advance(200)).isEqualTo(0);
+        assertThat(wheel.advance(210)).isEqualTo(1);
+        assertThat(runs.get()).isEqualTo(2);
+    }
+}
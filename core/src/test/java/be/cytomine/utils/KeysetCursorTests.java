@@ -0,0 +1,90 @@
+package be.cytomine.utils;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.exceptions.WrongArgumentException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class KeysetCursorTests {
+
+    @Test
+    public void start_token_gives_start_cursor() {
+        assertThat(KeysetCursor.decode("*").isStart()).isTrue();
+        assertThat(KeysetCursor.decode("").isStart()).isTrue();
+        assertThat(KeysetCursor.decode(null).isStart()).isTrue();
+    }
+
+    @Test
+    public void encode_decode_date_cursor() {
+        Timestamp created = Timestamp.from(Instant.parse("2022-03-01T10:15:30.123456Z"));
+        KeysetCursor cursor = KeysetCursor.decode(KeysetCursor.after("created", "desc", created, 42L).encode());
+        assertThat(cursor.isStart()).isFalse();
+        assertThat(cursor.getSort()).isEqualTo("created");
+        assertThat(cursor.getOrder()).isEqualTo("desc");
+        assertThat(cursor.getId()).isEqualTo(42L);
+        assertThat(cursor.getValue()).isEqualTo(created);
+    }
+
+    @Test
+    public void encode_decode_other_cursor_values() {
+        assertThat(KeysetCursor.decode(KeysetCursor.after("width", "asc", 1024, 1L).encode()).getValue()).isEqualTo(1024L);
+        assertThat(KeysetCursor.decode(KeysetCursor.after("magnification", "asc", 2.5d, 1L).encode()).getValue()).isEqualTo(2.5d);
+        assertThat(KeysetCursor.decode(KeysetCursor.after("reviewed", "asc", true, 1L).encode()).getValue()).isEqualTo(true);
+        assertThat(KeysetCursor.decode(KeysetCursor.after("name", "asc", "image é", 1L).encode()).getValue()).isEqualTo("image é");
+        assertThat(KeysetCursor.decode(KeysetCursor.after("name", "asc", null, 1L).encode()).getValue()).isNull();
+    }
+
+    @Test
+    public void decode_invalid_cursor_fails() {
+        Assertions.assertThrows(WrongArgumentException.class, () -> KeysetCursor.decode("not a cursor"));
+        Assertions.assertThrows(WrongArgumentException.class, () -> KeysetCursor.decode("e30"));
+    }
+
+    @Test
+    public void cursor_cannot_be_used_with_another_sort() {
+        KeysetCursor cursor = KeysetCursor.after("created", "desc", null, 1L);
+        cursor.checkSort("created", "DESC");
+        Assertions.assertThrows(WrongArgumentException.class, () -> cursor.checkSort("created", "asc"));
+        Assertions.assertThrows(WrongArgumentException.class, () -> cursor.checkSort("name", "desc"));
+        KeysetCursor.start().checkSort("name", "asc");
+    }
+
+    @Test
+    public void build_sql_constraint_and_order() {
+        Map<String, Object> parameters = new HashMap<>();
+        assertThat(KeysetCursor.start().toSQLConstraint("p.name", "p.id", parameters)).isEmpty();
+        assertThat(parameters).isEmpty();
+
+        assertThat(KeysetCursor.after("name", "desc", "b", 5L).toSQLConstraint("p.name", "p.id", parameters))
+                .isEqualTo(" AND ((p.name, p.id) < (:keysetValue, :keysetId) OR p.name IS NULL) ");
+        assertThat(parameters).containsEntry("keysetValue", "b").containsEntry("keysetId", 5L);
+
+        assertThat(KeysetCursor.after("id", "asc", 5L, 5L).toSQLConstraint("p.id", "p.id", new HashMap<>()))
+                .isEqualTo(" AND p.id > :keysetId ");
+
+        assertThat(KeysetCursor.orderBy("p.name", "p.id", "desc")).isEqualTo(" ORDER BY p.name DESC NULLS LAST, p.id DESC ");
+        assertThat(KeysetCursor.orderBy("p.id", "p.id", "asc")).isEqualTo(" ORDER BY p.id ASC ");
+    }
+}
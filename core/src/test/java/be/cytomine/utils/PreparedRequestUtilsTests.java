@@ -1,6 +1,7 @@
 package be.cytomine.utils;
 
 import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
 
 import java.util.List;
 
@@ -43,6 +44,19 @@ public class PreparedRequestUtilsTests {
         assertThat(pr.getPath()).isEqualTo("/a/b/c/d/dir/path%2C%262%253.jpg");
     }
 
+    @Test
+    public void build_endpoint() {
+        PreparedRequest pr = new PreparedRequest();
+        pr.setMethod(HttpMethod.GET);
+        pr.setUrl("https://domain.com:10900/ims");
+        pr.addPathFragment("image");
+        pr.addPathFragment("/dir/path,&2%3.jpg", true);
+        pr.addPathFragment("normalized-tile");
+        pr.addPathFragment("zoom");
+        pr.addPathFragment("3");
+        assertThat(pr.getEndpoint()).isEqualTo("GET /ims/image/{path}/normalized-tile/zoom/{n}");
+    }
+
     @Test
     public void build_query() {
         PreparedRequest pr = new PreparedRequest();
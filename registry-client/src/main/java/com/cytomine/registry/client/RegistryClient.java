@@ -18,6 +18,7 @@ import com.cytomine.registry.client.http.resp.CatalogResp;
 import com.cytomine.registry.client.image.Context;
 import com.cytomine.registry.client.manager.FileManager;
 import com.cytomine.registry.client.manager.RegistryManager;
+import com.cytomine.registry.client.manager.UploadListener;
 import com.cytomine.registry.client.name.Reference;
 import kotlin.Pair;
 import lombok.extern.slf4j.Slf4j;
@@ -40,15 +41,19 @@ public class RegistryClient {
     }
 
     public static void push(InputStream is, String image) throws IOException {
+        push(is, image, UploadListener.NONE);
+    }
+
+    public static void push(InputStream is, String image, UploadListener listener) throws IOException {
         Reference reference = Reference.prepareReference(image);
-        Context context = FILE_OPERATE.load(is);
+        Context context = FILE_OPERATE.load(is, false);
         if (Configurer.authenticated())
             context.setToken(AUTHENTICATOR.getToken(new Pair<>(Scope.PULL_PUSH, reference)));
-        REGISTRY_OPERATE.push(context, reference);
+        REGISTRY_OPERATE.push(context, reference, listener);
     }
 
     public static void validate(InputStream is) throws IOException {
-        FILE_OPERATE.load(is);
+        FILE_OPERATE.load(is, false);
     }
 
     public static void authenticate(String user, String password) throws IOException {
@@ -105,6 +110,10 @@ public class RegistryClient {
     }
 
     public static void copy(String src, String dst) throws IOException {
+        copy(src, dst, UploadListener.NONE);
+    }
+
+    public static void copy(String src, String dst, UploadListener listener) throws IOException {
         Context context = new Context();
         Reference srcReference = Reference.prepareReference(src);
         Reference dstReference = Reference.prepareReference(dst);
@@ -120,7 +129,7 @@ public class RegistryClient {
             if (Configurer.authenticated())
                 context.setToken(AUTHENTICATOR.getToken(new Pair<>(Scope.PULL_PUSH, srcReference)));
         }
-        REGISTRY_OPERATE.copy(context, dst);
+        REGISTRY_OPERATE.copy(context, dst, listener);
     }
 
     public static CatalogResp catalog(String url, Integer count, String last) throws IOException {
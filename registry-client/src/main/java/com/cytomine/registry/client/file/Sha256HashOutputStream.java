@@ -9,6 +9,7 @@ import java.security.NoSuchAlgorithmException;
 public class Sha256HashOutputStream extends OutputStream {
     OutputStream os;
     MessageDigest sha256Digest;
+    long size;
 
     public Sha256HashOutputStream(OutputStream os) {
         this.os = os;
@@ -22,12 +23,14 @@ public class Sha256HashOutputStream extends OutputStream {
     @Override
     public void write(int b) throws IOException {
         sha256Digest.update((byte) b);
+        size++;
         os.write(b);
     }
 
     @Override
     public void write(byte[] b, int off, int len) throws IOException {
         sha256Digest.update(b, off, len);
+        size += len;
         os.write(b, off, len);
     }
 
@@ -37,6 +40,18 @@ public class Sha256HashOutputStream extends OutputStream {
         os.close();
     }
 
+    @Override
+    public void flush() throws IOException {
+        os.flush();
+    }
+
+    /**
+     * Number of bytes written so far
+     */
+    public long size() {
+        return size;
+    }
+
     public String hash() {
         BigInteger number = new BigInteger(1, sha256Digest.digest());
         StringBuilder hexString = new StringBuilder(number.toString(16));
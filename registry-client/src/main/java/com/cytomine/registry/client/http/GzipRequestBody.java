@@ -0,0 +1,77 @@
+package com.cytomine.registry.client.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.cytomine.registry.client.file.Sha256HashOutputStream;
+import com.cytomine.registry.client.image.Supplier;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Request body that gzips its content while it is sent, without any temporary file.
+ * The length is unknown (chunked transfer encoding); the digest and the size of the compressed
+ * content are available once the body has been written.
+ */
+public class GzipRequestBody extends RequestBody {
+    private final Supplier<InputStream> content;
+    private final MediaType mediaType;
+    private String hash;
+    private long size;
+
+    public GzipRequestBody(Supplier<InputStream> content, MediaType mediaType) {
+        this.content = content;
+        this.mediaType = mediaType;
+    }
+
+    @Nullable
+    @Override
+    public MediaType contentType() {
+        return mediaType;
+    }
+
+    @Override
+    public long contentLength() {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(BufferedSink bufferedSink) throws IOException {
+        // the sink must stay open, the http client closes it
+        OutputStream sinkOs = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                bufferedSink.writeByte(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                bufferedSink.write(b, off, len);
+            }
+        };
+        Sha256HashOutputStream sha256HashOutputStream = new Sha256HashOutputStream(sinkOs);
+        try (InputStream is = content.get()) {
+            GzipCompressorOutputStream gzOS = new GzipCompressorOutputStream(sha256HashOutputStream);
+            org.apache.commons.compress.utils.IOUtils.copy(is, gzOS);
+            gzOS.finish();
+        }
+        bufferedSink.flush();
+        hash = sha256HashOutputStream.hash();
+        size = sha256HashOutputStream.size();
+    }
+
+    /**
+     * sha256 (hex) of the compressed content, null until the body has been written
+     */
+    public String hash() {
+        return hash;
+    }
+
+    public long size() {
+        return size;
+    }
+}
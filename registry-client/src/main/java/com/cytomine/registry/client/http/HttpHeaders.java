@@ -6,4 +6,8 @@ public class HttpHeaders {
     public static final String LOCATION = "Location";
 
     public static final String AUTHORIZATION = "Authorization";
+
+    public static final String CONTENT_RANGE = "Content-Range";
+
+    public static final String RANGE = "Range";
 }
@@ -17,6 +17,7 @@ import com.cytomine.registry.client.exception.RegistryException;
 import com.cytomine.registry.client.http.auth.Authenticator;
 import com.cytomine.registry.client.http.resp.CatalogResp;
 import com.cytomine.registry.client.http.resp.TagsResp;
+import com.cytomine.registry.client.http.resp.UploadStatusResp;
 import com.cytomine.registry.client.image.ImageMediaType;
 import com.cytomine.registry.client.image.registry.ManifestHttp;
 import com.cytomine.registry.client.name.Reference;
@@ -190,6 +191,101 @@ public class RegistryApi {
         }
     }
 
+    /**
+     * Send the whole content of a blob in one PATCH request of an upload session (streamed, the length
+     * may be unknown). The upload must then be completed with completeUpload.
+     *
+     * @return the location of the upload session for the next request
+     */
+    public String uploadBlobStream(String url, RequestBody body, String token) throws IOException {
+        Map<String, String> headers = new HashMap<>();
+        Optional.ofNullable(token).ifPresent(t -> headers.put(HttpHeaders.AUTHORIZATION, t));
+        try (Response response = HttpClient.execute(HttpClient.METHOD_PATCH, url,
+            Headers.of(headers), body)) {
+            if (!response.isSuccessful()) {
+                throw responseException(response);
+            }
+            return HttpClient.getLocation(response, url);
+        }
+    }
+
+    /**
+     * Send one chunk of a blob in a PATCH request of an upload session (OCI chunked upload).
+     * The chunk starts at offset and must follow the content already received by the registry.
+     *
+     * @return the location of the upload session for the next request
+     */
+    public String uploadBlobChunk(String url, InputStream inputStream, long offset, long length,
+                                  String token) throws IOException {
+        Map<String, String> headers = new HashMap<>();
+        Optional.ofNullable(token).ifPresent(t -> headers.put(HttpHeaders.AUTHORIZATION, t));
+        headers.put(HttpHeaders.CONTENT_RANGE, offset + "-" + (offset + length - 1));
+        RequestBody body = new InputStreamRequestBody(inputStream, length, MediaType.parse(
+            "application/octet-stream"));
+        try (Response response = HttpClient.execute(HttpClient.METHOD_PATCH, url,
+            Headers.of(headers), body)) {
+            if (!response.isSuccessful()) {
+                throw responseException(response);
+            }
+            return HttpClient.getLocation(response, url);
+        }
+    }
+
+    /**
+     * Get the state of an upload session, to resume it after a failed request
+     */
+    public UploadStatusResp uploadStatus(String url, String token) throws IOException {
+        Map<String, String> headers = new HashMap<>();
+        Optional.ofNullable(token).ifPresent(t -> headers.put(HttpHeaders.AUTHORIZATION, t));
+        try (Response response = HttpClient.execute(HttpClient.METHOD_GET, url,
+            Headers.of(headers), null)) {
+            if (!response.isSuccessful()) {
+                throw responseException(response);
+            }
+            return new UploadStatusResp(HttpClient.getLocation(response, url),
+                uploadOffset(response.header(HttpHeaders.RANGE)));
+        }
+    }
+
+    /**
+     * Offset at which an upload resumes, from the Range header of its status: "0-N" means that bytes 0 to N
+     * (N + 1 bytes) have been received, no Range header means that nothing has been received yet.
+     */
+    static long uploadOffset(String range) throws RegistryException {
+        if (range == null || range.isBlank()) {
+            return 0;
+        }
+        String value = range.trim();
+        if (value.startsWith("bytes=")) {
+            value = value.substring("bytes=".length());
+        }
+        int separator = value.indexOf('-');
+        try {
+            if (separator <= 0 || Long.parseLong(value.substring(0, separator)) != 0) {
+                throw new RegistryException("unexpected upload range: " + range);
+            }
+            return Long.parseLong(value.substring(separator + 1)) + 1;
+        } catch (NumberFormatException e) {
+            throw new RegistryException("unexpected upload range: " + range, e);
+        }
+    }
+
+    /**
+     * Close an upload session whose content has been sent with PATCH requests
+     */
+    public void completeUpload(String url, String digest, String token) throws IOException {
+        Map<String, String> headers = new HashMap<>();
+        Optional.ofNullable(token).ifPresent(t -> headers.put(HttpHeaders.AUTHORIZATION, t));
+        String appendQuery = new URL(url).getQuery() == null ? "?" : "&";
+        appendQuery += "digest=" + digest;
+        try (Response response = HttpClient.execute(HttpClient.METHOD_PUT, url + appendQuery,
+            Headers.of(headers), RequestBody.create(new byte[0], null))) {
+            if (!response.isSuccessful()) {
+                throw responseException(response);
+            }
+        }
+    }
+
     public void deleteLayer(Reference reference, String digest, String token) throws IOException {
         Map<String, String> headers = new HashMap<>();
         Optional.ofNullable(token).ifPresent(t -> headers.put(HttpHeaders.AUTHORIZATION, t));
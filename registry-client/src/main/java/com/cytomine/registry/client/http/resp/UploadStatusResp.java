@@ -0,0 +1,13 @@
+package com.cytomine.registry.client.http.resp;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class UploadStatusResp {
+    // url of the upload session to use for the next request
+    private String location;
+    // number of bytes already received by the registry
+    private long offset;
+}
@@ -16,4 +16,10 @@ public class Blob {
     private Long size;
     private String digest;
     private Supplier<InputStream> content;
+    // the content is an uncompressed layer (docker save), that must be gzipped when it is pushed
+    private boolean compressionRequired;
+
+    public Blob(String name, Long size, String digest, Supplier<InputStream> content) {
+        this(name, size, digest, content, false);
+    }
 }
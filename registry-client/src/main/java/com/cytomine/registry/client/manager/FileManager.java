@@ -39,12 +39,28 @@ import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
 public class FileManager {
 
     public Context load(InputStream is) throws IOException {
+        return load(is, true);
+    }
+
+    /**
+     * Load an image from a docker-save or OCI tar.
+     * If compressLayers is false, the uncompressed layers of a docker-save tar are not gzipped here: they are
+     * flagged as compressionRequired (with the digest and size of the uncompressed content), so that
+     * RegistryManager.push compresses them while uploading.
+     */
+    public Context load(InputStream is, boolean compressLayers) throws IOException {
         Path dst = Files.createTempDirectory(UUID.randomUUID().toString()); // create a random
         // directory
         List<Blob> extractFiles = FileUtils.extractTar(is, dst); // list of blobs from a tar
         Format format = imageType(extractFiles);
         if (Format.DOCKER.equals(format)) {
-            extractFiles = gzTarItem(extractFiles);
+            if (compressLayers) {
+                extractFiles = gzTarItem(extractFiles);
+            } else {
+                extractFiles.stream()
+                    .filter(blob -> blob.getName().endsWith(FileConstant.EXTENSION_TAR))
+                    .forEach(blob -> blob.setCompressionRequired(true));
+            }
             return readManifest(extractFiles, dst);
         } else if (Format.OCI.equals(format)) {
             return readIndex(extractFiles, dst);
@@ -4,28 +4,66 @@ package com.cytomine.registry.client.manager;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import javax.net.ssl.SSLException;
 
 import com.cytomine.registry.client.config.Configurer;
 import com.cytomine.registry.client.constant.Constants;
 import com.cytomine.registry.client.constant.FileConstant;
 import com.cytomine.registry.client.exception.RegistryException;
+import com.cytomine.registry.client.file.FileUtils;
+import com.cytomine.registry.client.http.GzipRequestBody;
 import com.cytomine.registry.client.http.RegistryApi;
 import com.cytomine.registry.client.http.resp.CatalogResp;
+import com.cytomine.registry.client.http.resp.UploadStatusResp;
 import com.cytomine.registry.client.image.Blob;
 import com.cytomine.registry.client.image.Context;
+import com.cytomine.registry.client.image.Supplier;
 import com.cytomine.registry.client.image.registry.ManifestHttp;
 import com.cytomine.registry.client.name.Reference;
 import lombok.extern.slf4j.Slf4j;
+import net.jodah.expiringmap.ExpiringMap;
+import okhttp3.MediaType;
+import org.apache.commons.compress.utils.IOUtils;
 
 @Slf4j
 public class RegistryManager {
 
+    private static final int PUSH_PARALLELISM = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    // size of the PATCH requests of a chunked upload
+    private static final long CHUNK_SIZE = 16 * 1024 * 1024;
+
+    // consecutive failed requests after which an upload is abandoned
+    private static final int MAX_ATTEMPTS = 3;
+
+    // uncompressed layer digest -> digest and size of the gzipped layer
+    private static final Map<String, Blob> COMPRESSED_LAYERS = ExpiringMap.builder()
+        .maxSize(1000)
+        .expiration(1, TimeUnit.DAYS)
+        .build();
+
     private final RegistryApi api = new RegistryApi();
     private final Configurer configurer = Configurer.instance();
+    private final long chunkSize;
+
+    public RegistryManager() {
+        this(CHUNK_SIZE);
+    }
+
+    RegistryManager(long chunkSize) {
+        this.chunkSize = chunkSize;
+    }
 
     public void load(Context context, Reference reference) throws IOException {
         context.setReference(reference);
@@ -49,25 +87,197 @@ public class RegistryManager {
     }
 
     public void push(Context context, Reference reference) throws IOException {
+        push(context, reference, UploadListener.NONE);
+    }
+
+    public void push(Context context, Reference reference, UploadListener listener) throws IOException {
         List<Blob> blobList = new ArrayList<>(context.getLayers());
         blobList.add(context.getConfig());
+        // a layer may be listed several times in the manifest: each digest is pushed once, by one worker
+        Map<String, List<Blob>> blobsByDigest = new LinkedHashMap<>();
         for (Blob blob : blobList) {
-            if (!api.isBlobExists(reference, blob.getDigest(), context.getToken())) {
-                String uploadUrl = api.startPush(reference, context.getToken());
-                try (InputStream is = blob.getContent().get()) {
-                    api.uploadBlob(uploadUrl, blob.getDigest(), is, blob.getSize(),
-                        context.getToken());
-                }
-                if (!api.isBlobExists(reference, blob.getDigest(), context.getToken())) {
-                    throw new RegistryException("upload blob failed");
+            blobsByDigest.computeIfAbsent(blob.getDigest(), digest -> new ArrayList<>()).add(blob);
+        }
+        List<Callable<Void>> uploads = new ArrayList<>();
+        for (List<Blob> blobs : blobsByDigest.values()) {
+            uploads.add(() -> {
+                Blob pushed = blobs.get(0);
+                pushBlob(context, reference, pushed, listener);
+                for (Blob duplicate : blobs) {
+                    if (duplicate != pushed) {
+                        copyPushed(pushed, duplicate);
+                    }
                 }
-            }
+                return null;
+            });
         }
+        runConcurrently(uploads);
         ManifestHttp manifestHttp = context.manifestHttp();
         api.uploadManifest(reference, manifestHttp, manifestHttp.getMediaType(),
             context.getToken());
     }
 
+    private void pushBlob(Context context, Reference reference, Blob blob, UploadListener listener) throws IOException {
+        if (blob.isCompressionRequired()) {
+            pushUncompressedLayer(context, reference, blob, listener);
+            return;
+        }
+        if (!api.isBlobExists(reference, blob.getDigest(), context.getToken())) {
+            String uploadUrl = api.startPush(reference, context.getToken());
+            uploadChunks(context, uploadUrl, blob, listener);
+            if (!api.isBlobExists(reference, blob.getDigest(), context.getToken())) {
+                throw new RegistryException("upload blob failed");
+            }
+        }
+    }
+
+    /**
+     * Upload a blob with PATCH requests of chunkSize bytes, then close the upload session.
+     * When a request fails, the upload is resumed from the offset reported by the registry.
+     */
+    void uploadChunks(Context context, String uploadUrl, Blob blob, UploadListener listener) throws IOException {
+        long start = System.currentTimeMillis();
+        long size = blob.getSize();
+        String location = uploadUrl;
+        long offset = 0;
+        int failures = 0;
+        while (true) {
+            try (InputStream is = blob.getContent().get()) {
+                if (IOUtils.skip(is, offset) != offset) {
+                    throw new RegistryException("cannot resume upload of " + blob.getDigest() + " at " + offset);
+                }
+                while (offset < size) {
+                    long length = Math.min(chunkSize, size - offset);
+                    location = api.uploadBlobChunk(location, is, offset, length, context.getToken());
+                    offset += length;
+                    failures = 0;
+                    listener.progress(blob, offset, size);
+                }
+                break;
+            } catch (IOException e) {
+                if (++failures >= MAX_ATTEMPTS) {
+                    throw e;
+                }
+                log.warn("upload of blob {} failed at offset {}, resuming: {}", blob.getDigest(), offset,
+                    e.getMessage());
+                UploadStatusResp status = api.uploadStatus(location, context.getToken());
+                location = status.getLocation();
+                offset = status.getOffset();
+            }
+        }
+        api.completeUpload(location, blob.getDigest(), context.getToken());
+        uploaded(blob, size, start, listener);
+    }
+
+    private static void uploaded(Blob blob, long size, long start, UploadListener listener) {
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        log.info("blob {} uploaded: {} bytes in {} ms ({} KB/s)", blob.getDigest(), size, elapsed,
+            size * 1000 / 1024 / elapsed);
+        listener.completed(blob, size, elapsed);
+    }
+
+    /**
+     * Run the uploads on a pool of at most PUSH_PARALLELISM threads and wait for all of them.
+     */
+    private static void runConcurrently(List<Callable<Void>> uploads) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(PUSH_PARALLELISM,
+            uploads.size())));
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (Callable<Void> upload : uploads) {
+                futures.add(executor.submit(upload));
+            }
+            for (Future<Void> future : futures) {
+                waitFor(future);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Gzip a layer while it is uploaded. The digest of the compressed layer is computed on the fly and
+     * remembered for the uncompressed digest (gzip output is deterministic): a layer that has already been
+     * pushed is skipped without being compressed again.
+     */
+    private void pushUncompressedLayer(Context context, Reference reference, Blob blob,
+                                       UploadListener listener) throws IOException {
+        String uncompressedDigest = blob.getDigest();
+        Blob known = COMPRESSED_LAYERS.get(uncompressedDigest);
+        if (known != null && api.isBlobExists(reference, known.getDigest(), context.getToken())) {
+            log.debug("layer {} already pushed as {}", uncompressedDigest, known.getDigest());
+            setCompressed(blob, known.getDigest(), known.getSize());
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        String uploadUrl = api.startPush(reference, context.getToken());
+        GzipRequestBody body = new GzipRequestBody(blob.getContent(),
+            MediaType.parse("application/octet-stream"));
+        String location = api.uploadBlobStream(uploadUrl, body, context.getToken());
+        String digest = Constants.SHA256_PREFIX + body.hash();
+        api.completeUpload(location, digest, context.getToken());
+        if (!api.isBlobExists(reference, digest, context.getToken())) {
+            throw new RegistryException("upload blob failed");
+        }
+        COMPRESSED_LAYERS.put(uncompressedDigest, new Blob(null, body.size(), digest, null));
+        setCompressed(blob, digest, body.size());
+        listener.progress(blob, body.size(), body.size());
+        uploaded(blob, body.size(), start, listener);
+    }
+
+    /**
+     * Replace the uncompressed content of the blob by its gzipped content. Does nothing if the blob is
+     * already compressed, so that its content is never wrapped twice.
+     */
+    private static void setCompressed(Blob blob, String digest, long size) {
+        synchronized (blob) {
+            if (!blob.isCompressionRequired()) {
+                return;
+            }
+            Supplier<InputStream> uncompressedContent = blob.getContent();
+            blob.setName(digest.replace(Constants.SHA256_PREFIX, "") + FileConstant.EXTENSION_TAR_GZ);
+            blob.setDigest(digest);
+            blob.setSize(size);
+            blob.setContent(() -> {
+                try (InputStream is = uncompressedContent.get()) {
+                    return FileUtils.gzCompress(is).getContent().get();
+                }
+            });
+            blob.setCompressionRequired(false);
+        }
+    }
+
+    /**
+     * Give a blob with the same digest as a pushed blob the name, digest, size and content it has been pushed with
+     */
+    private static void copyPushed(Blob pushed, Blob duplicate) {
+        synchronized (duplicate) {
+            duplicate.setName(pushed.getName());
+            duplicate.setDigest(pushed.getDigest());
+            duplicate.setSize(pushed.getSize());
+            duplicate.setContent(pushed.getContent());
+            duplicate.setCompressionRequired(pushed.isCompressionRequired());
+        }
+    }
+
+    private static void waitFor(Future<Void> upload) throws IOException {
+        try {
+            upload.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("push interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
     public Optional<String> digest(Context context, Reference reference) throws IOException {
         return api.digest(reference, context.getToken());
     }
@@ -81,33 +291,43 @@ public class RegistryManager {
     }
 
     public void copy(Context context, String dst) throws IOException {
+        copy(context, dst, UploadListener.NONE);
+    }
+
+    public void copy(Context context, String dst, UploadListener listener) throws IOException {
         Reference dstReference = Reference.parse(dst);
         if (!Objects.equals(context.getReference().getEndpoint(), dstReference.getEndpoint())) {
-            push(context, dstReference);
+            push(context, dstReference, listener);
             return;
         }
         List<Blob> blobList = new ArrayList<>(context.getLayers());
         blobList.add(context.getConfig());
+        List<Callable<Void>> uploads = new ArrayList<>();
         for (Blob blob : blobList) {
-            if (!api.isBlobExists(dstReference, blob.getDigest(), context.getToken())) {
-                Optional<String> uploadUrl = api.mountBlob(dstReference, blob.getDigest(),
-                    context.getReference().getName(), context.getToken());
-                if (uploadUrl.isPresent()) {
-                    try (InputStream is = blob.getContent().get()) {
-                        api.uploadBlob(uploadUrl.get(), blob.getDigest(), is, blob.getSize(),
-                            context.getToken());
-                    }
-                }
-                if (!api.isBlobExists(dstReference, blob.getDigest(), context.getToken())) {
-                    throw new RegistryException("upload blob failed");
-                }
-            }
+            uploads.add(() -> {
+                copyBlob(context, dstReference, blob, listener);
+                return null;
+            });
         }
+        runConcurrently(uploads);
         ManifestHttp manifestHttp = context.manifestHttp();
         api.uploadManifest(dstReference, manifestHttp, manifestHttp.getMediaType(),
             context.getToken());
     }
 
+    private void copyBlob(Context context, Reference dstReference, Blob blob, UploadListener listener) throws IOException {
+        if (!api.isBlobExists(dstReference, blob.getDigest(), context.getToken())) {
+            Optional<String> uploadUrl = api.mountBlob(dstReference, blob.getDigest(),
+                context.getReference().getName(), context.getToken());
+            if (uploadUrl.isPresent()) {
+                uploadChunks(context, uploadUrl.get(), blob, listener);
+            }
+            if (!api.isBlobExists(dstReference, blob.getDigest(), context.getToken())) {
+                throw new RegistryException("upload blob failed");
+            }
+        }
+    }
+
     public CatalogResp catalog(Context context, Integer count, String last) throws IOException {
         return api.catalog(context.getReference(), count, last, context.getToken());
     }
@@ -0,0 +1,25 @@
+package com.cytomine.registry.client.manager;
+
+import com.cytomine.registry.client.image.Blob;
+
+/**
+ * Follow the upload of the blobs of an image. Blobs are uploaded concurrently: the listener is called from
+ * several threads.
+ */
+@FunctionalInterface
+public interface UploadListener {
+
+    UploadListener NONE = (blob, uploaded, total) -> {
+    };
+
+    /**
+     * Called each time a chunk of the blob has been received by the registry
+     */
+    void progress(Blob blob, long uploaded, long total);
+
+    /**
+     * Called once the blob has been uploaded, with its size and the upload duration
+     */
+    default void completed(Blob blob, long size, long elapsedMillis) {
+    }
+}
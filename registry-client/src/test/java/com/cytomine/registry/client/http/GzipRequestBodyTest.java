@@ -0,0 +1,63 @@
+package com.cytomine.registry.client.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+
+import com.cytomine.registry.client.constant.Constants;
+import com.cytomine.registry.client.file.FileUtils;
+import com.cytomine.registry.client.image.Blob;
+import okhttp3.MediaType;
+import okio.Buffer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class GzipRequestBodyTest {
+
+    private static byte[] content() {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 100_000; i++) {
+            content.append("layer content ").append(i).append('\n');
+        }
+        return content.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void digest_and_size_match_the_gzipped_file() throws Exception {
+        byte[] content = content();
+        GzipRequestBody body = new GzipRequestBody(() -> new ByteArrayInputStream(content),
+            MediaType.parse("application/octet-stream"));
+        Assertions.assertNull(body.hash());
+        Assertions.assertEquals(-1, body.contentLength());
+
+        Buffer sent = new Buffer();
+        body.writeTo(sent);
+        byte[] sentBytes = sent.readByteArray();
+
+        Blob compressed = FileUtils.gzCompress(new ByteArrayInputStream(content));
+        Assertions.assertEquals(compressed.getDigest(), Constants.SHA256_PREFIX + body.hash());
+        Assertions.assertEquals(compressed.getSize(), body.size());
+        Assertions.assertEquals(sentBytes.length, body.size());
+        Assertions.assertEquals(sha256(sentBytes), body.hash());
+    }
+
+    @Test
+    void body_can_be_written_again() throws IOException {
+        byte[] content = content();
+        GzipRequestBody body = new GzipRequestBody(() -> new ByteArrayInputStream(content),
+            MediaType.parse("application/octet-stream"));
+
+        body.writeTo(new Buffer());
+        String hash = body.hash();
+        long size = body.size();
+        body.writeTo(new Buffer());
+        Assertions.assertEquals(hash, body.hash());
+        Assertions.assertEquals(size, body.size());
+    }
+
+    private static String sha256(byte[] bytes) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+    }
+}
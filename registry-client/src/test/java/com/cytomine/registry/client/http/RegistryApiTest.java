@@ -0,0 +1,57 @@
+package com.cytomine.registry.client.http;
+
+import java.io.IOException;
+
+import com.cytomine.registry.client.exception.RegistryException;
+import com.cytomine.registry.client.http.resp.UploadStatusResp;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class RegistryApiTest {
+
+    @Test
+    void no_range_means_nothing_received() throws Exception {
+        Assertions.assertEquals(0, RegistryApi.uploadOffset(null));
+        Assertions.assertEquals(0, RegistryApi.uploadOffset(""));
+    }
+
+    @Test
+    void range_is_inclusive() throws Exception {
+        Assertions.assertEquals(1, RegistryApi.uploadOffset("0-0"));
+        Assertions.assertEquals(1024, RegistryApi.uploadOffset("0-1023"));
+        Assertions.assertEquals(1024, RegistryApi.uploadOffset("bytes=0-1023"));
+    }
+
+    @Test
+    void unexpected_range_is_rejected() {
+        Assertions.assertThrows(RegistryException.class, () -> RegistryApi.uploadOffset("10-20"));
+        Assertions.assertThrows(RegistryException.class, () -> RegistryApi.uploadOffset("0-"));
+        Assertions.assertThrows(RegistryException.class, () -> RegistryApi.uploadOffset("abc"));
+    }
+
+    @Test
+    void upload_status_reads_location_and_range() throws IOException, InterruptedException {
+        try (MockWebServer server = new MockWebServer()) {
+            server.enqueue(new MockResponse().setResponseCode(204)
+                .setHeader(HttpHeaders.LOCATION, "/v2/test/blobs/uploads/id?_state=next")
+                .setHeader(HttpHeaders.RANGE, "0-4"));
+            server.enqueue(new MockResponse().setResponseCode(204)
+                .setHeader(HttpHeaders.LOCATION, "/v2/test/blobs/uploads/id"));
+            server.start();
+            String url = server.url("/v2/test/blobs/uploads/id").toString();
+
+            UploadStatusResp status = new RegistryApi().uploadStatus(url, "Bearer token");
+            Assertions.assertEquals(5, status.getOffset());
+            Assertions.assertEquals(server.url("/v2/test/blobs/uploads/id?_state=next").toString(),
+                status.getLocation());
+            RecordedRequest request = server.takeRequest();
+            Assertions.assertEquals("GET", request.getMethod());
+            Assertions.assertEquals("Bearer token", request.getHeader(HttpHeaders.AUTHORIZATION));
+
+            Assertions.assertEquals(0, new RegistryApi().uploadStatus(url, null).getOffset());
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.cytomine.registry.client.manager;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import com.cytomine.registry.client.http.HttpHeaders;
+import com.cytomine.registry.client.image.Blob;
+import com.cytomine.registry.client.image.Context;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class RegistryManagerUploadTest {
+
+    private static final String UPLOAD = "/v2/test/blobs/uploads/id";
+
+    private static MockResponse accepted() {
+        return new MockResponse().setResponseCode(202).setHeader(HttpHeaders.LOCATION, UPLOAD);
+    }
+
+    @Test
+    void upload_resumes_at_the_offset_received_by_the_registry() throws Exception {
+        byte[] content = "0123456789".getBytes(StandardCharsets.UTF_8);
+        Blob blob = new Blob("blob", (long) content.length, "sha256:digest",
+            () -> new ByteArrayInputStream(content));
+
+        try (MockWebServer server = new MockWebServer()) {
+            server.enqueue(accepted());
+            server.enqueue(new MockResponse().setResponseCode(500));
+            // the registry kept one byte of the failed chunk
+            server.enqueue(new MockResponse().setResponseCode(204).setHeader(HttpHeaders.LOCATION, UPLOAD)
+                .setHeader(HttpHeaders.RANGE, "0-4"));
+            server.enqueue(accepted());
+            server.enqueue(accepted());
+            server.enqueue(new MockResponse().setResponseCode(201));
+            server.start();
+
+            new RegistryManager(4).uploadChunks(new Context(), server.url(UPLOAD).toString(), blob,
+                UploadListener.NONE);
+
+            assertChunk(server.takeRequest(), "0-3", "0123");
+            assertChunk(server.takeRequest(), "4-7", "4567");
+            Assertions.assertEquals("GET", server.takeRequest().getMethod());
+            assertChunk(server.takeRequest(), "5-8", "5678");
+            assertChunk(server.takeRequest(), "9-9", "9");
+            RecordedRequest complete = server.takeRequest();
+            Assertions.assertEquals("PUT", complete.getMethod());
+            Assertions.assertEquals(UPLOAD + "?digest=sha256:digest", complete.getPath());
+        }
+    }
+
+    @Test
+    void upload_restarts_when_the_registry_received_nothing() throws Exception {
+        byte[] content = "0123".getBytes(StandardCharsets.UTF_8);
+        Blob blob = new Blob("blob", (long) content.length, "sha256:digest",
+            () -> new ByteArrayInputStream(content));
+
+        try (MockWebServer server = new MockWebServer()) {
+            server.enqueue(new MockResponse().setResponseCode(500));
+            server.enqueue(new MockResponse().setResponseCode(204).setHeader(HttpHeaders.LOCATION, UPLOAD));
+            server.enqueue(accepted());
+            server.enqueue(new MockResponse().setResponseCode(201));
+            server.start();
+
+            new RegistryManager(4).uploadChunks(new Context(), server.url(UPLOAD).toString(), blob,
+                UploadListener.NONE);
+
+            assertChunk(server.takeRequest(), "0-3", "0123");
+            Assertions.assertEquals("GET", server.takeRequest().getMethod());
+            assertChunk(server.takeRequest(), "0-3", "0123");
+            Assertions.assertEquals("PUT", server.takeRequest().getMethod());
+        }
+    }
+
+    private static void assertChunk(RecordedRequest request, String range, String body) {
+        Assertions.assertEquals("PATCH", request.getMethod());
+        Assertions.assertEquals(range, request.getHeader(HttpHeaders.CONTENT_RANGE));
+        Assertions.assertEquals(body, request.getBody().readUtf8());
+    }
+}